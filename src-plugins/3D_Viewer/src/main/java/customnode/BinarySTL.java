@@ -0,0 +1,259 @@
+package customnode;
+
+import ij.Prefs;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads and writes binary STL files.
+ *
+ * A binary STL file consists of an 80 byte header, the number of
+ * triangles as a little-endian int, and a record of 50 bytes for each
+ * triangle: the normal and the three corners as little-endian floats,
+ * followed by an unused 16-bit attribute.
+ *
+ * Files are read through memory-mapped buffers, which are decoded by
+ * several threads in parallel. For writing, the records are encoded in
+ * parallel into buffers of a few megabytes, which are written to the
+ * file channel in order.
+ */
+public class BinarySTL {
+
+	public static final int HEADER_SIZE = 84;
+	public static final int RECORD_SIZE = 50;
+
+	/** Number of triangles decoded or encoded by a thread at once. */
+	private static final int BLOCK = 1 << 15;
+
+	/** Number of blocks in a mapped buffer when reading (~400MB). */
+	private static final int BLOCKS_PER_MAP = 256;
+
+	/** Number of blocks in a buffer when writing (~13MB). */
+	private static final int BLOCKS_PER_WRITE = 8;
+
+	private BinarySTL() {}
+
+	/**
+	 * Returns the number of triangles stated in the header of the given
+	 * file, if its size matches that of a binary STL file; otherwise,
+	 * returns -1.
+	 */
+	public static int getTriangleCount(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			if(raf.length() < HEADER_SIZE)
+				return -1;
+			raf.seek(80);
+			int n = Integer.reverseBytes(raf.readInt());
+			if(n < 0 || (raf.length() - HEADER_SIZE) / RECORD_SIZE != n)
+				return -1;
+			return n;
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Read the given binary STL file, using as many threads as
+	 * specified in the ImageJ preferences.
+	 * @return the coordinates of the corners of each triangle, nine
+	 * for each triangle.
+	 */
+	public static float[] read(File file) throws IOException {
+		return read(file, Prefs.getThreads());
+	}
+
+	public static float[] read(File file, int nThreads)
+			throws IOException {
+		final int n = getTriangleCount(file);
+		if(n < 0)
+			throw new IOException("Not a binary STL file: " + file);
+		if((long)n * 9 > Integer.MAX_VALUE)
+			throw new IOException("Too many triangles: " + n);
+		final float[] coords = new float[9 * n];
+
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			int nBlocks = (n + BLOCK - 1) / BLOCK;
+			final MappedByteBuffer[] maps = new MappedByteBuffer[
+				(nBlocks + BLOCKS_PER_MAP - 1) / BLOCKS_PER_MAP];
+			long mapSize = (long)BLOCKS_PER_MAP * BLOCK * RECORD_SIZE;
+			for(int m = 0; m < maps.length; m++) {
+				long start = HEADER_SIZE + m * mapSize;
+				maps[m] = channel.map(FileChannel.MapMode.READ_ONLY,
+					start, Math.min(mapSize,
+						raf.length() - start));
+			}
+
+			final AtomicInteger ai = new AtomicInteger(0);
+			Thread[] threads = new Thread[
+				Math.max(1, Math.min(nThreads, nBlocks))];
+			for(int t = 0; t < threads.length; t++) {
+				threads[t] = new Thread() {
+					@Override
+					public void run() {
+						for(int b = ai.getAndIncrement(); b < maps.length * BLOCKS_PER_MAP; b = ai.getAndIncrement()) {
+							int t0 = b * BLOCK;
+							if(t0 >= n)
+								break;
+							decode(maps[b / BLOCKS_PER_MAP],
+								(b % BLOCKS_PER_MAP) * BLOCK,
+								t0, Math.min(n, t0 + BLOCK),
+								coords);
+						}
+					}
+				};
+				threads[t].start();
+			}
+			join(threads);
+		} finally {
+			raf.close();
+		}
+		return coords;
+	}
+
+	private static void decode(ByteBuffer map, int first, int t0, int t1,
+			float[] coords) {
+		// duplicates have an independent position and byte order
+		ByteBuffer buffer = map.duplicate();
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		int offset = first * RECORD_SIZE;
+		for(int t = t0; t < t1; t++) {
+			// skip the normal
+			int o = offset + 12;
+			int c = 9 * t;
+			for(int k = 0; k < 9; k++, o += 4)
+				coords[c + k] = buffer.getFloat(o);
+			offset += RECORD_SIZE;
+		}
+	}
+
+	/**
+	 * Write a binary STL file, using as many threads as specified in
+	 * the ImageJ preferences.
+	 * @param coords the coordinates of the corners of each triangle,
+	 * nine for each triangle.
+	 * @param header a comment to write into the header; it is cut off
+	 * after 80 characters.
+	 */
+	public static void write(File file, float[] coords, String header)
+			throws IOException {
+		write(file, coords, header, Prefs.getThreads());
+	}
+
+	public static void write(File file, final float[] coords,
+			String header, int nThreads) throws IOException {
+		final int n = coords.length / 9;
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		for(int i = 0; i < 80; i++)
+			buffer.put(i < header.length() ?
+				(byte)header.charAt(i) : (byte)' ');
+		buffer.putInt(n);
+		buffer.flip();
+
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(0);
+			FileChannel channel = raf.getChannel();
+			writeFully(channel, buffer);
+
+			int perWrite = BLOCKS_PER_WRITE * BLOCK;
+			buffer = ByteBuffer.allocate(
+				Math.min(n, perWrite) * RECORD_SIZE);
+			for(int t0 = 0; t0 < n; t0 += perWrite) {
+				int t1 = Math.min(n, t0 + perWrite);
+				buffer.clear();
+				encodeParallel(coords, t0, t1, buffer, nThreads);
+				buffer.limit((t1 - t0) * RECORD_SIZE);
+				writeFully(channel, buffer);
+			}
+		} finally {
+			raf.close();
+		}
+	}
+
+	private static void encodeParallel(final float[] coords,
+			final int t0, final int t1, final ByteBuffer buffer,
+			int nThreads) throws IOException {
+		final int nBlocks = (t1 - t0 + BLOCK - 1) / BLOCK;
+		final AtomicInteger ai = new AtomicInteger(0);
+		Thread[] threads = new Thread[
+			Math.max(1, Math.min(nThreads, nBlocks))];
+		for(int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					for(int b = ai.getAndIncrement(); b < nBlocks; b = ai.getAndIncrement()) {
+						int first = t0 + b * BLOCK;
+						encode(coords, first,
+							Math.min(t1, first + BLOCK),
+							buffer, (first - t0) * RECORD_SIZE);
+					}
+				}
+			};
+			threads[t].start();
+		}
+		join(threads);
+	}
+
+	private static void encode(float[] coords, int t0, int t1,
+			ByteBuffer buffer, int offset) {
+		buffer = buffer.duplicate();
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		for(int t = t0; t < t1; t++) {
+			int c = 9 * t;
+			float ax = coords[c + 3] - coords[c];
+			float ay = coords[c + 4] - coords[c + 1];
+			float az = coords[c + 5] - coords[c + 2];
+			float bx = coords[c + 6] - coords[c];
+			float by = coords[c + 7] - coords[c + 1];
+			float bz = coords[c + 8] - coords[c + 2];
+			float nx = ay * bz - az * by;
+			float ny = az * bx - ax * bz;
+			float nz = ax * by - ay * bx;
+			float l = (float)Math.sqrt(nx * nx + ny * ny + nz * nz);
+			if(l > 0) {
+				nx /= l;
+				ny /= l;
+				nz /= l;
+			}
+			buffer.putFloat(offset, nx);
+			buffer.putFloat(offset + 4, ny);
+			buffer.putFloat(offset + 8, nz);
+			int o = offset + 12;
+			for(int k = 0; k < 9; k++, o += 4)
+				buffer.putFloat(o, coords[c + k]);
+			buffer.putShort(o, (short)0);
+			offset += RECORD_SIZE;
+		}
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer)
+			throws IOException {
+		while(buffer.hasRemaining())
+			channel.write(buffer);
+	}
+
+	private static void join(Thread[] threads) throws IOException {
+		for(int t = 0; t < threads.length; t++) {
+			try {
+				threads[t].join();
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			}
+		}
+	}
+}
@@ -0,0 +1,136 @@
+package customnode;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.vecmath.Point3f;
+
+/**
+ * A triangle mesh, stored as flat arrays of vertex coordinates and
+ * vertex indices.
+ *
+ * This is the representation used by the mesh readers and writers for
+ * large meshes: it needs a fraction of the memory of a list of
+ * <code>Point3f</code>s, and equal vertices are stored only once.
+ */
+public class IndexedMesh {
+
+	/** The coordinates, x, y and z of each vertex. */
+	public final float[] vertices;
+
+	/** The vertex indices, three for each triangle. */
+	public final int[] faces;
+
+	public IndexedMesh(float[] vertices, int[] faces) {
+		this.vertices = vertices;
+		this.faces = faces;
+	}
+
+	public int getVertexCount() {
+		return vertices.length / 3;
+	}
+
+	public int getTriangleCount() {
+		return faces.length / 3;
+	}
+
+	/**
+	 * Create an indexed mesh from a list of points, three for each
+	 * triangle (as used by {@link CustomTriangleMesh}). Equal points
+	 * are merged.
+	 */
+	public static IndexedMesh fromTriangles(List<Point3f> triangles) {
+		int n = triangles.size() - triangles.size() % 3;
+		float[] coords = new float[3 * n];
+		for(int i = 0; i < n; i++) {
+			Point3f p = triangles.get(i);
+			coords[3 * i] = p.x;
+			coords[3 * i + 1] = p.y;
+			coords[3 * i + 2] = p.z;
+		}
+		return fromTriangles(coords);
+	}
+
+	/**
+	 * Create an indexed mesh from the coordinates of the corners of
+	 * each triangle, nine for each triangle. Equal points are merged.
+	 */
+	public static IndexedMesh fromTriangles(float[] coords) {
+		int[] faces = new int[coords.length / 3];
+		float[] vertices = weld(coords, faces);
+		return new IndexedMesh(vertices, faces);
+	}
+
+	/**
+	 * Returns the triangles as a list of points, three for each
+	 * triangle, as used by {@link CustomTriangleMesh}. Every corner
+	 * gets its own <code>Point3f</code>, since a CustomMesh expects to
+	 * move a single corner with <code>setCoordinate()</code>.
+	 */
+	public List<Point3f> toTriangles() {
+		List<Point3f> ret = new ArrayList<Point3f>(faces.length);
+		for(int i = 0; i < faces.length; i++) {
+			int v = 3 * faces[i];
+			ret.add(new Point3f(vertices[v],
+				vertices[v + 1], vertices[v + 2]));
+		}
+		return ret;
+	}
+
+	/**
+	 * Returns the coordinates of the corners of each triangle, nine for
+	 * each triangle.
+	 */
+	public float[] toCoordinates() {
+		float[] coords = new float[3 * faces.length];
+		for(int i = 0; i < faces.length; i++)
+			System.arraycopy(vertices, 3 * faces[i], coords, 3 * i, 3);
+		return coords;
+	}
+
+	/**
+	 * Merge equal vertices, keeping the order of their first occurrence.
+	 * @param vertices the coordinates, x, y and z of each vertex.
+	 * @param map receives the new index of each vertex.
+	 * @return the coordinates of the distinct vertices.
+	 */
+	public static float[] weld(float[] vertices, int[] map) {
+		int n = vertices.length / 3;
+		int size = Integer.highestOneBit(Math.max(2 * n, 2) - 1) << 1;
+		int[] table = new int[size];
+		for(int i = 0; i < size; i++)
+			table[i] = -1;
+		float[] welded = new float[vertices.length];
+		int nWelded = 0;
+		for(int v = 0; v < n; v++) {
+			float x = vertices[3 * v];
+			float y = vertices[3 * v + 1];
+			float z = vertices[3 * v + 2];
+			int h = Float.floatToIntBits(x);
+			h = 31 * h + Float.floatToIntBits(y);
+			h = 31 * h + Float.floatToIntBits(z);
+			h ^= (h >>> 16);
+			int slot = h & (size - 1);
+			while(true) {
+				int w = table[slot];
+				if(w < 0) {
+					table[slot] = nWelded;
+					welded[3 * nWelded] = x;
+					welded[3 * nWelded + 1] = y;
+					welded[3 * nWelded + 2] = z;
+					map[v] = nWelded++;
+					break;
+				}
+				if(welded[3 * w] == x && welded[3 * w + 1] == y
+						&& welded[3 * w + 2] == z) {
+					map[v] = w;
+					break;
+				}
+				slot = (slot + 1) & (size - 1);
+			}
+		}
+		float[] ret = new float[3 * nWelded];
+		System.arraycopy(welded, 0, ret, 0, ret.length);
+		return ret;
+	}
+}
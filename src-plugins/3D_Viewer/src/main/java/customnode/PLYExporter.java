@@ -0,0 +1,135 @@
+package customnode;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.vecmath.Color3f;
+import javax.vecmath.Point3f;
+
+/**
+ * Writes triangle meshes as binary (little-endian) PLY files.
+ *
+ * Equal vertices are merged, so that each vertex is stored once, and
+ * each vertex carries the color of its mesh. All meshes are written
+ * into one PLY object.
+ */
+public class PLYExporter {
+
+	/** Size of the buffer used to write the binary data. */
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	private PLYExporter() {}
+
+	/**
+	 * Write the triangle meshes of the given map; other meshes are
+	 * skipped.
+	 * @return the names of the meshes which were skipped.
+	 */
+	public static List<String> save(Map<String, CustomMesh> meshes,
+			File file) throws IOException {
+		List<String> skipped = new ArrayList<String>();
+		List<IndexedMesh> parts = new ArrayList<IndexedMesh>();
+		List<Color3f> colors = new ArrayList<Color3f>();
+		for(String name : meshes.keySet()) {
+			CustomMesh cmesh = meshes.get(name);
+			if(!(cmesh instanceof CustomTriangleMesh)) {
+				skipped.add(name);
+				continue;
+			}
+			@SuppressWarnings("unchecked")
+			List<Point3f> triangles = cmesh.getMesh();
+			parts.add(IndexedMesh.fromTriangles(triangles));
+			Color3f color = cmesh.getColor();
+			colors.add(color != null ? color : CustomMesh.DEFAULT_COLOR);
+		}
+		write(file, parts, colors);
+		return skipped;
+	}
+
+	/**
+	 * Write the given meshes, each vertex colored by the color of
+	 * its mesh.
+	 */
+	public static void write(File file, List<IndexedMesh> meshes,
+			List<Color3f> colors) throws IOException {
+		int nVertices = 0, nFaces = 0;
+		for(IndexedMesh mesh : meshes) {
+			nVertices += mesh.getVertexCount();
+			nFaces += mesh.getTriangleCount();
+		}
+		String header = "ply\n"
+			+ "format binary_little_endian 1.0\n"
+			+ "comment created by ImageJ 3D Viewer\n"
+			+ "element vertex " + nVertices + "\n"
+			+ "property float x\n"
+			+ "property float y\n"
+			+ "property float z\n"
+			+ "property uchar red\n"
+			+ "property uchar green\n"
+			+ "property uchar blue\n"
+			+ "element face " + nFaces + "\n"
+			+ "property list uchar int vertex_indices\n"
+			+ "end_header\n";
+
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(0);
+			FileChannel channel = raf.getChannel();
+			ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			buffer.put(header.getBytes("ISO-8859-1"));
+
+			for(int m = 0; m < meshes.size(); m++) {
+				float[] v = meshes.get(m).vertices;
+				Color3f c = colors.get(m);
+				byte r = toByte(c.x), g = toByte(c.y), b = toByte(c.z);
+				for(int i = 0; i < v.length; i += 3) {
+					if(buffer.remaining() < 15)
+						flush(channel, buffer);
+					buffer.putFloat(v[i]);
+					buffer.putFloat(v[i + 1]);
+					buffer.putFloat(v[i + 2]);
+					buffer.put(r).put(g).put(b);
+				}
+			}
+
+			int offset = 0;
+			for(IndexedMesh mesh : meshes) {
+				int[] f = mesh.faces;
+				for(int i = 0; i < f.length; i += 3) {
+					if(buffer.remaining() < 13)
+						flush(channel, buffer);
+					buffer.put((byte)3);
+					buffer.putInt(f[i] + offset);
+					buffer.putInt(f[i + 1] + offset);
+					buffer.putInt(f[i + 2] + offset);
+				}
+				offset += mesh.getVertexCount();
+			}
+			flush(channel, buffer);
+		} finally {
+			raf.close();
+		}
+	}
+
+	private static byte toByte(float c) {
+		return (byte)Math.round(255 * Math.max(0, Math.min(1, c)));
+	}
+
+	private static void flush(FileChannel channel, ByteBuffer buffer)
+			throws IOException {
+		buffer.flip();
+		while(buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+	}
+}
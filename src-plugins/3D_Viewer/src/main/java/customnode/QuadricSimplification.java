@@ -0,0 +1,921 @@
+package customnode;
+
+import ij.Prefs;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.vecmath.Point3f;
+
+/**
+ * Mesh simplification by quadric error metrics (Garland and Heckbert,
+ * "Surface Simplification Using Quadric Error Metrics", SIGGRAPH 1997).
+ *
+ * In contrast to {@link EdgeContraction}, the mesh is kept in flat
+ * vertex and index arrays, and the collapse candidates are ordered by
+ * an indexed heap of vertex indices, so that large isosurfaces can be
+ * simplified with little memory overhead.
+ *
+ * Each vertex holds its cheapest collapse into one of its neighbors.
+ * A collapse is rejected if it would flip a triangle or make the mesh
+ * non-manifold. Boundary edges are preserved by additional quadrics.
+ *
+ * With more than one thread, the mesh is first cut into slabs along its
+ * longest axis, which are simplified in parallel while the vertices on
+ * the slab borders are locked. A final serial pass over the whole mesh
+ * then simplifies the borders and reaches the exact target.
+ */
+public class QuadricSimplification {
+
+	/** Weight of the quadrics which keep boundary edges in place. */
+	private static final double BOUNDARY_WEIGHT = 1000;
+
+	private static final float INFINITE = Float.POSITIVE_INFINITY;
+
+	private int nVertices;
+	private float[] coords;
+	private int[] faces;
+	private int nFaces;
+
+	private double[] quadrics;
+	private boolean[] removed;
+	private boolean[] locked;
+
+	/* The corners (3 * face + k) of each vertex, as linked lists */
+	private int[] firstCorner;
+	private int[] cornerNext;
+
+	/* The cheapest collapse of each vertex */
+	private int[] target;
+	private float[] cost;
+
+	/* Position of each vertex in its heap */
+	private int[] heapPos;
+
+	private int threads = Prefs.getThreads();
+
+	/**
+	 * Create a simplification of a triangle mesh, given as a list of
+	 * points, three for each triangle (as used by
+	 * {@link CustomTriangleMesh}). Equal points are merged.
+	 */
+	public QuadricSimplification(List<Point3f> mesh) {
+		int n = mesh.size() - mesh.size() % 3;
+		float[] v = new float[3 * n];
+		int[] f = new int[n];
+		for(int i = 0; i < n; i++) {
+			Point3f p = mesh.get(i);
+			v[3 * i] = p.x;
+			v[3 * i + 1] = p.y;
+			v[3 * i + 2] = p.z;
+			f[i] = i;
+		}
+		init(v, f, true);
+	}
+
+	/**
+	 * Create a simplification of an indexed triangle mesh.
+	 * @param vertices the vertex coordinates, x, y and z of each vertex.
+	 * @param faces the vertex indices, three for each triangle.
+	 */
+	public QuadricSimplification(float[] vertices, int[] faces) {
+		init(vertices.clone(), faces, false);
+	}
+
+	public void setThreads(int threads) {
+		this.threads = Math.max(1, threads);
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	public int getTriangleCount() {
+		return nFaces;
+	}
+
+	public int getVertexCount() {
+		int n = 0;
+		for(int v = 0; v < nVertices; v++)
+			if(!removed[v])
+				n++;
+		return n;
+	}
+
+	/**
+	 * Simplify the mesh until it has no more than the given number of
+	 * triangles, or until the cheapest collapse would exceed maxError.
+	 * @param targetTriangles the number of triangles wanted.
+	 * @param maxError the maximum quadric error of a collapse, i.e. the
+	 * area weighted sum of squared distances to the original planes;
+	 * use Double.POSITIVE_INFINITY to reach the target in any case.
+	 * @return the number of remaining triangles.
+	 */
+	public int simplify(int targetTriangles, double maxError) {
+		if(nFaces <= targetTriangles)
+			return nFaces;
+		int nPartitions = threads;
+		if(nFaces < 10000 * nPartitions)
+			nPartitions = 1;
+		if(nPartitions > 1)
+			simplifyPartitions(nPartitions, targetTriangles, maxError);
+
+		for(int v = 0; v < nVertices; v++) {
+			locked[v] = false;
+			heapPos[v] = -1;
+		}
+		Heap heap = new Heap(nVertices);
+		Workspace ws = new Workspace();
+		for(int v = 0; v < nVertices; v++)
+			if(!removed[v])
+				update(v, heap, ws, false);
+		int[] count = new int[] {nFaces};
+		simplify(heap, count, targetTriangles, maxError, ws);
+		nFaces = count[0];
+		return nFaces;
+	}
+
+	/**
+	 * Simplify slabs of the mesh in parallel, keeping the vertices
+	 * shared by several slabs in place.
+	 */
+	private void simplifyPartitions(final int nPartitions,
+			int targetTriangles, final double maxError) {
+		// longest axis of the bounding box
+		float[] min = new float[] {INFINITE, INFINITE, INFINITE};
+		float[] max = new float[] {-INFINITE, -INFINITE, -INFINITE};
+		for(int v = 0; v < nVertices; v++) {
+			if(removed[v])
+				continue;
+			for(int k = 0; k < 3; k++) {
+				min[k] = Math.min(min[k], coords[3 * v + k]);
+				max[k] = Math.max(max[k], coords[3 * v + k]);
+			}
+		}
+		int axis = 0;
+		for(int k = 1; k < 3; k++)
+			if(max[k] - min[k] > max[axis] - min[axis])
+				axis = k;
+
+		// slab borders with about the same number of faces per slab
+		int nBins = 1024;
+		float scale = nBins / Math.max(max[axis] - min[axis], 1e-10f);
+		int[] bin = new int[faces.length / 3];
+		int[] histogram = new int[nBins];
+		for(int f = 0; f < bin.length; f++) {
+			if(faces[3 * f] < 0)
+				continue;
+			float c = 0;
+			for(int k = 0; k < 3; k++)
+				c += coords[3 * faces[3 * f + k] + axis];
+			bin[f] = Math.min(nBins - 1,
+				(int)((c / 3 - min[axis]) * scale));
+			histogram[bin[f]]++;
+		}
+		int[] binToPartition = new int[nBins];
+		for(int b = 0, sum = 0; b < nBins; b++) {
+			binToPartition[b] = Math.min(nPartitions - 1,
+				(int)((long)sum * nPartitions / nFaces));
+			sum += histogram[b];
+		}
+
+		// lock the vertices whose faces belong to several slabs
+		final int[] partition = new int[nVertices];
+		for(int v = 0; v < nVertices; v++)
+			partition[v] = -1;
+		final int[] partitionFaces = new int[nPartitions];
+		for(int f = 0; f < bin.length; f++) {
+			if(faces[3 * f] < 0)
+				continue;
+			int p = binToPartition[bin[f]];
+			partitionFaces[p]++;
+			for(int k = 0; k < 3; k++) {
+				int v = faces[3 * f + k];
+				if(partition[v] == -1)
+					partition[v] = p;
+				else if(partition[v] != p)
+					locked[v] = true;
+			}
+		}
+		// faces touching locked vertices can only be simplified
+		// in the serial pass
+		int[] lockedFaces = new int[nPartitions];
+		for(int f = 0; f < bin.length; f++) {
+			if(faces[3 * f] < 0)
+				continue;
+			for(int k = 0; k < 3; k++) {
+				if(locked[faces[3 * f + k]]) {
+					lockedFaces[binToPartition[bin[f]]]++;
+					break;
+				}
+			}
+		}
+		bin = null;
+		double ratio = targetTriangles / (double)nFaces;
+		final int[] partitionTarget = new int[nPartitions];
+		for(int p = 0; p < nPartitions; p++)
+			partitionTarget[p] = (int)Math.round(ratio * partitionFaces[p]
+				+ (1 - ratio) * lockedFaces[p]);
+
+		final Heap[] heaps = new Heap[nPartitions];
+		for(int p = 0; p < nPartitions; p++)
+			heaps[p] = new Heap(nVertices);
+
+		final AtomicInteger ai = new AtomicInteger(0);
+		final Thread[] thread = new Thread[nPartitions];
+		for(int t = 0; t < thread.length; t++) {
+			thread[t] = new Thread() {
+				@Override
+				public void run() {
+					Workspace ws = new Workspace();
+					for(int p = ai.getAndIncrement(); p < nPartitions;
+							p = ai.getAndIncrement()) {
+						for(int v = 0; v < nVertices; v++)
+							if(partition[v] == p && !removed[v])
+								update(v, heaps[p], ws, false);
+						int[] count = new int[] {partitionFaces[p]};
+						simplify(heaps[p], count, partitionTarget[p], maxError, ws);
+						partitionFaces[p] = count[0];
+						heaps[p] = null;
+					}
+				}
+			};
+			thread[t].start();
+		}
+		try {
+			for(int t = 0; t < thread.length; t++)
+				thread[t].join();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		nFaces = 0;
+		for(int p = 0; p < nPartitions; p++)
+			nFaces += partitionFaces[p];
+	}
+
+	/**
+	 * Collapse the cheapest vertices of the heap until the face count
+	 * reaches the target or the error exceeds maxError.
+	 * @param count the current number of faces, updated in place.
+	 */
+	private void simplify(Heap heap, int[] count, int targetTriangles,
+			double maxError, Workspace ws) {
+		while(count[0] > targetTriangles && heap.size() > 0) {
+			int a = heap.top();
+			float c = cost[a];
+			if(c == INFINITE || c > maxError)
+				break;
+			// the neighborhood may have changed since the cost
+			// was computed
+			int b = target[a];
+			if(removed[b] || locked[b]
+					|| (float)optimalPosition(a, b, ws.p) != c
+					|| !isValid(a, b, ws.p, ws)) {
+				update(a, heap, ws, true);
+				continue;
+			}
+			count[0] -= collapse(a, b, heap, ws);
+		}
+	}
+
+	/**
+	 * Collapse vertex a into vertex b.
+	 * @return the number of removed faces.
+	 */
+	private int collapse(int a, int b, Heap heap, Workspace ws) {
+		optimalPosition(a, b, ws.p);
+		for(int k = 0; k < 10; k++)
+			quadrics[10 * b + k] += quadrics[10 * a + k];
+		coords[3 * b] = ws.p[0];
+		coords[3 * b + 1] = ws.p[1];
+		coords[3 * b + 2] = ws.p[2];
+
+		int removedFaces = 0;
+		int last = -1;
+		for(int c = firstCorner[a]; c >= 0; c = cornerNext[c]) {
+			last = c;
+			int f = c - c % 3;
+			if(faces[f] < 0)
+				continue;
+			if(faces[f] == b || faces[f + 1] == b || faces[f + 2] == b) {
+				faces[f] = faces[f + 1] = faces[f + 2] = -1;
+				removedFaces++;
+			} else
+				faces[c] = b;
+		}
+		// move the corners of a to b
+		if(last >= 0) {
+			cornerNext[last] = firstCorner[b];
+			firstCorner[b] = firstCorner[a];
+		}
+		firstCorner[a] = -1;
+		removed[a] = true;
+		heap.remove(a);
+
+		update(b, heap, ws, false);
+		int n = neighbors(b, ws.nb, ws);
+		int[] ring = ws.copyRing(n);
+		for(int i = 0; i < n; i++)
+			if(!locked[ring[i]])
+				update(ring[i], heap, ws, false);
+		return removedFaces;
+	}
+
+	/**
+	 * Find the cheapest collapse of vertex a, and update its position
+	 * in the heap. Validating the collapse is expensive, so this is
+	 * usually left to the time the vertex is popped from the heap.
+	 * @param validate whether to skip invalid collapses.
+	 */
+	private void update(int a, Heap heap, Workspace ws, boolean validate) {
+		float best = INFINITE;
+		int bestTarget = -1;
+		if(!removed[a] && !locked[a]) {
+			int n = neighbors(a, ws.nb, ws);
+			// candidates, ordered by cost while they are validated
+			float[] costs = ws.costs(n);
+			for(int i = 0; i < n; i++)
+				costs[i] = locked[ws.nb[i]] ? INFINITE :
+					(float)optimalPosition(a, ws.nb[i], ws.p);
+			while(true) {
+				int min = -1;
+				for(int i = 0; i < n; i++)
+					if(costs[i] < INFINITE && (min < 0 || costs[i] < costs[min]))
+						min = i;
+				if(min < 0)
+					break;
+				int b = ws.nb[min];
+				optimalPosition(a, b, ws.p);
+				if(!validate || isValid(a, b, ws.p, ws)) {
+					best = costs[min];
+					bestTarget = b;
+					break;
+				}
+				costs[min] = INFINITE;
+				// isValid() overwrites the neighbor list
+				n = neighbors(a, ws.nb, ws);
+			}
+		}
+		target[a] = bestTarget;
+		cost[a] = best;
+		if(bestTarget < 0)
+			heap.remove(a);
+		else
+			heap.update(a);
+	}
+
+	/**
+	 * Collect the distinct neighbors of vertex v in nb (growing ws.nb
+	 * if necessary), and the number of faces shared with each of them
+	 * in ws.shared. Corners of removed faces are unlinked on the way.
+	 * @return the number of neighbors.
+	 */
+	private int neighbors(int v, int[] nb, Workspace ws) {
+		int n = 0;
+		int prev = -1;
+		for(int c = firstCorner[v]; c >= 0; ) {
+			int next = cornerNext[c];
+			int f = c - c % 3;
+			if(faces[f] < 0) {
+				// locked vertices may be shared with other threads
+				if(!locked[v]) {
+					if(prev < 0)
+						firstCorner[v] = next;
+					else
+						cornerNext[prev] = next;
+				} else
+					prev = c;
+				c = next;
+				continue;
+			}
+			for(int k = 0; k < 3; k++) {
+				int w = faces[f + k];
+				if(w == v)
+					continue;
+				int i = 0;
+				while(i < n && nb[i] != w)
+					i++;
+				if(i == n) {
+					if(n == nb.length) {
+						nb = ws.growNeighbors(nb);
+					}
+					nb[n] = w;
+					ws.shared[n] = 0;
+					n++;
+				}
+				ws.shared[i]++;
+			}
+			prev = c;
+			c = next;
+		}
+		return n;
+	}
+
+	/**
+	 * Check whether collapsing a into b at position p keeps the mesh
+	 * manifold and does not flip any triangle.
+	 */
+	private boolean isValid(int a, int b, float[] p, Workspace ws) {
+		// link condition: the common neighbors of a and b must be
+		// exactly the third vertices of the faces shared by a and b
+		int na = neighbors(a, ws.nb, ws);
+		int[] nbA = ws.copyA(na);
+		int[] sharedA = ws.sharedA(na);
+		int nb = neighbors(b, ws.nb, ws);
+		int sharedFaces = 0;
+		boolean aOnBoundary = false, bOnBoundary = false;
+		for(int i = 0; i < na; i++) {
+			if(nbA[i] == b)
+				sharedFaces = sharedA[i];
+			if(sharedA[i] == 1)
+				aOnBoundary = true;
+		}
+		if(sharedFaces < 1 || sharedFaces > 2)
+			return false;
+		int common = 0;
+		for(int j = 0; j < nb; j++) {
+			if(ws.shared[j] == 1)
+				bOnBoundary = true;
+			for(int i = 0; i < na; i++)
+				if(nbA[i] == ws.nb[j]) {
+					common++;
+					break;
+				}
+		}
+		if(common != sharedFaces)
+			return false;
+		// do not join two boundaries through the interior
+		if(sharedFaces == 2 && aOnBoundary && bOnBoundary)
+			return false;
+		return !flips(a, b, p) && !flips(b, a, p);
+	}
+
+	/**
+	 * Whether moving vertex v to p flips one of its faces not
+	 * containing vertex other.
+	 */
+	private boolean flips(int v, int other, float[] p) {
+		for(int c = firstCorner[v]; c >= 0; c = cornerNext[c]) {
+			int f = c - c % 3;
+			if(faces[f] < 0 || faces[f] == other
+					|| faces[f + 1] == other || faces[f + 2] == other)
+				continue;
+			int k = c - f;
+			int v1 = faces[f + (k + 1) % 3];
+			int v2 = faces[f + (k + 2) % 3];
+			double e1x = coords[3 * v1] - coords[3 * v2];
+			double e1y = coords[3 * v1 + 1] - coords[3 * v2 + 1];
+			double e1z = coords[3 * v1 + 2] - coords[3 * v2 + 2];
+			double ox = coords[3 * v] - coords[3 * v2];
+			double oy = coords[3 * v + 1] - coords[3 * v2 + 1];
+			double oz = coords[3 * v + 2] - coords[3 * v2 + 2];
+			double px = p[0] - coords[3 * v2];
+			double py = p[1] - coords[3 * v2 + 1];
+			double pz = p[2] - coords[3 * v2 + 2];
+			// normals before and after
+			double n0x = e1y * oz - e1z * oy;
+			double n0y = e1z * ox - e1x * oz;
+			double n0z = e1x * oy - e1y * ox;
+			double n1x = e1y * pz - e1z * py;
+			double n1y = e1z * px - e1x * pz;
+			double n1z = e1x * py - e1y * px;
+			double dot = n0x * n1x + n0y * n1y + n0z * n1z;
+			double l0 = n0x * n0x + n0y * n0y + n0z * n0z;
+			double l1 = n1x * n1x + n1y * n1y + n1z * n1z;
+			if(dot <= 0 || l1 < 1e-12 * l0)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Compute the position minimizing the combined quadric of a and b.
+	 * If the quadric is singular, the best of the end points and the
+	 * mid point is taken.
+	 * @return the quadric error at that position.
+	 */
+	private double optimalPosition(int a, int b, float[] p) {
+		double[] q = quadrics;
+		int ia = 10 * a, ib = 10 * b;
+		double a11 = q[ia] + q[ib], a12 = q[ia + 1] + q[ib + 1];
+		double a13 = q[ia + 2] + q[ib + 2], a22 = q[ia + 3] + q[ib + 3];
+		double a23 = q[ia + 4] + q[ib + 4], a33 = q[ia + 5] + q[ib + 5];
+		double b1 = q[ia + 6] + q[ib + 6], b2 = q[ia + 7] + q[ib + 7];
+		double b3 = q[ia + 8] + q[ib + 8], c = q[ia + 9] + q[ib + 9];
+
+		double c11 = a22 * a33 - a23 * a23;
+		double c12 = a13 * a23 - a12 * a33;
+		double c13 = a12 * a23 - a13 * a22;
+		double det = a11 * c11 + a12 * c12 + a13 * c13;
+		double trace = a11 + a22 + a33;
+		if(Math.abs(det) > 1e-6 * trace * trace * trace) {
+			double c22 = a11 * a33 - a13 * a13;
+			double c23 = a12 * a13 - a11 * a23;
+			double c33 = a11 * a22 - a12 * a12;
+			double x = -(c11 * b1 + c12 * b2 + c13 * b3) / det;
+			double y = -(c12 * b1 + c22 * b2 + c23 * b3) / det;
+			double z = -(c13 * b1 + c23 * b2 + c33 * b3) / det;
+			p[0] = (float)x;
+			p[1] = (float)y;
+			p[2] = (float)z;
+			return Math.max(0, error(a11, a12, a13, a22, a23, a33,
+				b1, b2, b3, c, x, y, z));
+		}
+		double best = INFINITE;
+		for(int i = 0; i < 3; i++) {
+			double x, y, z;
+			if(i < 2) {
+				int v = i == 0 ? a : b;
+				x = coords[3 * v];
+				y = coords[3 * v + 1];
+				z = coords[3 * v + 2];
+			} else {
+				x = (coords[3 * a] + coords[3 * b]) / 2.0;
+				y = (coords[3 * a + 1] + coords[3 * b + 1]) / 2.0;
+				z = (coords[3 * a + 2] + coords[3 * b + 2]) / 2.0;
+			}
+			double e = error(a11, a12, a13, a22, a23, a33,
+				b1, b2, b3, c, x, y, z);
+			if(e < best) {
+				best = e;
+				p[0] = (float)x;
+				p[1] = (float)y;
+				p[2] = (float)z;
+			}
+		}
+		return Math.max(0, best);
+	}
+
+	private static double error(double a11, double a12, double a13,
+			double a22, double a23, double a33,
+			double b1, double b2, double b3, double c,
+			double x, double y, double z) {
+		return x * (a11 * x + 2 * (a12 * y + a13 * z + b1))
+			+ y * (a22 * y + 2 * (a23 * z + b2))
+			+ z * (a33 * z + 2 * b3) + c;
+	}
+
+	/**
+	 * Add the quadric of the plane n.x + d = 0, weighted by w,
+	 * to vertex v.
+	 */
+	private void addPlane(int v, double nx, double ny, double nz,
+			double d, double w) {
+		int i = 10 * v;
+		quadrics[i] += w * nx * nx;
+		quadrics[i + 1] += w * nx * ny;
+		quadrics[i + 2] += w * nx * nz;
+		quadrics[i + 3] += w * ny * ny;
+		quadrics[i + 4] += w * ny * nz;
+		quadrics[i + 5] += w * nz * nz;
+		quadrics[i + 6] += w * nx * d;
+		quadrics[i + 7] += w * ny * d;
+		quadrics[i + 8] += w * nz * d;
+		quadrics[i + 9] += w * d * d;
+	}
+
+	private void init(float[] vertices, int[] indices, boolean weld) {
+		int[] map = null;
+		if(weld) {
+			map = new int[vertices.length / 3];
+			vertices = IndexedMesh.weld(vertices, map);
+		}
+		coords = vertices;
+		nVertices = coords.length / 3;
+
+		faces = new int[indices.length - indices.length % 3];
+		nFaces = 0;
+		for(int f = 0; f < faces.length; f += 3) {
+			int v1 = indices[f], v2 = indices[f + 1], v3 = indices[f + 2];
+			if(map != null) {
+				v1 = map[v1];
+				v2 = map[v2];
+				v3 = map[v3];
+			}
+			// skip degenerate faces
+			if(v1 == v2 || v2 == v3 || v3 == v1)
+				continue;
+			faces[3 * nFaces] = v1;
+			faces[3 * nFaces + 1] = v2;
+			faces[3 * nFaces + 2] = v3;
+			nFaces++;
+		}
+		if(3 * nFaces < faces.length) {
+			int[] tmp = new int[3 * nFaces];
+			System.arraycopy(faces, 0, tmp, 0, tmp.length);
+			faces = tmp;
+		}
+
+		removed = new boolean[nVertices];
+		locked = new boolean[nVertices];
+		target = new int[nVertices];
+		cost = new float[nVertices];
+		heapPos = new int[nVertices];
+		for(int v = 0; v < nVertices; v++)
+			heapPos[v] = -1;
+
+		firstCorner = new int[nVertices];
+		for(int v = 0; v < nVertices; v++)
+			firstCorner[v] = -1;
+		cornerNext = new int[faces.length];
+		for(int c = faces.length - 1; c >= 0; c--) {
+			cornerNext[c] = firstCorner[faces[c]];
+			firstCorner[faces[c]] = c;
+		}
+		// vertices which are not used by any face
+		for(int v = 0; v < nVertices; v++)
+			if(firstCorner[v] < 0)
+				removed[v] = true;
+
+		initQuadrics();
+	}
+
+	private void initQuadrics() {
+		quadrics = new double[10 * nVertices];
+		double[] n = new double[3];
+		for(int f = 0; f < faces.length; f += 3) {
+			double area = normal(faces[f], faces[f + 1], faces[f + 2], n);
+			if(area == 0)
+				continue;
+			double d = -(n[0] * coords[3 * faces[f]]
+				+ n[1] * coords[3 * faces[f] + 1]
+				+ n[2] * coords[3 * faces[f] + 2]);
+			for(int k = 0; k < 3; k++)
+				addPlane(faces[f + k], n[0], n[1], n[2], d, area);
+		}
+
+		// boundary edges are those edges with only one face; add a
+		// plane through the edge, perpendicular to that face
+		Workspace ws = new Workspace();
+		for(int v = 0; v < nVertices; v++) {
+			if(removed[v])
+				continue;
+			int nn = neighbors(v, ws.nb, ws);
+			for(int i = 0; i < nn; i++) {
+				int w = ws.nb[i];
+				if(ws.shared[i] != 1 || w < v)
+					continue;
+				int f = faceOfEdge(v, w);
+				if(f < 0)
+					continue;
+				normal(faces[f], faces[f + 1], faces[f + 2], n);
+				double ex = coords[3 * w] - coords[3 * v];
+				double ey = coords[3 * w + 1] - coords[3 * v + 1];
+				double ez = coords[3 * w + 2] - coords[3 * v + 2];
+				double length2 = ex * ex + ey * ey + ez * ez;
+				double px = ey * n[2] - ez * n[1];
+				double py = ez * n[0] - ex * n[2];
+				double pz = ex * n[1] - ey * n[0];
+				double l = Math.sqrt(px * px + py * py + pz * pz);
+				if(l == 0)
+					continue;
+				px /= l; py /= l; pz /= l;
+				double d = -(px * coords[3 * v] + py * coords[3 * v + 1]
+					+ pz * coords[3 * v + 2]);
+				double weight = BOUNDARY_WEIGHT * length2;
+				addPlane(v, px, py, pz, d, weight);
+				addPlane(w, px, py, pz, d, weight);
+			}
+		}
+	}
+
+	private int faceOfEdge(int v, int w) {
+		for(int c = firstCorner[v]; c >= 0; c = cornerNext[c]) {
+			int f = c - c % 3;
+			if(faces[f] == w || faces[f + 1] == w || faces[f + 2] == w)
+				return f;
+		}
+		return -1;
+	}
+
+	/**
+	 * Compute the unit normal of a triangle.
+	 * @return the area of the triangle.
+	 */
+	private double normal(int v1, int v2, int v3, double[] n) {
+		double ax = coords[3 * v2] - coords[3 * v1];
+		double ay = coords[3 * v2 + 1] - coords[3 * v1 + 1];
+		double az = coords[3 * v2 + 2] - coords[3 * v1 + 2];
+		double bx = coords[3 * v3] - coords[3 * v1];
+		double by = coords[3 * v3 + 1] - coords[3 * v1 + 1];
+		double bz = coords[3 * v3 + 2] - coords[3 * v1 + 2];
+		n[0] = ay * bz - az * by;
+		n[1] = az * bx - ax * bz;
+		n[2] = ax * by - ay * bx;
+		double l = Math.sqrt(n[0] * n[0] + n[1] * n[1] + n[2] * n[2]);
+		if(l == 0)
+			return 0;
+		n[0] /= l;
+		n[1] /= l;
+		n[2] /= l;
+		return l / 2;
+	}
+
+	/**
+	 * Returns the coordinates of the remaining vertices, in the order
+	 * referred to by {@link #getFaces()}.
+	 */
+	public float[] getVertices() {
+		int[] index = compactIndices();
+		int n = 0;
+		for(int v = 0; v < nVertices; v++)
+			if(index[v] >= 0)
+				n++;
+		float[] ret = new float[3 * n];
+		for(int v = 0; v < nVertices; v++) {
+			int i = index[v];
+			if(i >= 0)
+				System.arraycopy(coords, 3 * v, ret, 3 * i, 3);
+		}
+		return ret;
+	}
+
+	/**
+	 * Returns the vertex indices of the remaining triangles.
+	 */
+	public int[] getFaces() {
+		int[] index = compactIndices();
+		int[] ret = new int[3 * nFaces];
+		int j = 0;
+		for(int f = 0; f < faces.length; f += 3) {
+			if(faces[f] < 0)
+				continue;
+			for(int k = 0; k < 3; k++)
+				ret[j++] = index[faces[f + k]];
+		}
+		return ret;
+	}
+
+	/**
+	 * Returns the remaining triangles as a list of points, three for
+	 * each triangle, as used by {@link CustomTriangleMesh}.
+	 */
+	public List<Point3f> getMesh() {
+		List<Point3f> ret = new ArrayList<Point3f>(3 * nFaces);
+		for(int f = 0; f < faces.length; f++) {
+			int v = faces[f];
+			if(v >= 0)
+				ret.add(new Point3f(coords[3 * v],
+					coords[3 * v + 1], coords[3 * v + 2]));
+		}
+		return ret;
+	}
+
+	private int[] compactIndices() {
+		int[] index = new int[nVertices];
+		for(int v = 0; v < nVertices; v++)
+			index[v] = -1;
+		int n = 0;
+		for(int f = 0; f < faces.length; f++) {
+			int v = faces[f];
+			if(v >= 0 && index[v] < 0)
+				index[v] = n++;
+		}
+		return index;
+	}
+
+	/**
+	 * Convenience method to simplify a triangle mesh to the given
+	 * number of triangles.
+	 */
+	public static List<Point3f> simplify(List<Point3f> mesh,
+			int targetTriangles) {
+		QuadricSimplification qs = new QuadricSimplification(mesh);
+		qs.simplify(targetTriangles, Double.POSITIVE_INFINITY);
+		return qs.getMesh();
+	}
+
+	/* Per thread buffers */
+	private static final class Workspace {
+		int[] nb = new int[16];
+		int[] shared = new int[16];
+		private int[] nbA = new int[16];
+		private int[] sharedA = new int[16];
+		private int[] ring = new int[16];
+		private float[] costs = new float[16];
+		final float[] p = new float[3];
+
+		int[] growNeighbors(int[] old) {
+			nb = new int[2 * old.length];
+			System.arraycopy(old, 0, nb, 0, old.length);
+			int[] tmp = new int[nb.length];
+			System.arraycopy(shared, 0, tmp, 0, shared.length);
+			shared = tmp;
+			return nb;
+		}
+
+		int[] copyRing(int n) {
+			if(ring.length < n)
+				ring = new int[nb.length];
+			System.arraycopy(nb, 0, ring, 0, n);
+			return ring;
+		}
+
+		int[] copyA(int n) {
+			if(nbA.length < n)
+				nbA = new int[nb.length];
+			System.arraycopy(nb, 0, nbA, 0, n);
+			return nbA;
+		}
+
+		int[] sharedA(int n) {
+			if(sharedA.length < n)
+				sharedA = new int[shared.length];
+			System.arraycopy(shared, 0, sharedA, 0, n);
+			return sharedA;
+		}
+
+		float[] costs(int n) {
+			if(costs.length < n)
+				costs = new float[nb.length];
+			return costs;
+		}
+	}
+
+	/*
+	 * A binary min heap of vertex indices, ordered by cost[]. The
+	 * position of each vertex is kept in heapPos[], which is shared by
+	 * the heaps of all partitions since a vertex belongs to at most one.
+	 */
+	private final class Heap {
+		private int[] heap;
+		private int size;
+
+		Heap(int capacity) {
+			heap = new int[Math.max(16, Math.min(capacity, 1024))];
+		}
+
+		int size() {
+			return size;
+		}
+
+		int top() {
+			return heap[0];
+		}
+
+		void update(int v) {
+			int i = heapPos[v];
+			if(i < 0) {
+				if(size == heap.length) {
+					int[] tmp = new int[2 * heap.length];
+					System.arraycopy(heap, 0, tmp, 0, size);
+					heap = tmp;
+				}
+				i = size++;
+				heap[i] = v;
+				heapPos[v] = i;
+			}
+			if(!up(i))
+				down(i);
+		}
+
+		void remove(int v) {
+			int i = heapPos[v];
+			if(i < 0)
+				return;
+			heapPos[v] = -1;
+			size--;
+			if(i == size)
+				return;
+			heap[i] = heap[size];
+			heapPos[heap[i]] = i;
+			if(!up(i))
+				down(i);
+		}
+
+		private boolean up(int i) {
+			int v = heap[i];
+			int start = i;
+			while(i > 0) {
+				int parent = (i - 1) >> 1;
+				if(cost[heap[parent]] <= cost[v])
+					break;
+				heap[i] = heap[parent];
+				heapPos[heap[i]] = i;
+				i = parent;
+			}
+			heap[i] = v;
+			heapPos[v] = i;
+			return i != start;
+		}
+
+		private void down(int i) {
+			int v = heap[i];
+			while(true) {
+				int child = 2 * i + 1;
+				if(child >= size)
+					break;
+				if(child + 1 < size && cost[heap[child + 1]] < cost[heap[child]])
+					child++;
+				if(cost[heap[child]] >= cost[v])
+					break;
+				heap[i] = heap[child];
+				heapPos[heap[i]] = i;
+				i = child;
+			}
+			heap[i] = v;
+			heapPos[v] = i;
+		}
+	}
+}
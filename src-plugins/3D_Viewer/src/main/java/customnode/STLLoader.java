@@ -4,7 +4,6 @@
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
@@ -12,6 +11,7 @@
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import javax.vecmath.Point3f;
@@ -43,11 +43,10 @@ private STLLoader() {
 	BufferedReader in;
 
 	// attributes of the currently read mesh
-	private ArrayList<Point3f> vertices = new ArrayList<Point3f>();
+	private List<Point3f> vertices = new ArrayList<Point3f>();
 	private String name = null;
 	private String stlfile = null;
 	private Point3f normal = new Point3f(0.0f, 0.0f, 0.0f); //to be used for file checking
-	private FileInputStream fis;
 	private int triangles;
 	private DecimalFormat decimalFormat = new DecimalFormat("0.0E0");
 
@@ -59,30 +58,27 @@ private void parse(String stlfile) throws IOException {
 		// determine if this is a binary or ASCII STL
 		// and send to the appropriate parsing method
 
-		// Hypothesis 1: this is an ASCII STL
+		// Hypothesis 1: this is a binary STL, if the
+		// file size matches the number of triangles
+		triangles = BinarySTL.getTriangleCount(f);
+		if (triangles >= 0) {
+			IJ.log("Looks like a binary STL");
+			parseBinary(f);
+			return;
+		}
+
+		// Hypothesis 2: this is an ASCII STL
 		BufferedReader br = new BufferedReader(new FileReader(stlfile));
 		String line = br.readLine();
-		String[] words = line.trim().split("\\s+");
-		if (line.indexOf('\0') < 0 && words[0].equalsIgnoreCase("solid")) {
+		br.close();
+		String[] words = line == null ? new String[] { "" }
+			: line.trim().split("\\s+");
+		if (line != null && line.indexOf('\0') < 0
+				&& words[0].equalsIgnoreCase("solid")) {
 			IJ.log("Looks like an ASCII STL");
 			parseAscii(f);
 			return;
 		}
-
-		// Hypothesis 2: this is a binary STL
-		FileInputStream fs = new FileInputStream(f);
-
-		// bytes 80, 81, 82 and 83 form a little-endian int
-		// that contains the number of triangles
-		byte[] buffer = new byte[84];
-		fs.read(buffer, 0, 84);
-		triangles = (int) (((buffer[83] & 0xff) << 24)
-				| ((buffer[82] & 0xff) << 16) | ((buffer[81] & 0xff) << 8) | (buffer[80] & 0xff));
-		if (((f.length() - 84) / 50) == triangles) {
-			IJ.log("Looks like a binary STL");
-			parseBinary(f);
-			return;
-		}
 		IJ.error("STL Import", "File is not a valid STL");
 	}
 
@@ -119,39 +115,14 @@ private void parseAscii(File f) {
 		meshes.put(name, cm);
 	}
 
-	private void parseBinary(File f) {
+	private void parseBinary(File f) throws IOException {
 		meshes = new HashMap<String, CustomMesh>();
-		vertices = new ArrayList<Point3f>();
-		try {
-			fis = new FileInputStream(f);
-			for (int h = 0; h < 84; h++)
-				fis.read();// skip the header bytes
-			for (int t = 0; t < triangles; t++) {
-				byte[] tri = new byte[50];
-				for (int tb = 0; tb < 50; tb++) {
-					tri[tb] = (byte) fis.read();
-				}
-				normal.x = leBytesToFloat(tri[0], tri[1], tri[2], tri[3]);
-				normal.y = leBytesToFloat(tri[4], tri[5], tri[6], tri[7]);
-				normal.z = leBytesToFloat(tri[8], tri[9], tri[10], tri[11]);
-				for (int i = 0; i < 3; i++) {
-					final int j = i * 12 + 12;
-					float px = leBytesToFloat(tri[j], tri[j + 1], tri[j + 2],
-							tri[j + 3]);
-					float py = leBytesToFloat(tri[j + 4], tri[j + 5],
-							tri[j + 6], tri[j + 7]);
-					float pz = leBytesToFloat(tri[j + 8], tri[j + 9],
-							tri[j + 10], tri[j + 11]);
-					Point3f p = new Point3f(px, py, pz);
-					vertices.add(p);
-				}
-			}
-			fis.close();
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
+		// every corner gets its own Point3f, so that moving one
+		// with CustomMesh.setCoordinate() does not move the others
+		float[] coords = BinarySTL.read(f);
+		vertices = new ArrayList<Point3f>(coords.length / 3);
+		for (int i = 0; i + 2 < coords.length; i += 3)
+			vertices.add(new Point3f(coords[i], coords[i + 1], coords[i + 2]));
 		CustomMesh cm = createCustomMesh();
 		meshes.put(name, cm);
 	}
@@ -164,11 +135,6 @@ private float parseFloat(String string) throws ParseException {
 	  	return decimalFormat.parse(string).floatValue();
 	}
 	
-	private float leBytesToFloat(byte b0, byte b1, byte b2, byte b3) {
-		return Float.intBitsToFloat((((b3 & 0xff) << 24) | ((b2 & 0xff) << 16)
-				| ((b1 & 0xff) << 8) | (b0 & 0xff)));
-	}
-
 	private CustomMesh createCustomMesh() {
 		if (vertices.size() == 0)
 			return null;
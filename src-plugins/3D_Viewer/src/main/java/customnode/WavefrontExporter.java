@@ -20,6 +20,9 @@
 
 public class WavefrontExporter {
 
+	/** Number of characters collected before they are written. */
+	private static final int FLUSH_SIZE = 1 << 16;
+
 	public static void save(
 			Map<String, CustomMesh> meshes,
 			String objFile) throws IOException {
@@ -86,8 +89,6 @@ public static void save(
 		// object. Starting at '1' because vert indices start at one.
 		int j = 1; 
 
-		final StringBuffer tmp = new StringBuffer(100);
-
 		for(String name : meshes.keySet()) {
 			CustomMesh cmesh = meshes.get(name);
 
@@ -109,36 +110,26 @@ public static void save(
 			// make list of vertices
 			String title = name.replaceAll(" ", "_").
 					replaceAll("#", "--");
-			HashMap<Point3f, Integer> ht_points =
-					new HashMap<Point3f, Integer>();
 			objWriter.write("g ");
 			objWriter.write(title);
 			objWriter.write('\n');
-			final int len = vertices.size();
-			int[] index = new int[len];
 
-			// index over index array, to make faces later
+			// merge equal points, and index them from j on
+			final int len = vertices.size();
+			float[] coords = new float[3 * len];
 			int k = 0;
 			for (Point3f p : vertices) {
-				// check if point already exists
-				if(ht_points.containsKey(p)) {
-					index[k] = ht_points.get(p);
-				} else {
-					// new point
-					index[k] = j;
-					// record
-					ht_points.put(p, j);
-					// append vertex
-					tmp.append('v').append(' ')
-					   .append(p.x).append(' ')
-					   .append(p.y).append(' ')
-					   .append(p.z).append('\n');
-					objWriter.write(tmp.toString());
-					tmp.setLength(0);
-					j++;
-				}
-				k++;
+				coords[k++] = p.x;
+				coords[k++] = p.y;
+				coords[k++] = p.z;
 			}
+			int[] index = new int[len];
+			coords = IndexedMesh.weld(coords, index);
+			for (k = 0; k < len; k++)
+				index[k] += j;
+			writeVertices(coords, objWriter);
+			j += coords.length / 3;
+
 			objWriter.write("usemtl ");
 			objWriter.write(mat.name);
 			objWriter.write('\n');
@@ -178,6 +169,53 @@ else if(cmesh.getClass() == CustomLineMesh.class) {
 		}
 	}
 
+	/**
+	 * Write an indexed triangle mesh as a group of an obj file.
+	 * @param offset the number of vertices written to the obj file
+	 *        before, since the vertex indices are global.
+	 * @return the number of vertices written.
+	 */
+	public static int writeTriangles(String name, IndexedMesh mesh,
+			int offset, Writer objWriter) throws IOException {
+		objWriter.write("g ");
+		objWriter.write(name.replaceAll(" ", "_").
+				replaceAll("#", "--"));
+		objWriter.write('\n');
+		writeVertices(mesh.vertices, objWriter);
+		int[] index = new int[mesh.faces.length];
+		for (int i = 0; i < index.length; i++)
+			index[i] = mesh.faces[i] + offset + 1;
+		writeTriangleFaces(index, objWriter, name);
+		return mesh.getVertexCount();
+	}
+
+	/**
+	 * Write the vertices, given as x, y and z of each vertex.
+	 */
+	static void writeVertices(float[] coords, Writer objWriter)
+						throws IOException {
+		final StringBuilder buf = new StringBuilder(FLUSH_SIZE + 100);
+		for (int i = 0; i < coords.length; i += 3) {
+			buf.append('v').append(' ')
+				.append(coords[i]).append(' ')
+				.append(coords[i+1]).append(' ')
+				.append(coords[i+2]).append('\n');
+			flush(buf, objWriter, false);
+		}
+		flush(buf, objWriter, true);
+	}
+
+	/**
+	 * Write the buffered text if it is long enough, or if forced to.
+	 */
+	private static void flush(StringBuilder buf, Writer w, boolean force)
+						throws IOException {
+		if (buf.length() < FLUSH_SIZE && !force)
+			return;
+		w.append(buf);
+		buf.setLength(0);
+	}
+
 	/**
 	 * Write faces for triangle meshes.
 	 */
@@ -186,16 +224,16 @@ static void writeTriangleFaces(int[] indices, Writer objWriter, String name)
 		if(indices.length % 3 != 0)
 			throw new IllegalArgumentException(
 				"list of triangles not multiple of 3: " + name);
-		final StringBuffer buf = new StringBuffer(100);
+		final StringBuilder buf = new StringBuilder(FLUSH_SIZE + 100);
 		objWriter.write("s 1\n");
 		for (int i = 0; i < indices.length; i += 3) {
 			buf.append('f').append(' ')
 				.append(indices[i]).append(' ')
 				.append(indices[i+1]).append(' ')
 				.append(indices[i+2]).append('\n');
-			objWriter.write(buf.toString());
-			buf.setLength(0);
+			flush(buf, objWriter, false);
 		}
+		flush(buf, objWriter, true);
 		objWriter.write('\n');
 	}
 
@@ -204,14 +242,14 @@ static void writeTriangleFaces(int[] indices, Writer objWriter, String name)
 	 */
 	static void writePointFaces(int[] indices, Writer objWriter, String name)
 						throws IOException {
-		final StringBuffer buf = new StringBuffer(100);
+		final StringBuilder buf = new StringBuilder(FLUSH_SIZE + 100);
 		objWriter.write("s 1\n");
 		for (int i = 0; i < indices.length; i++) {
 			buf.append('f').append(' ')
 				.append(indices[i]).append('\n');
-			objWriter.write(buf.toString());
-			buf.setLength(0);
+			flush(buf, objWriter, false);
 		}
+		flush(buf, objWriter, true);
 		objWriter.write('\n');
 	}
 
@@ -223,7 +261,7 @@ static void writeQuadFaces(int[] indices, Writer objWriter, String name)
 		if(indices.length % 4 != 0)
 			throw new IllegalArgumentException(
 				"list of quads not multiple of 4: " + name);
-		final StringBuffer buf = new StringBuffer(100);
+		final StringBuilder buf = new StringBuilder(FLUSH_SIZE + 100);
 		objWriter.write("s 1\n");
 		for (int i = 0; i < indices.length; i += 4) {
 			buf.append('f').append(' ')
@@ -231,9 +269,9 @@ static void writeQuadFaces(int[] indices, Writer objWriter, String name)
 				.append(indices[i+1]).append(' ')
 				.append(indices[i+2]).append(' ')
 				.append(indices[i+3]).append('\n');
-			objWriter.write(buf.toString());
-			buf.setLength(0);
+			flush(buf, objWriter, false);
 		}
+		flush(buf, objWriter, true);
 		objWriter.write('\n');
 	}
 
@@ -247,15 +285,15 @@ static void writePairwiseLineFaces(int[] indices, Writer objWriter, String name)
 		if(indices.length % 2 != 0)
 			throw new IllegalArgumentException(
 				"list of lines not multiple of 2: " + name);
-		final StringBuffer buf = new StringBuffer(100);
+		final StringBuilder buf = new StringBuilder(FLUSH_SIZE + 100);
 		objWriter.write("s 1\n");
 		for (int i = 0; i < indices.length; i += 2) {
 			buf.append('f').append(' ')
 				.append(indices[i]).append(' ')
 				.append(indices[i+1]).append('\n');
-			objWriter.write(buf.toString());
-			buf.setLength(0);
+			flush(buf, objWriter, false);
 		}
+		flush(buf, objWriter, true);
 		objWriter.write('\n');
 	}
 
@@ -265,15 +303,15 @@ static void writePairwiseLineFaces(int[] indices, Writer objWriter, String name)
 	 */
 	static void writeContinuousLineFaces(int[] indices, Writer objWriter, String name)
 						throws IOException {
-		final StringBuffer buf = new StringBuffer(100);
+		final StringBuilder buf = new StringBuilder(FLUSH_SIZE + 100);
 		objWriter.write("s 1\n");
 		for (int i = 0; i < indices.length - 1; i++) {
 			buf.append('f').append(' ')
 				.append(indices[i]).append(' ')
 				.append(indices[i+1]).append('\n');
-			objWriter.write(buf.toString());
-			buf.setLength(0);
+			flush(buf, objWriter, false);
 		}
+		flush(buf, objWriter, true);
 		objWriter.write('\n');
 	}
 
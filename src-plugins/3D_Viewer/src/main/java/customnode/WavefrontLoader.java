@@ -6,6 +6,7 @@
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 
 import java.io.IOException;
 import java.io.File;
@@ -35,11 +36,7 @@ public static HashMap<String, CustomMesh> load(String objfile)
 
 	private  WavefrontLoader() {}
 
-	private BufferedReader in;
-	private String line;
-
 	// attributes of the currently read mesh
-	private ArrayList<Point3f> vertices = new ArrayList<Point3f>();
 	private ArrayList<Point3f> indices = new ArrayList<Point3f>();
 	private String name = null;
 	private Color4f material = null;
@@ -50,35 +47,53 @@ private void parse(String objfile) throws IOException {
 		this.objfile = objfile;
 		File f = new File(objfile);
 
-		in = new BufferedReader(new FileReader(objfile));
+		// the geometry is parsed in parallel into flat arrays
+		WavefrontParser parser = WavefrontParser.parse(f);
+		float[] coords = parser.getVertices();
+		int[] faceIndices = parser.getIndices();
+		int nFaces = parser.getFaceCount();
+		List<WavefrontParser.Statement> statements =
+			parser.getStatements();
+
+		// vertices are shared by the faces which refer to them
+		Point3f[] vertices = new Point3f[parser.getVertexCount()];
 		HashMap<String, Color4f> materials = null;
 
 		meshes = new HashMap<String, CustomMesh>();
 
-		while((line = in.readLine()) != null) {
-			if(line.startsWith("mtllib")) {
-				String mtlName = line.split("\\s+")[1].trim();
-				materials = readMaterials(f, mtlName);
-			} else if(line.startsWith("g ")) {
-				if(name != null) {
-					CustomMesh cm = createCustomMesh();
-					if(cm != null)
-						meshes.put(name, cm);
-					indices = new ArrayList<Point3f>();
-					material = null;
+		int s = 0;
+		for(int face = 0; face <= nFaces; face++) {
+			while(s < statements.size()
+					&& statements.get(s).face == face) {
+				WavefrontParser.Statement st = statements.get(s++);
+				if(st.keyword.equals("mtllib")) {
+					if(st.argument != null)
+						materials = readMaterials(
+							f, st.argument);
+				} else if(st.keyword.equals("g")) {
+					if(name != null) {
+						CustomMesh cm = createCustomMesh();
+						if(cm != null)
+							meshes.put(name, cm);
+						indices = new ArrayList<Point3f>();
+						material = null;
+					}
+					name = st.argument == null ? "" : st.argument;
+				} else if(st.keyword.equals("usemtl")) {
+					if(materials != null)
+						material = materials.get(st.argument);
 				}
-				name = line.split("\\s+")[1].trim();
-			} else if(line.startsWith("usemtl ")) {
-				if(materials != null)
-					material = materials.get(line.split("\\s+")[1]);
-			} else if(line.startsWith("v ")) {
-				readVertex();
-			} else if(line.startsWith("f ")) {
-				readFace();
-			} else if(line.startsWith("l ")) {
-				readFace();
-			} else if(line.startsWith("p ")) {
-				readFace();
+			}
+			if(face == nFaces)
+				break;
+			int start = parser.getFaceStart(face);
+			type = parser.getFaceSize(face);
+			for(int i = start; i < start + type; i++) {
+				int v = faceIndices[i];
+				if(vertices[v] == null)
+					vertices[v] = new Point3f(coords[3 * v],
+						coords[3 * v + 1], coords[3 * v + 2]);
+				indices.add(vertices[v]);
 			}
 		}
 		if(name != null && indices.size() > 0) {
@@ -113,35 +128,6 @@ private CustomMesh createCustomMesh() {
 		return cm;
 	}
 
-	private void readFace() {
-		String[] sp = line.split("\\s+");
-		type = sp.length - 1;
-		for(int i = 1; i < sp.length; i++) {
-			int idx = -1;
-			try {
-				idx = Integer.parseInt(sp[i]) - 1;
-			} catch(NumberFormatException e) {
-				int l = sp[i].indexOf('/');
-				if(l != -1) {
-					sp[i] = sp[i].substring(0, l);
-					idx = Integer.parseInt(sp[i]) - 1;
-				}
-			}
-			if(idx == -1)
-				throw new RuntimeException(
-					"Error parsing faces: " + name);
-			indices.add(vertices.get(idx));
-		}
-	}
-
-	private void readVertex() {
-		String[] sp = line.split("\\s+");
-		vertices.add(new Point3f(
-			Float.parseFloat(sp[1]),
-			Float.parseFloat(sp[2]),
-			Float.parseFloat(sp[3])));
-	}
-
 	private HashMap<String, Color4f> readMaterials(
 			File objfile, String mtlFileName) throws IOException {
 		File mtlFile = new File(objfile.getParentFile(), mtlFileName);
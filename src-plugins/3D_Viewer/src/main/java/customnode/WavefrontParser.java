@@ -0,0 +1,487 @@
+package customnode;
+
+import ij.Prefs;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Parses the geometry of a Wavefront obj file into flat arrays.
+ *
+ * The file is cut into chunks of a few megabytes at line boundaries,
+ * which are read and parsed by several threads in parallel. Vertices
+ * ('v') are collected into one float array, and the vertex indices of
+ * all faces, lines and points ('f', 'l' and 'p') into one int array.
+ * Group, material and material library statements are kept in order,
+ * together with the number of faces preceding them, so that the caller
+ * can split the faces into meshes (see {@link WavefrontLoader}).
+ * All other statements are ignored.
+ */
+public class WavefrontParser {
+
+	/** Approximate number of bytes parsed by a thread at once. */
+	private static final int CHUNK_SIZE = 1 << 22;
+
+	/** A 'g', 'usemtl' or 'mtllib' statement. */
+	public static class Statement {
+		/** The keyword, i.e. "g", "usemtl" or "mtllib". */
+		public final String keyword;
+		/** The first argument, or null if there is none. */
+		public final String argument;
+		/** The number of faces before this statement. */
+		public final int face;
+
+		Statement(String keyword, String argument, int face) {
+			this.keyword = keyword;
+			this.argument = argument;
+			this.face = face;
+		}
+	}
+
+	private float[] vertices;
+	private int[] indices;
+	private int[] faceStart;
+	/* The number of indices of all faces, or -1 if they differ */
+	private int faceSize;
+	private int nFaces;
+	private List<Statement> statements;
+
+	private WavefrontParser() {}
+
+	/**
+	 * Parse the given file, using as many threads as specified in the
+	 * ImageJ preferences.
+	 */
+	public static WavefrontParser parse(File file) throws IOException {
+		return parse(file, Prefs.getThreads());
+	}
+
+	public static WavefrontParser parse(File file, int nThreads)
+			throws IOException {
+		WavefrontParser parser = new WavefrontParser();
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			parser.parse(raf.getChannel(), nThreads);
+		} finally {
+			raf.close();
+		}
+		return parser;
+	}
+
+	/** Returns the coordinates, x, y and z of each vertex. */
+	public float[] getVertices() {
+		return vertices;
+	}
+
+	public int getVertexCount() {
+		return vertices.length / 3;
+	}
+
+	/**
+	 * Returns the (zero-based) vertex indices of all faces.
+	 * The indices of face <code>i</code> start at
+	 * <code>getFaceStart(i)</code> and end before
+	 * <code>getFaceStart(i + 1)</code>.
+	 */
+	public int[] getIndices() {
+		return indices;
+	}
+
+	public int getFaceCount() {
+		return nFaces;
+	}
+
+	/**
+	 * Returns the offset of the first index of the given face; for
+	 * <code>face == getFaceCount()</code>, the number of indices.
+	 */
+	public int getFaceStart(int face) {
+		return faceSize >= 0 ? face * faceSize : faceStart[face];
+	}
+
+	public int getFaceSize(int face) {
+		return faceSize >= 0 ? faceSize :
+			faceStart[face + 1] - faceStart[face];
+	}
+
+	/** Returns the group and material statements, in file order. */
+	public List<Statement> getStatements() {
+		return statements;
+	}
+
+	private void parse(final FileChannel channel, int nThreads)
+			throws IOException {
+		final long[] bounds = findChunks(channel);
+		final Chunk[] chunks = new Chunk[bounds.length - 1];
+		final IOException[] error = new IOException[1];
+		final AtomicInteger ai = new AtomicInteger(0);
+		Thread[] threads = new Thread[
+			Math.max(1, Math.min(nThreads, chunks.length))];
+		for(int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					byte[] buffer = new byte[CHUNK_SIZE + 1024];
+					for(int c = ai.getAndIncrement(); c < chunks.length; c = ai.getAndIncrement()) {
+						try {
+							int length = (int)(bounds[c + 1] - bounds[c]);
+							if(buffer.length < length)
+								buffer = new byte[length];
+							read(channel, bounds[c], buffer, length);
+							Chunk chunk = new Chunk();
+							chunk.parse(buffer, length);
+							chunks[c] = chunk;
+						} catch(IOException e) {
+							synchronized(error) {
+								error[0] = e;
+							}
+							return;
+						}
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for(int t = 0; t < threads.length; t++) {
+			try {
+				threads[t].join();
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			}
+		}
+		if(error[0] != null)
+			throw error[0];
+		merge(chunks);
+	}
+
+	/*
+	 * Returns the offsets of the chunks, cut after a line break, and
+	 * the length of the file as last element.
+	 */
+	private static long[] findChunks(FileChannel channel)
+			throws IOException {
+		long size = channel.size();
+		List<Long> bounds = new ArrayList<Long>();
+		bounds.add(0L);
+		ByteBuffer buffer = ByteBuffer.allocate(1024);
+		long pos = CHUNK_SIZE;
+		while(pos < size) {
+			buffer.clear();
+			int n = channel.read(buffer, pos);
+			if(n <= 0)
+				break;
+			int i = 0;
+			while(i < n && buffer.get(i) != '\n')
+				i++;
+			if(i < n) {
+				pos += i + 1;
+				if(pos < size)
+					bounds.add(pos);
+				pos += CHUNK_SIZE;
+			} else {
+				// very long line: search on
+				pos += n;
+			}
+		}
+		bounds.add(size);
+		long[] ret = new long[bounds.size()];
+		for(int i = 0; i < ret.length; i++)
+			ret[i] = bounds.get(i);
+		return ret;
+	}
+
+	private static void read(FileChannel channel, long position,
+			byte[] buffer, int length) throws IOException {
+		ByteBuffer b = ByteBuffer.wrap(buffer, 0, length);
+		while(b.hasRemaining())
+			if(channel.read(b, position + b.position()) < 0)
+				throw new IOException("Unexpected end of file");
+	}
+
+	private void merge(Chunk[] chunks) throws IOException {
+		int nVertices = 0, nIndices = 0;
+		nFaces = 0;
+		faceSize = 0;
+		for(Chunk c : chunks) {
+			nVertices += c.nVertices;
+			nIndices += c.nIndices;
+			nFaces += c.nFaces;
+			int size = c.getFaceSize();
+			if(size != 0)
+				faceSize = faceSize == 0 || faceSize == size ?
+					size : -1;
+		}
+		vertices = new float[3 * nVertices];
+		indices = new int[nIndices];
+		// the offsets are only needed if the faces differ in size
+		if(faceSize < 0)
+			faceStart = new int[nFaces + 1];
+		statements = new ArrayList<Statement>();
+
+		int vOffset = 0, iOffset = 0, fOffset = 0;
+		for(Chunk c : chunks) {
+			System.arraycopy(c.vertices, 0, vertices,
+				3 * vOffset, 3 * c.nVertices);
+			for(int i = 0; i < c.nIndices; i++)
+				indices[iOffset + i] = c.indices[i] - 1;
+			// relative indices refer to the vertices before them
+			for(int r = 0; r < c.nRelative; r++)
+				indices[iOffset + c.relative[r]] += vOffset;
+			for(int i = iOffset; i < iOffset + c.nIndices; i++)
+				if(indices[i] < 0 || indices[i] >= nVertices)
+					throw new IOException("Error parsing faces: "
+						+ "invalid vertex index");
+			if(faceStart != null)
+				for(int f = 0; f < c.nFaces; f++)
+					faceStart[fOffset + f] =
+						iOffset + c.faceStart[f];
+			for(Statement s : c.statements)
+				statements.add(new Statement(s.keyword,
+					s.argument, fOffset + s.face));
+			vOffset += c.nVertices;
+			iOffset += c.nIndices;
+			fOffset += c.nFaces;
+		}
+		if(faceStart != null)
+			faceStart[nFaces] = nIndices;
+	}
+
+	/* The parsed contents of one chunk of the file */
+	private static class Chunk {
+		float[] vertices = new float[3 * 1024];
+		int nVertices;
+		/*
+		 * One-based vertex indices; relative indices are converted
+		 * to one-based indices into the vertices of this chunk (i.e.
+		 * possibly negative), and their positions are recorded.
+		 */
+		int[] indices = new int[4096];
+		int nIndices;
+		int[] relative = new int[16];
+		int nRelative;
+		int[] faceStart = new int[1024];
+		int nFaces;
+		List<Statement> statements = new ArrayList<Statement>();
+
+		private byte[] buf;
+		private int pos, end;
+
+		void parse(byte[] buf, int length) throws IOException {
+			this.buf = buf;
+			pos = 0;
+			while(pos < length) {
+				end = pos;
+				while(end < length && buf[end] != '\n')
+					end++;
+				parseLine();
+				pos = end + 1;
+			}
+			this.buf = null;
+		}
+
+		private void parseLine() throws IOException {
+			if(end - pos < 2)
+				return;
+			byte c0 = buf[pos], c1 = buf[pos + 1];
+			if(c0 == 'v' && isSpace(c1)) {
+				pos++;
+				addVertex(parseFloat(), parseFloat(), parseFloat());
+			} else if((c0 == 'f' || c0 == 'l' || c0 == 'p')
+					&& isSpace(c1)) {
+				pos++;
+				parseFace();
+			} else if(c0 == 'g' && c1 == ' ')
+				addStatement("g", 1);
+			else if(startsWith("usemtl "))
+				addStatement("usemtl", 6);
+			else if(startsWith("mtllib"))
+				addStatement("mtllib", 6);
+		}
+
+		private void parseFace() throws IOException {
+			if(nFaces + 1 >= faceStart.length)
+				faceStart = grow(faceStart);
+			faceStart[nFaces++] = nIndices;
+			while(true) {
+				skipSpaces();
+				if(pos >= end || buf[pos] == '\r')
+					break;
+				if(nIndices == indices.length)
+					indices = grow(indices);
+				int idx = parseInt();
+				if(idx < 0) {
+					if(nRelative == relative.length)
+						relative = grow(relative);
+					relative[nRelative++] = nIndices;
+					idx += nVertices + 1;
+				}
+				indices[nIndices++] = idx;
+				// skip texture and normal indices
+				while(pos < end && !isSpace(buf[pos]))
+					pos++;
+			}
+			if(nIndices == faceStart[nFaces - 1])
+				throw new IOException("Error parsing faces: "
+					+ "face without vertices");
+		}
+
+		/* Returns the size of all faces, 0 if none, or -1 if mixed */
+		int getFaceSize() {
+			if(nFaces == 0)
+				return 0;
+			int size = nIndices - faceStart[nFaces - 1];
+			for(int f = 0; f < nFaces - 1; f++)
+				if(faceStart[f + 1] - faceStart[f] != size)
+					return -1;
+			return size;
+		}
+
+		private void addVertex(float x, float y, float z) {
+			if(3 * nVertices == vertices.length) {
+				float[] tmp = new float[2 * vertices.length];
+				System.arraycopy(vertices, 0, tmp, 0,
+					vertices.length);
+				vertices = tmp;
+			}
+			vertices[3 * nVertices] = x;
+			vertices[3 * nVertices + 1] = y;
+			vertices[3 * nVertices + 2] = z;
+			nVertices++;
+		}
+
+		private void addStatement(String keyword, int length)
+				throws IOException {
+			pos += length;
+			skipSpaces();
+			int start = pos;
+			while(pos < end && !isSpace(buf[pos]) && buf[pos] != '\r')
+				pos++;
+			String argument = pos == start ? null :
+				new String(buf, start, pos - start, "ISO-8859-1");
+			statements.add(new Statement(keyword, argument, nFaces));
+		}
+
+		private boolean startsWith(String keyword) {
+			if(end - pos < keyword.length())
+				return false;
+			for(int i = 0; i < keyword.length(); i++)
+				if(buf[pos + i] != keyword.charAt(i))
+					return false;
+			return true;
+		}
+
+		private void skipSpaces() {
+			while(pos < end && isSpace(buf[pos]))
+				pos++;
+		}
+
+		private int parseInt() throws IOException {
+			boolean negative = false;
+			if(pos < end && (buf[pos] == '-' || buf[pos] == '+'))
+				negative = buf[pos++] == '-';
+			int start = pos;
+			long value = 0;
+			while(pos < end && buf[pos] >= '0' && buf[pos] <= '9'
+					&& value <= Integer.MAX_VALUE)
+				value = 10 * value + (buf[pos++] - '0');
+			if(pos == start || value == 0
+					|| value > Integer.MAX_VALUE)
+				throw new IOException("Error parsing faces: "
+					+ "invalid vertex index");
+			return negative ? -(int)value : (int)value;
+		}
+
+		/*
+		 * Parses decimal numbers with up to 15 significant digits
+		 * directly; everything else is left to Float.parseFloat().
+		 */
+		private float parseFloat() throws IOException {
+			skipSpaces();
+			int start = pos;
+			boolean negative = false;
+			if(pos < end && (buf[pos] == '-' || buf[pos] == '+'))
+				negative = buf[pos++] == '-';
+			long mantissa = 0;
+			int digits = 0, exponent = 0;
+			boolean any = false;
+			while(pos < end && buf[pos] >= '0' && buf[pos] <= '9') {
+				any = true;
+				if(mantissa != 0 || buf[pos] != '0')
+					digits++;
+				mantissa = 10 * mantissa + (buf[pos++] - '0');
+			}
+			if(pos < end && buf[pos] == '.') {
+				pos++;
+				while(pos < end && buf[pos] >= '0'
+						&& buf[pos] <= '9') {
+					any = true;
+					if(mantissa != 0 || buf[pos] != '0')
+						digits++;
+					mantissa = 10 * mantissa + (buf[pos++] - '0');
+					exponent--;
+				}
+			}
+			if(any && pos < end && (buf[pos] == 'e' || buf[pos] == 'E')) {
+				pos++;
+				boolean negExp = false;
+				if(pos < end && (buf[pos] == '-' || buf[pos] == '+'))
+					negExp = buf[pos++] == '-';
+				int e = 0, eStart = pos;
+				while(pos < end && buf[pos] >= '0'
+						&& buf[pos] <= '9' && e < 10000)
+					e = 10 * e + (buf[pos++] - '0');
+				if(pos == eStart)
+					any = false;
+				exponent += negExp ? -e : e;
+			}
+			if(any && digits <= 15 && (pos == end || isSpace(buf[pos])
+					|| buf[pos] == '\r')) {
+				double value = mantissa;
+				if(exponent < 0 && exponent >= -22)
+					value /= POW10[-exponent];
+				else if(exponent > 0 && exponent <= 22)
+					value *= POW10[exponent];
+				else if(exponent != 0 && mantissa != 0)
+					value = Double.parseDouble(mantissa
+						+ "E" + exponent);
+				return (float)(negative ? -value : value);
+			}
+			// fall back to the slow path
+			while(pos < end && !isSpace(buf[pos]) && buf[pos] != '\r')
+				pos++;
+			try {
+				return Float.parseFloat(new String(buf, start,
+					pos - start, "ISO-8859-1"));
+			} catch(NumberFormatException e) {
+				throw new IOException("Error parsing vertex: " + e);
+			}
+		}
+
+		private static boolean isSpace(byte b) {
+			return b == ' ' || b == '\t';
+		}
+
+		private static int[] grow(int[] array) {
+			int[] tmp = new int[2 * array.length];
+			System.arraycopy(array, 0, tmp, 0, array.length);
+			return tmp;
+		}
+	}
+
+	private static final double[] POW10 = new double[23];
+	static {
+		POW10[0] = 1;
+		for(int i = 1; i < POW10.length; i++)
+			POW10[i] = 10 * POW10[i - 1];
+	}
+}
@@ -28,8 +28,12 @@
 import javax.vecmath.Color3f;
 import javax.vecmath.Point3d;
 
-import java.util.TreeMap;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
 
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -46,6 +50,10 @@ public class Content extends BranchGroup implements UniverseListener, ContentCon
 
 	private final boolean swapTimelapseData;
 
+	private int prefetchCount = 2;
+	private int playbackDirection = +1;
+	private final Set<ContentInstant> prefetched = new HashSet<ContentInstant>();
+
 	public Content(String name) {
 		this(name, 0);
 	}
@@ -151,12 +159,17 @@ public void showTimepoint(int tp, boolean force) {
 			}
 			getCurrent().showPointList(false);
 		}
+		if(tp != currentTimePoint)
+			playbackDirection = tp > currentTimePoint ? +1 : -1;
 		currentTimePoint = tp;
 		if(showAllTimepoints)
 			return;
 		ContentInstant next = getCurrent();
-		if(next != null && swapTimelapseData)
-				next.restoreDisplayedData();
+		if(next != null && swapTimelapseData) {
+			prefetched.remove(next);
+			next.restoreDisplayedData();
+			prefetchTimepoints();
+		}
 
 		Integer idx = timepointToSwitchIndex.get(tp);
 		if(idx == null)
@@ -165,6 +178,48 @@ public void showTimepoint(int tp, boolean force) {
 			contentSwitch.setWhichChild(idx);
 	}
 
+	/**
+	 * Set the number of timepoints which are loaded in the background
+	 * ahead of the current one, in playback direction. Only has an
+	 * effect if timelapse data is swapped.
+	 */
+	public void setPrefetchCount(int n) {
+		this.prefetchCount = n;
+	}
+
+	public int getPrefetchCount() {
+		return prefetchCount;
+	}
+
+	/*
+	 * Start loading the swapped out data of the timepoints following
+	 * the current one in playback direction, and discard previously
+	 * prefetched data which is not needed anymore.
+	 */
+	private void prefetchTimepoints() {
+		List<ContentInstant> upcoming = new ArrayList<ContentInstant>();
+		if(playbackDirection > 0) {
+			for(ContentInstant ci : contents.tailMap(currentTimePoint + 1).values()) {
+				if(upcoming.size() >= prefetchCount)
+					break;
+				upcoming.add(ci);
+			}
+		} else {
+			List<ContentInstant> before = new ArrayList<ContentInstant>(
+				contents.headMap(currentTimePoint).values());
+			for(int i = before.size() - 1; i >= 0 && upcoming.size() < prefetchCount; i--)
+				upcoming.add(before.get(i));
+		}
+		for(ContentInstant ci : prefetched)
+			if(!upcoming.contains(ci))
+				ci.discardPrefetchedData();
+		prefetched.clear();
+		for(ContentInstant ci : upcoming) {
+			ci.prefetchDisplayedData();
+			prefetched.add(ci);
+		}
+	}
+
 	public void setShowAllTimepoints(boolean b) {
 		this.showAllTimepoints = b;
 		if(b) {
@@ -533,6 +588,8 @@ public void contentAdded(Content c) {}
 	public void contentRemoved(Content c) {
 		for(ContentInstant co : contents.values()) {
 			co.contentRemoved(c);
+			if(c == this)
+				co.deleteSwappedData();
 		}
 	}
 	public void canvasResized() {}
@@ -542,6 +599,7 @@ public void contentChanged(Content c) {}
 	public void universeClosed() {
 		for(ContentInstant c : contents.values()) {
 			c.universeClosed();
+			c.deleteSwappedData();
 		}
 	}
 
@@ -289,6 +289,28 @@ public void restoreDisplayedData() {
 		available = true;
 	}
 
+	public void prefetchDisplayedData() {
+		if(available)
+			return;
+		contentNode.prefetchDisplayedData(getDisplayedDataSwapfile(), getName());
+	}
+
+	public void discardPrefetchedData() {
+		if(available)
+			return;
+		contentNode.discardPrefetchedData(getDisplayedDataSwapfile(), getName());
+	}
+
+	/**
+	 * Delete the swap files of the displayed data. Must only be
+	 * called when the data is not needed anymore, e.g. when the
+	 * content is removed.
+	 */
+	public void deleteSwappedData() {
+		if(displayedDataSwapfile != null)
+			contentNode.deleteSwappedData(displayedDataSwapfile, getName());
+	}
+
 	public void clearDisplayedData() {
 		if(!available) return;
 		contentNode.clearDisplayedData();
@@ -96,5 +96,22 @@ public ContentNode() {
 	public abstract void clearDisplayedData();
 
 	public abstract void restoreDisplayedData(String path, String name);
+
+	/**
+	 * Start loading the swapped out data in the background, so that
+	 * a subsequent restoreDisplayedData() returns faster. Does nothing
+	 * by default.
+	 */
+	public void prefetchDisplayedData(String path, String name) {}
+
+	/**
+	 * Release data which was prefetched but is not needed anymore.
+	 */
+	public void discardPrefetchedData(String path, String name) {}
+
+	/**
+	 * Delete the files the data was swapped out to, if any.
+	 */
+	public void deleteSwappedData(String path, String name) {}
 }
 
@@ -70,6 +70,7 @@
 import customnode.CustomMeshNode;
 import customnode.CustomMultiMesh;
 import customnode.CustomTriangleMesh;
+import customnode.QuadricSimplification;
 import customnode.u3d.U3DExporter;
 
 public class Executer {
@@ -291,6 +292,14 @@ public void saveAsBinarySTL(){
 		record(EXPORT, "STL Binary", stl_file.getAbsolutePath());
 	}
 
+	public void saveAsPLY(){
+		File ply_file = promptForFile("Save as PLY", "untitled", ".ply");
+		if(ply_file == null)
+			return;
+		MeshExporter.saveAsPLY(univ.getContents(), ply_file);
+		record(EXPORT, "PLY", ply_file.getAbsolutePath());
+	}
+
 	public static File promptForFile(String title, String suggestion, String ending) {
 		SaveDialog sd = new SaveDialog(title, suggestion, ending);
 		String dir = sd.getDirectory();
@@ -666,6 +675,58 @@ public void decimateMesh() {
 		new InteractiveMeshDecimation().run(ctm);
 	}
 
+	/**
+	 * Simplify the selected mesh by quadric error edge collapses,
+	 * down to a percentage of its triangles.
+	 */
+	public void simplifyMesh() {
+		Content c = univ.getSelected();
+		if(c == null)
+			return;
+		final CustomTriangleMesh ctm;
+		ContentNode n = c.getContent();
+		if(n instanceof CustomMeshNode) {
+			if(((CustomMeshNode)n).getMesh() instanceof CustomTriangleMesh)
+				ctm = (CustomTriangleMesh)((CustomMeshNode) n).getMesh();
+			else
+				return;
+		} else if (n instanceof MeshGroup) {
+			ctm = ((MeshGroup)n).getMesh();
+		} else {
+			return;
+		}
+		GenericDialog gd = new GenericDialog(
+			"Simplify mesh", univ.getWindow());
+		gd.addNumericField("Target triangles (%)", 10, 1);
+		gd.addNumericField("Maximum error (0 = unlimited)", 0, 3);
+		gd.showDialog();
+		if(gd.wasCanceled())
+			return;
+		final double percent = gd.getNextNumber();
+		final double maxError = gd.getNextNumber();
+		if(percent <= 0 || percent >= 100) {
+			IJ.error("The target must be between 0 and 100%");
+			return;
+		}
+		new Thread() {
+			@Override
+			public void run() {
+				@SuppressWarnings("unchecked")
+				QuadricSimplification qs =
+					new QuadricSimplification(ctm.getMesh());
+				int before = qs.getTriangleCount();
+				int target = (int)Math.round(before * percent / 100);
+				IJ.showStatus("Simplifying mesh...");
+				qs.simplify(target, maxError > 0 ?
+					maxError : Double.POSITIVE_INFINITY);
+				ctm.setMesh(qs.getMesh());
+				IJ.showStatus("Simplified mesh from " + before
+					+ " to " + qs.getTriangleCount()
+					+ " triangles");
+			}
+		}.start();
+	}
+
 	/* ----------------------------------------------------------
 	 * Display As submenu
 	 * --------------------------------------------------------*/
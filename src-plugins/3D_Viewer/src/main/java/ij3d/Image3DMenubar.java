@@ -61,6 +61,7 @@ public class Image3DMenubar extends JMenuBar implements ActionListener,
 	private JMenuItem exportDXF;
 	private JMenuItem exportAsciiSTL;
 	private JMenuItem exportBinarySTL;
+	private JMenuItem exportPLY;
 	private JMenuItem exportU3D;
 	private JMenuItem scalebar;
 	private JMenuItem displayAsVolume;
@@ -164,6 +165,10 @@ public JMenu createFileMenu() {
 		exportBinarySTL.addActionListener(this);
 		subMenu.add(exportBinarySTL);
 
+		exportPLY = new JMenuItem("PLY (binary)");
+		exportPLY.addActionListener(this);
+		subMenu.add(exportPLY);
+
 		exportU3D = new JMenuItem("U3D");
 		exportU3D.addActionListener(this);
 		subMenu.add(exportU3D);
@@ -639,6 +644,8 @@ else if (src == exportAsciiSTL)
 			executer.saveAsAsciiSTL();
 		else if (src == exportBinarySTL)
 			executer.saveAsBinarySTL();
+		else if (src == exportPLY)
+			executer.saveAsPLY();
 		else if (src == light)
 			executer.adjustLight();
 		else if (src == viewPreferences)
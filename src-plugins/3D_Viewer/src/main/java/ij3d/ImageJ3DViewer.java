@@ -345,6 +345,8 @@ else if (format.startsWith("stl")) {
 				else
 					MeshExporter.saveAsSTL(univ.getContents(), new File(path), MeshExporter.BINARY);
 			}
+			else if (format.equals("ply"))
+				MeshExporter.saveAsPLY(univ.getContents(), new File(path));
 			else if (format.equals("u3d")) try {
 				U3DExporter.export(univ, path);
 			} catch (IOException e) {
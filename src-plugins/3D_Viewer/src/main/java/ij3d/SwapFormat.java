@@ -0,0 +1,286 @@
+package ij3d;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.measure.Calibration;
+
+import java.awt.image.ColorModel;
+import java.awt.image.IndexColorModel;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * A simple binary format for the image data which is swapped out while
+ * a timelapse is displayed.
+ *
+ * The file consists of a small header, holding the dimensions, calibration
+ * and LUT of the image, followed by the raw pixel data, slice by slice.
+ * Uncompressed files are read through the file channel in large chunks
+ * (they are not memory-mapped, as an open mapping would keep the file
+ * locked on Windows until it is garbage collected); compressed files are written with fast deflate compression, which
+ * trades some CPU time for less disk I/O.
+ *
+ * Only 8-bit and RGB images are supported, which are the types handled
+ * by {@link Volume}.
+ */
+public class SwapFormat {
+
+	/** The file extension of swap files. */
+	public static final String EXTENSION = ".swap";
+
+	private static final int MAGIC = 0x494a3353; // "IJ3S"
+	private static final int VERSION = 1;
+
+	/** Maximum number of bytes of RGB data that are read at once. */
+	private static final int MAX_CHUNK = 1 << 24;
+
+	private static boolean compressed = false;
+
+	private SwapFormat() {}
+
+	/**
+	 * Specify whether newly written swap files are compressed.
+	 */
+	public static void setCompressed(boolean b) {
+		compressed = b;
+	}
+
+	public static boolean isCompressed() {
+		return compressed;
+	}
+
+	/**
+	 * Returns the number of bytes the pixel data of the given image
+	 * occupies in memory.
+	 */
+	public static long getSizeInBytes(ImagePlus imp) {
+		int bytesPerPixel = imp.getType() == ImagePlus.COLOR_RGB ? 4 : 1;
+		return (long)imp.getWidth() * imp.getHeight()
+			* imp.getStackSize() * bytesPerPixel;
+	}
+
+	public static void write(ImagePlus imp, String path)
+			throws IOException {
+		int type = imp.getType();
+		if(type != ImagePlus.GRAY8 && type != ImagePlus.COLOR_256
+				&& type != ImagePlus.COLOR_RGB)
+			throw new IllegalArgumentException(
+				"Unsupported image type");
+		ImageStack stack = imp.getStack();
+		int w = stack.getWidth(), h = stack.getHeight();
+		int d = stack.getSize();
+		Calibration cal = imp.getCalibration();
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream header = new DataOutputStream(bytes);
+		header.writeInt(VERSION);
+		header.writeInt(type);
+		header.writeBoolean(compressed);
+		header.writeInt(w);
+		header.writeInt(h);
+		header.writeInt(d);
+		header.writeDouble(cal.pixelWidth);
+		header.writeDouble(cal.pixelHeight);
+		header.writeDouble(cal.pixelDepth);
+		header.writeDouble(cal.xOrigin);
+		header.writeDouble(cal.yOrigin);
+		header.writeDouble(cal.zOrigin);
+		header.writeUTF(cal.getUnit());
+		header.writeUTF(imp.getTitle());
+		if(type != ImagePlus.COLOR_RGB) {
+			IndexColorModel cm = (IndexColorModel)imp.
+				getProcessor().getColorModel();
+			byte[] lut = new byte[256];
+			cm.getReds(lut);
+			header.write(lut);
+			cm.getGreens(lut);
+			header.write(lut);
+			cm.getBlues(lut);
+			header.write(lut);
+		}
+		header.close();
+
+		DataOutputStream out = new DataOutputStream(
+			new BufferedOutputStream(
+				new FileOutputStream(path), 1 << 16));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(bytes.size());
+			bytes.writeTo(out);
+
+			OutputStream data = out;
+			Deflater deflater = null;
+			if(compressed) {
+				deflater = new Deflater(Deflater.BEST_SPEED);
+				data = new DeflaterOutputStream(out,
+					deflater, 1 << 16);
+			}
+			ByteBuffer buffer = type == ImagePlus.COLOR_RGB ?
+				ByteBuffer.allocate(4 * w * h) : null;
+			for(int z = 1; z <= d; z++) {
+				Object pixels = stack.getPixels(z);
+				if(buffer == null)
+					data.write((byte[])pixels);
+				else {
+					buffer.clear();
+					buffer.asIntBuffer().put((int[])pixels);
+					data.write(buffer.array());
+				}
+			}
+			if(deflater != null) {
+				((DeflaterOutputStream)data).finish();
+				deflater.end();
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Read a swap file.
+	 * @throws IOException if the file cannot be read or is not a
+	 * swap file.
+	 */
+	public static ImagePlus read(String path) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(path, "r");
+		try {
+			if(file.length() < 8 || file.readInt() != MAGIC)
+				throw new IOException("Not a swap file: " + path);
+			byte[] bytes = new byte[file.readInt()];
+			file.readFully(bytes);
+			long offset = file.getFilePointer();
+
+			DataInputStream header = new DataInputStream(
+				new ByteArrayInputStream(bytes));
+			if(header.readInt() != VERSION)
+				throw new IOException("Unsupported swap file " +
+					"version: " + path);
+			int type = header.readInt();
+			boolean isCompressed = header.readBoolean();
+			int w = header.readInt();
+			int h = header.readInt();
+			int d = header.readInt();
+			Calibration cal = new Calibration();
+			cal.pixelWidth = header.readDouble();
+			cal.pixelHeight = header.readDouble();
+			cal.pixelDepth = header.readDouble();
+			cal.xOrigin = header.readDouble();
+			cal.yOrigin = header.readDouble();
+			cal.zOrigin = header.readDouble();
+			cal.setUnit(header.readUTF());
+			String title = header.readUTF();
+			ColorModel cm = null;
+			int bytesPerPixel = 4;
+			if(type != ImagePlus.COLOR_RGB) {
+				byte[] r = new byte[256];
+				byte[] g = new byte[256];
+				byte[] b = new byte[256];
+				header.readFully(r);
+				header.readFully(g);
+				header.readFully(b);
+				cm = new IndexColorModel(8, 256, r, g, b);
+				bytesPerPixel = 1;
+			}
+
+			Object[] slices = new Object[d];
+			for(int z = 0; z < d; z++)
+				slices[z] = bytesPerPixel == 1 ?
+					(Object)new byte[w * h] :
+					(Object)new int[w * h];
+			FileChannel channel = file.getChannel();
+			if(isCompressed)
+				readCompressed(channel, offset, slices, w * h);
+			else
+				readRaw(channel, offset, slices, w * h);
+
+			ImageStack stack = new ImageStack(w, h, cm);
+			for(int z = 0; z < d; z++)
+				stack.addSlice("", slices[z]);
+			ImagePlus imp = new ImagePlus(title, stack);
+			imp.setCalibration(cal);
+			return imp;
+		} finally {
+			file.close();
+		}
+	}
+
+	private static void readRaw(FileChannel channel, long offset,
+			Object[] slices, int slicePixels) throws IOException {
+		channel.position(offset);
+		// byte slices are read directly, RGB slices through a buffer
+		ByteBuffer buffer = null;
+		if(slices.length > 0 && slices[0] instanceof int[]) {
+			int slicesPerChunk = Math.max(1,
+				MAX_CHUNK / (4 * slicePixels));
+			buffer = ByteBuffer.allocate(4 * slicePixels *
+				Math.min(slices.length, slicesPerChunk));
+		}
+		for(int z0 = 0; z0 < slices.length; ) {
+			if(buffer == null) {
+				readFully(channel, ByteBuffer.wrap((byte[])slices[z0]));
+				z0++;
+				continue;
+			}
+			int z1 = Math.min(slices.length,
+				z0 + buffer.capacity() / (4 * slicePixels));
+			buffer.clear();
+			buffer.limit((z1 - z0) * 4 * slicePixels);
+			readFully(channel, buffer);
+			buffer.flip();
+			for(int z = z0; z < z1; z++) {
+				buffer.asIntBuffer().get((int[])slices[z]);
+				buffer.position(buffer.position() + 4 * slicePixels);
+			}
+			z0 = z1;
+		}
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer)
+			throws IOException {
+		while(buffer.hasRemaining())
+			if(channel.read(buffer) < 0)
+				throw new IOException("Unexpected end of swap file");
+	}
+
+	private static void readCompressed(FileChannel channel, long offset,
+			Object[] slices, int slicePixels) throws IOException {
+		channel.position(offset);
+		Inflater inflater = new Inflater();
+		InputStream in = new InflaterInputStream(
+			Channels.newInputStream(channel), inflater, 1 << 16);
+		DataInputStream data = new DataInputStream(in);
+		byte[] buffer = slices.length > 0 && slices[0] instanceof int[] ?
+			new byte[4 * slicePixels] : null;
+		try {
+			for(int z = 0; z < slices.length; z++) {
+				if(buffer == null)
+					data.readFully((byte[])slices[z]);
+				else {
+					data.readFully(buffer);
+					ByteBuffer.wrap(buffer).asIntBuffer().
+						get((int[])slices[z]);
+				}
+			}
+		} finally {
+			inflater.end();
+		}
+	}
+}
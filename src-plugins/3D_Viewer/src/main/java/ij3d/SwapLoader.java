@@ -0,0 +1,240 @@
+package ij3d;
+
+import ij.IJ;
+import ij.ImagePlus;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Writes and reads the swap files of timelapse data in the background.
+ *
+ * Swapping out is asynchronous: the image is kept until it is written,
+ * and is handed back directly if it is restored in the meantime.
+ * Timepoints which are about to be displayed can be prefetched; they are
+ * read as long as the prefetched images fit into the memory budget.
+ *
+ * All file accesses are done by a single background thread, so that
+ * the swap files of one content are written and read in order.
+ *
+ * Swap files are deleted when their content is removed, and all
+ * remaining ones when the virtual machine exits.
+ */
+public class SwapLoader {
+
+	private static SwapLoader instance;
+
+	public static synchronized SwapLoader getInstance() {
+		if(instance == null)
+			instance = new SwapLoader();
+		return instance;
+	}
+
+	private final ExecutorService exec = Executors.newSingleThreadExecutor(
+		new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "3D Viewer swap loader");
+				t.setDaemon(true);
+				t.setPriority(Thread.NORM_PRIORITY - 1);
+				return t;
+			}
+		});
+
+	private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+	/** All swap files which were written and not deleted yet */
+	private final Set<String> files = new HashSet<String>();
+
+	private long memoryBudget = IJ.maxMemory() / 4;
+	private long memoryInUse = 0;
+
+	private static class Entry {
+		/** The image which is being written, or null if it is read */
+		ImagePlus imp;
+		/** The pending write or read */
+		Future<ImagePlus> future;
+		long bytes;
+	}
+
+	private SwapLoader() {
+		Runtime.getRuntime().addShutdownHook(
+				new Thread("3D Viewer swap file cleanup") {
+			public void run() {
+				List<String> paths;
+				synchronized(SwapLoader.this) {
+					paths = new ArrayList<String>(files);
+				}
+				for(String path : paths)
+					new File(path).delete();
+			}
+		});
+	}
+
+	/**
+	 * Set the maximum number of bytes which may be held by images
+	 * that are prefetched or waiting to be written.
+	 */
+	public synchronized void setMemoryBudget(long bytes) {
+		this.memoryBudget = bytes;
+	}
+
+	public synchronized long getMemoryBudget() {
+		return memoryBudget;
+	}
+
+	/**
+	 * Write the image to the given swap file in the background.
+	 * If writing fails, the image is kept in memory.
+	 */
+	public synchronized void swap(final ImagePlus imp, final String path) {
+		Entry old = entries.get(path);
+		if(old != null) {
+			old.future.cancel(false);
+			release(path, old);
+		}
+		final Entry e = new Entry();
+		e.imp = imp;
+		e.bytes = SwapFormat.getSizeInBytes(imp);
+		files.add(path);
+		e.future = exec.submit(new Callable<ImagePlus>() {
+			public ImagePlus call() {
+				try {
+					SwapFormat.write(imp, path);
+					release(path, e);
+				} catch(IOException ex) {
+					IJ.log("Could not write " + path + ": " + ex);
+					keepInMemory(path, e);
+				}
+				return imp;
+			}
+		});
+		entries.put(path, e);
+		memoryInUse += e.bytes;
+	}
+
+	/**
+	 * Start reading the given swap file in the background, if the
+	 * image fits into the memory budget.
+	 * @param bytes the size of the image in memory
+	 * @return whether the image is prefetched.
+	 */
+	public synchronized boolean prefetch(final String path, long bytes) {
+		if(entries.containsKey(path))
+			return true;
+		if(memoryInUse + bytes > memoryBudget
+				|| !new File(path).exists())
+			return false;
+		Entry e = new Entry();
+		e.bytes = bytes;
+		e.future = exec.submit(new Callable<ImagePlus>() {
+			public ImagePlus call() throws IOException {
+				return SwapFormat.read(path);
+			}
+		});
+		entries.put(path, e);
+		memoryInUse += bytes;
+		return true;
+	}
+
+	/**
+	 * Drop a prefetched image which is not needed anymore.
+	 * Pending writes are not affected.
+	 */
+	public synchronized void discard(String path) {
+		Entry e = entries.get(path);
+		if(e == null || e.imp != null)
+			return;
+		e.future.cancel(false);
+		release(path, e);
+	}
+
+	/**
+	 * Delete the given swap file in the background, after the pending
+	 * write or read of it. A pending write which has not started yet
+	 * is cancelled.
+	 */
+	public synchronized void delete(final String path) {
+		Entry e = entries.get(path);
+		if(e != null) {
+			e.future.cancel(false);
+			release(path, e);
+		}
+		files.remove(path);
+		exec.submit(new Runnable() {
+			public void run() {
+				new File(path).delete();
+			}
+		});
+	}
+
+	/**
+	 * Returns the image of the given swap file. If the image is still
+	 * being written (or could not be written), it is returned directly; if it is prefetched,
+	 * this waits for the read to finish. Otherwise the file is read
+	 * on the calling thread.
+	 * @return the image, or null if it cannot be read.
+	 */
+	public ImagePlus load(String path) {
+		Entry e;
+		synchronized(this) {
+			e = entries.get(path);
+			if(e != null)
+				release(path, e);
+			if(e != null && e.imp != null)
+				return e.imp;
+		}
+		if(e != null) {
+			try {
+				ImagePlus imp = e.future.get();
+				if(imp != null)
+					return imp;
+			} catch(InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			} catch(ExecutionException ex) {
+				IJ.log("Could not prefetch " + path + ": "
+					+ ex.getCause());
+			}
+		}
+		try {
+			return SwapFormat.read(path);
+		} catch(IOException ex) {
+			IJ.log("Could not read " + path + ": " + ex);
+			return null;
+		}
+	}
+
+	/**
+	 * Keep the image of a failed write in memory until it is loaded
+	 * again. It does not count against the memory budget anymore,
+	 * and the partially written swap file is deleted.
+	 */
+	private synchronized void keepInMemory(String path, Entry e) {
+		if(entries.get(path) == e) {
+			memoryInUse -= e.bytes;
+			files.remove(path);
+		}
+		e.bytes = 0;
+		new File(path).delete();
+	}
+
+	private synchronized void release(String path, Entry e) {
+		if(entries.get(path) != e)
+			return;
+		entries.remove(path);
+		memoryInUse -= e.bytes;
+	}
+}
@@ -3,7 +3,6 @@
 import ij.ImagePlus;
 import ij.ImageStack;
 import ij.measure.Calibration;
-import ij.IJ;
 import java.awt.image.IndexColorModel;
 import javax.vecmath.Point3d;
 
@@ -74,6 +73,9 @@ public class Volume {
 	/** The calibration of the data */
 	public double pw, ph, pd;
 
+	/** The size of the image in memory, when it is swapped out */
+	private long swapSize;
+
 
 	/** The minimum coordinate of the data */
 	public final Point3d minCoord = new Point3d();
@@ -181,15 +183,48 @@ public void clear() {
 		loader = null;
 	}
 
+	/**
+	 * Swap the image out to a file in the background and release it.
+	 * @see SwapLoader
+	 */
 	public void swap(String path) {
-		IJ.save(imp, path + ".tif");
+		swapSize = SwapFormat.getSizeInBytes(imp);
+		SwapLoader.getInstance().swap(imp, path + SwapFormat.EXTENSION);
 		imp = null;
 		image = null;
 		loader = null;
 	}
 
 	public void restore(String path) {
-		setImage(IJ.openImage(path + ".tif"), channels);
+		ImagePlus imp = SwapLoader.getInstance().load(
+			path + SwapFormat.EXTENSION);
+		if(imp == null)
+			throw new IllegalArgumentException(
+				"Cannot load image from " + path);
+		setImage(imp, channels);
+	}
+
+	/**
+	 * Start loading the swapped out image in the background,
+	 * so that a later call to restore() does not need to wait.
+	 */
+	public void prefetch(String path) {
+		SwapLoader.getInstance().prefetch(
+			path + SwapFormat.EXTENSION, swapSize);
+	}
+
+	/**
+	 * Drop the image if it was prefetched.
+	 */
+	public void discardPrefetched(String path) {
+		SwapLoader.getInstance().discard(path + SwapFormat.EXTENSION);
+	}
+
+	/**
+	 * Delete the swap file, once pending writes or reads are done.
+	 */
+	public void deleteSwapFile(String path) {
+		SwapLoader.getInstance().delete(path + SwapFormat.EXTENSION);
 	}
 
 	/**
@@ -25,7 +25,7 @@ public class ContextMenu implements ActionListener, ItemListener, ContentConstan
 
 	private Content content;
 
-	private JMenuItem slices, updateVol, fill, smoothMesh, smoothAllMeshes, smoothDialog, colorSurface, decimateMesh;
+	private JMenuItem slices, updateVol, fill, smoothMesh, smoothAllMeshes, smoothDialog, colorSurface, decimateMesh, simplifyMesh;
 	private JCheckBoxMenuItem shaded, saturated;
 
 	public ContextMenu (Image3DUniverse univ) {
@@ -60,6 +60,10 @@ public ContextMenu (Image3DUniverse univ) {
 		decimateMesh.addActionListener(this);
 		popup.add(decimateMesh);
 
+		simplifyMesh = new JMenuItem("Simplify mesh (quadric error)");
+		simplifyMesh.addActionListener(this);
+		popup.add(simplifyMesh);
+
 		smoothDialog = new JMenuItem("Smooth control");
 		smoothDialog.addActionListener(this);
 		smooth.add(smoothDialog);
@@ -117,6 +121,8 @@ else if (src == smoothDialog)
 			executer.smoothControl();
 		else if (src == decimateMesh)
 			executer.decimateMesh();
+		else if (src == simplifyMesh)
+			executer.simplifyMesh();
 		else if(src == colorSurface)
 			executer.applySurfaceColors(content);
 	}
@@ -4,17 +4,18 @@
 import ij3d.Content;
 import ij3d.ContentNode;
 import ij3d.Executer;
+import customnode.BinarySTL;
 import customnode.CustomQuadMesh;
 import customnode.CustomTriangleMesh;
 import customnode.WavefrontExporter;
 import customnode.CustomMeshNode;
 import customnode.CustomMesh;
 import customnode.CustomMultiMesh;
+import customnode.PLYExporter;
 
 import ij.IJ;
 import ij.io.SaveDialog;
 
-import java.io.DataOutputStream;
 import java.io.File;
 import java.io.BufferedOutputStream;
 import java.io.OutputStreamWriter;
@@ -22,8 +23,6 @@
 import java.io.StringWriter;
 import java.io.Writer;
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 
 import java.util.Collection;
 import java.util.Iterator;
@@ -178,7 +177,6 @@ public static void saveAsSTL(Collection meshgroups, File stl_file, int filetype)
 		}
 
 		OutputStreamWriter dos = null;
-		DataOutputStream out = null;
 		try {
 			if (filetype == ASCII) {
 				dos = new OutputStreamWriter(new BufferedOutputStream(
@@ -186,10 +184,7 @@ public static void saveAsSTL(Collection meshgroups, File stl_file, int filetype)
 				writeAsciiSTL(meshgroups, dos, stl_file.getName());
 				dos.flush();
 			} else {
-				out = new DataOutputStream(new BufferedOutputStream(
-						new FileOutputStream(stl_file)));
-				writeBinarySTL(meshgroups, out);
-				out.flush();
+				writeBinarySTL(meshgroups, stl_file);
 			}
 		} catch (IOException ioe) {
 			ioe.printStackTrace();
@@ -197,17 +192,40 @@ public static void saveAsSTL(Collection meshgroups, File stl_file, int filetype)
 			try {
 				if (null != dos)
 					dos.close();
-				if (null != out)
-					out.close();
 			} catch (Exception e) {
 			}
 		}
 	}
 
-	private static void writeBinarySTL(Collection meshgroups,
-			DataOutputStream out) {
-			
-		// get all the meshes and sort them into a hash
+	/**
+	 * Save the triangle meshes as one binary PLY file, in which equal
+	 * vertices are stored only once.
+	 */
+	public static void saveAsPLY(Collection meshgroups, File ply_file) {
+		if (null == meshgroups || 0 == meshgroups.size())
+			return;
+		meshgroups = filterMeshes(meshgroups);
+		if (0 == meshgroups.size()) {
+			IJ.log("No meshes to export!");
+			return;
+		}
+		try {
+			List<String> skipped = PLYExporter.save(
+					collectMeshes(meshgroups), ply_file);
+			for (String name : skipped)
+				IJ.log("Unsupported content type, can't save " + name
+						+ " as PLY");
+		} catch (IOException e) {
+			IJ.log("Some error ocurred while saving to PLY:\n" + e);
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Maps the names of the contents to their meshes; the meshes of a
+	 * CustomMultiMesh are numbered.
+	 */
+	private static HashMap<String, CustomMesh> collectMeshes(Collection meshgroups) {
 		HashMap<String, CustomMesh> meshes = new HashMap<String, CustomMesh>();
 		for (Iterator<Content> it = meshgroups.iterator(); it.hasNext();) {
 			Content mob = (Content) it.next();
@@ -234,6 +252,15 @@ private static void writeBinarySTL(Collection meshgroups,
 				continue;
 			}
 		}
+		return meshes;
+	}
+
+	private static void writeBinarySTL(Collection meshgroups,
+			File stl_file) throws IOException {
+
+		// get all the meshes and sort them into a hash
+		HashMap<String, CustomMesh> meshes = collectMeshes(meshgroups);
+
 		//count all the triangles and add them to a list
 		int triangles = 0;
 		ArrayList<List<Point3f>> surfaces = new ArrayList<List<Point3f>>();
@@ -252,45 +279,25 @@ private static void writeBinarySTL(Collection meshgroups,
 			triangles += vertices.size() / 3;
 			surfaces.add(vertices);
 		}
-		
-		String header = "Binary STL created by ImageJ 3D Viewer.";
-		for (int i = header.length(); i < 80; i++){
-			header = header+".";
-		}
-		try {
-			out.writeBytes(header);
-			out.writeByte(triangles & 0xFF);
-			out.writeByte((triangles >> 8) & 0xFF);
-			out.writeByte((triangles >> 16) & 0xFF);
-			out.writeByte((triangles >> 24) & 0xFF);
-			for (List<Point3f> vertices : surfaces){
-				for (int i = 0; i < vertices.size(); i+=3){
-					Point3f p0 = vertices.get(i);
-					Point3f p1 = vertices.get(i+1);
-					Point3f p2 = vertices.get(i+2);
-					Point3f n = unitNormal(p0, p1, p2);
-					ByteBuffer bb = ByteBuffer.allocate(50);
-					bb.order(ByteOrder.LITTLE_ENDIAN);
-					bb.putFloat(n.x);
-					bb.putFloat(n.y);
-					bb.putFloat(n.z);
-					bb.putFloat(p0.x);
-					bb.putFloat(p0.y);
-					bb.putFloat(p0.z);
-					bb.putFloat(p1.x);
-					bb.putFloat(p1.y);
-					bb.putFloat(p1.z);
-					bb.putFloat(p2.x);
-					bb.putFloat(p2.y);
-					bb.putFloat(p2.z);
-					bb.putShort((short)0);
-					out.write(bb.array());
-				}
+
+		// the records are encoded in parallel from flat coordinates
+		float[] coords = new float[9 * triangles];
+		int i = 0;
+		for (List<Point3f> vertices : surfaces) {
+			int n = vertices.size() - vertices.size() % 3;
+			for (int v = 0; v < n; v++) {
+				Point3f p = vertices.get(v);
+				coords[i++] = p.x;
+				coords[i++] = p.y;
+				coords[i++] = p.z;
 			}
-		} catch (IOException e) {
-			e.printStackTrace();
 		}
 
+		String header = "Binary STL created by ImageJ 3D Viewer.";
+		for (int h = header.length(); h < 80; h++){
+			header = header+".";
+		}
+		BinarySTL.write(stl_file, coords, header);
 	}
 
 	private static Point3f unitNormal(Point3f p0, Point3f p1, Point3f p2) {
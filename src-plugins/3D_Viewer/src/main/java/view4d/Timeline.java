@@ -1,6 +1,7 @@
 package view4d;
 
 import ij3d.Image3DUniverse;
+import ij.IJ;
 import ij.ImagePlus;
 import ij.ImageStack;
 
@@ -97,6 +98,7 @@ public synchronized void play() {
 			return;
 		if(playing != null)
 			return;
+		resetFrameTimes();
 		playing = new Thread(new Runnable() {
 			public void run() {
 				int inc = +1;
@@ -114,7 +116,9 @@ public void run() {
 						inc = -inc;
 						continue;
 					}
+					long start = System.nanoTime();
 					univ.showTimepoint(next);
+					addFrameTime(System.nanoTime() - start);
 					try {
 						Thread.sleep(delay);
 					} catch(Exception e) {
@@ -123,11 +127,52 @@ public void run() {
 				}
 				shouldPause = false;
 				playing = null;
+				IJ.showStatus(getFrameTimeStatistics());
 			}
 		});
 		playing.start();
 	}
 
+	private int frames;
+	private long frameTimeSum, frameTimeMax;
+
+	private synchronized void resetFrameTimes() {
+		frames = 0;
+		frameTimeSum = frameTimeMax = 0;
+	}
+
+	private synchronized void addFrameTime(long nanos) {
+		frames++;
+		frameTimeSum += nanos;
+		frameTimeMax = Math.max(frameTimeMax, nanos);
+	}
+
+	/**
+	 * Returns the mean time in milliseconds it took to switch to the
+	 * next timepoint during the last playback, including the time for
+	 * restoring swapped out data.
+	 */
+	public synchronized double getMeanFrameTime() {
+		return frames == 0 ? 0 : frameTimeSum / 1e6 / frames;
+	}
+
+	/**
+	 * Returns the maximum time in milliseconds it took to switch to the
+	 * next timepoint during the last playback.
+	 */
+	public synchronized double getMaxFrameTime() {
+		return frameTimeMax / 1e6;
+	}
+
+	/**
+	 * Returns a summary of the frame times of the last playback.
+	 */
+	public synchronized String getFrameTimeStatistics() {
+		return frames + " frames, frame time mean "
+			+ IJ.d2s(getMeanFrameTime(), 1) + " ms, max "
+			+ IJ.d2s(getMaxFrameTime(), 1) + " ms";
+	}
+
 	/**
 	 * Stop/pause animation
 	 */
@@ -345,7 +345,7 @@ protected void calculateMinMaxCenterPoint() {
 
 	@Override
 	public void swapDisplayedData(String path, String name) {
-		renderer.volume.swap(path + ".tif");
+		renderer.volume.swap(path);
 		renderer.disableTextures();
 	}
 
@@ -357,7 +357,22 @@ public void clearDisplayedData() {
 
 	@Override
 	public void restoreDisplayedData(String path, String name) {
-		renderer.volume.restore(path + ".tif");
+		renderer.volume.restore(path);
 		renderer.enableTextures();
 	}
+
+	@Override
+	public void prefetchDisplayedData(String path, String name) {
+		renderer.volume.prefetch(path);
+	}
+
+	@Override
+	public void discardPrefetchedData(String path, String name) {
+		renderer.volume.discardPrefetched(path);
+	}
+
+	@Override
+	public void deleteSwappedData(String path, String name) {
+		renderer.volume.deleteSwapFile(path);
+	}
 }
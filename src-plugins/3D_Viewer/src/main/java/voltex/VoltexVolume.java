@@ -13,7 +13,6 @@
 
 import ij.ImagePlus;
 import ij3d.Volume;
-import ij.IJ;
 
 import javax.media.j3d.ImageComponent;
 import javax.media.j3d.ImageComponent2D;
@@ -129,11 +128,8 @@ public void swap(String path) {
 	}
 
 	public void restore(String path) {
-		ImagePlus imp = IJ.openImage(path + ".tif");
 		try {
-			setImage(IJ.openImage(path + ".tif"), channels);
-		} catch(NullPointerException e) {
-			throw new IllegalArgumentException("Cannot load image from " + path);
+			super.restore(path);
 		} catch(RuntimeException e) {
 			System.out.println("Cannot load " + path);
 			throw e;
@@ -0,0 +1,148 @@
+package customnode;
+
+import ij.Prefs;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import javax.vecmath.Color3f;
+
+/**
+ * Measures reading and writing of synthetic triangle meshes in the binary
+ * STL, Wavefront obj and PLY formats, and checks that the meshes are read
+ * back unchanged.
+ *
+ * Usage: <code>MeshIOBenchmark [triangles[,triangles...]] [threads]</code>,
+ * e.g. <code>MeshIOBenchmark 1000000,10000000 8</code>. The meshes are
+ * tori, written to the temporary directory.
+ */
+public class MeshIOBenchmark {
+
+	public static void main(String[] args) throws IOException {
+		String sizes = args.length > 0 ? args[0] : "1000000";
+		int threads = args.length > 1 ?
+			Integer.parseInt(args[1]) : Prefs.getThreads();
+		for(String size : sizes.split(","))
+			run(Integer.parseInt(size.trim()), threads);
+	}
+
+	public static void run(int triangles, int threads) throws IOException {
+		System.out.println("Torus with about " + triangles
+			+ " triangles, " + threads + " thread(s)");
+		IndexedMesh mesh = createTorus(triangles);
+		int n = mesh.getTriangleCount();
+		float[] coords = mesh.toCoordinates();
+
+		long start = System.currentTimeMillis();
+		IndexedMesh welded = IndexedMesh.fromTriangles(coords);
+		report("weld", start, n, 0);
+		check("weld", welded.getVertexCount() == mesh.getVertexCount());
+
+		File stl = File.createTempFile("benchmark", ".stl");
+		File obj = File.createTempFile("benchmark", ".obj");
+		File ply = File.createTempFile("benchmark", ".ply");
+		try {
+			for(int t : new int[] { 1, threads }) {
+				start = System.currentTimeMillis();
+				BinarySTL.write(stl, coords, "benchmark", t);
+				report("STL write (" + t + ")", start, n,
+					stl.length());
+			}
+			for(int t : new int[] { 1, threads }) {
+				start = System.currentTimeMillis();
+				float[] read = BinarySTL.read(stl, t);
+				report("STL read (" + t + ")", start, n,
+					stl.length());
+				check("STL", Arrays.equals(coords, read));
+			}
+
+			start = System.currentTimeMillis();
+			Writer w = new OutputStreamWriter(new BufferedOutputStream(
+				new FileOutputStream(obj), 1 << 16), "8859_1");
+			try {
+				WavefrontExporter.writeTriangles("torus", mesh, 0, w);
+			} finally {
+				w.close();
+			}
+			report("OBJ write", start, n, obj.length());
+			for(int t : new int[] { 1, threads }) {
+				start = System.currentTimeMillis();
+				WavefrontParser parser = WavefrontParser.parse(obj, t);
+				report("OBJ read (" + t + ")", start, n,
+					obj.length());
+				check("OBJ", Arrays.equals(
+						mesh.vertices, parser.getVertices())
+					&& Arrays.equals(
+						mesh.faces, parser.getIndices()));
+			}
+
+			start = System.currentTimeMillis();
+			PLYExporter.write(ply, Collections.singletonList(mesh),
+				Collections.singletonList(new Color3f(1, 1, 1)));
+			report("PLY write", start, n, ply.length());
+		} finally {
+			stl.delete();
+			obj.delete();
+			ply.delete();
+		}
+	}
+
+	/**
+	 * Create a torus of about the given number of triangles, as a
+	 * closed grid of quads, each split into two triangles.
+	 */
+	public static IndexedMesh createTorus(int triangles) {
+		int nu = Math.max(3, (int)Math.sqrt(triangles / 2.0 * 4));
+		int nv = Math.max(3, triangles / 2 / nu);
+		float[] vertices = new float[3 * nu * nv];
+		int[] faces = new int[6 * nu * nv];
+		double R = 100, r = 30;
+		for(int i = 0; i < nu; i++) {
+			double u = 2 * Math.PI * i / nu;
+			for(int j = 0; j < nv; j++) {
+				double v = 2 * Math.PI * j / nv;
+				int k = 3 * (i * nv + j);
+				vertices[k] = (float)((R + r * Math.cos(v)) * Math.cos(u));
+				vertices[k + 1] = (float)((R + r * Math.cos(v)) * Math.sin(u));
+				vertices[k + 2] = (float)(r * Math.sin(v));
+
+				int a = i * nv + j;
+				int b = ((i + 1) % nu) * nv + j;
+				int c = ((i + 1) % nu) * nv + (j + 1) % nv;
+				int d = i * nv + (j + 1) % nv;
+				int f = 6 * a;
+				faces[f] = a;
+				faces[f + 1] = b;
+				faces[f + 2] = c;
+				faces[f + 3] = a;
+				faces[f + 4] = c;
+				faces[f + 5] = d;
+			}
+		}
+		return new IndexedMesh(vertices, faces);
+	}
+
+	private static void report(String what, long start, int triangles,
+			long bytes) {
+		long ms = Math.max(1, System.currentTimeMillis() - start);
+		String line = what + ": " + ms + "ms, "
+			+ String.format("%.2f", triangles / (ms * 1000.0))
+			+ "M triangles/s";
+		if(bytes > 0)
+			line += String.format(", %.1fMB/s",
+				bytes * 1000.0 / ms / (1 << 20));
+		System.out.println(line);
+	}
+
+	private static void check(String what, boolean ok) {
+		if(!ok)
+			System.out.println(what + ": MISMATCH");
+	}
+}
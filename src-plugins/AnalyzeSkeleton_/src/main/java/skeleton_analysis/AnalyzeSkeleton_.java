@@ -5,10 +5,12 @@
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.ListIterator;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import ij.IJ;
 import ij.ImagePlus;
 import ij.ImageStack;
+import ij.Prefs;
 import ij.WindowManager;
 import ij.gui.GenericDialog;
 import ij.measure.Calibration;
@@ -71,8 +73,18 @@ public class AnalyzeSkeleton_ implements PlugInFilter
 	/** working image stack */
 	private ImageStack inputImage = null;
 	
-	/** visit flags */
-	private boolean [][][] visited = null;
+	/** visit flags (one array per slice, indexed by x + y * width) */
+	private boolean [][] visited = null;
+	/** input image pixels (one array per slice) */
+	private byte [][] inputPixels = null;
+	/** tagged image pixels (one array per slice) */
+	private byte [][] taggedPixels = null;
+	/** voxel width (calibration) */
+	private double pixelWidth = 1;
+	/** voxel height (calibration) */
+	private double pixelHeight = 1;
+	/** voxel depth (calibration) */
+	private double pixelDepth = 1;
 	
 	// Measures
 	/** total number of end points voxels */
@@ -145,9 +157,6 @@ public class AnalyzeSkeleton_ implements PlugInFilter
 	/** stack image containing the corresponding skeleton tags (end point, junction or slab) */
 	private ImageStack taggedImage = null;
 	
-	/** auxiliary temporary point */
-	private Point auxPoint = null;
-	
 	/** number of trees (skeletons) in the image */
 	private int numOfTrees = 0;
 	
@@ -162,11 +171,6 @@ public class AnalyzeSkeleton_ implements PlugInFilter
 	
 	/** array of graphs (one per tree) */
 	private Graph[] graph = null;
-	
-	/** auxiliary list of slabs */
-	private ArrayList<Point> slabList = null;
-	/** auxiliary final vertex */
-	private Vertex auxFinalVertex = null;
 		
 	/** prune cycle options */
 	public static final String[] pruneCyclesModes = {"none", 
@@ -197,6 +201,9 @@ public class AnalyzeSkeleton_ implements PlugInFilter
 	
 	/** boolean flag to display extra information in result tables */
 	public static boolean verbose = false;
+
+	/** flag to analyze the trees concurrently */
+	public static boolean parallel = false;
 	
 	/** silent run flag, to distinguish between GUI and plugin calls */
 	protected boolean silent = false;
@@ -239,6 +246,7 @@ public void run(ImageProcessor ip)
 		gd.addCheckbox("Prune ends", pruneEnds);
 		gd.addCheckbox("Calculate largest shortest path", calculateShortestPath);
 		gd.addCheckbox("Show detailed info", AnalyzeSkeleton_.verbose);
+		gd.addCheckbox("Analyze trees in parallel", AnalyzeSkeleton_.parallel);
 		gd.showDialog();
 		
 		// Exit when canceled
@@ -248,6 +256,7 @@ public void run(ImageProcessor ip)
 		pruneEnds = gd.getNextBoolean();
 		calculateShortestPath = gd.getNextBoolean();
 		AnalyzeSkeleton_.verbose = gd.getNextBoolean();
+		AnalyzeSkeleton_.parallel = gd.getNextBoolean();
 		
 		// pre-checking if another image is needed and also setting bPruneCycles
 		ImagePlus origIP = null;
@@ -397,23 +406,8 @@ public SkeletonResult run(
 			for(int i=1; i<=this.inputImage.getSize(); i++)
 				shortPathImage.addSlice(this.inputImage.getSliceLabel(i), this.inputImage.getProcessor(i).duplicate());
 			
-			shortestPathList = new ArrayList < Double >();
-			
-			this.shortestPathPoints = new ArrayList [ this.numOfTrees ];
-			
 			// Visit skeleton and measure distances.
-			// and apply warshall algorithm
-			spStartPosition = new double[this.numOfTrees][3];
-			for(int i = 0; i < this.numOfTrees; i++)
-			{							
-				shortestPathPoints[ i ] = new ArrayList<Point>();
-				// Warshall algorithm including tag positions
-				this.shortestPath = warshallAlgorithm(this.graph[i], shortestPathPoints[ i ]);
-				shortestPathList.add(this.shortestPath);
-				spStartPosition[i][0] = spx * this.imRef.getCalibration().pixelWidth;
-				spStartPosition[i][1] = spy * this.imRef.getCalibration().pixelHeight;
-				spStartPosition[i][2] = spz * this.imRef.getCalibration().pixelDepth;				
-			}
+			calculateLongestShortestPaths();
 			
 			if (!silent) {
 				// Display short paths in a new stack
@@ -524,23 +518,8 @@ public SkeletonResult run(
 			for(int i=1; i<=this.inputImage.getSize(); i++)
 				shortPathImage.addSlice(this.inputImage.getSliceLabel(i), this.inputImage.getProcessor(i).duplicate());
 			
-			shortestPathList = new ArrayList < Double >();
-			
-			this.shortestPathPoints = new ArrayList [ this.numOfTrees ];
-			
 			// Visit skeleton and measure distances.
-			// and apply warshall algorithm
-			spStartPosition = new double[this.numOfTrees][3];
-			for(int i = 0; i < this.numOfTrees; i++)
-			{							
-				shortestPathPoints[ i ] = new ArrayList<Point>();
-				// Warshall algorithm including tag positions
-				this.shortestPath = warshallAlgorithm(this.graph[i], shortestPathPoints[ i ]);
-				shortestPathList.add(this.shortestPath);
-				spStartPosition[i][0] = spx * this.imRef.getCalibration().pixelWidth;
-				spStartPosition[i][1] = spy * this.imRef.getCalibration().pixelHeight;
-				spStartPosition[i][2] = spz * this.imRef.getCalibration().pixelDepth;				
-			}
+			calculateLongestShortestPaths();
 			
 			if (!silent) {
 				// Display short paths in a new stack
@@ -879,8 +858,16 @@ public void processSkeleton(ImageStack inputImage2)
 		this.totalNumberOfSlabs = 0;
 		
 		
+		// Cache calibration and slice pixels for the visits
+		final Calibration calibration = this.imRef.getCalibration();
+		this.pixelWidth = calibration.pixelWidth;
+		this.pixelHeight = calibration.pixelHeight;
+		this.pixelDepth = calibration.pixelDepth;
+		this.inputPixels = getSlicePixels(this.inputImage);
+
 		// Prepare data: classify voxels and tag them.
 		this.taggedImage = tagImage(inputImage2);		
+		this.taggedPixels = getSlicePixels(this.taggedImage);
 		
 		// Show tags image.
 		if(!bPruneCycles && !silent)
@@ -918,8 +905,13 @@ public void processSkeleton(ImageStack inputImage2)
 		resetVisited();
 		
 		// Visit skeleton and measure distances.
-		for(int i = 0; i < this.numOfTrees; i++)
-			visitSkeleton(taggedImage, treeIS, i+1);
+		final ImageStack treeImage = treeIS;
+		processTrees(new TreeTask() {
+			public void process(int iTree)
+			{
+				visitSkeleton(taggedImage, treeImage, iTree+1);
+			}
+		});
 		
 	} // end method processSkeleton
 
@@ -1417,6 +1409,7 @@ protected SkeletonResult assembleResults()
 	 */
 	private void visitSkeleton(ImageStack taggedImage) 
 	{
+		final BranchVisit visit = new BranchVisit();
 	
 		// length of branches
 		double branchLength = 0;		
@@ -1433,7 +1426,7 @@ private void visitSkeleton(ImageStack taggedImage)
 			Point endPointCoord = this.listOfEndPoints.get(i);
 					 
 			// visit branch until next junction or end point.
-			double length = visitBranch(endPointCoord);
+			double length = visitBranch(endPointCoord, visit);
 						
 			if(length == 0)						
 				continue;			
@@ -1447,7 +1440,7 @@ private void visitSkeleton(ImageStack taggedImage)
 			{
 				maximumBranchLength = length;
 				initialPoint = endPointCoord;
-				finalPoint = this.auxPoint;
+				finalPoint = visit.auxPoint;
 			}
 		}
 		
@@ -1466,7 +1459,7 @@ private void visitSkeleton(ImageStack taggedImage)
 			{
 				branchLength += calculateDistance(junctionCoord, nextPoint);								
 								
-				double length = visitBranch(nextPoint);
+				double length = visitBranch(nextPoint, visit);
 				
 				branchLength += length;
 				
@@ -1479,7 +1472,7 @@ private void visitSkeleton(ImageStack taggedImage)
 					{
 						maximumBranchLength = length;
 						initialPoint = junctionCoord;
-						finalPoint = this.auxPoint;
+						finalPoint = visit.auxPoint;
 					}
 				}
 				
@@ -1506,6 +1499,8 @@ private void visitSkeleton(ImageStack taggedImage, ImageStack treeImage, int cur
 	{
 		// tree index
 		final int iTree = currentTree - 1;
+		// auxiliary variables of the branch visits
+		final BranchVisit visit = new BranchVisit();
 		
 		if(debug)
 		{
@@ -1557,10 +1552,10 @@ private void visitSkeleton(ImageStack taggedImage, ImageStack treeImage, int cur
 				this.graph[iTree].setRoot(v1);
 			
 			// slab list for the edge
-			this.slabList = new ArrayList<Point>();
+			visit.slabList = new ArrayList<Point>();
 					 
 			// Otherwise, visit branch until next junction or end point.
-			double length = visitBranch(endPointCoord, iTree);
+			double length = visitBranch(endPointCoord, iTree, visit);
 						
 			// If length is 0, it means the tree is formed by only one voxel.
 			if(length == 0)
@@ -1570,17 +1565,17 @@ private void visitSkeleton(ImageStack taggedImage, ImageStack treeImage, int cur
 				final Point aux = getVisitedJunctionNeighbor(endPointCoord, v1);				
 				if(null != aux)
 				{
-					this.auxFinalVertex = findPointVertex(this.junctionVertex[iTree], aux);
+					visit.auxFinalVertex = findPointVertex(this.junctionVertex[iTree], aux);
 					length += calculateDistance(endPointCoord, aux);
 					
 					// Add the length to the first point of the vertex (to prevent later from having
 					// euclidean distances larger than the actual distance)
-					length += calculateDistance(auxFinalVertex.getPoints().get(0), endPointCoord);
+					length += calculateDistance(visit.auxFinalVertex.getPoints().get(0), endPointCoord);
 					// Add branch to graph			
 					if(debug)
-						IJ.log( "adding branch from " + v1.getPoints().get(0) + " to " + this.auxFinalVertex.getPoints().get(0) );
-					this.graph[iTree].addVertex(this.auxFinalVertex);
-					this.graph[iTree].addEdge(new Edge(v1, this.auxFinalVertex, this.slabList, length));
+						IJ.log( "adding branch from " + v1.getPoints().get(0) + " to " + visit.auxFinalVertex.getPoints().get(0) );
+					this.graph[iTree].addVertex(visit.auxFinalVertex);
+					this.graph[iTree].addEdge(new Edge(v1, visit.auxFinalVertex, visit.slabList, length));
 					// increase number of branches
 					this.numberOfBranches[iTree]++;
 					
@@ -1598,31 +1593,31 @@ private void visitSkeleton(ImageStack taggedImage, ImageStack treeImage, int cur
 			// If the final point is a slab, then we add the path to the
 			// neighbor junction voxel not belonging to the initial vertex
 			// (unless it is a self loop)
-			if(isSlab(this.auxPoint))
+			if(isSlab(visit.auxPoint))
 			{
-				final Point aux = this.auxPoint;
-				//IJ.log("Looking for " + this.auxPoint + " in the list of vertices...");
-				this.auxPoint = getVisitedJunctionNeighbor(this.auxPoint, v1);
-				this.auxFinalVertex = findPointVertex(this.junctionVertex[iTree], this.auxPoint);
-				if(this.auxPoint == null)
+				final Point aux = visit.auxPoint;
+				//IJ.log("Looking for " + visit.auxPoint + " in the list of vertices...");
+				visit.auxPoint = getVisitedJunctionNeighbor(visit.auxPoint, v1);
+				visit.auxFinalVertex = findPointVertex(this.junctionVertex[iTree], visit.auxPoint);
+				if(visit.auxPoint == null)
 				{
 					//IJ.log("Point "+ aux + " has not neighbor end junction! (inner loop)");
 					// Inner loop
-					this.auxFinalVertex = v1;
-					this.auxPoint = aux;
+					visit.auxFinalVertex = v1;
+					visit.auxPoint = aux;
 				}
-				length += calculateDistance(this.auxPoint, aux);
+				length += calculateDistance(visit.auxPoint, aux);
 								
 				// Add the length to the first point of the vertex (to prevent later from having
 				// euclidean distances larger than the actual distance)
-				length += calculateDistance(auxFinalVertex.getPoints().get(0), auxPoint);
+				length += calculateDistance(visit.auxFinalVertex.getPoints().get(0), visit.auxPoint);
 			}
 			
 			// Add branch to graph			
 			if(debug)
-				IJ.log("adding branch from " + v1.getPoints().get(0) + " to " + this.auxFinalVertex.getPoints().get(0) +  ", aux point = " + this.auxPoint);
-			this.graph[iTree].addVertex(this.auxFinalVertex);
-			this.graph[iTree].addEdge(new Edge(v1, this.auxFinalVertex, this.slabList, length));
+				IJ.log("adding branch from " + v1.getPoints().get(0) + " to " + visit.auxFinalVertex.getPoints().get(0) +  ", aux point = " + visit.auxPoint);
+			this.graph[iTree].addVertex(visit.auxFinalVertex);
+			this.graph[iTree].addEdge(new Edge(v1, visit.auxFinalVertex, visit.slabList, length));
 			
 			// increase number of branches
 			this.numberOfBranches[iTree]++;
@@ -1672,15 +1667,15 @@ private void visitSkeleton(ImageStack taggedImage, ImageStack treeImage, int cur
 							IJ.log("visiting " + nextPoint);
 						
 						// Create graph edge
-						this.slabList = new ArrayList<Point>();
-						this.slabList.add(nextPoint);
+						visit.slabList = new ArrayList<Point>();
+						visit.slabList.add(nextPoint);
 
 						// Calculate distance from junction to that point
 						double length = calculateDistance(junctionCoord, nextPoint);	
 
 						// Visit branch
-						this.auxPoint = null;
-						length += visitBranch(nextPoint, iTree);
+						visit.auxPoint = null;
+						length += visitBranch(nextPoint, iTree, visit);
 
 						// Increase total length of branches
 						branchLength += length;
@@ -1688,8 +1683,8 @@ private void visitSkeleton(ImageStack taggedImage, ImageStack treeImage, int cur
 						// Increase number of branches
 						if(length != 0)
 						{				
-							if(this.auxPoint == null)
-								this.auxPoint = nextPoint;
+							if(visit.auxPoint == null)
+								visit.auxPoint = nextPoint;
 							
 							this.numberOfBranches[iTree]++;
 						
@@ -1706,24 +1701,24 @@ private void visitSkeleton(ImageStack taggedImage, ImageStack treeImage, int cur
 							// If the final point is a slab, then we add the path to the
 							// neighbor junction voxel not belonging to the initial vertex
 							// (unless it is a self loop)
-							if(isSlab(this.auxPoint))
+							if(isSlab(visit.auxPoint))
 							{
-								final Point aux = this.auxPoint;
-								//IJ.log("Looking for " + this.auxPoint + " in the list of vertices...");
-								this.auxPoint = getVisitedJunctionNeighbor(this.auxPoint, initialVertex);
-								this.auxFinalVertex = findPointVertex(this.junctionVertex[iTree], this.auxPoint);
-								if(this.auxPoint == null)
+								final Point aux = visit.auxPoint;
+								//IJ.log("Looking for " + visit.auxPoint + " in the list of vertices...");
+								visit.auxPoint = getVisitedJunctionNeighbor(visit.auxPoint, initialVertex);
+								visit.auxFinalVertex = findPointVertex(this.junctionVertex[iTree], visit.auxPoint);
+								if(visit.auxPoint == null)
 								{
 									//IJ.log("Point "+ aux + " has not neighbor end junction! (inner loop)");
 									// Inner loop
-									this.auxFinalVertex = initialVertex;
-									this.auxPoint = aux;
+									visit.auxFinalVertex = initialVertex;
+									visit.auxPoint = aux;
 								}
-								length += calculateDistance(this.auxPoint, aux);
+								length += calculateDistance(visit.auxPoint, aux);
 							}
 							
 							if(debug)
-								IJ.log("increased number of branches, length = " + length + " (last point = " + this.auxPoint + ")");
+								IJ.log("increased number of branches, length = " + length + " (last point = " + visit.auxPoint + ")");
 							// update maximum branch length
 							if(length > this.maximumBranchLength[iTree])
 							{
@@ -1738,8 +1733,8 @@ private void visitSkeleton(ImageStack taggedImage, ImageStack treeImage, int cur
 							// Create graph branch							
 							// Add branch to graph
 							if(debug)
-								IJ.log("adding branch from " + initialVertex.getPoints().get(0) + " to " + this.auxFinalVertex.getPoints().get(0));							
-							this.graph[iTree].addEdge(new Edge(initialVertex, this.auxFinalVertex, this.slabList, length));												
+								IJ.log("adding branch from " + initialVertex.getPoints().get(0) + " to " + visit.auxFinalVertex.getPoints().get(0));							
+							this.graph[iTree].addEdge(new Edge(initialVertex, visit.auxFinalVertex, visit.slabList, length));												
 						}
 					}
 					else
@@ -1767,13 +1762,13 @@ private void visitSkeleton(ImageStack taggedImage, ImageStack treeImage, int cur
 			this.graph[iTree].addVertex(v1);
 			
 			
-			this.slabList = new ArrayList<Point>();
-			this.slabList.add(startCoord);
+			visit.slabList = new ArrayList<Point>();
+			visit.slabList.add(startCoord);
 			
 			this.numberOfSlabs[iTree]++;
 			
 			// visit branch until finding visited voxel.
-			final double length = visitBranch(startCoord, iTree);
+			final double length = visitBranch(startCoord, iTree, visit);
 						
 			if(length != 0)
 			{				
@@ -1789,7 +1784,7 @@ private void visitSkeleton(ImageStack taggedImage, ImageStack treeImage, int cur
 			}
 			
 			// Create circular edge
-			this.graph[iTree].addEdge(new Edge(v1, v1, this.slabList, length));
+			this.graph[iTree].addEdge(new Edge(v1, v1, visit.slabList, length));
 		}						
 
 		if(debug)
@@ -2051,11 +2046,12 @@ private int visitTree(Point startingPoint, ImageStack outputImage,
 	 * Visit a branch and calculate length.
 	 * 
 	 * @param startingPoint starting coordinates
+	 * @param visit auxiliary variables of the visit
 	 * @return branch length
 	 * 
 	 * @deprecated
 	 */
-	private double visitBranch(Point startingPoint) 
+	private double visitBranch(Point startingPoint, BranchVisit visit) 
 	{
 		double length = 0;
 		
@@ -2094,7 +2090,7 @@ private double visitBranch(Point startingPoint)
 			setVisited(nextPoint, true);
 		}
 		
-		this.auxPoint = previousPoint;
+		visit.auxPoint = previousPoint;
 		
 		return length;
 	}// end visitBranch
@@ -2105,9 +2101,10 @@ private double visitBranch(Point startingPoint)
 	 * 
 	 * @param startingPoint starting coordinates
 	 * @param iTree tree index
+	 * @param visit auxiliary variables of the visit
 	 * @return branch length
 	 */
-	private double visitBranch(Point startingPoint, int iTree) 
+	private double visitBranch(Point startingPoint, int iTree, BranchVisit visit) 
 	{
 		//IJ.log("startingPoint = (" + startingPoint.x + ", " + startingPoint.y + ", " + startingPoint.z + ")");
 		double length = 0;
@@ -2129,7 +2126,7 @@ private double visitBranch(Point startingPoint, int iTree)
 			this.numberOfSlabs[iTree]++;
 		
 			// Add slab voxel to the edge
-			this.slabList.add(nextPoint);
+			visit.slabList.add(nextPoint);
 			
 			// Add length
 			length += calculateDistance(previousPoint, nextPoint);
@@ -2159,24 +2156,24 @@ private double visitBranch(Point startingPoint, int iTree)
 			{
 				if(debug)
 					IJ.log("found unvisited end point: " + nextPoint);
-				this.auxFinalVertex = new Vertex();
-				this.auxFinalVertex.addPoint(nextPoint);
+				visit.auxFinalVertex = new Vertex();
+				visit.auxFinalVertex.addPoint(nextPoint);
 			}
 			else if(isJunction(nextPoint))
 			{
 				if(debug)
 					IJ.log("found unvisited junction point: " + nextPoint);
-				this.auxFinalVertex = findPointVertex(this.junctionVertex[iTree], nextPoint);
+				visit.auxFinalVertex = findPointVertex(this.junctionVertex[iTree], nextPoint);
 				// Add the length to the first point of the vertex (to prevent later from having
 				// euclidean distances larger than the actual distance)
-				length += calculateDistance(auxFinalVertex.getPoints().get(0), nextPoint);
+				length += calculateDistance(visit.auxFinalVertex.getPoints().get(0), nextPoint);
 				/*
 				int j = 0;
 				for(j = 0; j < this.junctionVertex[iTree].length; j++)
 					if(this.junctionVertex[iTree][j].isVertexPoint(nextPoint))
 					{
-						this.auxFinalVertex = this.junctionVertex[iTree][j];
-						IJ.log(" " + nextPoint + " belongs to junction " + this.auxFinalVertex.getPoints().get(0));
+						visit.auxFinalVertex = this.junctionVertex[iTree][j];
+						IJ.log(" " + nextPoint + " belongs to junction " + visit.auxFinalVertex.getPoints().get(0));
 						break;
 					}
 				if(j == this.junctionVertex[iTree].length)
@@ -2184,10 +2181,10 @@ else if(isJunction(nextPoint))
 					*/
 			}
 			
-			this.auxPoint = nextPoint;
+			visit.auxPoint = nextPoint;
 		}
 		else
-			this.auxPoint = previousPoint;
+			visit.auxPoint = previousPoint;
 		
 		//IJ.log("finalPoint = (" + nextPoint.x + ", " + nextPoint.y + ", " + nextPoint.z + ")");
 		return length;
@@ -2226,9 +2223,9 @@ public Vertex findPointVertex(Vertex[] vertex, Point p)
 	 */
 	private double calculateDistance(Point point1, Point point2) 
 	{		
-		return Math.sqrt(  Math.pow( (point1.x - point2.x) * this.imRef.getCalibration().pixelWidth, 2) 
-				          + Math.pow( (point1.y - point2.y) * this.imRef.getCalibration().pixelHeight, 2)
-				          + Math.pow( (point1.z - point2.z) * this.imRef.getCalibration().pixelDepth, 2));
+		return Math.sqrt(  Math.pow( (point1.x - point2.x) * this.pixelWidth, 2) 
+				          + Math.pow( (point1.y - point2.y) * this.pixelHeight, 2)
+				          + Math.pow( (point1.z - point2.z) * this.pixelDepth, 2));
 	}
 
 	// -----------------------------------------------------------------------
@@ -2242,17 +2239,19 @@ private void groupJunctions(ImageStack treeIS)
 		// Mark all unvisited
 		resetVisited();
 		
-		for (int iTree = 0; iTree < this.numOfTrees; iTree++)
-		{
-			// Visit list of junction voxels
-			for(int i = 0; i < this.numberOfJunctionVoxels[iTree]; i ++)
+		processTrees(new TreeTask() {
+			public void process(int iTree)
 			{
-				Point pi = this.junctionVoxelTree[iTree].get(i);
-				
-				if(! isVisited(pi))
-					fusionNeighborJunction(pi, this.listOfSingleJunctions[iTree]);
+				// Visit list of junction voxels
+				for(int i = 0; i < numberOfJunctionVoxels[iTree]; i ++)
+				{
+					Point pi = junctionVoxelTree[iTree].get(i);
+					
+					if(! isVisited(pi))
+						fusionNeighborJunction(pi, listOfSingleJunctions[iTree]);
+				}
 			}
-		}		
+		});
 				
 		// Count number of single junctions for every tree in the image
 		for (int iTree = 0; iTree < this.numOfTrees; iTree++)
@@ -2287,7 +2286,7 @@ private void resetVisited()
 	{
 		// Reset visited variable
 		this.visited = null;
-		this.visited = new boolean[this.width][this.height][this.depth];
+		this.visited = new boolean[this.depth][this.width * this.height];
 		/*
 		for(int i = 0; i < this.width; i ++)
 			for(int j = 0; j < this.height; j++)
@@ -2384,36 +2383,47 @@ boolean checkNeighborGroups(ArrayList <Point> g1,  ArrayList <Point> g2)
 	 */
 	private void calculateTripleAndQuadruplePoints() 
 	{
-		for (int iTree = 0; iTree < this.numOfTrees; iTree++)
-		{			
-			// Visit the groups of junction voxels
-			for(int i = 0; i < this.numberOfJunctions[iTree]; i ++)
+		processTrees(new TreeTask() {
+			public void process(int iTree)
 			{
+				calculateTripleAndQuadruplePoints(iTree);
+			}
+		});
+	}// end calculateTripleAndQuadruplePoints
 
-				ArrayList <Point> groupOfJunctions = this.listOfSingleJunctions[iTree].get(i);
+	// -----------------------------------------------------------------------
+	/**
+	 * Calculate number of triple and quadruple points in a tree.
+	 * 
+	 * @param iTree tree index
+	 */
+	private void calculateTripleAndQuadruplePoints(int iTree) 
+	{
+		// Visit the groups of junction voxels
+		for(int i = 0; i < this.numberOfJunctions[iTree]; i ++)
+		{
 
-				// Count the number of slab and end-points neighbors of every voxel in the group
-				int nBranch = 0;
-				for(int j = 0; j < groupOfJunctions.size(); j++)
-				{
-					Point pj = groupOfJunctions.get(j);
-
-					// Get neighbors and check the slabs or end-points
-					byte[] neighborhood = this.getNeighborhood(this.taggedImage, pj.x, pj.y, pj.z);
-					for(int k = 0; k < 27; k++)
-						if (neighborhood[k] == AnalyzeSkeleton_.SLAB 
-							|| neighborhood[k] == AnalyzeSkeleton_.END_POINT)
-							nBranch++;
-				}
-				// If the junction has only 3 slab/end-point neighbors, then it is a triple point
-				if (nBranch == 3)	
-					this.numberOfTriplePoints[iTree] ++;
-				else if(nBranch == 4) // quadruple point if 4
-					this.numberOfQuadruplePoints[iTree] ++;
-			}		
-				
-		}
-		
+			ArrayList <Point> groupOfJunctions = this.listOfSingleJunctions[iTree].get(i);
+
+			// Count the number of slab and end-points neighbors of every voxel in the group
+			int nBranch = 0;
+			for(int j = 0; j < groupOfJunctions.size(); j++)
+			{
+				Point pj = groupOfJunctions.get(j);
+
+				// Get neighbors and check the slabs or end-points
+				byte[] neighborhood = this.getNeighborhood(this.taggedImage, pj.x, pj.y, pj.z);
+				for(int k = 0; k < 27; k++)
+					if (neighborhood[k] == AnalyzeSkeleton_.SLAB 
+						|| neighborhood[k] == AnalyzeSkeleton_.END_POINT)
+						nBranch++;
+			}
+			// If the junction has only 3 slab/end-point neighbors, then it is a triple point
+			if (nBranch == 3)	
+				this.numberOfTriplePoints[iTree] ++;
+			else if(nBranch == 4) // quadruple point if 4
+				this.numberOfQuadruplePoints[iTree] ++;
+		}		
 	}// end calculateTripleAndQuadruplePoints
 	
 
@@ -2441,7 +2451,7 @@ private boolean isNeighbor(Point point1, Point point2)
 	 */
 	private boolean isSlab(Point point) 
 	{		
-		return getPixel(this.taggedImage, point.x, point.y, point.z) == AnalyzeSkeleton_.SLAB;
+		return getTag(point.x, point.y, point.z) == AnalyzeSkeleton_.SLAB;
 	}
 
 	/* -----------------------------------------------------------------------*/
@@ -2453,7 +2463,7 @@ private boolean isSlab(Point point)
 	 */
 	private boolean isJunction(Point point) 
 	{		
-		return getPixel(this.taggedImage, point.x, point.y, point.z) == AnalyzeSkeleton_.JUNCTION;
+		return getTag(point.x, point.y, point.z) == AnalyzeSkeleton_.JUNCTION;
 	}	
 	
 	/* -----------------------------------------------------------------------*/
@@ -2465,7 +2475,7 @@ private boolean isJunction(Point point)
 	 */
 	private boolean isEndPoint(Point point) 
 	{		
-		return getPixel(this.taggedImage, point.x, point.y, point.z) == AnalyzeSkeleton_.END_POINT;
+		return getTag(point.x, point.y, point.z) == AnalyzeSkeleton_.END_POINT;
 	}	
 	
 	/* -----------------------------------------------------------------------*/
@@ -2479,7 +2489,7 @@ private boolean isEndPoint(Point point)
 	 */
 	private boolean isJunction(int x, int y, int z) 
 	{		
-		return getPixel(this.taggedImage, x, y, z) == AnalyzeSkeleton_.JUNCTION;
+		return getTag(x, y, z) == AnalyzeSkeleton_.JUNCTION;
 	}	
 	
 	/* -----------------------------------------------------------------------*/
@@ -2501,7 +2511,7 @@ private Point getNextUnvisitedVoxel(Point point)
 					if(x == 0 && y == 0 && z == 0)
 						continue;
 					
-					if(getPixel(this.inputImage, point.x + x, point.y + y, point.z + z) != 0
+					if(getInputPixel(point.x + x, point.y + y, point.z + z) != 0
 						&& isVisited(point.x + x, point.y + y, point.z + z) == false)						
 					{					
 						unvisitedNeighbor = new Point(point.x + x, point.y + y, point.z + z);
@@ -2532,7 +2542,7 @@ private Point getNextUnvisitedJunctionVoxel(Point point)
 					if(x == 0 && y == 0 && z == 0)
 						continue;
 					
-					if(getPixel(this.inputImage, point.x + x, point.y + y, point.z + z) != 0
+					if(getInputPixel(point.x + x, point.y + y, point.z + z) != 0
 						&& isVisited(point.x + x, point.y + y, point.z + z) == false 
 						&& isJunction(point.x + x, point.y + y, point.z + z))						
 					{					
@@ -2568,7 +2578,7 @@ private Point getVisitedJunctionNeighbor(Point point, Vertex exclude)
 					
 					final Point neighbor = new Point( point.x + x, point.y + y, point.z + z);
 					
-					if(getPixel(this.inputImage, neighbor) != 0
+					if(getInputPixel(neighbor.x, neighbor.y, neighbor.z) != 0
 						&& isVisited(neighbor)
 						&& isJunction(neighbor)
 						&& ! exclude.getPoints().contains(neighbor))						
@@ -2608,7 +2618,7 @@ private boolean isVisited(Point point)
 	private boolean isVisited(int x, int y, int z) 
 	{
 		if(x >= 0 && x < this.width && y >= 0 && y < this.height && z >= 0 && z < this.depth)
-			return this.visited[x][y][z];
+			return this.visited[z][x + y * this.width];
 		return true;
 	}
 	
@@ -2625,7 +2635,7 @@ private boolean isVisited(int x, int y, int z)
 	private void setVisited(int x, int y, int z, boolean b) 
 	{
 		if(x >= 0 && x < this.width && y >= 0 && y < this.height && z >= 0 && z < this.depth)
-			this.visited[x][y][z] = b;		
+			this.visited[z][x + y * this.width] = b;
 	}
 
 	/* -----------------------------------------------------------------------*/
@@ -2655,6 +2665,7 @@ private ImageStack tagImage(ImageStack inputImage2)
 	{
 		// Create output image
 		ImageStack outputImage = new ImageStack(this.width, this.height, inputImage2.getColorModel());
+		final byte[][] pixels = getSlicePixels(inputImage2);
 			
 		// Tag voxels
 		for (int z = 0; z < depth; z++)
@@ -2663,9 +2674,9 @@ private ImageStack tagImage(ImageStack inputImage2)
 			for (int x = 0; x < width; x++) 
 				for (int y = 0; y < height; y++)
 				{
-					if(getPixel(inputImage2, x, y, z) != 0)
+					if(pixels[z][x + y * width] != 0)
 					{
-						int numOfNeighbors = getNumberOfNeighbors(inputImage2, x, y, z);
+						int numOfNeighbors = getNumberOfNeighbors(pixels, x, y, z);
 						if(numOfNeighbors < 2)
 						{
 							setPixel(outputImage, x, y, z, AnalyzeSkeleton_.END_POINT);
@@ -2715,6 +2726,38 @@ private int getNumberOfNeighbors(ImageStack image, int x, int y, int z)
 		// We return n-1 because neighborhood includes the actual voxel.
 		return (n-1);			
 	}// end method getNumberOfNeighbors
+
+	/* -----------------------------------------------------------------------*/
+	/**
+	 * Get number of neighbors of a voxel in a 3D image (0 border conditions),
+	 * reading directly from the slice pixel arrays.
+	 * 
+	 * @param pixels slice pixel arrays
+	 * @param x x- coordinate
+	 * @param y y- coordinate
+	 * @param z z- coordinate (starting at 0)
+	 * @return number of non-zero voxels in the 26-neighborhood
+	 */
+	private int getNumberOfNeighbors(byte[][] pixels, int x, int y, int z)
+	{
+		int n = 0;
+		for(int k = z - 1; k <= z + 1; k++)
+		{
+			if(k < 0 || k >= this.depth)
+				continue;
+			final byte[] slice = pixels[k];
+			for(int j = y - 1; j <= y + 1; j++)
+			{
+				if(j < 0 || j >= this.height)
+					continue;
+				for(int i = x - 1; i <= x + 1; i++)
+					if(i >= 0 && i < this.width && slice[i + j * this.width] != 0)
+						n++;
+			}
+		}
+		// We return n-1 because neighborhood includes the actual voxel.
+		return (n-1);
+	}// end method getNumberOfNeighbors
 	
 	// -----------------------------------------------------------------------
 	/**
@@ -2924,6 +2967,53 @@ private byte getPixel(ImageStack image, Point point)
 	{
 		return getPixel(image, point.x, point.y, point.z);
 	} // end getPixel 
+
+	/* -----------------------------------------------------------------------*/
+	/**
+	 * Get pixel of the input image (0 border conditions).
+	 * 
+	 * @param x x- coordinate
+	 * @param y y- coordinate
+	 * @param z z- coordinate (starting at 0)
+	 * @return corresponding pixel (0 if out of image)
+	 */
+	private byte getInputPixel(int x, int y, int z)
+	{
+		if(x >= 0 && x < this.width && y >= 0 && y < this.height && z >= 0 && z < this.depth)
+			return this.inputPixels[z][x + y * this.width];
+		else return 0;
+	} // end getInputPixel
+
+	/* -----------------------------------------------------------------------*/
+	/**
+	 * Get tag of a voxel in the tagged image (0 border conditions).
+	 * 
+	 * @param x x- coordinate
+	 * @param y y- coordinate
+	 * @param z z- coordinate (starting at 0)
+	 * @return corresponding tag (0 if out of image)
+	 */
+	private byte getTag(int x, int y, int z)
+	{
+		if(x >= 0 && x < this.width && y >= 0 && y < this.height && z >= 0 && z < this.depth)
+			return this.taggedPixels[z][x + y * this.width];
+		else return 0;
+	} // end getTag
+
+	/* -----------------------------------------------------------------------*/
+	/**
+	 * Get the pixel arrays of all the slices of a stack.
+	 * 
+	 * @param image 3D image
+	 * @return array of slice pixels (one per slice)
+	 */
+	private byte[][] getSlicePixels(ImageStack image)
+	{
+		final byte[][] pixels = new byte[this.depth][];
+		for(int z = 0; z < this.depth; z++)
+			pixels[z] = (byte[]) image.getPixels(z + 1);
+		return pixels;
+	} // end getSlicePixels
 	
 	/* -----------------------------------------------------------------------*/
 	/**
@@ -2986,6 +3076,46 @@ void showAbout()
 	} // end showAbout 
 	
 
+	/**
+	 * Calculate the longest shortest path of every tree (concurrently in
+	 * parallel mode) and store the lengths and start positions.
+	 */
+	private void calculateLongestShortestPaths()
+	{
+		shortestPathList = new ArrayList < Double >();
+		
+		this.shortestPathPoints = new ArrayList [ this.numOfTrees ];
+		
+		// apply warshall algorithm to every tree
+		final double[] longestShortestPaths = new double[this.numOfTrees];
+		processTrees(new TreeTask() {
+			public void process(int iTree)
+			{
+				shortestPathPoints[ iTree ] = new ArrayList<Point>();
+				// Warshall algorithm including tag positions
+				longestShortestPaths[ iTree ] = warshallAlgorithm(graph[iTree], shortestPathPoints[ iTree ]);
+			}
+		});
+		
+		spStartPosition = new double[this.numOfTrees][3];
+		for(int i = 0; i < this.numOfTrees; i++)
+		{
+			this.shortestPath = longestShortestPaths[i];
+			shortestPathList.add(this.shortestPath);
+			// the path starts at its first point (an empty path keeps the
+			// start position of the previous one)
+			if (shortestPathPoints[i].size() != 0)
+			{
+				this.spx = shortestPathPoints[i].get(0).x;
+				this.spy = shortestPathPoints[i].get(0).y;
+				this.spz = shortestPathPoints[i].get(0).z;
+			}
+			spStartPosition[i][0] = spx * this.pixelWidth;
+			spStartPosition[i][1] = spy * this.pixelHeight;
+			spStartPosition[i][2] = spz * this.pixelDepth;
+		}
+	}// end method calculateLongestShortestPaths
+
 	/**
 	 * Determine the longest shortest path using the APSP (all pairs shortest path) 
 	 * warshall algorithm
@@ -3148,7 +3278,8 @@ private double warshallAlgorithm(Graph graph, ArrayList <Point> shortestPathPoin
 	// end method warshallAlgorithm
 	
 	/**
-	 * Reconstruction and visualisation of the longest shortest path found by the APSP warshall algorithm
+	 * Reconstruction and visualisation of the longest shortest path found by the APSP warshall algorithm.
+	 * Only touches the voxels of the given graph, so different trees can be reconstructed concurrently.
 	 *  
 	 * @param predecessorMatrix the Matrix which contains the predecessor of vertex b in the shortest path from a to b
 	 * @param startIndex the index of the row which contains the longest shortest path
@@ -3235,15 +3366,96 @@ private void reconstructPath(
 			// a to predecessor and repeat cycle
 			b = predecessorMatrix[a][b];
 		}
-		if (shortestPathPoints.size() != 0)
-		{
-			this.spx = shortestPathPoints.get(0).x;
-			this.spy = shortestPathPoints.get(0).y;
-			this.spz = shortestPathPoints.get(0).z;
-		}		
-
 	}
 	// end method reconstructPath
 	
 
+	/* -----------------------------------------------------------------------*/
+	/**
+	 * Run a task on every tree of the skeleton. In parallel mode, the trees
+	 * are distributed among several threads (trees do not share any voxel,
+	 * so their visits are independent); otherwise they are processed in order.
+	 * 
+	 * @param task task to run on each tree
+	 */
+	private void processTrees(final TreeTask task)
+	{
+		final int nTrees = this.numOfTrees;
+		final int nThreads = parallel ? Math.min(Prefs.getThreads(), nTrees) : 1;
+		
+		if(nThreads < 2)
+		{
+			for(int iTree = 0; iTree < nTrees; iTree++)
+				task.process(iTree);
+			return;
+		}
+		
+		final AtomicInteger ai = new AtomicInteger(0);
+		final Throwable[] failure = new Throwable[1];
+		final Thread[] threads = new Thread[nThreads];
+		for(int ithread = 0; ithread < nThreads; ithread++)
+		{
+			threads[ithread] = new Thread() {
+				public void run()
+				{
+					try
+					{
+						for(int iTree = ai.getAndIncrement(); iTree < nTrees; iTree = ai.getAndIncrement())
+							task.process(iTree);
+					}
+					catch(Throwable t)
+					{
+						synchronized(failure)
+						{
+							failure[0] = t;
+						}
+						// make the other threads stop
+						ai.set(nTrees);
+					}
+				}
+			};
+			threads[ithread].start();
+		}
+		
+		try
+		{
+			for(int ithread = 0; ithread < nThreads; ithread++)
+				threads[ithread].join();
+		}
+		catch(InterruptedException e)
+		{
+			IJ.handleException(e);
+		}
+		
+		if(failure[0] != null)
+			throw new RuntimeException("Error while analyzing skeleton trees", failure[0]);
+	}// end method processTrees
+
+	/**
+	 * Task to be run on every tree of the skeleton.
+	 */
+	private interface TreeTask
+	{
+		/**
+		 * Process one tree.
+		 * 
+		 * @param iTree tree index
+		 */
+		void process(int iTree);
+	}
+
+	/**
+	 * Auxiliary variables used while visiting the branches of a tree
+	 * (one instance per visit, so trees can be visited concurrently).
+	 */
+	private static class BranchVisit
+	{
+		/** auxiliary temporary point */
+		Point auxPoint = null;
+		/** auxiliary list of slabs */
+		ArrayList<Point> slabList = null;
+		/** auxiliary final vertex */
+		Vertex auxFinalVertex = null;
+	}
+
 }// end class AnalyzeSkeleton_
@@ -14,6 +14,9 @@
 // 1.3  1/Nov/2011 added constant offset to Niblack's method (request)
 // 1.4  2/Nov/2011 Niblack's new constant should be subtracted to match mean,mode and midgrey methods. Midgrey method had the wrong constant sign.
 // 1.5  18/Nov/2013 added 3 new local thresholding methdos: Constrast, Otsu and Phansalkar
+// 1.6  19/Oct/2026 optional one-pass engine (LocalThresholdEngine) with circular windows (sliding
+//                  histogram) or square windows (integral images), parallel over the slices of a
+//                  stack; it also accepts 16-bit images
                 
 public class Auto_Local_Threshold implements PlugIn {
         /** Ask for parameters and then execute.*/
@@ -26,8 +29,9 @@ public void run(String arg) {
 			return;
 		}
 
-		if (imp.getBitDepth()!=8) {
-			IJ.showMessage("Error", "Only 8-bit images are supported");
+		int bitDepth = imp.getBitDepth();
+		if (bitDepth!=8 && bitDepth!=16) {
+			IJ.showMessage("Error", "Only 8-bit and 16-bit images are supported");
 			return;
 		}
 
@@ -41,6 +45,8 @@ public void run(String arg) {
 		gd.addNumericField ("Parameter_1",  0, 0);
 		gd.addNumericField ("Parameter_2",  0, 0);
 		gd.addCheckbox("White objects on black background",true);
+		String [] windows={"Circular (RankFilters)", "Circular (fast, all but Otsu)", "Square (fast, all but Otsu)"};
+		gd.addChoice("Windows", windows, windows[bitDepth==16 ? 1 : 0]);
 		if (imp.getStackSize()>1) {
 			gd.addCheckbox("Stack",false);
 		}
@@ -54,12 +60,23 @@ public void run(String arg) {
 		double par1 = (double) gd.getNextNumber();
 		double par2 = (double) gd.getNextNumber();
 		boolean doIwhite = gd.getNextBoolean ();
+		String myWindows = gd.getNextChoice ();
 		boolean doIstack=false; 
 
 		int stackSize = imp.getStackSize();
 		if (stackSize>1)
 			doIstack = gd.getNextBoolean ();
 
+		if (!myWindows.equals(windows[0]) && LocalThresholdEngine.supports(myMethod)) {
+			execEngine(imp, myMethod, radius, par1, par2, doIwhite, myWindows.equals(windows[1]), doIstack);
+			return;
+		}
+		if (bitDepth!=8) {
+			IJ.showMessage("Error", "16-bit images need fast windows and one of the methods\n"+
+				"Bernsen, Contrast, Mean, Median, MidGrey, Niblack, Phansalkar or Sauvola.");
+			return;
+		}
+
 		// 4 - Execute!
 		//long start = System.currentTimeMillis();
 		if(myMethod.equals("Try all")){
@@ -208,6 +225,46 @@ else if(myMethod.equals("Sauvola")){
 		return new Object[] {imp};
 	}
 
+	/** Threshold with LocalThresholdEngine, on circular or square windows, either the
+	* current slice or, in parallel, the whole stack. 8-bit images are binarised in place;
+	* for 16-bit images a new 8-bit image is shown. */
+	public void execEngine(ImagePlus imp, String myMethod, int radius,  double par1, double par2, boolean doIwhite, boolean doIcircular, boolean doIstack) {
+		IJ.showStatus("Thresholding...");
+		long startTime = System.currentTimeMillis();
+		LocalThresholdEngine engine = new LocalThresholdEngine(myMethod, radius, par1, par2, doIwhite, doIcircular);
+		ImageStack stack = imp.getStack();
+		ImageStack result;
+		if (doIstack)
+			result = engine.threshold(stack);
+		else {
+			result = new ImageStack(imp.getWidth(), imp.getHeight());
+			result.addSlice(stack.getSliceLabel(imp.getCurrentSlice()), engine.threshold(imp.getProcessor()));
+		}
+
+		if (imp.getBitDepth()==8) {
+			if (doIstack) {
+				for (int k=1; k<=stack.getSize(); k++)
+					System.arraycopy((byte[])result.getPixels(k), 0, (byte[])stack.getPixels(k), 0, imp.getWidth()*imp.getHeight());
+			}
+			else {
+				ImageProcessor ip = imp.getProcessor();
+				if (imp.getStackSize()==1) {
+					ip.snapshot();
+					Undo.setup(Undo.FILTER, imp);
+				}
+				System.arraycopy((byte[])result.getPixels(1), 0, (byte[])ip.getPixels(), 0, imp.getWidth()*imp.getHeight());
+			}
+			imp.updateAndDraw();
+			imp.getProcessor().setThreshold(255, 255, ImageProcessor.NO_LUT_UPDATE);
+		}
+		else {
+			ImagePlus imp2 = new ImagePlus(imp.getShortTitle()+"-"+myMethod, result);
+			imp2.setCalibration(imp.getCalibration());
+			imp2.show();
+		}
+		IJ.showStatus("\nDone " + (System.currentTimeMillis() - startTime) / 1000.0);
+	}
+
 	void Bernsen(ImagePlus imp, int radius,  double par1, double par2, boolean doIwhite ) {
 		// Bernsen recommends WIN_SIZE = 31 and CONTRAST_THRESHOLD = 15.
 		//  1) Bernsen J. (1986) "Dynamic Thresholding of Grey-Level Images" 
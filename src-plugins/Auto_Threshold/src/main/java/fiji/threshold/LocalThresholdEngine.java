@@ -0,0 +1,464 @@
+package fiji.threshold;
+import ij.*;
+import ij.process.*;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Local thresholding on circular or square windows, for 8-bit and 16-bit images.
+// All local statistics a method needs are computed in one pass over each slice.
+// Square windows:
+//  - mean and variance from integral images of the sum and the sum of squares,
+//  - minimum and maximum with running (monotonic queue) filters along rows, then columns,
+//  - median with a sliding histogram (Huang's algorithm).
+//  The cost per pixel does not depend on the radius. Windows are clipped at the image border,
+//  i.e. the statistics only use pixels inside the image.
+// Circular windows:
+//  - the kernel of RankFilters, and like RankFilters, pixels outside the image take the value
+//    of the nearest edge pixel,
+//  - a window that slides along each row keeps the sums and a histogram for all statistics
+//    (Huang's algorithm with circular kernels), so the cost per pixel grows with the radius
+//    rather than with its square.
+// Slices are processed in parallel.
+
+public class LocalThresholdEngine {
+	/** The methods that can be computed with square windows. */
+	public static final String[] METHODS = {"Bernsen", "Contrast", "Mean", "Median", "MidGrey", "Niblack", "Phansalkar", "Sauvola"};
+
+	private final String method;
+	private final int radius;
+	private final double par1, par2;
+	private final boolean doIwhite;
+	private final boolean circular;
+
+	public LocalThresholdEngine(String method, int radius, double par1, double par2, boolean doIwhite, boolean circular) {
+		if (!supports(method))
+			throw new IllegalArgumentException("Unsupported method: " + method);
+		this.method = method;
+		this.radius = Math.max(0, radius);
+		this.par1 = par1;
+		this.par2 = par2;
+		this.doIwhite = doIwhite;
+		this.circular = circular;
+	}
+
+	public static boolean supports(String method) {
+		for (int i = 0; i < METHODS.length; i++)
+			if (METHODS[i].equals(method))
+				return true;
+		return false;
+	}
+
+	/** Thresholds all slices of an 8-bit or 16-bit stack in parallel.
+	 * @return the binary slices (object 255 if doIwhite, 0 otherwise) */
+	public ImageStack threshold(final ImageStack stack) {
+		final int n = stack.getSize();
+		final byte[][] result = new byte[n][];
+		final AtomicInteger ai = new AtomicInteger(0);
+		final AtomicInteger done = new AtomicInteger(0);
+		Thread[] threads = new Thread[Math.max(1, Math.min(n, Prefs.getThreads()))];
+		final Throwable[] failure = new Throwable[1];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread() {
+				public void run() {
+					try {
+						for (int k = ai.getAndIncrement(); k < n; k = ai.getAndIncrement()) {
+							result[k] = threshold(stack.getProcessor(k + 1));
+							IJ.showProgress(done.incrementAndGet(), n);
+						}
+					} catch (Throwable e) {
+						failure[0] = e;
+					}
+				}
+			};
+			threads[t].start();
+		}
+		try {
+			for (int t = 0; t < threads.length; t++)
+				threads[t].join();
+		} catch (InterruptedException e) {
+			IJ.handleException(e);
+		}
+		if (failure[0] != null)
+			throw new RuntimeException("Local threshold failed", failure[0]);
+
+		ImageStack out = new ImageStack(stack.getWidth(), stack.getHeight());
+		for (int k = 0; k < n; k++)
+			out.addSlice(stack.getSliceLabel(k + 1), result[k]);
+		return out;
+	}
+
+	/** Thresholds one 8-bit or 16-bit slice.
+	 * @return the binary pixels (object 255 if doIwhite, 0 otherwise) */
+	public byte[] threshold(ImageProcessor ip) {
+		int w = ip.getWidth();
+		int h = ip.getHeight();
+		int maxValue;
+		int[] values = new int[w * h];
+		Object pixels = ip.getPixels();
+		if (pixels instanceof byte[]) {
+			byte[] p = (byte[])pixels;
+			for (int i = 0; i < values.length; i++)
+				values[i] = p[i] & 0xff;
+			maxValue = 255;
+		}
+		else if (pixels instanceof short[]) {
+			short[] p = (short[])pixels;
+			for (int i = 0; i < values.length; i++)
+				values[i] = p[i] & 0xffff;
+			maxValue = 65535;
+		}
+		else
+			throw new IllegalArgumentException("Only 8-bit and 16-bit images are supported");
+
+		byte object, backg;
+		if (doIwhite) {
+			object = (byte) 0xff;
+			backg = (byte) 0;
+		}
+		else {
+			object = (byte) 0;
+			backg = (byte) 0xff;
+		}
+		byte[] out = new byte[w * h];
+
+		if (method.equals("Bernsen") || method.equals("Contrast") || method.equals("MidGrey")) {
+			int[] min = new int[w * h];
+			int[] max = new int[w * h];
+			if (circular)
+				circular(values, w, h, radius, maxValue, null, null, min, max, null);
+			else
+				minMax(values, w, h, radius, min, max);
+			if (method.equals("Bernsen")) {
+				// contrast_threshold and the mid grey level of the original are for 8-bit images
+				int contrastThreshold = par1 != 0 ? (int) par1 : 15 * maxValue / 255;
+				int half = (maxValue + 1) / 2;
+				for (int i = 0; i < out.length; i++) {
+					int midGray = (min[i] + max[i]) / 2;
+					if (max[i] - min[i] < contrastThreshold)
+						out[i] = midGray >= half ? object : backg; //Low contrast region
+					else
+						out[i] = values[i] >= midGray ? object : backg;
+				}
+			}
+			else if (method.equals("Contrast")) {
+				for (int i = 0; i < out.length; i++)
+					out[i] = Math.abs(max[i] - values[i]) <= Math.abs(values[i] - min[i]) ? object : backg;
+			}
+			else {
+				int cValue = (int) par1;
+				for (int i = 0; i < out.length; i++)
+					out[i] = values[i] > (min[i] + max[i]) / 2 - cValue ? object : backg;
+			}
+		}
+		else if (method.equals("Median")) {
+			int cValue = (int) par1;
+			int[] median;
+			if (circular) {
+				median = new int[w * h];
+				circular(values, w, h, radius, maxValue, null, null, null, null, median);
+			}
+			else
+				median = median(values, w, h, radius, maxValue);
+			for (int i = 0; i < out.length; i++)
+				out[i] = values[i] > median[i] - cValue ? object : backg;
+		}
+		else {
+			// Mean, Niblack, Phansalkar and Sauvola
+			double[] mean = new double[w * h];
+			double[] sd = new double[w * h];
+			meanAndDeviation(values, w, h, mean, sd);
+
+			double kValue = 0, rValue = 0, cValue = 0, offset = 0, scale = 1;
+			int which;
+			if (method.equals("Mean")) {
+				which = 0;
+				cValue = (int) par1;
+			}
+			else if (method.equals("Niblack")) {
+				which = 1;
+				kValue = par1 != 0 ? par1 : doIwhite ? 0.2 : -0.2;
+				cValue = (int) par2;
+			}
+			else if (method.equals("Phansalkar")) {
+				which = 2;
+				kValue = par1 != 0 ? par1 : 0.25;
+				rValue = par2 != 0 ? par2 : 0.5;
+				// Phansalkar's method works on intensities normalised to [0, 1]; as the
+				// stretchHistogram(imp, 0.0) of the RankFilters implementation, the range
+				// of the slice is stretched to [0, 1], for 8-bit and 16-bit images alike
+				int lo = Integer.MAX_VALUE, hi = Integer.MIN_VALUE;
+				for (int i = 0; i < values.length; i++) {
+					if (values[i] < lo) lo = values[i];
+					if (values[i] > hi) hi = values[i];
+				}
+				offset = lo;
+				scale = hi > lo ? 1.0 / (hi - lo) : 1;
+			}
+			else {
+				which = 3;
+				kValue = par1 != 0 ? par1 : 0.5;
+				rValue = par2 != 0 ? par2 : (maxValue + 1) / 2;
+			}
+			final double pValue = 2.0, qValue = 10.0;
+
+			for (int i = 0; i < out.length; i++) {
+				boolean isObject;
+				switch (which) {
+				case 0:
+					isObject = values[i] > (int)(mean[i] - cValue);
+					break;
+				case 1:
+					isObject = values[i] > (int)(mean[i] + kValue * sd[i] - cValue);
+					break;
+				case 2:
+					double m = (mean[i] - offset) * scale;
+					isObject = (values[i] - offset) * scale > m * (1.0 + pValue * Math.exp(-qValue * m) + kValue * ((sd[i] * scale / rValue) - 1.0));
+					break;
+				default:
+					isObject = values[i] > (int)(mean[i] * (1.0 + kValue * ((sd[i] / rValue) - 1.0)));
+					break;
+				}
+				out[i] = isObject ? object : backg;
+			}
+		}
+		return out;
+	}
+
+	// Local mean and standard deviation, from the integral images (square windows)
+	// or the sliding sums (circular windows).
+	void meanAndDeviation(int[] values, int w, int h, double[] mean, double[] sd) {
+		int n = w * h;
+		if (circular) {
+			long[] sum = new long[n];
+			long[] sumSq = new long[n];
+			double count = circular(values, w, h, radius, 0, sum, sumSq, null, null, null);
+			for (int i = 0; i < n; i++) {
+				mean[i] = sum[i] / count;
+				double var = sumSq[i] / count - mean[i] * mean[i];
+				sd[i] = var > 0 ? Math.sqrt(var) : 0;
+			}
+			return;
+		}
+
+		int w1 = w + 1;
+		long[] sum = new long[(w + 1) * (h + 1)];
+		long[] sumSq = new long[(w + 1) * (h + 1)];
+		integrate(values, w, h, sum, sumSq);
+		for (int y = 0; y < h; y++) {
+			int y0 = Math.max(0, y - radius), y1 = Math.min(h, y + radius + 1);
+			for (int x = 0; x < w; x++) {
+				int x0 = Math.max(0, x - radius), x1 = Math.min(w, x + radius + 1);
+				int a = y0 * w1 + x0, b = y0 * w1 + x1, c = y1 * w1 + x0, d = y1 * w1 + x1;
+				double count = (x1 - x0) * (y1 - y0);
+				int i = x + y * w;
+				mean[i] = (sum[d] - sum[b] - sum[c] + sum[a]) / count;
+				double var = (sumSq[d] - sumSq[b] - sumSq[c] + sumSq[a]) / count - mean[i] * mean[i];
+				sd[i] = var > 0 ? Math.sqrt(var) : 0;
+			}
+		}
+	}
+
+	// Integral images with an extra leading row and column of zeros:
+	// sum[x + y * (w + 1)] is the sum of all pixels left of x and above y.
+	static void integrate(int[] values, int w, int h, long[] sum, long[] sumSq) {
+		int w1 = w + 1;
+		for (int y = 0; y < h; y++) {
+			long rowSum = 0, rowSumSq = 0;
+			for (int x = 0; x < w; x++) {
+				long v = values[x + y * w];
+				rowSum += v;
+				rowSumSq += v * v;
+				int i = (x + 1) + (y + 1) * w1;
+				sum[i] = sum[i - w1] + rowSum;
+				sumSq[i] = sumSq[i - w1] + rowSumSq;
+			}
+		}
+	}
+
+	// Separable square-window minimum and maximum: rows first, then columns.
+	static void minMax(int[] values, int w, int h, int radius, int[] min, int[] max) {
+		int n = Math.max(w, h);
+		int[] line = new int[n], queue = new int[n];
+		for (int y = 0; y < h; y++) {
+			System.arraycopy(values, y * w, line, 0, w);
+			runningExtremum(line, w, radius, false, min, y * w, 1, queue);
+			runningExtremum(line, w, radius, true, max, y * w, 1, queue);
+		}
+		for (int x = 0; x < w; x++) {
+			for (int y = 0; y < h; y++)
+				line[y] = min[x + y * w];
+			runningExtremum(line, h, radius, false, min, x, w, queue);
+			for (int y = 0; y < h; y++)
+				line[y] = max[x + y * w];
+			runningExtremum(line, h, radius, true, max, x, w, queue);
+		}
+	}
+
+	// Minimum (or maximum) over [i - radius, i + radius] of a line, written to
+	// out[offset + i * stride]. A monotonic queue of indices is used, so that every
+	// element is pushed and popped at most once.
+	static void runningExtremum(int[] line, int length, int radius, boolean isMax, int[] out, int offset, int stride, int[] queue) {
+		int head = 0, tail = 0, next = 0;
+		for (int i = 0; i < length; i++) {
+			for (; next < length && next <= i + radius; next++) {
+				int v = line[next];
+				while (tail > head && (isMax ? line[queue[tail - 1]] <= v : line[queue[tail - 1]] >= v))
+					tail--;
+				queue[tail++] = next;
+			}
+			while (queue[head] < i - radius)
+				head++;
+			out[offset + i * stride] = line[queue[head]];
+		}
+	}
+
+	// Square-window median with a sliding histogram: the histogram is moved one column
+	// at a time along each row, and the median is tracked together with the number of
+	// window pixels below it, so it only moves by as many bins as the median changes.
+	static int[] median(int[] values, int w, int h, int radius, int maxValue) {
+		int[] median = new int[w * h];
+		int[] histogram = new int[maxValue + 1];
+		for (int y = 0; y < h; y++) {
+			int y0 = Math.max(0, y - radius), y1 = Math.min(h, y + radius + 1);
+			Arrays.fill(histogram, 0);
+			int count = 0;
+			for (int yy = y0; yy < y1; yy++)
+				for (int x = 0; x < Math.min(w, radius + 1); x++) {
+					histogram[values[x + yy * w]]++;
+					count++;
+				}
+			int med = 0, below = 0;
+			for (int x = 0; x < w; x++) {
+				if (x > 0) {
+					int out = x - radius - 1, in = x + radius;
+					if (out >= 0)
+						for (int yy = y0; yy < y1; yy++) {
+							int v = values[out + yy * w];
+							histogram[v]--;
+							count--;
+							if (v < med)
+								below--;
+						}
+					if (in < w)
+						for (int yy = y0; yy < y1; yy++) {
+							int v = values[in + yy * w];
+							histogram[v]++;
+							count++;
+							if (v < med)
+								below++;
+						}
+				}
+				// the median is the value with below <= half < below + histogram[med]
+				int half = count / 2;
+				while (below > half)
+					below -= histogram[--med];
+				while (below + histogram[med] <= half)
+					below += histogram[med++];
+				median[x + y * w] = med;
+			}
+		}
+		return median;
+	}
+
+	// Half widths of the lines of the circular kernel of RankFilters, from the top line to the
+	// bottom line: the line at dy from the centre reaches (int)sqrt(radius^2 + 1 - dy^2) pixels
+	// to either side.
+	static int[] kernelLines(int radius) {
+		int r2 = radius * radius + 1;
+		int kRadius = (int) Math.sqrt(r2 + 1e-10);
+		int[] dx = new int[2 * kRadius + 1];
+		for (int dy = -kRadius; dy <= kRadius; dy++)
+			dx[dy + kRadius] = (int) Math.sqrt(r2 - dy * dy + 1e-10);
+		return dx;
+	}
+
+	// Circular-window statistics. The window slides along each row: moving it by one pixel
+	// removes the leftmost and adds the rightmost pixel of each of its lines. Pixels outside
+	// the image take the value of the nearest edge pixel, as in RankFilters, so all windows
+	// have the same size. The sums are kept for the mean and variance, and a histogram for the
+	// minimum, maximum and median; the histogram is only needed (and maxValue only used) if
+	// one of these is asked for. Outputs that are not needed may be null.
+	// Returns the number of pixels in a window.
+	static int circular(int[] values, int w, int h, int radius, int maxValue, long[] sum, long[] sumSq, int[] min, int[] max, int[] median) {
+		int[] dx = kernelLines(radius);
+		int kRadius = dx.length / 2;
+		int count = 0;
+		for (int l = 0; l < dx.length; l++)
+			count += 2 * dx[l] + 1;
+		int half = count / 2;
+		boolean sums = sum != null || sumSq != null;
+		int[] histogram = min != null || max != null || median != null ? new int[maxValue + 1] : null;
+		int[] rows = new int[dx.length];
+		int med = 0;
+		for (int y = 0; y < h; y++) {
+			for (int l = 0; l < dx.length; l++)
+				rows[l] = Math.max(0, Math.min(h - 1, y + l - kRadius)) * w;
+
+			// the window of the first pixel of the row
+			long s = 0, s2 = 0;
+			int lo = Integer.MAX_VALUE, hi = Integer.MIN_VALUE, below = 0;
+			for (int l = 0; l < dx.length; l++)
+				for (int x = -dx[l]; x <= dx[l]; x++) {
+					int v = values[Math.max(0, Math.min(w - 1, x)) + rows[l]];
+					if (sums) {
+						s += v;
+						s2 += (long) v * v;
+					}
+					if (histogram != null) {
+						histogram[v]++;
+						if (v < lo) lo = v;
+						if (v > hi) hi = v;
+						if (v < med) below++;
+					}
+				}
+
+			for (int x = 0; x < w; x++) {
+				if (x > 0)
+					for (int l = 0; l < dx.length; l++) {
+						int vOut = values[Math.max(0, x - dx[l] - 1) + rows[l]];
+						int vIn = values[Math.min(w - 1, x + dx[l]) + rows[l]];
+						if (sums) {
+							s += vIn - vOut;
+							s2 += (long) vIn * vIn - (long) vOut * vOut;
+						}
+						if (histogram != null) {
+							histogram[vOut]--;
+							if (vOut < med) below--;
+							histogram[vIn]++;
+							if (vIn < med) below++;
+							if (vIn < lo) lo = vIn;
+							if (vIn > hi) hi = vIn;
+						}
+					}
+				int i = x + y * w;
+				if (sum != null) sum[i] = s;
+				if (sumSq != null) sumSq[i] = s2;
+				if (histogram != null) {
+					while (histogram[lo] == 0) lo++;
+					while (histogram[hi] == 0) hi--;
+					if (min != null) min[i] = lo;
+					if (max != null) max[i] = hi;
+					if (median != null) {
+						// the median is the value with below <= half < below + histogram[med]
+						while (below > half)
+							below -= histogram[--med];
+						while (below + histogram[med] <= half)
+							below += histogram[med++];
+						median[i] = med;
+					}
+				}
+			}
+
+			// empty the histogram for the next row; the median of this row's first pixel
+			// is a good start for the next one
+			if (histogram != null) {
+				for (int l = 0; l < dx.length; l++)
+					for (int x = w - 1 - dx[l]; x <= w - 1 + dx[l]; x++)
+						histogram[values[Math.max(0, Math.min(w - 1, x)) + rows[l]]]--;
+				if (median != null)
+					med = median[y * w];
+			}
+		}
+		return count;
+	}
+}
@@ -2,19 +2,37 @@
 
 import bsh.EvalError;
 
+import common.InterpreterPool;
 import common.RefreshScripts;
+import common.ScriptTimings;
 import java.io.File;
-import java.io.FileReader;
-import java.io.BufferedReader;
 import java.io.BufferedInputStream;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.FileInputStream;
 import java.io.PrintStream;
 import bsh.Interpreter;
+import bsh.NameSpace;
 import ij.IJ;
 
+/**
+ * Runs BeanShell scripts.
+ *
+ * The interpreters into which the ImageJ classes were imported are kept in
+ * a pool; every script runs in a fresh child namespace of the interpreter's
+ * global namespace, so that its variables are gone after it ran.
+ */
 public class Refresh_BSH_Scripts extends RefreshScripts {
+	protected static ScriptTimings timings = getTimings("BeanShell");
+
+	protected static InterpreterPool<Interpreter> pool =
+		new InterpreterPool<Interpreter>(timings, getMaxIdleInterpreters()) {
+			protected Interpreter create() throws EvalError {
+				Interpreter interpreter = new Interpreter();
+				interpreter.eval(new BSH_Interpreter().getImportStatement());
+				return interpreter;
+			}
+		};
 
 	public void run(String arg) {
 		setLanguageProperties(".bsh","BeanShell");
@@ -43,18 +61,21 @@ public void runScript(InputStream istream) {
 
 	/** Will consume and close the stream. */
 	public void runScript(InputStream istream, String sourceFileName) {
+		long start = System.nanoTime();
+		Interpreter interpreter = null;
 		try {
-			Interpreter interpreter = new Interpreter();
+			interpreter = pool.acquire();
 			interpreter.setOut(new PrintStream(out));
 			interpreter.setErr(new PrintStream(err));
-			BSH_Interpreter bsh = new BSH_Interpreter();
-			interpreter.eval(bsh.getImportStatement());
 			interpreter.eval(new InputStreamReader(istream),
-				interpreter.getNameSpace(), sourceFileName);
+				new NameSpace(interpreter.getNameSpace(), "script"), sourceFileName);
 		} catch (Throwable error) {
 			if (error instanceof EvalError)
 				((EvalError)error).setMessage(error.toString());
 			printError(error);
+		} finally {
+			if (null != interpreter) pool.release(interpreter);
+			timings.ran(System.nanoTime() - start);
 		}
 	}
 }
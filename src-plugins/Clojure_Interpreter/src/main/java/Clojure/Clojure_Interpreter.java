@@ -193,6 +193,17 @@ public Object call() {
 		});
 	}
 
+	/** Undo the given number of bindings pushed by pushThreadBindings. */
+	public boolean popThreadBindings(final int count) {
+		return null != submit(new Callable() {
+			public Object call() {
+				for (int i = 0; i < count; i++)
+					Var.popThreadBindings();
+				return Boolean.TRUE;
+			}
+		});
+	}
+
 	public boolean init() {
 		// Initialize the worker Thread with a few bindings and the ImageJ's class loader
 		try {
@@ -1,6 +1,8 @@
 package Clojure;
 
+import common.InterpreterPool;
 import common.RefreshScripts;
+import common.ScriptTimings;
 import java.io.File;
 import java.io.InputStream;
 import java.io.PrintWriter;
@@ -8,7 +10,31 @@
 import java.util.HashMap;
 import ij.IJ;
 
+/**
+ * Runs Clojure scripts.
+ *
+ * The interpreters, each with its own worker thread, are kept in a pool.
+ * The bindings pushed for a script are popped again after it ran; an
+ * interpreter whose script failed is not reused.
+ */
 public class Refresh_Clojure_Scripts extends RefreshScripts {
+	protected static ScriptTimings timings = getTimings("Clojure");
+
+	protected static InterpreterPool<Clojure_Interpreter> pool =
+		new InterpreterPool<Clojure_Interpreter>(timings, getMaxIdleInterpreters()) {
+			protected Clojure_Interpreter create() throws Exception {
+				Clojure_Interpreter ci = new Clojure_Interpreter();
+				if (!ci.init()) {
+					ci.destroy();
+					throw new Exception("Could not initialize Clojure");
+				}
+				return ci;
+			}
+
+			protected void dispose(Clojure_Interpreter ci) {
+				ci.destroy();
+			}
+		};
 
 	public void run(String arg) {
 		setLanguageProperties(".clj", "Clojure");
@@ -25,17 +51,20 @@ public boolean runScript(String path, Map<String,Object> vars) {
 			IJ.log("Not a clojure script or not found: " + path);
 			return false;
 		}
-		Clojure_Interpreter ci = new Clojure_Interpreter();
+		long start = System.nanoTime();
+		Clojure_Interpreter ci = null;
+		boolean success = false;
 		PrintWriter pout = new PrintWriter(super.out);
 		try {
 			if (IJ.isWindows()) path = path.replace('\\', '/');
-			ci.init();
+			ci = pool.acquire();
 			if (null == vars) {
 				vars = new HashMap<String,Object>();
 			}
 			// Redirect output to whatever it was set to with super.setOutputStreams
 			vars.put("*out*", pout);
-			ci.pushThreadBindings(vars); // into clojure.core namespace
+			if (!ci.pushThreadBindings(vars)) // into clojure.core namespace
+				return false;
 			Object res = ci.evaluate(new StringBuilder("(load-file \"").append(path).append("\")").toString());
 			if (null != res) {
 				String s = res.toString().trim();
@@ -43,26 +72,31 @@ public boolean runScript(String path, Map<String,Object> vars) {
 					IJ.log(s); // Not using pout.print(s); pout.flush(); because it will print all the declarations, and it's annoying.
 				}
 			}
+			success = ci.popThreadBindings(vars.size());
 			return true;
 		} catch (Throwable error) {
 			printError(error);
 			return false;
 		} finally {
-			ci.destroy();
+			release(ci, success);
+			timings.ran(System.nanoTime() - start);
 		}
 	}
 
 	/** Will consume and close the stream. */
 	public void runScript(final InputStream istream) {
-		Clojure_Interpreter ci = new Clojure_Interpreter();
+		long start = System.nanoTime();
+		Clojure_Interpreter ci = null;
+		boolean success = false;
 		PrintWriter pout = new PrintWriter(super.out);
 		try {
-			ci.init();
+			ci = pool.acquire();
 
 			// Redirect output to whatever it was set to with super.setOutputStreams
 			HashMap<String,Object> vars = new HashMap<String,Object>();
 			vars.put("*out*", pout);
-			ci.pushThreadBindings(vars); // into clojure.core namespace
+			if (!ci.pushThreadBindings(vars)) // into clojure.core namespace
+				return;
 
 			Object res = ci.evaluate(istream);
 			if (null != res) {
@@ -71,10 +105,22 @@ public void runScript(final InputStream istream) {
 					IJ.log(s);
 				}
 			}
+			success = ci.popThreadBindings(vars.size());
 		} catch (Throwable error) {
 			printError(error);
 		} finally {
-			ci.destroy();
+			release(ci, success);
+			timings.ran(System.nanoTime() - start);
 		}
 	}
+
+	/* Only reuse the interpreter if its bindings are known to be balanced */
+	protected void release(Clojure_Interpreter ci, boolean success) {
+		if (null == ci)
+			return;
+		if (success)
+			pool.release(ci);
+		else
+			pool.discard(ci);
+	}
 }
@@ -1,5 +1,6 @@
 package plugin;
 
+import java.io.File;
 import java.util.ArrayList;
 
 import ij.gui.Roi;
@@ -53,7 +54,13 @@ public class DescriptorParameters
 	 * Writes out all corresponding points of all pairs if this is set to a directory
 	 */
 	public static String correspondenceDirectory = null;
-	
+
+	/**
+	 * Detections are cached in this directory and reused by later runs
+	 * with the same detection parameters, set to null to disable caching
+	 */
+	public static String peakCacheDirectory = new File( System.getProperty( "java.io.tmpdir" ), "descriptor-based-registration" ).getAbsolutePath();
+
 	// for debug
 	public static boolean printAllSimilarities = false;
 
@@ -212,10 +212,7 @@ public static void descriptorBasedStackRegistration( final ImagePlus imp, final
 		if ( !params.reApply )
 		{
 			// get the peaks
-			final ArrayList<ArrayList<DifferenceOfGaussianPeak<FloatType>>> peaksComplete = new ArrayList<ArrayList<DifferenceOfGaussianPeak<FloatType>>>();
-			
-			for ( int t = 0; t < numImages; ++t )
-				peaksComplete.add( extractCandidates( imp, params.channel1, t, params ) );
+			final ArrayList<ArrayList<DifferenceOfGaussianPeak<FloatType>>> peaksComplete = extractAllCandidates( imp, params.channel1, numImages, params );
 
 			// filter for roi
 			final ArrayList<ArrayList<DifferenceOfGaussianPeak<FloatType>>> peaks = new ArrayList<ArrayList<DifferenceOfGaussianPeak<FloatType>>>();
@@ -412,35 +409,52 @@ public static Vector<ComparePair> descriptorMatching( final ArrayList<ArrayList<
 		// get all compare pairs
 		final Vector<ComparePair> pairs = getComparePairs( params, numImages );
 
-		// compute all matchings
-		final AtomicInteger ai = new AtomicInteger(0);					
-        final Thread[] threads = SimpleMultiThreading.newThreads();
-        final int numThreads = threads.length;
-    	
-        for ( int ithread = 0; ithread < threads.length; ++ithread )
-            threads[ ithread ] = new Thread(new Runnable()
-            {
-                public void run()
-                {		
-                   	final int myNumber = ai.getAndIncrement();
-                    
-                    for ( int i = 0; i < pairs.size(); i++ )
-                    	if ( i%numThreads == myNumber )
-                    	{
-                    		final ComparePair pair = pairs.get( i );
-                    		pair.model = pairwiseMatching( pair.inliers, peaks.get( pair.indexA ), peaks.get( pair.indexB ), zStretching, zStretching, params, pair.indexA + "<->" + pair.indexB );
-                    		                    		
-                    		if ( pair.model == null )
-                    		{
-                    			pair.inliers.clear();
-                    			pair.model = params.model.copy();
-                    		}
-                    	}
-                }
-            });
-        
-        SimpleMultiThreading.startAndJoin( threads );
-        
+		// the neighborhoods of the untransformed peaks are the same in every pair, look them up once per timepoint
+		final int numNeighbors = new SubsetMatcher( params.numNeighbors, params.numNeighbors + params.redundancy ).getRequiredNumNeighbors();
+		final int[][][] neighbors = new int[ numImages ][][];
+
+		final AtomicInteger ai = new AtomicInteger(0);
+		Thread[] threads = SimpleMultiThreading.newThreads();
+
+		for ( int ithread = 0; ithread < threads.length; ++ithread )
+			threads[ ithread ] = new Thread(new Runnable()
+			{
+				public void run()
+				{
+					for ( int t = ai.getAndIncrement(); t < numImages; t = ai.getAndIncrement() )
+						if ( peaks.get( t ).size() >= numNeighbors )
+							neighbors[ t ] = findNeighbors( peaks.get( t ), zStretching, numNeighbors );
+				}
+			});
+
+		SimpleMultiThreading.startAndJoin( threads );
+
+		// compute all matchings, pairs are handed out one by one as they take very different times
+		final AtomicInteger nextPair = new AtomicInteger(0);
+		threads = SimpleMultiThreading.newThreads();
+
+		for ( int ithread = 0; ithread < threads.length; ++ithread )
+			threads[ ithread ] = new Thread(new Runnable()
+			{
+				public void run()
+				{
+					for ( int i = nextPair.getAndIncrement(); i < pairs.size(); i = nextPair.getAndIncrement() )
+					{
+						final ComparePair pair = pairs.get( i );
+						pair.model = pairwiseMatching( pair.inliers, peaks.get( pair.indexA ), peaks.get( pair.indexB ), neighbors[ pair.indexA ], neighbors[ pair.indexB ],
+								zStretching, zStretching, params, pair.indexA + "<->" + pair.indexB );
+
+						if ( pair.model == null )
+						{
+							pair.inliers.clear();
+							pair.model = params.model.copy();
+						}
+					}
+				}
+			});
+
+		SimpleMultiThreading.startAndJoin( threads );
+
 		return pairs;
 	}
 	
@@ -622,6 +636,16 @@ else if ( params.globalOpt == 2 ) //all-to-1
 	
 	protected static Model<?> pairwiseMatching( final ArrayList<PointMatch> finalInliers, final ArrayList<DifferenceOfGaussianPeak<FloatType>> peaks1, final ArrayList<DifferenceOfGaussianPeak<FloatType>>peaks2, 
 			final float zStretching1, final float zStretching2, final DescriptorParameters params, String explanation )
+	{
+		return pairwiseMatching( finalInliers, peaks1, peaks2, null, null, zStretching1, zStretching2, params, explanation );
+	}
+
+	/**
+	 * @param neighbors1 - the nearest neighbors of peaks1 as computed by {@link #findNeighbors}, or null
+	 * @param neighbors2 - the nearest neighbors of peaks2 as computed by {@link #findNeighbors}, or null
+	 */
+	protected static Model<?> pairwiseMatching( final ArrayList<PointMatch> finalInliers, final ArrayList<DifferenceOfGaussianPeak<FloatType>> peaks1, final ArrayList<DifferenceOfGaussianPeak<FloatType>>peaks2, 
+			final int[][] neighbors1, final int[][] neighbors2, final float zStretching1, final float zStretching2, final DescriptorParameters params, String explanation )
 	{
 		final Matcher matcher = new SubsetMatcher( params.numNeighbors, params.numNeighbors + params.redundancy );
 		ArrayList<PointMatch> candidates;
@@ -639,7 +663,7 @@ protected static Model<?> pairwiseMatching( final ArrayList<PointMatch> finalInl
 				identityTransform = new TranslationModel3D();
 			*/
 			
-			candidates = getCorrespondenceCandidates( params.significance, matcher, peaks1, peaks2, identityTransform, params.dimensionality, zStretching1, zStretching2 );
+			candidates = getCorrespondenceCandidates( params.significance, matcher, peaks1, peaks2, neighbors1, neighbors2, identityTransform, params.dimensionality, zStretching1, zStretching2 );
 
 			// before we compute the RANSAC we will reset the coordinates of all points so that we directly get the correct model
 			for ( final PointMatch pm : candidates )
@@ -649,7 +673,7 @@ protected static Model<?> pairwiseMatching( final ArrayList<PointMatch> finalInl
 			}
 		}
 		else
-			candidates = getCorrespondenceCandidates( params.significance, matcher, peaks1, peaks2, null, params.dimensionality, zStretching1, zStretching2 );
+			candidates = getCorrespondenceCandidates( params.significance, matcher, peaks1, peaks2, neighbors1, neighbors2, null, params.dimensionality, zStretching1, zStretching2 );
 		
 		// compute ransac
 		//ArrayList<PointMatch> finalInliers = new ArrayList<PointMatch>();
@@ -701,7 +725,7 @@ protected static Model<?> pairwiseMatching( final ArrayList<PointMatch> finalInl
 			do
 			{
 				// get the correspondence candidates with the knowledge of the previous model
-				candidates = getCorrespondenceCandidates( params.significance, matcher, peaks1, peaks2, finalModel, params.dimensionality, zStretching1, zStretching2 );
+				candidates = getCorrespondenceCandidates( params.significance, matcher, peaks1, peaks2, neighbors1, neighbors2, finalModel, params.dimensionality, zStretching1, zStretching2 );
 				
 				// before we compute the RANSAC we will reset the coordinates of all points so that we directly get the correct model
 				for ( final PointMatch pm : candidates )
@@ -809,10 +833,98 @@ protected static Model<?> pairwiseMatching( final ArrayList<PointMatch> finalInl
 		return finalModel;
 	}
 
+	/**
+	 * Extracts the candidates of all timepoints, several timepoints at a time if there is enough memory.
+	 * 
+	 * @return - the candidates of each timepoint
+	 */
+	public static ArrayList<ArrayList<DifferenceOfGaussianPeak<FloatType>>> extractAllCandidates( final ImagePlus imp, final int channel, final int numTimepoints, final DescriptorParameters params )
+	{
+		final ArrayList<ArrayList<DifferenceOfGaussianPeak<FloatType>>> peaks = new ArrayList<ArrayList<DifferenceOfGaussianPeak<FloatType>>>();
+		for ( int t = 0; t < numTimepoints; ++t )
+			peaks.add( null );
+
+		final AtomicInteger ai = new AtomicInteger(0);
+		final Throwable[] exception = new Throwable[ 1 ];
+		final Thread[] threads = SimpleMultiThreading.newThreads( getNumParallelTimepoints( imp, Runtime.getRuntime().availableProcessors() ) );
+
+		for ( int ithread = 0; ithread < threads.length; ++ithread )
+			threads[ ithread ] = new Thread(new Runnable()
+			{
+				public void run()
+				{
+					try
+					{
+						for ( int t = ai.getAndIncrement(); t < numTimepoints; t = ai.getAndIncrement() )
+						{
+							peaks.set( t, extractCandidates( imp, channel, t, params ) );
+						}
+					}
+					catch ( Throwable e )
+					{
+						synchronized ( exception )
+						{
+							if ( exception[ 0 ] == null )
+								exception[ 0 ] = e;
+						}
+						ai.set( numTimepoints );
+					}
+				}
+			});
+
+		SimpleMultiThreading.startAndJoin( threads );
+
+		if ( exception[ 0 ] instanceof RuntimeException )
+			throw (RuntimeException)exception[ 0 ];
+		else if ( exception[ 0 ] instanceof Error )
+			throw (Error)exception[ 0 ];
+		else if ( exception[ 0 ] != null )
+			throw new RuntimeException( exception[ 0 ] );
+
+		return peaks;
+	}
+
+	/**
+	 * The detection of one timepoint needs its float copy, the two Gaussian convolutions and their
+	 * difference in memory at the same time, so only run as many as fit into the free memory.
+	 */
+	protected static int getNumParallelTimepoints( final ImagePlus imp, final int numThreads )
+	{
+		final long bytesPerTimepoint = 4l * 4 * imp.getWidth() * imp.getHeight() * imp.getNSlices();
+		final Runtime runtime = Runtime.getRuntime();
+		final long free = runtime.maxMemory() - runtime.totalMemory() + runtime.freeMemory();
+
+		return (int)Math.max( 1, Math.min( numThreads, free / Math.max( 1, bytesPerTimepoint ) ) );
+	}
+
 	public static ArrayList<DifferenceOfGaussianPeak<FloatType>> extractCandidates( final ImagePlus imp, final int channel, final int timepoint, final DescriptorParameters params )
 	{
-		// get the input images for registration
-		final Image<FloatType> img = InteractiveDoG.convertToFloat( imp, channel, timepoint );
+		// reuse the detections of a previous run if possible
+		final PeakCache cache = PeakCache.getDefault();
+		final String key = cache == null ? null : PeakCache.getKey( imp, channel, timepoint, params );
+		
+		if ( key != null )
+		{
+			final ArrayList<DifferenceOfGaussianPeak<FloatType>> peaks = cache.load( key );
+			
+			if ( peaks != null )
+			{
+				final int[] stats = removeInvalidAndCollectStatistics( peaks );
+				
+				if ( !params.silent )
+					IJ.log( "Loaded " + peaks.size() + " cached candidates for " + imp.getTitle() + " [" + timepoint + "] (" + stats[ 1 ] + " maxima, " + stats[ 0 ] + " minima)" );
+				
+				return peaks;
+			}
+		}
+		
+		// get the input images for registration, the stack might be virtual
+		final Image<FloatType> img;
+		
+		synchronized ( imp )
+		{
+			img = InteractiveDoG.convertToFloat( imp, channel, timepoint );
+		}
 		
 		// extract Calibrations
 		final Calibration cal = imp.getCalibration();
@@ -831,6 +943,9 @@ public static ArrayList<DifferenceOfGaussianPeak<FloatType>> extractCandidates(
 		if ( !params.silent )
 			IJ.log( "Found " + peaks.size() + " candidates for " + imp.getTitle() + " [" + timepoint + "] (" + stats1[ 1 ] + " maxima, " + stats1[ 0 ] + " minima)" );
 		
+		if ( key != null )
+			cache.save( key, peaks );
+		
 		return peaks;
 	}
 	
@@ -947,6 +1062,19 @@ protected static String computeRANSAC( final ArrayList<PointMatch> candidates, f
 	protected static ArrayList<PointMatch> getCorrespondenceCandidates( final double nTimesBetter, final Matcher matcher, 
 			ArrayList<DifferenceOfGaussianPeak<FloatType>> peaks1, ArrayList<DifferenceOfGaussianPeak<FloatType>> peaks2, 
 			final Model<?> model, final int dimensionality, final float zStretching1, final float zStretching2 )
+	{
+		return getCorrespondenceCandidates( nTimesBetter, matcher, peaks1, peaks2, null, null, model, dimensionality, zStretching1, zStretching2 );
+	}
+
+	/**
+	 * @param neighbors1 - the nearest neighbors of peaks1 as computed by {@link #findNeighbors}, or null to search them;
+	 * ignored if a model is given, as it moves the peaks of the first image
+	 * @param neighbors2 - the nearest neighbors of peaks2 as computed by {@link #findNeighbors}, or null to search them
+	 */
+	protected static ArrayList<PointMatch> getCorrespondenceCandidates( final double nTimesBetter, final Matcher matcher, 
+			ArrayList<DifferenceOfGaussianPeak<FloatType>> peaks1, ArrayList<DifferenceOfGaussianPeak<FloatType>> peaks2, 
+			final int[][] neighbors1, final int[][] neighbors2,
+			final Model<?> model, final int dimensionality, final float zStretching1, final float zStretching2 )
 	{
 		// test if there are enough points for the matcher
 		if ( peaks1.size() < matcher.getRequiredNumNeighbors() || peaks2.size() < matcher.getRequiredNumNeighbors() )
@@ -985,26 +1113,26 @@ protected static ArrayList<PointMatch> getCorrespondenceCandidates( final double
 			}
 		}
 		
-		/* create KDTrees */	
-		final KDTree< Particle > treeA = new KDTree< Particle >( listA );
-		final KDTree< Particle > treeB = new KDTree< Particle >( listB );
-		
-		/* extract point descriptors */						
+		/* find the nearest neighbors, using KDTrees unless they are known already */
 		final int numNeighbors = matcher.getRequiredNumNeighbors();
 		
+		final ArrayList< ArrayList< Particle > > neighborhoodsA = getNeighborhoods( listA, model == null ? neighbors1 : null, numNeighbors );
+		final ArrayList< ArrayList< Particle > > neighborhoodsB = getNeighborhoods( listB, neighbors2, numNeighbors );
+		
+		/* extract point descriptors */						
 		final SimilarityMeasure similarityMeasure = new SquareDistance();
 		
 		final ArrayList< AbstractPointDescriptor > descriptorsA, descriptorsB;
 		
 		if ( model == null )
 		{
-			descriptorsA = createModelPointDescriptors( treeA, listA, numNeighbors, matcher, similarityMeasure, dimensionality );
-			descriptorsB = createModelPointDescriptors( treeB, listB, numNeighbors, matcher, similarityMeasure, dimensionality );
+			descriptorsA = createModelPointDescriptors( listA, neighborhoodsA, matcher, similarityMeasure, dimensionality );
+			descriptorsB = createModelPointDescriptors( listB, neighborhoodsB, matcher, similarityMeasure, dimensionality );
 		}
 		else
 		{
-			descriptorsA = createSimplePointDescriptors( treeA, listA, numNeighbors, matcher, similarityMeasure );
-			descriptorsB = createSimplePointDescriptors( treeB, listB, numNeighbors, matcher, similarityMeasure );
+			descriptorsA = createSimplePointDescriptors( listA, neighborhoodsA, matcher, similarityMeasure );
+			descriptorsB = createSimplePointDescriptors( listB, neighborhoodsB, matcher, similarityMeasure );
 		}
 		
 		//IJ.log( "before" );
@@ -1082,20 +1210,98 @@ protected static final ArrayList<PointMatch> findCorrespondingDescriptors( final
 		return correspondenceCandidates;
 	}
 
+	/**
+	 * Finds the nearest neighbors of each peak, in the same way as {@link #getCorrespondenceCandidates} does
+	 * for peaks that are not transformed, so that they can be computed once for each image of a series.
+	 * 
+	 * @return - for each peak the indices of its numNeighbors nearest neighbors in peaks
+	 */
+	public static int[][] findNeighbors( final ArrayList<DifferenceOfGaussianPeak<FloatType>> peaks, final float zStretching, final int numNeighbors )
+	{
+		final ArrayList<Particle> list = new ArrayList<Particle>();
+		
+		int id = 0;
+		for ( final DifferenceOfGaussianPeak<FloatType> peak : peaks )
+			list.add( new Particle( id++, peak, zStretching ) );
+		
+		final ArrayList< ArrayList< Particle > > neighborhoods = getNeighborhoods( list, null, numNeighbors );
+		final int[][] neighbors = new int[ list.size() ][];
+		
+		for ( int i = 0; i < neighbors.length; ++i )
+		{
+			final ArrayList< Particle > neighborhood = neighborhoods.get( i );
+			neighbors[ i ] = new int[ neighborhood.size() ];
+			
+			for ( int n = 0; n < neighbors[ i ].length; ++n )
+				neighbors[ i ][ n ] = neighborhood.get( n ).id;
+		}
+		
+		return neighbors;
+	}
+	
+	/**
+	 * @param neighbors - the indices of the nearest neighbors of each basis point, or null to search them in a KDTree
+	 */
+	protected static ArrayList< ArrayList< Particle > > getNeighborhoods( final ArrayList< Particle > basisPoints, final int[][] neighbors, final int numNeighbors )
+	{
+		final ArrayList< ArrayList< Particle > > neighborhoods = new ArrayList< ArrayList< Particle > >( basisPoints.size() );
+		
+		if ( neighbors == null )
+		{
+			final NNearestNeighborSearch< Particle > nnsearch = new NNearestNeighborSearch< Particle >( new KDTree< Particle >( basisPoints ) );
+			
+			for ( final Particle p : basisPoints )
+				neighborhoods.add( getNeighborhood( nnsearch, p, numNeighbors ) );
+		}
+		else
+		{
+			for ( int i = 0; i < basisPoints.size(); ++i )
+			{
+				final ArrayList< Particle > neighborhood = new ArrayList< Particle >( neighbors[ i ].length );
+				
+				for ( final int n : neighbors[ i ] )
+					neighborhood.add( basisPoints.get( n ) );
+				
+				neighborhoods.add( neighborhood );
+			}
+		}
+		
+		return neighborhoods;
+	}
+	
+	protected static ArrayList< Particle > getNeighborhood( final NNearestNeighborSearch< Particle > nnsearch, final Particle p, final int numNeighbors )
+	{
+		final ArrayList< Particle > neighbors = new ArrayList< Particle >();
+		final Particle neighborList[] = nnsearch.findNNearestNeighbors( p, numNeighbors + 1 );
+		
+		// the first hit is always the point itself
+		for ( int n = 1; n < neighborList.length; ++n )
+			neighbors.add( neighborList[ n ] );
+		
+		return neighbors;
+	}
+	
 	protected static ArrayList< AbstractPointDescriptor > createSimplePointDescriptors( final KDTree< Particle > tree, final ArrayList< Particle > basisPoints, 
 			final int numNeighbors, final Matcher matcher, final SimilarityMeasure similarityMeasure )
 	{
 		final NNearestNeighborSearch< Particle > nnsearch = new NNearestNeighborSearch< Particle >( tree );
-		final ArrayList< AbstractPointDescriptor > descriptors = new ArrayList< AbstractPointDescriptor > ( );
+		final ArrayList< ArrayList< Particle > > neighborhoods = new ArrayList< ArrayList< Particle > >( basisPoints.size() );
 		
 		for ( final Particle p : basisPoints )
+			neighborhoods.add( getNeighborhood( nnsearch, p, numNeighbors ) );
+		
+		return createSimplePointDescriptors( basisPoints, neighborhoods, matcher, similarityMeasure );
+	}
+
+	protected static ArrayList< AbstractPointDescriptor > createSimplePointDescriptors( final ArrayList< Particle > basisPoints, 
+			final ArrayList< ArrayList< Particle > > neighborhoods, final Matcher matcher, final SimilarityMeasure similarityMeasure )
+	{
+		final ArrayList< AbstractPointDescriptor > descriptors = new ArrayList< AbstractPointDescriptor > ( );
+		
+		for ( int i = 0; i < basisPoints.size(); ++i )
 		{
-			final ArrayList< Particle > neighbors = new ArrayList< Particle >();
-			final Particle neighborList[] = nnsearch.findNNearestNeighbors( p, numNeighbors + 1 );
-			
-			// the first hit is always the point itself
-			for ( int n = 1; n < neighborList.length; ++n )
-				neighbors.add( neighborList[ n ] );
+			final Particle p = basisPoints.get( i );
+			final ArrayList< Particle > neighbors = neighborhoods.get( i );
 			
 			try
 			{
@@ -1114,16 +1320,23 @@ protected static ArrayList< AbstractPointDescriptor > createModelPointDescriptor
 			final int numNeighbors, final Matcher matcher, final SimilarityMeasure similarityMeasure, final int dimensionality )
 	{
 		final NNearestNeighborSearch< Particle > nnsearch = new NNearestNeighborSearch< Particle >( tree );
-		final ArrayList< AbstractPointDescriptor > descriptors = new ArrayList< AbstractPointDescriptor > ( );
+		final ArrayList< ArrayList< Particle > > neighborhoods = new ArrayList< ArrayList< Particle > >( basisPoints.size() );
 		
 		for ( final Particle p : basisPoints )
+			neighborhoods.add( getNeighborhood( nnsearch, p, numNeighbors ) );
+		
+		return createModelPointDescriptors( basisPoints, neighborhoods, matcher, similarityMeasure, dimensionality );
+	}
+
+	protected static ArrayList< AbstractPointDescriptor > createModelPointDescriptors( final ArrayList< Particle > basisPoints, 
+			final ArrayList< ArrayList< Particle > > neighborhoods, final Matcher matcher, final SimilarityMeasure similarityMeasure, final int dimensionality )
+	{
+		final ArrayList< AbstractPointDescriptor > descriptors = new ArrayList< AbstractPointDescriptor > ( );
+		
+		for ( int i = 0; i < basisPoints.size(); ++i )
 		{
-			final ArrayList< Particle > neighbors = new ArrayList< Particle >();
-			final Particle neighborList[] = nnsearch.findNNearestNeighbors( p, numNeighbors + 1 );
-			
-			// the first hit is always the point itself
-			for ( int n = 1; n < neighborList.length; ++n )
-				neighbors.add( neighborList[ n ] );
+			final Particle p = basisPoints.get( i );
+			final ArrayList< Particle > neighbors = neighborhoods.get( i );
 			
 			final TranslationInvariantModel<?> model;
 			
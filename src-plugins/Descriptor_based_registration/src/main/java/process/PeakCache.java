@@ -0,0 +1,198 @@
+package process;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.io.FileInfo;
+import ij.measure.Calibration;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+
+import mpicbg.imglib.algorithm.scalespace.DifferenceOfGaussian.SpecialPoint;
+import mpicbg.imglib.algorithm.scalespace.DifferenceOfGaussianPeak;
+import mpicbg.imglib.type.numeric.real.FloatType;
+import plugin.DescriptorParameters;
+
+/**
+ * Stores the detections of one channel and timepoint of an image on disk, so that
+ * re-running the registration with different descriptor or optimization parameters
+ * does not have to repeat the Difference-of-Gaussian detection.
+ *
+ * An entry is identified by the file the image was loaded from (path, length and
+ * modification time), its dimensions and calibration, the channel, the timepoint and
+ * all parameters of the detection. Images that were not loaded from a file, or that
+ * have been modified since, are never cached.
+ */
+public class PeakCache
+{
+	final protected File directory;
+
+	public PeakCache( final File directory )
+	{
+		this.directory = directory;
+	}
+
+	/**
+	 * @return the cache configured in {@link DescriptorParameters#peakCacheDirectory}, or null if caching is disabled
+	 */
+	public static PeakCache getDefault()
+	{
+		if ( DescriptorParameters.peakCacheDirectory == null )
+			return null;
+		else
+			return new PeakCache( new File( DescriptorParameters.peakCacheDirectory ) );
+	}
+
+	/**
+	 * @return - the key identifying the detections, or null if the image cannot be cached
+	 */
+	public static String getKey( final ImagePlus imp, final int channel, final int timepoint, final DescriptorParameters params )
+	{
+		if ( imp.changes )
+			return null;
+
+		final FileInfo fi = imp.getOriginalFileInfo();
+
+		if ( fi == null || fi.fileName == null || fi.directory == null || fi.directory.length() == 0 )
+			return null;
+
+		final File file = new File( fi.directory, fi.fileName );
+
+		if ( !file.exists() )
+			return null;
+
+		final Calibration cal = imp.getCalibration();
+
+		return file.getAbsolutePath() + "\t" + file.length() + "\t" + file.lastModified() + "\t" +
+			imp.getWidth() + "x" + imp.getHeight() + "x" + imp.getNChannels() + "x" + imp.getNSlices() + "x" + imp.getNFrames() + "\t" +
+			cal.pixelWidth + "x" + cal.pixelHeight + "x" + cal.pixelDepth + "\t" +
+			"c=" + channel + "\tt=" + timepoint + "\t" + params.dimensionality + "d" + "\t" +
+			"sigma=" + params.sigma1 + "," + params.sigma2 + "\tthreshold=" + params.threshold + "\t" +
+			"maxima=" + params.lookForMaxima + "\tminima=" + params.lookForMinima;
+	}
+
+	protected File getFile( final String key )
+	{
+		return new File( directory, "peaks-" + Integer.toHexString( key.hashCode() ) + ".txt" );
+	}
+
+	/**
+	 * @return - the cached detections, or null if there are none for this key
+	 */
+	public ArrayList<DifferenceOfGaussianPeak<FloatType>> load( final String key )
+	{
+		final File file = getFile( key );
+
+		if ( !file.exists() )
+			return null;
+
+		BufferedReader in = null;
+
+		try
+		{
+			in = new BufferedReader( new FileReader( file ) );
+
+			// a different key with the same hash
+			if ( !key.equals( in.readLine() ) )
+				return null;
+
+			final ArrayList<DifferenceOfGaussianPeak<FloatType>> peaks = new ArrayList<DifferenceOfGaussianPeak<FloatType>>();
+
+			for ( String line = in.readLine(); line != null; line = in.readLine() )
+			{
+				// type, value, fit value, pixel location and sub-pixel offset for each dimension
+				final String[] entries = line.split( "\t" );
+				final int numDimensions = ( entries.length - 3 ) / 2;
+
+				final int[] location = new int[ numDimensions ];
+				final float[] offset = new float[ numDimensions ];
+
+				for ( int d = 0; d < numDimensions; ++d )
+				{
+					location[ d ] = Integer.parseInt( entries[ 3 + d ] );
+					offset[ d ] = Float.parseFloat( entries[ 3 + numDimensions + d ] );
+				}
+
+				final DifferenceOfGaussianPeak<FloatType> peak = new DifferenceOfGaussianPeak<FloatType>( location,
+						new FloatType( Float.parseFloat( entries[ 1 ] ) ), SpecialPoint.valueOf( entries[ 0 ] ) );
+
+				peak.setFitValue( new FloatType( Float.parseFloat( entries[ 2 ] ) ) );
+				peak.setSubPixelLocationOffset( offset );
+
+				peaks.add( peak );
+			}
+
+			return peaks;
+		}
+		catch ( Exception e )
+		{
+			IJ.log( "Could not read cached detections from " + file + ": " + e );
+			return null;
+		}
+		finally
+		{
+			try
+			{
+				if ( in != null )
+					in.close();
+			}
+			catch ( IOException e ) {}
+		}
+	}
+
+	public void save( final String key, final ArrayList<DifferenceOfGaussianPeak<FloatType>> peaks )
+	{
+		if ( !directory.exists() && !directory.mkdirs() )
+		{
+			IJ.log( "Could not create " + directory + ", cannot cache detections." );
+			return;
+		}
+
+		final File file = getFile( key );
+		final File tmp = new File( directory, file.getName() + ".tmp" + Thread.currentThread().getId() );
+
+		try
+		{
+			final PrintWriter out = new PrintWriter( new FileWriter( tmp ) );
+
+			out.println( key );
+
+			for ( final DifferenceOfGaussianPeak<FloatType> peak : peaks )
+			{
+				final StringBuilder line = new StringBuilder();
+
+				line.append( peak.getPeakType() ).append( '\t' );
+				line.append( peak.getImgValue().get() ).append( '\t' );
+				line.append( peak.getFitValue().get() );
+
+				for ( int d = 0; d < peak.getNumDimensions(); ++d )
+					line.append( '\t' ).append( peak.getPosition( d ) );
+
+				for ( int d = 0; d < peak.getNumDimensions(); ++d )
+					line.append( '\t' ).append( peak.getSubPixelPositionOffset( d ) );
+
+				out.println( line );
+			}
+
+			out.close();
+
+			if ( out.checkError() )
+				throw new IOException( "write error" );
+
+			// written to a temporary file first so that a concurrent run never reads a partial one
+			file.delete();
+			if ( !tmp.renameTo( file ) )
+				throw new IOException( "could not rename " + tmp );
+		}
+		catch ( IOException e )
+		{
+			tmp.delete();
+			IJ.log( "Could not cache detections in " + file + ": " + e );
+		}
+	}
+}
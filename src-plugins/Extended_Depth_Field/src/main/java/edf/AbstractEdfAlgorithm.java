@@ -27,4 +27,14 @@
 
 public abstract class AbstractEdfAlgorithm {
 	abstract public ImageWare[] process(ImageWare imageStack);
+
+	/**
+	 * Streaming version of process(ImageWare): the slices are read from the
+	 * source and transformed on numThreads threads, and merged into a
+	 * running selection of the sharpest slice. Only about numThreads slices
+	 * are in memory at any time, whatever the depth of the stack.
+	 * Where several slices are equally sharp, the first one is selected,
+	 * as in process(ImageWare).
+	 */
+	abstract public ImageWare[] process(SliceSource source, int numThreads);
 }
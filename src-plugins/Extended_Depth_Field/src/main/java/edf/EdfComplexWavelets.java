@@ -138,6 +138,110 @@ public ImageWare[] process(ImageWare imageStack){
 		return new ImageWare[]{res, heightMap};
 	}
 
+	/**
+	 * Streaming version of process(ImageWare). Instead of keeping the
+	 * coefficients of all the slices for the consistency checks, the
+	 * slices selected by the checks are transformed a second time.
+	 */
+	public ImageWare[] process(SliceSource source, int numThreads){
+
+		final LogSingleton log = LogSingleton.getInstance();
+
+		final int nx = source.getWidth();
+		final int ny = source.getHeight();
+		final int nz = source.getSize();
+
+		final ImageWare res = Builder.create(nx,ny,1,ImageWare.FLOAT);
+		final ImageWare resRe = Builder.create(nx,ny,1,ImageWare.FLOAT);
+		final ImageWare resIm = Builder.create(nx,ny,1,ImageWare.FLOAT);
+		final ImageWare temp = Builder.create(nx,ny,1,ImageWare.DOUBLE);
+		temp.fillConstant(-1);
+		final ImageWare heightMap = Builder.create(nx,ny,1,ImageWare.SHORT);
+		final int[] done = new int[1];
+
+		SliceStreamer.process(source, numThreads, new SliceStreamer.Task() {
+			public void process(int k, ImageWare slice) {
+				ImageAccess[] coefftemp = analysis(slice);
+				double tempvalRe, tempvalIm, newval, oldval;
+				synchronized (res) {
+					for(int i = 0; i<nx; i++){
+						for(int j = 0; j<ny; j++){
+							tempvalRe = coefftemp[0].getPixel(i,j);
+							tempvalIm = coefftemp[1].getPixel(i,j);
+							newval = tempvalRe*tempvalRe + tempvalIm*tempvalIm;
+							oldval = temp.getPixel(i,j,0);
+							if(oldval < newval || (oldval == newval && k < heightMap.getPixel(i,j,0))){
+								temp.putPixel(i,j,0,newval);
+								heightMap.putPixel(i,j,0,k);
+								resRe.putPixel(i,j,0,tempvalRe);
+								resIm.putPixel(i,j,0,tempvalIm);
+							}
+						}
+					}
+					log.setProgessLength(15+ (done[0]++)*(65/nz));
+				}
+			}
+		});
+
+		ImageWare selectedMap = heightMap.duplicate();
+
+		if(this.sbConsistencyCheck){
+			this.subBandConsistencyCheck(heightMap,resRe, resIm);
+		}
+
+		if(this.majConsistencyCheck){
+			majorityConsistencyCheck(heightMap,majWindowSize,nz);
+		}
+
+		if(this.sbConsistencyCheck || this.majConsistencyCheck){
+			updateMergedCoeff(source, numThreads, selectedMap, heightMap, new ImageWare[]{resRe,resIm});
+		}
+
+		double[][] iabufRe = new double[nx][ny];
+		double[][] iabufIm = new double[nx][ny];
+		resRe.getXY(0,0,0,iabufRe);
+		resIm.getXY(0,0,0,iabufIm);
+
+		ImageAccess[] coefftemp = ComplexWavelet.synthesis(new ImageAccess(iabufRe), new ImageAccess(iabufIm), nScales, length);
+		res.putXY(0,0,0,coefftemp[0].getArrayPixels());
+		return new ImageWare[]{res, heightMap};
+	}
+
+	/**
+	 * Complex wavelet transform of one slice.
+	 */
+	private ImageAccess[] analysis(ImageWare slice){
+		double[][] buf = new double[slice.getSizeX()][slice.getSizeY()];
+		slice.getXY(0,0,0,buf);
+		return ComplexWavelet.analysis(new ImageAccess(buf), nScales, length);
+	}
+
+	/**
+	 * Streaming version of updateMergedCoeff: where the consistency checks
+	 * changed the map, takes the coefficients of the newly selected slice,
+	 * transforming only the slices that are needed.
+	 */
+	private void updateMergedCoeff(SliceSource source, int numThreads, final ImageWare selectedMap,
+			final ImageWare map, final ImageWare[] coeff){
+		final int nx = map.getSizeX();
+		final int ny = map.getSizeY();
+		int[] slices = changedSlices(selectedMap, map, source.getSize());
+		SliceStreamer.process(source, slices, numThreads, new SliceStreamer.Task() {
+			public void process(int k, ImageWare slice) {
+				ImageAccess[] coefftemp = analysis(slice);
+				// each pixel belongs to only one slice, so no locking is needed
+				for(int i = 0; i<nx; i++){
+					for(int j=0; j<ny; j++){
+						if((int)map.getPixel(i,j,0) == k && (int)selectedMap.getPixel(i,j,0) != k){
+							coeff[0].putPixel(i,j,0,coefftemp[0].getPixel(i,j));
+							coeff[1].putPixel(i,j,0,coefftemp[1].getPixel(i,j));
+						}
+					}
+				}
+			}
+		});
+	}
+
 	/**
 	 *
 	 */
@@ -141,6 +141,109 @@ public ImageWare[] process(ImageWare imageStack) {
 
 	}
 
+	/**
+	 * Streaming version of process(ImageWare). Instead of keeping the
+	 * coefficients of all the slices for the consistency checks, the
+	 * slices selected by the checks are transformed a second time.
+	 */
+	public ImageWare[] process(SliceSource source, int numThreads) {
+
+		final LogSingleton log = LogSingleton.getInstance();
+
+		final int nx = source.getWidth();
+		final int ny = source.getHeight();
+		final int nz = source.getSize();
+
+		final ImageWare res = Builder.create(nx,ny,1,ImageWare.FLOAT);
+		final ImageWare temp = Builder.create(nx,ny,1,ImageWare.DOUBLE);
+		temp.fillConstant(-1);
+		final ImageWare heightMap = Builder.create(nx,ny,1,ImageWare.SHORT);
+		final int[] done = new int[1];
+
+		SliceStreamer.process(source, numThreads, new SliceStreamer.Task() {
+			public void process(int k, ImageWare slice) {
+				ImageAccess coeff = analysis(slice);
+				double tempval, newval, oldval;
+				synchronized (res) {
+					for(int i = 0; i<nx; i++) {
+						for(int j = 0; j<ny; j++) {
+							tempval = coeff.getPixel(i,j);
+							newval = abs(tempval);
+							oldval = temp.getPixel(i,j,0);
+							if(oldval < newval || (oldval == newval && k < heightMap.getPixel(i,j,0))){
+								temp.putPixel(i,j,0,newval);
+								heightMap.putPixel(i,j,0,k);
+								res.putPixel(i,j,0,tempval);
+							}
+						}
+					}
+					log.setProgessLength(15+ (done[0]++)*(65/nz));
+				}
+			}
+		});
+
+		ImageWare selectedMap = heightMap.duplicate();
+
+		if(this.sbConsistencyCheck) {
+			this.subBandConsistencyCheck(heightMap,res);
+		}
+
+		if(this.majConsistencyCheck) {
+			majorityConsistencyCheck(heightMap,majWindowSize,nz);
+		}
+
+		if(this.sbConsistencyCheck || this.majConsistencyCheck) {
+			updateMergedCoeff(source, numThreads, selectedMap, heightMap, res);
+		}
+
+		if(doDenoising){
+			Tools.waveletDenoising(res, denoisingRate);
+		}
+
+		double[][] iabuf = new double[nx][ny];
+		res.getXY(0,0,0,iabuf);
+		ImageAccess coefftemp = new ImageAccess(iabuf);
+
+		coefftemp = WaveSpline.synthesis(coefftemp,order,nScales);
+		res.putXY(0,0,0,coefftemp.getArrayPixels());
+
+		return new ImageWare[]{res, heightMap};
+	}
+
+	/**
+	 * Wavelet transform of one slice.
+	 */
+	private ImageAccess analysis(ImageWare slice) {
+		double[][] buf = new double[slice.getSizeX()][slice.getSizeY()];
+		slice.getXY(0,0,0,buf);
+		return WaveSpline.analysis(new ImageAccess(buf),order,nScales);
+	}
+
+	/**
+	 * Streaming version of updateMergedCoeff: where the consistency checks
+	 * changed the map, takes the coefficient of the newly selected slice,
+	 * transforming only the slices that are needed.
+	 */
+	private void updateMergedCoeff(SliceSource source, int numThreads, final ImageWare selectedMap,
+			final ImageWare map, final ImageWare coeff) {
+		final int nx = map.getSizeX();
+		final int ny = map.getSizeY();
+		int[] slices = changedSlices(selectedMap, map, source.getSize());
+		SliceStreamer.process(source, slices, numThreads, new SliceStreamer.Task() {
+			public void process(int k, ImageWare slice) {
+				ImageAccess coefftemp = analysis(slice);
+				// each pixel belongs to only one slice, so no locking is needed
+				for(int i = 0; i<nx; i++){
+					for(int j=0; j<ny; j++){
+						if((int)map.getPixel(i,j,0) == k && (int)selectedMap.getPixel(i,j,0) != k){
+							coeff.putPixel(i,j,0,coefftemp.getPixel(i,j));
+						}
+					}
+				}
+			}
+		});
+	}
+
 	/**
 	 *
 	 */
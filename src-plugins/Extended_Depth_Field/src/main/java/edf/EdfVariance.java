@@ -71,4 +71,42 @@ public ImageWare[] process(ImageWare imageStack) {
 		return new ImageWare[] {res, topology};
 	}
 
+	/**
+	 * Streaming version of process(ImageWare).
+	 */
+	public ImageWare[] process(SliceSource source, int numThreads) {
+		final LogSingleton log = LogSingleton.getInstance();
+
+		final int nx = source.getWidth();
+		final int ny = source.getHeight();
+		final int nz = source.getSize();
+
+		final ImageWare res = Builder.create(nx,ny,1,ImageWare.FLOAT);
+		final ImageWare temp = Builder.create(nx,ny,1,ImageWare.FLOAT);
+		temp.fillConstant(-1);
+		final ImageWare topology = Builder.create(nx,ny,1,ImageWare.FLOAT);
+		final int[] done = new int[1];
+
+		SliceStreamer.process(source, numThreads, new SliceStreamer.Task() {
+			public void process(int k, ImageWare slice) {
+				ImageWare sharpness = Variance.compute(slice, windowSize);
+				float newval, oldval;
+				synchronized (res) {
+					for(int i=0; i<nx; i++)
+					for(int j=0; j<ny; j++) {
+						newval = (float)sharpness.getPixel(i,j,0);
+						oldval = (float)temp.getPixel(i,j,0);
+						if(oldval < newval || (oldval == newval && k+1 < topology.getPixel(i,j,0))){
+							temp.putPixel(i,j,0,newval);
+							topology.putPixel(i,j,0,k+1);
+							res.putPixel(i,j,0,slice.getPixel(i,j,0));
+						}
+					}
+					log.setProgessLength(15+ (done[0]++)*(65/nz));
+				}
+			}
+		});
+		return new ImageWare[] {res, topology};
+	}
+
 }
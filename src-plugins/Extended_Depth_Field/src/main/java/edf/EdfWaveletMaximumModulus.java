@@ -33,6 +33,39 @@ public abstract class EdfWaveletMaximumModulus extends AbstractEdfAlgorithm {
 	 */
 	abstract public ImageWare[] process(ImageWare imageStack);
 
+	/**
+	 *
+	 */
+	abstract public ImageWare[] process(SliceSource source, int numThreads);
+
+	/**
+	 * Returns the slices that the consistency checks selected for some
+	 * pixel in place of the slice with the maximum modulus.
+	 */
+	protected static int[] changedSlices(ImageWare selectedMap, ImageWare map, int nz) {
+		int nx = map.getSizeX();
+		int ny = map.getSizeY();
+		boolean[] changed = new boolean[nz];
+		int count = 0;
+		int k;
+		for (int i=0; i<nx; i++) {
+			for (int j=0; j<ny; j++) {
+				k = (int)map.getPixel(i,j,0);
+				if (k != (int)selectedMap.getPixel(i,j,0) && !changed[k]) {
+					changed[k] = true;
+					count++;
+				}
+			}
+		}
+		int[] slices = new int[count];
+		count = 0;
+		for (k=0; k<nz; k++) {
+			if (changed[k])
+				slices[count++] = k;
+		}
+		return slices;
+	}
+
 	/**
 	 *
 	 */
@@ -67,7 +67,44 @@ public static ImageWare reassignment(ImageWare res, ImageWare stack){
 	}
 
 	/**
-	 *
+	 * Streaming version of reassignment(ImageWare, ImageWare).
+	 */
+	public static ImageWare reassignment(final ImageWare res, SliceSource source, int numThreads){
+
+		final int nx = source.getWidth();
+		final int ny = source.getHeight();
+
+		final ImageWare topology = Builder.create(nx,ny,1,ImageWare.FLOAT);
+		final ImageWare finalpixelval = Builder.create(nx,ny,1,ImageWare.FLOAT);
+		final ImageWare temp = Builder.create(nx,ny,1,ImageWare.DOUBLE);
+		temp.fillConstant(Double.MAX_VALUE);
+
+		SliceStreamer.process(source, numThreads, new SliceStreamer.Task() {
+			public void process(int k, ImageWare slice) {
+				double stackval, diff;
+				synchronized (topology) {
+					for(int i = 0; i < nx; i++){
+						for(int j = 0 ; j < ny; j++){
+							stackval = (double)slice.getPixel(i,j,0);
+							diff = Math.abs(stackval - (double)res.getPixel(i,j,0));
+							if (diff < temp.getPixel(i,j,0) ||
+									(diff == temp.getPixel(i,j,0) && k+1 < topology.getPixel(i,j,0))){
+								temp.putPixel(i,j,0,diff);
+								finalpixelval.putPixel(i,j,0,stackval);
+								topology.putPixel(i,j,0,(float)(k + 1));
+							}
+						}
+					}
+				}
+			}
+		});
+
+		res.putXY(0,0,0,finalpixelval);
+		return topology;
+	}
+
+	/**
+	 * Each slice is read only once, which matters for virtual stacks.
 	 */
 	public static ColorProcessor reassignmentColor(ImageWare topology, ImageStack stack){
 
@@ -76,14 +113,24 @@ public static ColorProcessor reassignmentColor(ImageWare topology, ImageStack st
 
 		ColorProcessor cp = new ColorProcessor(nx, ny);
 
-		int color = 0;
-		int index;
-
+		boolean[] used = new boolean[stack.getSize() + 1];
 		for (int x=0; x<nx; x++){
 			for (int y=0; y<ny; y++){
-				index = (int)topology.getPixel(x, y, 0);
-				color = ((ColorProcessor)stack.getProcessor(index)).getPixel(x, y);
-				cp.putPixel(x, y, color);
+				used[(int)topology.getPixel(x, y, 0)] = true;
+			}
+		}
+
+		ColorProcessor slice;
+
+		for (int index=0; index<used.length; index++){
+			if (!used[index])
+				continue;
+			slice = (ColorProcessor)stack.getProcessor(index);
+			for (int x=0; x<nx; x++){
+				for (int y=0; y<ny; y++){
+					if ((int)topology.getPixel(x, y, 0) == index)
+						cp.putPixel(x, y, slice.getPixel(x, y));
+				}
 			}
 		}
 		return cp;
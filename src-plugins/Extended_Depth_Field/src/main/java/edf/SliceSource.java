@@ -0,0 +1,45 @@
+//==============================================================================
+//
+// Project: EDF - Extended Depth of Focus
+//
+// Organization: Biomedical Imaging Group (BIG)
+// Ecole Polytechnique Federale de Lausanne (EPFL), Lausanne, Switzerland
+//
+// Information: http://bigwww.epfl.ch/demo/edf/
+//
+// Reference: B. Forster, D. Van De Ville, J. Berent, D. Sage, M. Unser
+// Complex Wavelets for Extended Depth-of-Field: A New Method for the Fusion
+// of Multichannel Microscopy Images, Microscopy Research and Techniques,
+// 65(1-2), pp. 33-42, September 2004.
+//
+// Conditions of use: You'll be free to use this software for research purposes,
+// but you should not redistribute it without our consent. In addition, we
+// expect you to include a citation or acknowledgment whenever you present or
+// publish results that are based on it.
+//
+//==============================================================================
+
+
+package edf;
+
+import imageware.ImageWare;
+
+/**
+ * A z-stack that is read one slice at a time, so that the streaming
+ * versions of the EDF algorithms never need the whole stack in memory.
+ */
+public interface SliceSource {
+
+	public int getWidth();
+
+	public int getHeight();
+
+	public int getSize();
+
+	/**
+	 * Returns a new float image of size getWidth() x getHeight() x 1
+	 * holding the slice k (0-based). It is called from several threads
+	 * at the same time.
+	 */
+	public ImageWare getSlice(int k);
+}
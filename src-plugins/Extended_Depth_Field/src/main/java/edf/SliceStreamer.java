@@ -0,0 +1,95 @@
+//==============================================================================
+//
+// Project: EDF - Extended Depth of Focus
+//
+// Organization: Biomedical Imaging Group (BIG)
+// Ecole Polytechnique Federale de Lausanne (EPFL), Lausanne, Switzerland
+//
+// Information: http://bigwww.epfl.ch/demo/edf/
+//
+// Reference: B. Forster, D. Van De Ville, J. Berent, D. Sage, M. Unser
+// Complex Wavelets for Extended Depth-of-Field: A New Method for the Fusion
+// of Multichannel Microscopy Images, Microscopy Research and Techniques,
+// 65(1-2), pp. 33-42, September 2004.
+//
+// Conditions of use: You'll be free to use this software for research purposes,
+// but you should not redistribute it without our consent. In addition, we
+// expect you to include a citation or acknowledgment whenever you present or
+// publish results that are based on it.
+//
+//==============================================================================
+
+
+package edf;
+
+import imageware.ImageWare;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a task on the slices of a SliceSource, on several threads. Each
+ * thread reads and processes one slice at a time, so that no more than
+ * numThreads slices are in memory at once.
+ */
+public class SliceStreamer {
+
+	public interface Task {
+		/**
+		 * Processes the slice k. Called from several threads at the
+		 * same time, with the slices in no particular order.
+		 */
+		public void process(int k, ImageWare slice);
+	}
+
+	/**
+	 * Processes all the slices of the source.
+	 */
+	public static void process(SliceSource source, int numThreads, Task task) {
+		int[] slices = new int[source.getSize()];
+		for (int k=0; k<slices.length; k++)
+			slices[k] = k;
+		process(source, slices, numThreads, task);
+	}
+
+	/**
+	 * Processes the given slices of the source.
+	 */
+	public static void process(final SliceSource source, final int[] slices, int numThreads, final Task task) {
+		final AtomicInteger next = new AtomicInteger(0);
+		final Throwable[] failure = new Throwable[1];
+		Thread[] threads = new Thread[Math.max(1, Math.min(numThreads, slices.length))];
+		for (int t=0; t<threads.length; t++) {
+			threads[t] = new Thread() {
+				public void run() {
+					try {
+						for (int i=next.getAndIncrement(); i<slices.length; i=next.getAndIncrement())
+							task.process(slices[i], source.getSlice(slices[i]));
+					}
+					catch (Throwable e) {
+						synchronized (failure) {
+							if (failure[0] == null)
+								failure[0] = e;
+						}
+						next.set(slices.length);
+					}
+				}
+			};
+			threads[t].start();
+		}
+		try {
+			for (int t=0; t<threads.length; t++)
+				threads[t].join();
+		}
+		catch (InterruptedException e) {
+			for (int t=0; t<threads.length; t++)
+				threads[t].interrupt();
+			throw new RuntimeException("Interrupted while processing the slices.");
+		}
+		if (failure[0] instanceof RuntimeException)
+			throw (RuntimeException)failure[0];
+		if (failure[0] instanceof Error)
+			throw (Error)failure[0];
+		if (failure[0] != null)
+			throw new RuntimeException(failure[0]);
+	}
+}
@@ -24,6 +24,7 @@
 package edfgui;
 
 import ij.ImagePlus;
+import ij.Prefs;
 import ij.ImageStack;
 import ij.process.ColorProcessor;
 import imageware.Builder;
@@ -70,9 +71,102 @@ public void process() {
 		log.append("Start processing....");
 		log.setProgessLength(0);
 
-		boolean isExtended = false;
 		boolean waveletMethod = (parameters.edfMethod == REAL_WAVELETS || parameters.edfMethod == COMPLEX_WAVELETS);
 
+		ImageWare[] ima;
+		if (parameters.streaming)
+			ima = sharpenStreaming(waveletMethod);
+		else
+			ima = sharpen(waveletMethod);
+
+		if(parameters.doDenoising && !waveletMethod) {
+			log.start("Denoising (Gaussian smoothing)...");
+			ima[0].smoothGaussian(parameters.sigmaDenoising);
+			System.gc();
+			log.acknowledge();
+			log.setProgessLength(95);
+		}
+
+		ImagePlus impComposite = null;
+		ImagePlus impHeightMap = null;
+
+		if(parameters.color && parameters.outputColorMap==Parameters.COLOR_RGB) {
+			ColorProcessor cp;
+			if ( (waveletMethod && parameters.reassignment) || !waveletMethod){
+				cp = PostProcessing.reassignmentColor(ima[1],imp.getStack());
+				impComposite = new ImagePlus("Output",cp);
+			}else {
+				impComposite = new ImagePlus("Output", ima[0].buildImageStack());
+			}
+		}
+		else {
+			impComposite = new ImagePlus("Output", ima[0].buildImageStack());
+		}
+
+		// Topology post-processing.
+		if ( (waveletMethod && parameters.reassignment) || (!waveletMethod)) {
+
+			if (parameters.showTopology) {
+
+				if(parameters.doMedian) {
+					log.start("Median filter...");
+
+					ima[1] = MorphologicalOperators.doMedian(ima[1], parameters.medianWindowSize);
+					log.acknowledge();
+
+				}
+
+				if(parameters.doMorphoClose) {
+					log.start("Morphological close...");
+
+					ima[1] = MorphologicalOperators.doClose(ima[1]);
+
+					log.acknowledge();
+				}
+
+				if(parameters.doMorphoOpen) {
+					log.start("Morphological open ...");
+
+					ima[1] = MorphologicalOperators.doOpen(ima[1]);
+
+					log.acknowledge();
+				}
+
+				if (parameters.doGaussian) {
+					log.start("Post-processing on the map: Gaussian filter of sigma: " + parameters.sigma);
+					ima[1].smoothGaussian(parameters.sigma);
+					log.acknowledge();
+				}
+
+				impHeightMap = new ImagePlus("Height-Map", ima[1].buildImageStack());
+				impHeightMap.show();
+				impHeightMap.updateAndDraw();
+
+				if(parameters.show3dView){
+					SurfaceMap3D viewer = new SurfaceMap3D(impHeightMap, impComposite);
+					Thread thread = new Thread(viewer);
+					thread.start();
+				}
+			}
+		}
+
+		impComposite.show();
+		impComposite.updateAndDraw();
+
+		log.start("Finished.");
+		log.setProgessLength(100);
+		log.append("");
+	}
+
+	/**
+	 * Sharpness estimation on the whole stack, held in memory.
+	 */
+	private ImageWare[] sharpen(boolean waveletMethod) {
+
+		LogSingleton log = LogSingleton.getInstance();
+
+		boolean isExtended = false;
+
 		ImageStack stackConverted;
 		ImagePlus impConverted;
 		ImagePlus impBW = imp;
@@ -126,35 +220,7 @@ public void process() {
 
 		log.start("Sharpen estimation...");
 
-		AbstractEdfAlgorithm edf;
-		ImageWare[] ima = new ImageWare[2];
-
-		switch(parameters.edfMethod) {
-		case REAL_WAVELETS :
-			if( parameters.doDenoising )
-				edf = new EdfRealWavelets((int)parameters.splineOrder, parameters.nScales,
-						parameters.subBandCC,parameters.majCC, parameters.rateDenoising);
-			else
-				edf = new EdfRealWavelets((int)parameters.splineOrder, parameters.nScales,
-						parameters.subBandCC,parameters.majCC);
-			ima = edf.process(imageStack);
-			break;
-		case COMPLEX_WAVELETS :
-			edf = new EdfComplexWavelets(parameters.daubechielength, parameters.nScales,
-					parameters.subBandCC,parameters.majCC);
-			ima = edf.process(imageStack);
-			break;
-		case VARIANCE :
-			edf = new EdfVariance(parameters.varWindowSize);
-			ima = edf.process(imageStack);
-			break;
-		case SOBEL :
-			edf = new EdfSobel();
-			ima = edf.process(imageStack);
-			break;
-		default:
-			throw new RuntimeException("Invalid Option.");
-		}
+		ImageWare[] ima = createAlgorithm().process(imageStack);
 		System.gc();
 
 		log.acknowledge();
@@ -178,82 +244,83 @@ public void process() {
 			log.setProgessLength(95);
 		}
 
-		if(parameters.doDenoising && !waveletMethod) {
-			log.start("Denoising (Gaussian smoothing)...");
-			ima[0].smoothGaussian(parameters.sigmaDenoising);
-			System.gc();
-			log.acknowledge();
-			log.setProgessLength(95);
-		}
-
-		ImagePlus impComposite = null;
-		ImagePlus impHeightMap = null;
-
-		if(parameters.color && parameters.outputColorMap==Parameters.COLOR_RGB) {
-			ColorProcessor cp;
-			if ( (waveletMethod && parameters.reassignment) || !waveletMethod){
-				cp = PostProcessing.reassignmentColor(ima[1],imp.getStack());
-				impComposite = new ImagePlus("Output",cp);
-			}else {
-				impComposite = new ImagePlus("Output", ima[0].buildImageStack());
-			}
-		}
-		else {
-			impComposite = new ImagePlus("Output", ima[0].buildImageStack());
-		}
-
-		// Topology post-processing.
-		if ( (waveletMethod && parameters.reassignment) || (!waveletMethod)) {
-
-			if (parameters.showTopology) {
+		return ima;
+	}
 
-				if(parameters.doMedian) {
-					log.start("Median filter...");
+	/**
+	 * Sharpness estimation reading the stack slice by slice, on several
+	 * threads. Works with virtual stacks of any depth.
+	 */
+	private ImageWare[] sharpenStreaming(boolean waveletMethod) {
 
-					ima[1] = MorphologicalOperators.doMedian(ima[1], parameters.medianWindowSize);
-					log.acknowledge();
+		LogSingleton log = LogSingleton.getInstance();
+		int numThreads = Prefs.getThreads();
 
-				}
+		ImageStack stack = imp.getStack();
+		int colorConversionMethod = (parameters.color ? parameters.colorConversionMethod : StackSliceSource.NO_CONVERSION);
 
-				if(parameters.doMorphoClose) {
-					log.start("Morphological close...");
+		// Check sizes.
 
-					ima[1] = MorphologicalOperators.doClose(ima[1]);
+		int nx = stack.getWidth();
+		int ny = stack.getHeight();
+		int mx = nx;
+		int my = ny;
 
-					log.acknowledge();
-				}
+		if (waveletMethod) {
+			if(!Tools.isPowerOf2(nx) || !Tools.isPowerOf2(ny)) {
+				int[] scaleAndSizes = Tools.computeScaleAndPowerTwoSize(nx,ny);
+				mx = scaleAndSizes[1];
+				my = scaleAndSizes[2];
+				log.append("Extend images to "+ mx + "x" + my + " pixels.");
+			}
+		}
 
-				if(parameters.doMorphoOpen) {
-					log.start("Morphological open ...");
+		log.start("Sharpen estimation (" + numThreads + " threads)...");
 
-					ima[1] = MorphologicalOperators.doOpen(ima[1]);
+		ImageWare[] ima = createAlgorithm().process(new StackSliceSource(stack, colorConversionMethod, mx, my), numThreads);
 
-					log.acknowledge();
-				}
-
-				if (parameters.doGaussian) {
-					log.start("Post-processing on the map: Gaussian filter of sigma: " + parameters.sigma);
-					ima[1].smoothGaussian(parameters.sigma);
-					log.acknowledge();
-				}
+		log.acknowledge();
+		log.setProgessLength(80);
 
-				impHeightMap = new ImagePlus("Height-Map", ima[1].buildImageStack());
-				impHeightMap.show();
-				impHeightMap.updateAndDraw();
+		// Crop to original images.
+		if (mx != nx || my != ny) {
+			log.start("Crop to original size...");
+			ima[0] = Tools.crop(ima[0],nx,ny);
+			ima[1] = Tools.crop(ima[1],nx,ny);
+			log.acknowledge();
+		}
 
-				if(parameters.show3dView){
-					SurfaceMap3D viewer = new SurfaceMap3D(impHeightMap, impComposite);
-					Thread thread = new Thread(viewer);
-					thread.start();
-				}
-			}
+		if(parameters.reassignment) {
+			log.start("Reassignment to original pixel values...");
+			ima[1] = PostProcessing.reassignment(ima[0], new StackSliceSource(stack, colorConversionMethod, nx, ny), numThreads);
+			log.acknowledge();
+			log.setProgessLength(95);
 		}
 
-		impComposite.show();
-		impComposite.updateAndDraw();
+		return ima;
+	}
 
-		log.start("Finished.");
-		log.setProgessLength(100);
-		log.append("");
+	/**
+	 * Create the sharpness estimation algorithm chosen in the parameters.
+	 */
+	private AbstractEdfAlgorithm createAlgorithm() {
+		switch(parameters.edfMethod) {
+		case REAL_WAVELETS :
+			if( parameters.doDenoising )
+				return new EdfRealWavelets((int)parameters.splineOrder, parameters.nScales,
+						parameters.subBandCC,parameters.majCC, parameters.rateDenoising);
+			else
+				return new EdfRealWavelets((int)parameters.splineOrder, parameters.nScales,
+						parameters.subBandCC,parameters.majCC);
+		case COMPLEX_WAVELETS :
+			return new EdfComplexWavelets(parameters.daubechielength, parameters.nScales,
+					parameters.subBandCC,parameters.majCC);
+		case VARIANCE :
+			return new EdfVariance(parameters.varWindowSize);
+		case SOBEL :
+			return new EdfSobel();
+		default:
+			throw new RuntimeException("Invalid Option.");
+		}
 	}
 }
@@ -68,6 +68,7 @@ public class Parameters {
 	public boolean showTopology;
 	public boolean show3dView;
 	public boolean log;
+	public boolean streaming;
 
 
 	public int maxScales = 1;
@@ -111,6 +112,7 @@ public void reset(){
 		showTopology = false;
 		show3dView = false;
 		log = false;
+		streaming = true;
 	}
 
 	/**
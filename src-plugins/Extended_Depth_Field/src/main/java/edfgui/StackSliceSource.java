@@ -0,0 +1,107 @@
+//==============================================================================
+//
+// Project: EDF - Extended Depth of Focus
+//
+// Organization: Biomedical Imaging Group (BIG)
+// Ecole Polytechnique Federale de Lausanne (EPFL), Lausanne, Switzerland
+//
+// Information: http://bigwww.epfl.ch/demo/edf/
+//
+// Reference: B. Forster, D. Van De Ville, J. Berent, D. Sage, M. Unser
+// Complex Wavelets for Extended Depth-of-Field: A New Method for the Fusion
+// of Multichannel Microscopy Images, Microscopy Research and Techniques,
+// 65(1-2), pp. 33-42, September 2004.
+//
+// Conditions of use: You'll be free to use this software for research purposes,
+// but you should not redistribute it without our consent. In addition, we
+// expect you to include a citation or acknowledgment whenever you present or
+// publish results that are based on it.
+//
+//==============================================================================
+
+
+package edfgui;
+
+import ij.ImageStack;
+import ij.process.ImageProcessor;
+import imageware.Builder;
+import imageware.ImageWare;
+import edf.Color2BW;
+import edf.SliceSource;
+import edf.Tools;
+
+/**
+ * Reads the slices of an ImageStack one at a time, converting color
+ * slices to grayscale and extending them to the size needed by the
+ * wavelet methods on the fly. Works with virtual stacks.
+ */
+public class StackSliceSource implements SliceSource {
+
+	public static final int NO_CONVERSION = -1;
+
+	private ImageStack stack;
+	private int colorConversionMethod;
+	private int mx;
+	private int my;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param colorConversionMethod one of the color conversion methods of
+	 * the parameters, or NO_CONVERSION
+	 * @param mx, my size of the slices, centered on the original image
+	 */
+	public StackSliceSource(ImageStack stack, int colorConversionMethod, int mx, int my) {
+		this.stack = stack;
+		this.colorConversionMethod = colorConversionMethod;
+		this.mx = mx;
+		this.my = my;
+	}
+
+	public int getWidth() {
+		return mx;
+	}
+
+	public int getHeight() {
+		return my;
+	}
+
+	public int getSize() {
+		return stack.getSize();
+	}
+
+	public ImageWare getSlice(int k) {
+		ImageProcessor ip;
+		// virtual stacks are not meant to be read concurrently
+		synchronized (stack) {
+			ip = stack.getProcessor(k+1);
+		}
+
+		switch (colorConversionMethod) {
+		case NO_CONVERSION:
+			break;
+		case 0:
+			ip = Color2BW.C2BFixedWeights(ip, true);
+			break;
+		case 1:
+			ip = Color2BW.C2BPrincipalComponents(ip);
+			break;
+		case 2:
+			ip = Color2BW.C2BMean(ip);
+			break;
+		default:
+			throw new RuntimeException("Unknown error");
+		}
+
+		int nx = ip.getWidth();
+		int ny = ip.getHeight();
+		ImageWare slice = Builder.create(nx, ny, 1, ImageWare.FLOAT);
+		float[] pixels = slice.getSliceFloat(0);
+		for (int i=0; i<pixels.length; i++)
+			pixels[i] = ip.getf(i);
+
+		if (nx != mx || ny != my)
+			slice = Tools.extend(slice, mx, my);
+		return slice;
+	}
+}
@@ -131,7 +131,7 @@ private boolean getPluginParams()
         final GenericDialog gd = new GenericDialog("Folder Watch Alignment Plugin Settings");
         final Button button = new Button("Update Result");
         final Panel panel = new Panel(new FlowLayout(FlowLayout.CENTER));
-        final double pollTime = Prefs.get(POLL_KEY, 30.0);
+        final double pollTime = Prefs.get(POLL_KEY, 5.0);
         final String regexField = Prefs.get(REGEX_KEY, "Tile.*(tif|tiff|png)$");
         final String regexTestField = Prefs.get(REGEX_TEST_KEY,
                 "Tile_r1-c1_Something Something.tif");
@@ -4,6 +4,8 @@
 import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
+import java.util.HashSet;
+import java.util.Hashtable;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.Vector;
@@ -45,11 +47,27 @@ public boolean accept(File file) {
     }
 
 
+    /**
+     * Folder modification times only have the granularity of the file system, so a folder is
+     * listed again until its modification time is at least this much older than its last listing.
+     */
+    private static final long MODIFIED_GRANULARITY = 2000;
+
+    /**
+     * All folders are listed at least this often, in case a change of their modification time
+     * was missed, as can happen on network file systems.
+     */
+    private static final long RESCAN_INTERVAL = 60000;
+
     private final Vector<File> folders;
+    private final Hashtable<File, Long> folderModified;
+    private final Hashtable<File, Long> folderListed;
+    private long lastRescan;
     private final Timer timer;
     private final long interval;
     private boolean running;
     private final Vector<File> allFileList;
+    private final HashSet<File> allFileSet;
     private final Vector<File> freshFileList;
     private final Vector<FileListener> listenerList;
     private final FileFilter fileFilter;
@@ -87,10 +105,14 @@ public FolderWatcher(final String folderName, final long inInterval,
     public FolderWatcher(final String folderName, final long inInterval, final FileFilter filter)
     {
         folders = new Vector<File>();
+        folderModified = new Hashtable<File, Long>();
+        folderListed = new Hashtable<File, Long>();
+        lastRescan = 0;
         timer = new Timer();
         running = false;
         interval = inInterval;
         allFileList = new Vector<File>();
+        allFileSet = new HashSet<File>();
         listenerList = new Vector<FileListener>();
         freshFileList = new Vector<File>();
         fileFilter = filter;
@@ -157,36 +179,81 @@ public boolean cancel()
         return super.cancel();
     }
 
+    /**
+     * Returns true if the given folder may have changed since it was last listed, and marks it
+     * as listed now. Adding or removing a file changes the modification time of its folder, so
+     * folders that did not change need not be listed again.
+     * @param folder the folder in question
+     * @param now the current time
+     * @return true if the folder should be listed
+     */
+    private boolean folderChanged(final File folder, final long now)
+    {
+        final long modified = folder.lastModified();
+        final Long lastModified = folderModified.get(folder);
+        final Long lastListed = folderListed.get(folder);
+
+        if (lastModified == null || lastModified != modified
+                || modified + MODIFIED_GRANULARITY >= lastListed)
+        {
+            folderModified.put(folder, modified);
+            folderListed.put(folder, now);
+            return true;
+        }
+        else
+        {
+            return false;
+        }
+    }
+
     public void run()
     {
+        final long now = System.currentTimeMillis();
+        final boolean rescan = now - lastRescan >= RESCAN_INTERVAL;
+
+        if (rescan)
+        {
+            lastRescan = now;
+        }
+
         freshFileList.clear();
 
+        // Folders found along the way are appended, and listed in this same pass
         int i = 0;
         while (i < folders.size())
         {
-            File[] subdirArray = folders.get(i).listFiles(dirFilter);
-            for (File subdir : subdirArray)
+            final File folder = folders.get(i);
+
+            if (folderChanged(folder, now) || rescan)
             {
-                if (!folders.contains(subdir))
+                File[] subdirArray = folder.listFiles(dirFilter);
+                File[] fileArray = folder.listFiles(fileFilter);
+
+                if (subdirArray != null)
                 {
-                    folders.add(subdir);
+                    for (File subdir : subdirArray)
+                    {
+                        if (!folders.contains(subdir))
+                        {
+                            folders.add(subdir);
+                        }
+                    }
                 }
-            }
-            
-            ++i;
-        }
 
-        for (File folder : folders)
-        {
-            File[] fileArray = folder.listFiles(fileFilter);
-            for (File f : fileArray)
-            {
-                if (!allFileList.contains(f))
+                if (fileArray != null)
                 {
-                    allFileList.add(f);
-                    freshFileList.add(f);
+                    for (File f : fileArray)
+                    {
+                        if (allFileSet.add(f))
+                        {
+                            allFileList.add(f);
+                            freshFileList.add(f);
+                        }
+                    }
                 }
             }
+
+            ++i;
         }
 
         for (FileListener fl : listenerList)
@@ -18,14 +18,99 @@
  */
 public abstract class ImageListener implements FileListener, Runnable
 {
+    /**
+     * The times at which a section passed through the stages from being written to disk to
+     * having been processed, in milliseconds since the epoch.
+     */
+    public static class SectionTiming
+    {
+        private final File file;
+        private long written, seen, queued, started, finished;
+
+        private long length;
+
+        public SectionTiming(final File f, final long now)
+        {
+            file = f;
+            seen = now;
+            length = -1;
+        }
+
+        /**
+         * Checks whether the file has been completely written, in the sense that its size and
+         * modification time did not change since the last call.
+         * @return true if the file seems to be complete.
+         */
+        public boolean isStable()
+        {
+            final long newLength = file.length();
+            final long newModified = file.lastModified();
+            final boolean stable = newLength > 0 && newLength == length && newModified == written;
+
+            length = newLength;
+            written = newModified;
+            return stable;
+        }
+
+        public File getFile()
+        {
+            return file;
+        }
+
+        /**
+         * Returns the time between the last write to the file and the end of its processing.
+         * @return the time between the last write to the file and the end of its processing.
+         */
+        public long getLatency()
+        {
+            return finished - written;
+        }
+
+        /**
+         * Returns the time from the first sight of the file until it was found to be complete.
+         * @return the time from the first sight of the file until it was found to be complete.
+         */
+        public long getSettleTime()
+        {
+            return queued - seen;
+        }
+
+        /**
+         * Returns the time the file waited for earlier sections to be processed.
+         * @return the time the file waited for earlier sections to be processed.
+         */
+        public long getQueueTime()
+        {
+            return started - queued;
+        }
+
+        /**
+         * Returns the time it took to process the file.
+         * @return the time it took to process the file.
+         */
+        public long getProcessingTime()
+        {
+            return finished - started;
+        }
+
+        public String toString()
+        {
+            return file.getName() + ": processed " + getLatency() + "ms after the last write ("
+                    + getSettleTime() + "ms until complete, " + getQueueTime() + "ms queued, "
+                    + getProcessingTime() + "ms processing)";
+        }
+    }
+
     /**
      * A Comparator used to sort files in ascending order of modified time.
      */
-    private static class FileModifiedComparator implements Comparator<File>
+    private static class FileModifiedComparator implements Comparator<SectionTiming>
     {
-        public int compare(File file1, File file2)
+        public int compare(SectionTiming timing1, SectionTiming timing2)
         {
-            return (int)(file1.lastModified() - file2.lastModified());
+            final long modified1 = timing1.getFile().lastModified();
+            final long modified2 = timing2.getFile().lastModified();
+            return modified1 < modified2 ? -1 : (modified1 > modified2 ? 1 : 0);
         }
     }
 
@@ -33,8 +118,9 @@ public int compare(File file1, File file2)
      * ArrayBlockingQueue size.
      */
     private static final int QUEUE_CAP = 256;
-    private final ArrayBlockingQueue<File> imageQueue;
-    private final Vector<File> holdList;
+    private final ArrayBlockingQueue<SectionTiming> imageQueue;
+    private final Vector<SectionTiming> holdList;
+    private final Vector<SectionTiming> timings;
     private final FileModifiedComparator fmc;
     private final Hashtable<String, ImagePlus> fileTable;
     private final Thread thread;
@@ -70,8 +156,9 @@ public String getDescription() {
     
     public ImageListener()
     {
-        imageQueue = new ArrayBlockingQueue<File>(QUEUE_CAP);
-        holdList = new Vector<File>();
+        imageQueue = new ArrayBlockingQueue<SectionTiming>(QUEUE_CAP);
+        holdList = new Vector<SectionTiming>();
+        timings = new Vector<SectionTiming>();
         fmc = new FileModifiedComparator();
         enabled = true;
         fileTable = new Hashtable<String, ImagePlus>();
@@ -82,33 +169,58 @@ public ImageListener()
     /**
      * Handles a new file event passed by a FolderWatcher.
      * The FolderWatcher passes itself as a parameter.
+     *
+     * New files are held until they are completely written, that is, until their size did not
+     * change between two events. Then they are queued in order of modification time, to be
+     * opened and processed on this ImageListener's own thread, so that later files are picked up
+     * while earlier ones are being processed.
      * @param fw the FolderWatcher calling this method
      */
     public void handle(FolderWatcher fw)
     {
-        ArrayList<File> readyList;
-        holdList.addAll(fw.getFreshFileList());
-        readyList = new ArrayList<File>();
+        final long now = System.currentTimeMillis();
+        final ArrayList<SectionTiming> readyList = new ArrayList<SectionTiming>();
 
-        for (File f : holdList)
+        synchronized (holdList)
         {
-            if (fileIsReady(f))
+            for (File f : fw.getFreshFileList())
             {
-                readyList.add(f);                
+                if (!f.isDirectory())
+                {
+                    holdList.add(new SectionTiming(f, now));
+                }
             }
-        }
 
-        Collections.sort(readyList, fmc);
+            for (SectionTiming timing : holdList)
+            {
+                if (timing.isStable())
+                {
+                    readyList.add(timing);
+                }
+            }
 
-        for (File f : readyList)
-        {
-            if(imageQueue.offer(f))
+            Collections.sort(readyList, fmc);
+
+            for (SectionTiming timing : readyList)
             {
-                holdList.remove(f);
+                timing.queued = now;
+                if (imageQueue.offer(timing))
+                {
+                    holdList.remove(timing);
+                }
             }
         }
     }
 
+    /**
+     * Returns the timings of all sections processed so far.
+     * @return the timings of all sections processed so far.
+     */
+    public Vector<SectionTiming> getTimings()
+    {
+        return new Vector<SectionTiming>(timings);
+    }
+
     public void setEnabled(boolean go)
     {
         enabled = go;
@@ -126,7 +238,22 @@ public void run()
             try
             {
                 //imageQueue is supposed to block while its empty                
-                processImage(imageQueue.take());
+                final SectionTiming timing = imageQueue.take();
+
+                if (fileIsReady(timing.getFile()))
+                {
+                    timing.started = System.currentTimeMillis();
+                    processImage(timing.getFile());
+                    timing.finished = System.currentTimeMillis();
+                    timings.add(timing);
+                    reportTiming(timing);
+                }
+                else
+                {
+                    // Not readable after all, wait for it to settle again
+                    timing.length = -1;
+                    holdList.add(timing);
+                }
             }
             catch (InterruptedException ie)
             {
@@ -183,7 +310,8 @@ public ImagePlus getImageFromPath(final String path)
 
     /**
      * Checks whether an image file is ready, in the sense that it has been completely written to
-     * disk. This is determined by whether it can be opened as a non-null ImagePlus.
+     * disk. This is called for files whose size has stopped changing, and is determined by whether
+     * it can be opened as a non-null ImagePlus.
      * @param imageFile the File representing the image file to test.
      * @return true if the image is ready, false otherwise.
      */
@@ -209,6 +337,15 @@ protected boolean fileIsReady(File imageFile)
         }
     }
 
+    /**
+     * Called after each processed image file. Logs the timing of the section.
+     * @param timing the timing of the section that was just processed
+     */
+    protected void reportTiming(final SectionTiming timing)
+    {
+        IJ.log(timing.toString());
+    }
+
     /**
      * An inheriting class should implement a method that processes each image file as it is
      * popped from the queue. Images are popped in order of modification time.
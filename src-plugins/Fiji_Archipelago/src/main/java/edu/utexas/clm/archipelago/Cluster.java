@@ -51,13 +51,17 @@
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.ConcurrentModificationException;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
 import java.util.Vector;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
@@ -97,10 +101,25 @@ public class Cluster implements NodeStateListener, NodeShellListener
      * equally as any other. There is code here that will attempt to recover in the case that
      * a ProcessManager is rejected, but if this becomes a common occurrence, then this
      * scheduler should be replaced with something more sophisticated.
+     *
+     * Optionally, the scheduler runs speculative copies of straggling jobs. Once the queue is
+     * empty and there are free threads, any job that has been running for longer than the given
+     * percentile of the recently completed jobs is submitted a second time to a different node.
+     * The first copy to return successfully finishes the Future, and the other is cancelled.
      * @author Larry Lindsey
      */
     public class ProcessScheduler extends Thread
     {
+        /**
+         * Number of completed jobs needed before a percentile is trusted for speculation
+         */
+        public static final int MIN_SPECULATION_SAMPLES = 5;
+
+        /**
+         * Number of recent job run times kept for the percentile
+         */
+        public static final int SPECULATION_HISTORY = 256;
+
         private final LinkedBlockingQueue<ProcessManager> jobQueue, priorityJobQueue;
         private final AtomicInteger pollTime;
         private final AtomicBoolean running;
@@ -108,6 +127,13 @@ public class ProcessScheduler extends Thread
         private final Vector<ProcessManager<?>> remainingJobList;
         private final LinkedList<ProcessManager> internalQueue;
         private final ReentrantLock lock;
+        private final Hashtable<Long, ProcessManager> speculativeProcesses;
+        private final Set<Long> abandonedProcesses;
+        private final Hashtable<Long, Long> startTimes;
+        private final LinkedList<Long> runTimes;
+        private final AtomicBoolean speculate;
+        private final AtomicInteger speculativeLaunches, speculativeWins;
+        private volatile float speculationPercentile;
 
         private ProcessScheduler(int t)
         {
@@ -119,6 +145,14 @@ private ProcessScheduler(int t)
             remainingJobList = new Vector<ProcessManager<?>>();
             internalQueue = new LinkedList<ProcessManager>();
             lock = new ReentrantLock();
+            speculativeProcesses = new Hashtable<Long, ProcessManager>();
+            abandonedProcesses = new HashSet<Long>();
+            startTimes = new Hashtable<Long, Long>();
+            runTimes = new LinkedList<Long>();
+            speculate = new AtomicBoolean(false);
+            speculativeLaunches = new AtomicInteger(0);
+            speculativeWins = new AtomicInteger(0);
+            speculationPercentile = 90f;
         }
         
 
@@ -127,6 +161,51 @@ public void setPollTimeMillis(int t)
             pollTime.set(t);
         }
 
+        /**
+         * Enables or disables speculative execution of straggling jobs. Disabled by default.
+         * @param enable true to run duplicates of slow jobs on idle nodes
+         */
+        public void setSpeculativeExecution(final boolean enable)
+        {
+            speculate.set(enable);
+        }
+
+        public boolean isSpeculativeExecution()
+        {
+            return speculate.get();
+        }
+
+        /**
+         * Sets the percentile of recently completed job run times that a running job must
+         * exceed before a speculative copy of it is started.
+         * @param percentile a percentile between 0 and 100
+         */
+        public void setSpeculationPercentile(final float percentile)
+        {
+            speculationPercentile = Math.max(0f, Math.min(100f, percentile));
+        }
+
+        public float getSpeculationPercentile()
+        {
+            return speculationPercentile;
+        }
+
+        /**
+         * @return the number of speculative copies that have been submitted
+         */
+        public int getSpeculativeLaunchCount()
+        {
+            return speculativeLaunches.get();
+        }
+
+        /**
+         * @return the number of jobs whose result was delivered by the speculative copy
+         */
+        public int getSpeculativeWinCount()
+        {
+            return speculativeWins.get();
+        }
+
         public synchronized <T> boolean queueJob(Callable<T> c, long id, float np, boolean f)
         {
             return queueJob(c, id, false, np, f);
@@ -204,6 +283,186 @@ private void rotate(LinkedList<ClusterNode> nodeList)
             }
         }
 
+        /**
+         * Removes pm from the given table, but only if it is the very ProcessManager stored
+         * there, rather than another copy of the same job.
+         */
+        private boolean removeIfSame(final Hashtable<Long, ProcessManager> table,
+                                     final ProcessManager<?> pm)
+        {
+            if (table.get(pm.getID()) == pm)
+            {
+                table.remove(pm.getID());
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Called when the ClusterNode running submitted receives a message from its remote
+         * counterpart indicating that the job has finished.
+         * @param submitted the ProcessManager that was submitted to the node
+         * @param process the ProcessManager that just returned from the cluster
+         * @return true if the Future was finished successfully, false otherwise.
+         */
+        private boolean jobFinished(final ProcessManager<?> submitted,
+                                    final ProcessManager<?> process)
+        {
+            final long id = submitted.getID();
+            final boolean isCopy;
+            ProcessManager<?> other;
+
+            synchronized (speculativeProcesses)
+            {
+                if (abandonedProcesses.remove(id))
+                {
+                    // The losing copy of a job that has already been finished by the other one
+                    return false;
+                }
+                else if (removeIfSame(speculativeProcesses, submitted))
+                {
+                    isCopy = true;
+                    other = runningProcesses.get(id);
+                    runningProcesses.remove(id);
+                }
+                else
+                {
+                    isCopy = false;
+                    removeIfSame(runningProcesses, submitted);
+                    other = speculativeProcesses.remove(id);
+                }
+
+                if (other != null && process.getRemoteException() != null)
+                {
+                    // The other copy may still succeed. Let it carry on as the job of record.
+                    FijiArchipelago.debug("Scheduler: one copy of job " + id +
+                            " failed, waiting for the other");
+                    runningProcesses.put(id, other);
+                    return false;
+                }
+            }
+
+            final Long start = startTimes.get(id);
+            final boolean finished = finishFuture(process);
+
+            if (finished)
+            {
+                startTimes.remove(id);
+
+                if (start != null && process.getRemoteException() == null)
+                {
+                    addRunTime(System.currentTimeMillis() - start);
+                }
+
+                if (other != null && isCopy)
+                {
+                    speculativeWins.incrementAndGet();
+                    FijiArchipelago.debug("Scheduler: speculative copy of job " + id +
+                            " finished first");
+                }
+            }
+
+            if (other != null)
+            {
+                cancelCopy(other);
+            }
+
+            return finished;
+        }
+
+        /**
+         * Cancels a copy of a job that is no longer needed, because the other copy has finished
+         * or the job was cancelled. If the copy cannot be cancelled, it is remembered so that
+         * neither its result nor the loss of its node is taken for the job itself.
+         * @param copy the ProcessManager of the copy to cancel
+         */
+        private void cancelCopy(final ProcessManager<?> copy)
+        {
+            final long id = copy.getID();
+            final ClusterNode node = getNode(copy.getRunningOn());
+
+            if (node != null && !node.cancelJob(id))
+            {
+                FijiArchipelago.debug("Scheduler: could not cancel the other copy of job " + id +
+                        " on " + node.getHost());
+                synchronized (speculativeProcesses)
+                {
+                    abandonedProcesses.add(id);
+                }
+            }
+        }
+
+        private void addRunTime(final long time)
+        {
+            synchronized (runTimes)
+            {
+                runTimes.addLast(time);
+                if (runTimes.size() > SPECULATION_HISTORY)
+                {
+                    runTimes.removeFirst();
+                }
+            }
+        }
+
+        /**
+         * @return the run time, in milliseconds, beyond which a job is considered to be a
+         * straggler, or -1 if too few jobs have completed to tell.
+         */
+        private long speculationThreshold()
+        {
+            final long[] times;
+
+            synchronized (runTimes)
+            {
+                if (runTimes.size() < MIN_SPECULATION_SAMPLES)
+                {
+                    return -1;
+                }
+
+                times = new long[runTimes.size()];
+                int i = 0;
+                for (final long t : runTimes)
+                {
+                    times[i++] = t;
+                }
+            }
+
+            Arrays.sort(times);
+
+            final int i = (int)Math.ceil(speculationPercentile / 100f * times.length) - 1;
+            return times[Math.max(0, Math.min(times.length - 1, i))];
+        }
+
+        /**
+         * Called when node has stopped while it was running pm.
+         * @param pm a ProcessManager that was running on node
+         * @return true if another copy of the job is still running elsewhere, or if pm is a
+         * copy that was left behind after the job had finished or was cancelled, in which case
+         * the job needs neither to be rescheduled nor cancelled.
+         */
+        public boolean nodeStopped(final ProcessManager<?> pm)
+        {
+            synchronized (speculativeProcesses)
+            {
+                if (abandonedProcesses.remove(pm.getID()) ||
+                        removeIfSame(speculativeProcesses, pm))
+                {
+                    return true;
+                }
+                else if (runningProcesses.get(pm.getID()) == pm)
+                {
+                    final ProcessManager<?> copy = speculativeProcesses.remove(pm.getID());
+                    if (copy != null)
+                    {
+                        runningProcesses.put(pm.getID(), copy);
+                        return true;
+                    }
+                    runningProcesses.remove(pm.getID());
+                }
+                return false;
+            }
+        }
+
         /**
          * Attempts to submit the ProcessManager pm on each node in nodeList. This function
          * runs on the same thread as run().
@@ -229,8 +488,7 @@ private boolean trySubmit(final ProcessManager<?> pm,
                      */
                     public boolean processFinished(ProcessManager<?> process)
                     {
-                        runningProcesses.remove(process.getID());
-                        return finishFuture(process);
+                        return jobFinished(pm, process);
                     }
                 };
                 
@@ -243,21 +501,143 @@ public boolean processFinished(ProcessManager<?> process)
                 {
                     final ClusterNode node = nodeList.getFirst();
 
-                    if (node.numAvailableThreads() >= pm.requestedCores(node) &&
-                            node.submit(pm, listener))
+                    if (node.numAvailableThreads() >= pm.requestedCores(node))
                     {
+                        // Registered and counted before submission, since a short job may
+                        // return right away
                         runningProcesses.put(pm.getID(), pm);
+                        startTimes.put(pm.getID(), System.currentTimeMillis());
                         incrementJobCount();
+
+                        if (node.submit(pm, listener))
+                        {
+                            if (node.numAvailableThreads() <= 0)
+                            {
+                                nodeList.remove(node);
+                            }
+                            return true;
+                        }
+
+                        if (removeIfSame(runningProcesses, pm))
+                        {
+                            startTimes.remove(pm.getID());
+                        }
+                        decrementJobCount();
+                    }
+                    rotate(nodeList);
+                }
+
+                return false;
+            }
+        }
+
+        /**
+         * Attempts to submit a second copy of the running ProcessManager pm on a node in
+         * nodeList other than the one it is running on. This function runs on the same thread
+         * as run().
+         * @param pm a running ProcessManager
+         * @param nodeList a List of ClusterNodes with available Threads
+         * @return true if a copy was scheduled, false otherwise.
+         */
+        private boolean trySubmitCopy(final ProcessManager<?> pm,
+                                      final LinkedList<ClusterNode> nodeList)
+        {
+            final ProcessManager<?> copy = pm.duplicate();
+            final ProcessListener listener = new ProcessListener() {
+                public boolean processFinished(ProcessManager<?> process)
+                {
+                    return jobFinished(copy, process);
+                }
+            };
+
+            for (int i = 0; i < nodeList.size(); ++i)
+            {
+                final ClusterNode node = nodeList.getFirst();
+
+                if (node.getID() != pm.getRunningOn() &&
+                        node.numAvailableThreads() >= copy.requestedCores(node))
+                {
+                    // The job may have finished or been copied since it was found to straggle
+                    synchronized (speculativeProcesses)
+                    {
+                        if (runningProcesses.get(pm.getID()) != pm ||
+                                speculativeProcesses.containsKey(pm.getID()) ||
+                                !futures.containsKey(pm.getID()))
+                        {
+                            return false;
+                        }
+                        speculativeProcesses.put(pm.getID(), copy);
+                    }
+
+                    if (node.submit(copy, listener))
+                    {
+                        speculativeLaunches.incrementAndGet();
+                        FijiArchipelago.debug("Scheduler: Speculative copy of job " +
+                                pm.getID() + " scheduled on host " + node.getHost());
                         if (node.numAvailableThreads() <= 0)
                         {
                             nodeList.remove(node);
                         }
                         return true;
                     }
-                    rotate(nodeList);
+
+                    removeIfSame(speculativeProcesses, copy);
                 }
+                rotate(nodeList);
+            }
 
-                return false;
+            return false;
+        }
+
+        /**
+         * Submits speculative copies of jobs that have been running for longer than the
+         * speculation percentile, longest-running first, until the free nodes are used up.
+         * This function runs on the same thread as run().
+         * @param nodeList a List of ClusterNodes with available Threads
+         */
+        private void speculateStragglers(final LinkedList<ClusterNode> nodeList)
+        {
+            final long threshold = speculationThreshold();
+
+            if (threshold < 0)
+            {
+                return;
+            }
+
+            final long now = System.currentTimeMillis();
+            final ArrayList<ProcessManager> stragglers = new ArrayList<ProcessManager>();
+
+            for (final ProcessManager pm : new ArrayList<ProcessManager>(runningProcesses.values()))
+            {
+                final Long start = startTimes.get(pm.getID());
+
+                if (start != null && now - start > threshold &&
+                        futures.containsKey(pm.getID()) &&
+                        !speculativeProcesses.containsKey(pm.getID()))
+                {
+                    stragglers.add(pm);
+                }
+            }
+
+            Collections.sort(stragglers, new Comparator<ProcessManager>()
+            {
+                public int compare(final ProcessManager pm1, final ProcessManager pm2)
+                {
+                    final Long s1 = startTimes.get(pm1.getID());
+                    final Long s2 = startTimes.get(pm2.getID());
+                    final long t1 = s1 == null ? now : s1;
+                    final long t2 = s2 == null ? now : s2;
+                    return t1 < t2 ? -1 : t1 == t2 ? 0 : 1;
+                }
+            });
+
+            for (final ProcessManager<?> pm : stragglers)
+            {
+                if (nodeList.isEmpty())
+                {
+                    break;
+                }
+                trySubmitCopy(pm, nodeList);
             }
         }
         
@@ -339,6 +719,12 @@ public void run()
                     
                     pmQ.clear();
                 }
+
+                // Nothing left to hand out, so use any free threads to back up slow jobs.
+                if (speculate.get() && internalQueue.isEmpty() && !nodeList.isEmpty())
+                {
+                    speculateStragglers(nodeList);
+                }
                 
                 lock.unlock();
                 
@@ -405,6 +791,14 @@ public synchronized boolean cancelJob(long id, boolean force)
             {
                 ArchipelagoFuture future = futures.remove(id);                                
                 ClusterNode runningOn = getNode(pm.getRunningOn());
+                ProcessManager<?> copy = speculativeProcesses.remove(id);
+
+                startTimes.remove(id);
+
+                if (copy != null)
+                {
+                    cancelCopy(copy);
+                }
 
                 if (future == null)
                 {
@@ -1420,7 +1814,12 @@ public synchronized void stateChanged(ClusterNode node, ClusterNodeState stateNo
 
                 for (ProcessManager<?> pm : node.getRunningProcesses())
                 {
-                    if (isShutdown())
+                    if (scheduler.nodeStopped(pm))
+                    {
+                        FijiArchipelago.debug("Job " + pm.getID() +
+                                " is still running as a speculative copy, or has already ended");
+                    }
+                    else if (isShutdown())
                     {
                         FijiArchipelago.debug("Cancelling running job " + pm.getID());
                         decrementJobCount();
@@ -1730,6 +2129,47 @@ public int getQueuedJobCount()
     {
         return scheduler.queuedJobCount();
     }
+
+    /**
+     * Enables or disables speculative execution. When enabled, jobs that are still running
+     * once the queue has emptied, and that have taken longer than the speculation percentile
+     * of the recently completed jobs, are also started on an idle node. Whichever copy
+     * finishes first is used, and the other is cancelled.
+     * @param enable true to enable speculative execution
+     */
+    public void setSpeculativeExecution(final boolean enable)
+    {
+        scheduler.setSpeculativeExecution(enable);
+    }
+
+    public boolean isSpeculativeExecution()
+    {
+        return scheduler.isSpeculativeExecution();
+    }
+
+    /**
+     * @param percentile the percentile, between 0 and 100, of completed job run times beyond
+     *                   which a running job gets a speculative copy
+     */
+    public void setSpeculationPercentile(final float percentile)
+    {
+        scheduler.setSpeculationPercentile(percentile);
+    }
+
+    public float getSpeculationPercentile()
+    {
+        return scheduler.getSpeculationPercentile();
+    }
+
+    public int getSpeculativeLaunchCount()
+    {
+        return scheduler.getSpeculativeLaunchCount();
+    }
+
+    public int getSpeculativeWinCount()
+    {
+        return scheduler.getSpeculativeWinCount();
+    }
     
     protected synchronized void haltFinished()
     {
@@ -71,6 +71,16 @@ public void run()
         callable = null;
     }
 
+    /**
+     * Creates a second, independent ProcessManager for the same job, so that it may be run on
+     * another ClusterNode alongside this one.
+     * @return a ProcessManager with the same Callable, id and core request as this one
+     */
+    public ProcessManager<T> duplicate()
+    {
+        return new ProcessManager<T>(callable, id, numCores, isFractional);
+    }
+
     public synchronized void setRunningOn(final ClusterNode node)
     {
         runningOn = node == null ? -1 : node.getID();
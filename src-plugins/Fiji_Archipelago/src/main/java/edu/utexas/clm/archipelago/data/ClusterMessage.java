@@ -87,6 +87,10 @@ public static String typeToString(final MessageType type)
                 return "log";
             case BOTTLER:
                 return "bottler";
+            case PAYLOADREQUEST:
+                return "payload request";
+            case PAYLOAD:
+                return "payload";
             default:
                 return "unknown";
         }
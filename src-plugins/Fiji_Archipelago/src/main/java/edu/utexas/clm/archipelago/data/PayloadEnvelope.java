@@ -0,0 +1,50 @@
+package edu.utexas.clm.archipelago.data;
+
+import java.io.Serializable;
+
+/**
+ * The serialized object of a ClusterMessage whose large payloads were replaced by
+ * PayloadReferences, together with the hashes of those payloads. The receiving node can thus
+ * find out which payloads it needs to request before deserializing the message, and
+ * recognize the copies of a process message that the sender re-sent while they were pending.
+ */
+public class PayloadEnvelope implements Serializable
+{
+    private static final long serialVersionUID = 2791840283561376509L;
+
+    private final byte[] body;
+    private final String[] hashes;
+    private final long processID;
+
+    public PayloadEnvelope(final byte[] body, final String[] hashes)
+    {
+        this(body, hashes, -1);
+    }
+
+    /**
+     * @param body the serialized object
+     * @param hashes the hashes of the payloads referenced by the body
+     * @param processID the id of the ProcessManager in the body, or -1
+     */
+    public PayloadEnvelope(final byte[] body, final String[] hashes, final long processID)
+    {
+        this.body = body;
+        this.hashes = hashes;
+        this.processID = processID;
+    }
+
+    public byte[] getBody()
+    {
+        return body;
+    }
+
+    public String[] getHashes()
+    {
+        return hashes;
+    }
+
+    public long getProcessID()
+    {
+        return processID;
+    }
+}
@@ -0,0 +1,217 @@
+package edu.utexas.clm.archipelago.example;
+
+import edu.utexas.clm.archipelago.compute.ProcessManager;
+import edu.utexas.clm.archipelago.data.ClusterMessage;
+import edu.utexas.clm.archipelago.data.DataChunk;
+import edu.utexas.clm.archipelago.data.SimpleChunk;
+import edu.utexas.clm.archipelago.listen.MessageType;
+import edu.utexas.clm.archipelago.listen.TransceiverListener;
+import edu.utexas.clm.archipelago.network.MessageXC;
+import edu.utexas.clm.archipelago.network.PayloadCache;
+import edu.utexas.clm.archipelago.util.XCErrorAdapter;
+import ij.IJ;
+import ij.plugin.PlugIn;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures how much the payload cache saves when many jobs share the same large input. A root
+ * and a stand-in compute node talk through a loopback socket; the root sends a number of jobs,
+ * each of which sums one of a few large float arrays, once with payloads inline, and once by
+ * reference.
+ *
+ * Usage: Payload_Cache_Benchmark [jobs [distinct inputs [floats per input]]]
+ */
+public class Payload_Cache_Benchmark implements PlugIn
+{
+    public static class ChunkSum implements Callable<Double>, Serializable
+    {
+        private final DataChunk<float[]> chunk;
+
+        public ChunkSum(final DataChunk<float[]> chunk)
+        {
+            this.chunk = chunk;
+        }
+
+        public Double call() throws Exception
+        {
+            double sum = 0;
+            for (float f : chunk.getData())
+            {
+                sum += f;
+            }
+            return sum;
+        }
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream
+    {
+        private final AtomicLong count;
+
+        public CountingOutputStream(final OutputStream os, final AtomicLong count)
+        {
+            super(os);
+            this.count = count;
+        }
+
+        public void write(final int b) throws IOException
+        {
+            out.write(b);
+            count.incrementAndGet();
+        }
+
+        public void write(final byte[] b, final int off, final int len) throws IOException
+        {
+            out.write(b, off, len);
+            count.addAndGet(len);
+        }
+    }
+
+    private final StringBuffer report = new StringBuffer();
+
+    public void run(final String arg)
+    {
+        try
+        {
+            run(200, 4, 1 << 20);
+        }
+        catch (Exception e)
+        {
+            IJ.handleException(e);
+        }
+        IJ.log(report.toString());
+    }
+
+    public void run(final int jobs, final int distinct, final int size) throws Exception
+    {
+        final Random random = new Random(42);
+        final SimpleChunk<float[]>[] chunks = new SimpleChunk[distinct];
+        for (int i = 0; i < distinct; ++i)
+        {
+            final float[] data = new float[size];
+            for (int j = 0; j < size; ++j)
+            {
+                data[j] = random.nextFloat();
+            }
+            chunks[i] = new SimpleChunk<float[]>(data);
+        }
+
+        log(jobs + " jobs on " + distinct + " inputs of " + (4l * size >> 10) + "kB each");
+        runOnce(jobs, chunks, false);
+        runOnce(jobs, chunks, true);
+    }
+
+    private void runOnce(final int jobs, final DataChunk<float[]>[] chunks,
+                         final boolean byReference) throws Exception
+    {
+        final ServerSocket server = new ServerSocket(0, 1, InetAddress.getByName(null));
+        final Socket rootSocket = new Socket(server.getInetAddress(), server.getLocalPort());
+        final Socket nodeSocket = server.accept();
+        server.close();
+
+        final AtomicLong rootToNode = new AtomicLong(0);
+        final CountDownLatch done = new CountDownLatch(jobs);
+        final MessageXC[] nodeXC = new MessageXC[1];
+        final PayloadCache nodeCache = new PayloadCache();
+
+        // The stand-in node runs each job and sends it back, like ArchipelagoClient does
+        final TransceiverListener nodeListener = new TransceiverListener()
+        {
+            public void streamClosed() {}
+
+            public void handleMessage(final ClusterMessage cm)
+            {
+                if (cm.type == MessageType.PROCESS)
+                {
+                    final ProcessManager<?> pm = (ProcessManager<?>)cm.o;
+                    pm.run();
+                    nodeXC[0].queueMessage(MessageType.PROCESS, pm);
+                }
+            }
+        };
+
+        final TransceiverListener rootListener = new TransceiverListener()
+        {
+            public void streamClosed() {}
+
+            public void handleMessage(final ClusterMessage cm)
+            {
+                if (cm.type == MessageType.PROCESS)
+                {
+                    done.countDown();
+                }
+            }
+        };
+
+        final long start = System.currentTimeMillis();
+
+        // Each MessageXC waits for the stream header of the other, so start the node separately
+        final Thread nodeThread = new Thread()
+        {
+            public void run()
+            {
+                try
+                {
+                    nodeXC[0] = new MessageXC(nodeSocket.getInputStream(),
+                            nodeSocket.getOutputStream(), nodeListener, new XCErrorAdapter());
+                    nodeXC[0].setPayloadCache(nodeCache);
+                }
+                catch (IOException ioe)
+                {
+                    ioe.printStackTrace();
+                }
+            }
+        };
+        nodeThread.start();
+        final MessageXC rootXC = new MessageXC(rootSocket.getInputStream(),
+                new CountingOutputStream(rootSocket.getOutputStream(), rootToNode),
+                rootListener, new XCErrorAdapter());
+        rootXC.setPayloadCache(new PayloadCache());
+        rootXC.setSendByReference(byReference);
+        nodeThread.join();
+
+        for (int i = 0; i < jobs; ++i)
+        {
+            final ProcessManager<Double> pm = new ProcessManager<Double>(
+                    new ChunkSum(chunks[i % chunks.length]), i, 1, false);
+            rootXC.queueMessage(MessageType.PROCESS, pm);
+        }
+
+        final boolean finished = done.await(10, TimeUnit.MINUTES);
+        final long time = System.currentTimeMillis() - start;
+
+        rootXC.close();
+        nodeXC[0].close();
+
+        log((byReference ? "by reference: " : "inline:       ")
+                + (finished ? "" : "(TIMED OUT) ")
+                + (rootToNode.get() >> 10) + "kB sent to the node in " + time + "ms"
+                + (byReference ? ", " + nodeCache : ""));
+    }
+
+    private void log(final String message)
+    {
+        System.out.println(message);
+        report.append(message).append("\n");
+    }
+
+    public static void main(final String[] args) throws Exception
+    {
+        final int jobs = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        final int distinct = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        final int size = args.length > 2 ? Integer.parseInt(args[2]) : 1 << 20;
+        new Payload_Cache_Benchmark().run(jobs, distinct, size);
+        System.exit(0);
+    }
+}
@@ -45,5 +45,7 @@
     HOSTNAME,
     SETFSTRANSLATION,
     BOTTLER,
-    LOG
+    LOG,
+    PAYLOADREQUEST,
+    PAYLOAD
 }
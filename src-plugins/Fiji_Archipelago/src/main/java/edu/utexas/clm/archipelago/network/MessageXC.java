@@ -21,18 +21,30 @@
 import edu.utexas.clm.archipelago.FijiArchipelago;
 import edu.utexas.clm.archipelago.compute.ProcessManager;
 import edu.utexas.clm.archipelago.data.ClusterMessage;
+import edu.utexas.clm.archipelago.data.DataChunk;
+import edu.utexas.clm.archipelago.data.Duplex;
+import edu.utexas.clm.archipelago.data.PayloadEnvelope;
 import edu.utexas.clm.archipelago.listen.MessageType;
 import edu.utexas.clm.archipelago.listen.TransceiverExceptionListener;
 import edu.utexas.clm.archipelago.listen.TransceiverListener;
 import edu.utexas.clm.archipelago.network.translation.Bottle;
 import edu.utexas.clm.archipelago.network.translation.Bottler;
 import edu.utexas.clm.archipelago.network.translation.FileTranslator;
+import edu.utexas.clm.archipelago.network.translation.InlinePayload;
+import edu.utexas.clm.archipelago.network.translation.PayloadReference;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.Vector;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.TimeUnit;
@@ -83,10 +95,25 @@ protected final Object resolveObject(final Object object) throws IOException
 
     private class BottlingOutputStream extends ObjectOutputStream
     {
+        private final List<String> hashes;
 
         public BottlingOutputStream(final OutputStream os) throws IOException
+        {
+            this(os, null);
+        }
+
+        /**
+         * @param os the stream to write to
+         * @param hashes if not null, large payloads are replaced by PayloadReferences, and
+         *               their hashes are added to this list. Smaller ones are replaced by
+         *               InlinePayloads, because they were serialized already.
+         * @throws IOException if the header could not be written
+         */
+        public BottlingOutputStream(final OutputStream os, final List<String> hashes)
+                throws IOException
         {
             super(os);
+            this.hashes = hashes;
             enableReplaceObject(true);
         }
 
@@ -97,15 +124,29 @@ protected final Object replaceObject(final Object object) throws IOException
             If this is the case, explore lower cost options, like look up tables or hashmaps on
             the class name.
              */
+            Object replaced = object;
             List<Bottler> bottlerList = new ArrayList<Bottler>(bottlers);
             for (final Bottler bottler : bottlerList)
             {
                 if (bottler.accepts(object))
                 {
-                    return bottler.bottle(object, xc);
+                    replaced = bottler.bottle(object, xc);
+                    break;
+                }
+            }
+            if (hashes != null && (replaced instanceof DataChunk || replaced instanceof Bottle)
+                    && !(replaced instanceof PayloadReference))
+            {
+                final byte[] bytes = toBytes(replaced, null);
+                if (bytes.length >= payloadCache.getThreshold())
+                {
+                    final String hash = payloadCache.putOutgoing(bytes);
+                    hashes.add(hash);
+                    return new PayloadReference(hash);
                 }
+                return new InlinePayload(bytes);
             }
-            return object;
+            return replaced;
         }
     }
 
@@ -123,13 +164,13 @@ public void run()
                     {
                         FijiArchipelago.debug("RX: " + id + " got message " +
                                 ClusterMessage.messageToString(message));
-                        if (message.type == MessageType.PROCESS)
+                        if (message.o instanceof ProcessManager)
                         {
                             ProcessManager pm = (ProcessManager)message.o;
                             FijiArchipelago.debug("RX: Got message for job " + pm.getID());
                         }
                     }
-                    xcListener.handleMessage(message);
+                    dispatch(message);
                 }
                 /*catch (ClassCastException cce)
                 {
@@ -191,6 +232,10 @@ public void run()
                             FijiArchipelago.debug("TX: " + id + " writing message " +
                                     ClusterMessage.messageToString(nextMessage));
                         }
+                        if (sendByReference && nextMessage.type == MessageType.PROCESS)
+                        {
+                            nextMessage = wrapPayloads(nextMessage);
+                        }
                         objectOutputStream.writeObject(nextMessage);
                         objectOutputStream.flush();
 
@@ -233,6 +278,30 @@ public void run()
     
     public static final long DEFAULT_WAIT = 10000;
     public static final TimeUnit DEFAULT_UNIT = TimeUnit.MILLISECONDS;
+    /**
+     * How long to wait for a requested payload before it is requested again.
+     */
+    public static final long PAYLOAD_WAIT = 60000;
+    /**
+     * How many times the payloads of a message are requested before the message is dropped.
+     */
+    public static final int PAYLOAD_REQUESTS = 5;
+
+    private class PendingMessage
+    {
+        final ClusterMessage message;
+        final PayloadEnvelope envelope;
+        long time;
+        int requests;
+
+        public PendingMessage(final ClusterMessage message, final PayloadEnvelope envelope)
+        {
+            this.message = message;
+            this.envelope = envelope;
+            time = System.currentTimeMillis();
+            requests = 1;
+        }
+    }
 
     private final List<Bottler> bottlers;
     private final ArrayBlockingQueue<ClusterMessage> messageQ;
@@ -249,6 +318,12 @@ public void run()
     private final OutputStream outStream;
     private final InputStream inStream;
     private long id;
+    private PayloadCache payloadCache;
+    private volatile boolean sendByReference;
+    private final List<PendingMessage> pendingMessages;
+    /** The time at which each payload that did not arrive yet was requested */
+    private final Map<String, Long> requestedHashes;
+    private Map<String, byte[]> pinnedPayloads;
 
     private final MessageXC xc = this;
 
@@ -270,6 +345,10 @@ public MessageXC(InputStream inStream,
         FijiArchipelago.debug("Creating Message Transciever");
         fileTranslator = new NullFileTranslator();
         bottlers = Collections.synchronizedList(new Vector<Bottler>());
+        payloadCache = PayloadCache.getSharedCache();
+        sendByReference = false;
+        pendingMessages = new ArrayList<PendingMessage>();
+        requestedHashes = new HashMap<String, Long>();
         messageQ = new ArrayBlockingQueue<ClusterMessage>(16, true);
         objectOutputStream = new BottlingOutputStream(outStream);
         objectInputStream =  new BottlingInputStream(inStream);
@@ -418,4 +497,343 @@ public List<Bottler> getBottlers()
     {
         return bottlers;
     }
+
+    /**
+     * Determines whether large payloads of process messages, ie, DataChunks and Bottles that
+     * serialize to at least the PayloadCache's threshold, are sent by reference. The remote
+     * node then requests only those payloads that it does not have in its cache yet.
+     * @param byReference true to send large payloads by reference
+     */
+    public void setSendByReference(final boolean byReference)
+    {
+        sendByReference = byReference;
+    }
+
+    public boolean isSendByReference()
+    {
+        return sendByReference;
+    }
+
+    public synchronized void setPayloadCache(final PayloadCache cache)
+    {
+        payloadCache = cache;
+    }
+
+    public PayloadCache getPayloadCache()
+    {
+        return payloadCache;
+    }
+
+    /**
+     * Returns the object for a PayloadReference received as part of a message.
+     * @param hash the hash of the payload
+     * @return a fresh copy of the payload
+     * @throws IOException if the payload is not available or cannot be read
+     */
+    public Object resolvePayload(final String hash) throws IOException
+    {
+        byte[] bytes = pinnedPayloads == null ? null : pinnedPayloads.get(hash);
+        if (bytes == null)
+        {
+            bytes = payloadCache.get(hash);
+        }
+        if (bytes == null)
+        {
+            throw new IOException("Payload " + hash + " is not available");
+        }
+        return readPayload(bytes);
+    }
+
+    /**
+     * Returns the object for a payload that was serialized by the sender.
+     * @param bytes the serialized payload
+     * @return a fresh copy of the payload
+     * @throws IOException if the payload cannot be read
+     */
+    public Object readPayload(final byte[] bytes) throws IOException
+    {
+        try
+        {
+            return fromBytes(bytes);
+        }
+        catch (ClassNotFoundException cnfe)
+        {
+            throw new IOException("Could not read payload: " + cnfe);
+        }
+    }
+
+    private byte[] toBytes(final Object object, final List<String> hashes) throws IOException
+    {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final BottlingOutputStream oos = new BottlingOutputStream(bytes, hashes);
+        oos.writeObject(object);
+        oos.close();
+        return bytes.toByteArray();
+    }
+
+    private Object fromBytes(final byte[] bytes) throws IOException, ClassNotFoundException
+    {
+        final BottlingInputStream ois =
+                new BottlingInputStream(new ByteArrayInputStream(bytes));
+        try
+        {
+            return ois.readObject();
+        }
+        finally
+        {
+            ois.close();
+        }
+    }
+
+    private ClusterMessage wrapPayloads(final ClusterMessage message) throws IOException
+    {
+        final List<String> hashes = new ArrayList<String>();
+        final byte[] body = toBytes(message.o, hashes);
+        final ClusterMessage wrapped = new ClusterMessage(message.type);
+        final long processID = message.o instanceof ProcessManager ?
+                ((ProcessManager)message.o).getID() : -1;
+        wrapped.o = new PayloadEnvelope(body, hashes.toArray(new String[hashes.size()]),
+                processID);
+        wrapped.source = message.source;
+        return wrapped;
+    }
+
+    /**
+     * Handles payload requests and payloads, unwraps messages whose payloads are available
+     * and passes them on to the listener.
+     */
+    private void dispatch(final ClusterMessage message)
+            throws IOException, ClassNotFoundException
+    {
+        // Every message, including the regular beats, checks for payloads that did not arrive
+        expirePending();
+
+        switch (message.type)
+        {
+            case PAYLOADREQUEST:
+                for (final String hash : (String[])message.o)
+                {
+                    final byte[] bytes = payloadCache.get(hash);
+                    if (bytes == null)
+                    {
+                        FijiArchipelago.debug("XC: " + id + " requested payload " + hash +
+                                ", which is no longer cached");
+                    }
+                    // Without bytes, the payload tells the node that it was evicted
+                    queueMessage(MessageType.PAYLOAD, new Duplex<String, byte[]>(hash, bytes));
+                }
+                return;
+
+            case PAYLOAD:
+                final Duplex<String, byte[]> payload = (Duplex<String, byte[]>)message.o;
+                if (payload.b == null)
+                {
+                    // The next copy of the job puts the payload back into the sender's cache,
+                    // so request it again as soon as that copy arrives
+                    synchronized (pendingMessages)
+                    {
+                        requestedHashes.remove(payload.a);
+                    }
+                    return;
+                }
+                if (!payloadCache.putIncoming(payload.a, payload.b))
+                {
+                    throw new IOException("Payload does not match its hash " + payload.a);
+                }
+                synchronized (pendingMessages)
+                {
+                    requestedHashes.remove(payload.a);
+                }
+                dispatchPending();
+                return;
+        }
+
+        if (message.o instanceof PayloadEnvelope)
+        {
+            final PayloadEnvelope envelope = (PayloadEnvelope)message.o;
+            // The job is acknowledged by the listener once it is unwrapped. Until then, the
+            // sender re-sends it, which also puts payloads it evicted back into its cache.
+            final PendingMessage pending = new PendingMessage(message, envelope);
+            replacePending(pending);
+            final String[] hashes = envelope.getHashes();
+            final List<String> missing = payloadCache.getMissing(hashes);
+            if (!missing.isEmpty() || !unwrap(pending))
+            {
+                synchronized (pendingMessages)
+                {
+                    pendingMessages.add(pending);
+                }
+                // If a payload was evicted in the meantime, we don't know which, so ask for all
+                requestPayloads(missing.isEmpty() ? Arrays.asList(hashes) : missing);
+                return;
+            }
+        }
+
+        xcListener.handleMessage(message);
+    }
+
+    /**
+     * Drops the pending copy of a process message that was re-sent, so that the job is handed
+     * to the listener only once. The new copy keeps the old one's number of requests.
+     */
+    private void replacePending(final PendingMessage pending)
+    {
+        final long processID = pending.envelope.getProcessID();
+        if (processID < 0)
+        {
+            return;
+        }
+
+        synchronized (pendingMessages)
+        {
+            final Iterator<PendingMessage> iterator = pendingMessages.iterator();
+            while (iterator.hasNext())
+            {
+                final PendingMessage old = iterator.next();
+                if (old.message.type == pending.message.type
+                        && old.envelope.getProcessID() == processID)
+                {
+                    iterator.remove();
+                    pending.time = old.time;
+                    pending.requests = old.requests;
+                }
+            }
+        }
+    }
+
+    /**
+     * Requests those of the given payloads that are not requested already, or whose request
+     * timed out.
+     */
+    private void requestPayloads(final Collection<String> hashes)
+    {
+        final List<String> request = new ArrayList<String>();
+        final long now = System.currentTimeMillis();
+
+        synchronized (pendingMessages)
+        {
+            for (final String hash : hashes)
+            {
+                final Long requested = requestedHashes.get(hash);
+                if (requested == null || now - requested > PAYLOAD_WAIT)
+                {
+                    requestedHashes.put(hash, now);
+                    request.add(hash);
+                }
+            }
+        }
+
+        if (!request.isEmpty())
+        {
+            queueMessage(MessageType.PAYLOADREQUEST, request.toArray(new String[request.size()]));
+        }
+    }
+
+    /**
+     * Requests the missing payloads of messages that waited longer than PAYLOAD_WAIT again,
+     * and drops messages whose payloads were requested PAYLOAD_REQUESTS times.
+     */
+    private void expirePending()
+    {
+        final List<PendingMessage> expired = new ArrayList<PendingMessage>();
+        final Set<String> retry = new HashSet<String>();
+        final long now = System.currentTimeMillis();
+
+        synchronized (pendingMessages)
+        {
+            final Iterator<PendingMessage> iterator = pendingMessages.iterator();
+            while (iterator.hasNext())
+            {
+                final PendingMessage pending = iterator.next();
+                if (now - pending.time <= PAYLOAD_WAIT)
+                {
+                    continue;
+                }
+
+                final List<String> missing = payloadCache.getMissing(pending.envelope.getHashes());
+                if (pending.requests >= PAYLOAD_REQUESTS)
+                {
+                    iterator.remove();
+                    expired.add(pending);
+                    for (final String hash : missing)
+                    {
+                        requestedHashes.remove(hash);
+                    }
+                }
+                else
+                {
+                    pending.time = now;
+                    ++pending.requests;
+                    retry.addAll(missing);
+                }
+            }
+        }
+
+        requestPayloads(retry);
+
+        for (final PendingMessage pending : expired)
+        {
+            final long processID = pending.envelope.getProcessID();
+            xcExceptionListener.handleRXThrowable(new IOException("Gave up waiting for the " +
+                    "payloads of a " + ClusterMessage.messageToString(pending.message) +
+                    " message" + (processID >= 0 ? " for job " + processID : "")),
+                    xc, pending.message);
+        }
+    }
+
+    private void dispatchPending() throws IOException, ClassNotFoundException
+    {
+        final List<PendingMessage> ready = new ArrayList<PendingMessage>();
+
+        synchronized (pendingMessages)
+        {
+            final Iterator<PendingMessage> iterator = pendingMessages.iterator();
+            while (iterator.hasNext())
+            {
+                final PendingMessage pending = iterator.next();
+                if (unwrap(pending))
+                {
+                    iterator.remove();
+                    ready.add(pending);
+                }
+            }
+        }
+
+        for (final PendingMessage pending : ready)
+        {
+            xcListener.handleMessage(pending.message);
+        }
+    }
+
+    /**
+     * Replaces the envelope of a pending message by its contents, if all of its payloads are
+     * available.
+     * @return true if the message was unwrapped
+     */
+    private boolean unwrap(final PendingMessage pending)
+            throws IOException, ClassNotFoundException
+    {
+        // Pin the payloads, so that they cannot be evicted while the message is read
+        final Map<String, byte[]> pinned = new HashMap<String, byte[]>();
+        for (final String hash : pending.envelope.getHashes())
+        {
+            final byte[] bytes = payloadCache.get(hash);
+            if (bytes == null)
+            {
+                return false;
+            }
+            pinned.put(hash, bytes);
+        }
+
+        pinnedPayloads = pinned;
+        try
+        {
+            pending.message.o = (Serializable)fromBytes(pending.envelope.getBody());
+        }
+        finally
+        {
+            pinnedPayloads = null;
+        }
+        return true;
+    }
 }
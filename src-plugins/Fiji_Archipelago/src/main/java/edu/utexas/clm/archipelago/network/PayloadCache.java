@@ -0,0 +1,226 @@
+package edu.utexas.clm.archipelago.network;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A content-addressed store of serialized payloads, keyed by their SHA-1 hash.
+ *
+ * On the root node, the store holds the large payloads that were sent by reference, so that
+ * they can be served to nodes that do not have them yet. On a compute node, it holds the
+ * payloads received most recently, so that jobs using the same data need not transfer it again.
+ * In both cases, the least recently used payloads are evicted once the capacity is exceeded.
+ */
+public class PayloadCache
+{
+    public static final long DEFAULT_CAPACITY = 256l * 1024 * 1024;
+    public static final int DEFAULT_THRESHOLD = 64 * 1024;
+
+    private static final PayloadCache sharedCache = new PayloadCache();
+
+    /**
+     * Returns the cache shared by all transceivers of this JVM.
+     * @return the cache shared by all transceivers of this JVM.
+     */
+    public static PayloadCache getSharedCache()
+    {
+        return sharedCache;
+    }
+
+    private final LinkedHashMap<String, byte[]> payloads;
+    private long capacity, size;
+    private int threshold;
+    private final AtomicLong hits, misses, bytesReferenced, bytesReceived;
+
+    public PayloadCache()
+    {
+        this(DEFAULT_CAPACITY, DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * @param capacity the maximal number of bytes to keep
+     * @param threshold payloads smaller than this many bytes are sent inline
+     */
+    public PayloadCache(final long capacity, final int threshold)
+    {
+        payloads = new LinkedHashMap<String, byte[]>(16, 0.75f, true);
+        this.capacity = capacity;
+        this.threshold = threshold;
+        size = 0;
+        hits = new AtomicLong(0);
+        misses = new AtomicLong(0);
+        bytesReferenced = new AtomicLong(0);
+        bytesReceived = new AtomicLong(0);
+    }
+
+    public synchronized void setCapacity(final long capacity)
+    {
+        this.capacity = capacity;
+        evict();
+    }
+
+    public synchronized long getCapacity()
+    {
+        return capacity;
+    }
+
+    public synchronized void setThreshold(final int threshold)
+    {
+        this.threshold = threshold;
+    }
+
+    public synchronized int getThreshold()
+    {
+        return threshold;
+    }
+
+    /**
+     * Stores a payload that is about to be sent by reference.
+     * @param bytes the serialized payload
+     * @return the hash by which the payload is referenced
+     */
+    public String putOutgoing(final byte[] bytes)
+    {
+        final String hash = hash(bytes);
+        bytesReferenced.addAndGet(bytes.length);
+        put(hash, bytes);
+        return hash;
+    }
+
+    /**
+     * Stores a payload that was received from the root node.
+     * @param hash the hash by which the payload is referenced
+     * @param bytes the serialized payload
+     * @return false if the payload does not match its hash, in which case it is not stored
+     */
+    public boolean putIncoming(final String hash, final byte[] bytes)
+    {
+        if (!hash.equals(hash(bytes)))
+        {
+            return false;
+        }
+        bytesReceived.addAndGet(bytes.length);
+        put(hash, bytes);
+        return true;
+    }
+
+    private synchronized void put(final String hash, final byte[] bytes)
+    {
+        final byte[] previous = payloads.put(hash, bytes);
+        if (previous != null)
+        {
+            size -= previous.length;
+        }
+        size += bytes.length;
+        evict();
+    }
+
+    private void evict()
+    {
+        final Iterator<byte[]> iterator = payloads.values().iterator();
+        // Keep at least the most recent payload, even if it exceeds the capacity by itself
+        while (size > capacity && payloads.size() > 1)
+        {
+            size -= iterator.next().length;
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Returns the payload for the given hash, or null if it is not (or no longer) in the cache.
+     * @param hash the hash by which the payload is referenced
+     * @return the serialized payload, or null
+     */
+    public synchronized byte[] get(final String hash)
+    {
+        return payloads.get(hash);
+    }
+
+    /**
+     * Returns those of the given hashes whose payloads are not in the cache, and counts the
+     * hits and misses.
+     * @param hashes the hashes referenced by a message
+     * @return the hashes that need to be requested from the root node
+     */
+    public synchronized List<String> getMissing(final String[] hashes)
+    {
+        final List<String> missing = new ArrayList<String>();
+        for (final String hash : hashes)
+        {
+            if (payloads.containsKey(hash))
+            {
+                hits.incrementAndGet();
+            }
+            else if (!missing.contains(hash))
+            {
+                misses.incrementAndGet();
+                missing.add(hash);
+            }
+        }
+        return missing;
+    }
+
+    public synchronized void clear()
+    {
+        payloads.clear();
+        size = 0;
+    }
+
+    public synchronized long size()
+    {
+        return size;
+    }
+
+    public long getHits()
+    {
+        return hits.get();
+    }
+
+    public long getMisses()
+    {
+        return misses.get();
+    }
+
+    public long getBytesReferenced()
+    {
+        return bytesReferenced.get();
+    }
+
+    public long getBytesReceived()
+    {
+        return bytesReceived.get();
+    }
+
+    public static String hash(final byte[] bytes)
+    {
+        try
+        {
+            final byte[] digest = MessageDigest.getInstance("SHA-1").digest(bytes);
+            final StringBuilder builder = new StringBuilder(2 * digest.length);
+            for (final byte b : digest)
+            {
+                builder.append(Character.forDigit((b >> 4) & 0xf, 16));
+                builder.append(Character.forDigit(b & 0xf, 16));
+            }
+            return builder.toString();
+        }
+        catch (NoSuchAlgorithmException nsae)
+        {
+            // Every Java platform is required to support SHA-1
+            throw new RuntimeException(nsae);
+        }
+    }
+
+    public String toString()
+    {
+        return "payload cache: " + hits.get() + " hits, " + misses.get() + " misses, "
+                + bytesReferenced.get() + " bytes sent by reference, "
+                + bytesReceived.get() + " bytes received";
+    }
+}
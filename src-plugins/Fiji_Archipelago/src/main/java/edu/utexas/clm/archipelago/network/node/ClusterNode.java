@@ -174,6 +174,8 @@ public synchronized void setIOStreams(final InputStream is, final OutputStream o
         FijiArchipelago.debug("Setting IO Streams for a new Cluster Node");
         
         xc = new MessageXC(is, os, this, xcEListener);
+        // Send large job data by hash, so that nodes only fetch what they haven't cached yet
+        xc.setSendByReference(true);
         xc.queueMessage(MessageType.GETID);
         
         idSet.set(false);
@@ -0,0 +1,27 @@
+package edu.utexas.clm.archipelago.network.translation;
+
+import edu.utexas.clm.archipelago.network.MessageXC;
+
+import java.io.IOException;
+
+/**
+ * Carries a DataChunk or Bottle that was serialized to find out whether it is large enough to
+ * be sent by reference, but was not. The serialized form is sent as it is, so that the payload
+ * need not be serialized a second time.
+ */
+public class InlinePayload implements Bottle<Object>
+{
+    private static final long serialVersionUID = 6027815530917442261L;
+
+    private final byte[] bytes;
+
+    public InlinePayload(final byte[] bytes)
+    {
+        this.bytes = bytes;
+    }
+
+    public Object unBottle(final MessageXC xc) throws IOException
+    {
+        return xc.readPayload(bytes);
+    }
+}
@@ -0,0 +1,31 @@
+package edu.utexas.clm.archipelago.network.translation;
+
+import edu.utexas.clm.archipelago.network.MessageXC;
+
+import java.io.IOException;
+
+/**
+ * Stands in for a large payload, e.g. a DataChunk, that was sent by its hash instead of its
+ * contents. The payload itself is looked up in the receiving MessageXC's PayloadCache.
+ */
+public class PayloadReference implements Bottle<Object>
+{
+    private static final long serialVersionUID = -4121457839218034418L;
+
+    private final String hash;
+
+    public PayloadReference(final String hash)
+    {
+        this.hash = hash;
+    }
+
+    public String getHash()
+    {
+        return hash;
+    }
+
+    public Object unBottle(final MessageXC xc) throws IOException
+    {
+        return xc.resolvePayload(hash);
+    }
+}
@@ -0,0 +1,458 @@
+package fiji.util;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import fiji.util.node.Leaf;
+
+/**
+ * An implicit KD-tree over primitive coordinates.
+ *
+ * Unlike {@link KDTree}, no node objects are created: the points are
+ * reordered in place so that the median of every range [lo, hi) sits at
+ * position (lo + hi) / 2, and its left and right subtrees are the ranges
+ * [lo, mid) and [mid + 1, hi). The splitting axis is the depth modulo the
+ * dimension, as in {@link KDTree}. The medians are found by quickselect,
+ * and the upper levels of the tree are built in parallel.
+ *
+ * The searches return the indices of the points in the order they were
+ * passed to the constructor. The single-point searches do not allocate
+ * any memory, so they can be called from many threads at once; the bulk
+ * searches distribute the queries over all cores.
+ */
+public class FlatKDTree
+{
+	/* ranges smaller than this are not worth a thread of their own */
+	final protected static int PARALLEL_THRESHOLD = 1 << 14;
+	/* number of queries handed to a thread at a time by the bulk searches */
+	final protected static int QUERY_CHUNK = 256;
+
+	final protected int dimension, size;
+	/* the coordinates in tree order: point i is at [i * dimension, (i + 1) * dimension) */
+	final protected float[] coordinates;
+	/* the index (as passed to the constructor) of the point at each tree position */
+	final protected int[] indices;
+
+	/**
+	 * Construct a tree from the given points; points[i] holds the
+	 * coordinates of point i.
+	 */
+	public FlatKDTree(final float[][] points) {
+		this(flatten(points), points.length == 0 ? 1 : points[0].length);
+	}
+
+	/**
+	 * Construct a tree from the given leaves; the searches return indices
+	 * into the list.
+	 */
+	public <T extends Leaf<T>> FlatKDTree(final List<T> leaves) {
+		this(flatten(leaves), leaves.size() == 0 ? 1 : leaves.get(0).getNumDimensions());
+	}
+
+	/**
+	 * Construct a tree from interleaved coordinates: point i is at
+	 * coordinates[i * dimension] .. coordinates[(i + 1) * dimension - 1].
+	 * The array is used (and reordered) by the tree, it is not copied.
+	 */
+	public FlatKDTree(final float[] coordinates, final int dimension) {
+		if (dimension < 1 || coordinates.length % dimension != 0)
+			throw new IllegalArgumentException("The number of coordinates (" + coordinates.length + ") is not a multiple of the dimension (" + dimension + ")");
+		this.dimension = dimension;
+		this.size = coordinates.length / dimension;
+		this.coordinates = coordinates;
+		this.indices = new int[size];
+		for (int i = 0; i < size; i++)
+			indices[i] = i;
+
+		int parallelDepth = 0;
+		for (int threads = Runtime.getRuntime().availableProcessors(); threads > 1; threads >>= 1)
+			parallelDepth++;
+		build(0, size, 0, parallelDepth);
+	}
+
+	protected static float[] flatten(final float[][] points) {
+		final int dimension = points.length == 0 ? 1 : points[0].length;
+		final float[] result = new float[points.length * dimension];
+		for (int i = 0; i < points.length; i++) {
+			if (points[i].length != dimension)
+				throw new RuntimeException("Dimensionality of points is not preserved, first entry has dimensionality " + dimension + " entry " + i + " has dimensionality " + points[i].length);
+			System.arraycopy(points[i], 0, result, i * dimension, dimension);
+		}
+		return result;
+	}
+
+	protected static <T extends Leaf<T>> float[] flatten(final List<T> leaves) {
+		final int dimension = leaves.size() == 0 ? 1 : leaves.get(0).getNumDimensions();
+		final float[] result = new float[leaves.size() * dimension];
+		int i = 0;
+		for (final T leaf : leaves) {
+			if (leaf.getNumDimensions() != dimension)
+				throw new RuntimeException("Dimensionality of nodes is not preserved, first entry has dimensionality " + dimension + " entry " + i + " has dimensionality " + leaf.getNumDimensions());
+			for (int d = 0; d < dimension; d++)
+				result[i * dimension + d] = leaf.get(d);
+			i++;
+		}
+		return result;
+	}
+
+	public int getDimension() {
+		return dimension;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Get the k'th coordinate of the point that was passed to the
+	 * constructor as the given index. This is a linear search; it is
+	 * meant for debugging only.
+	 */
+	public float get(final int index, final int k) {
+		for (int i = 0; i < size; i++)
+			if (indices[i] == index)
+				return coordinates[i * dimension + k];
+		throw new IndexOutOfBoundsException("No point " + index);
+	}
+
+	protected void build(final int lo, final int hi, final int depth, final int parallelDepth) {
+		if (hi - lo < 2)
+			return;
+		final int mid = (lo + hi) >>> 1;
+		select(lo, hi, mid, depth % dimension);
+
+		if (parallelDepth > 0 && hi - lo > PARALLEL_THRESHOLD) {
+			final Thread thread = new Thread() {
+				public void run() {
+					build(mid + 1, hi, depth + 1, parallelDepth - 1);
+				}
+			};
+			thread.start();
+			build(lo, mid, depth + 1, parallelDepth - 1);
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		else {
+			build(lo, mid, depth + 1, 0);
+			build(mid + 1, hi, depth + 1, 0);
+		}
+	}
+
+	/*
+	 * Quickselect: reorder [lo, hi) so that the point at position n has the
+	 * n'th smallest coordinate along the axis, with no larger coordinates
+	 * before and no smaller ones after it.
+	 */
+	protected void select(int lo, int hi, final int n, final int axis) {
+		hi--;
+		while (hi > lo) {
+			// median of three as the pivot, moved to hi
+			final int m = (lo + hi) >>> 1;
+			if (value(m, axis) < value(lo, axis))
+				swap(m, lo);
+			if (value(hi, axis) < value(lo, axis))
+				swap(hi, lo);
+			if (value(m, axis) < value(hi, axis))
+				swap(m, hi);
+			final float pivot = value(hi, axis);
+
+			int store = lo;
+			for (int i = lo; i < hi; i++)
+				if (value(i, axis) < pivot)
+					swap(i, store++);
+			// points equal to the pivot go to the middle, so that ranges of
+			// identical coordinates do not degrade to quadratic time
+			int equal = store;
+			for (int i = store; i < hi; i++)
+				if (value(i, axis) == pivot)
+					swap(i, equal++);
+			swap(hi, equal);
+
+			if (n < store)
+				hi = store - 1;
+			else if (n > equal)
+				lo = equal + 1;
+			else
+				return;
+		}
+	}
+
+	protected final float value(final int position, final int axis) {
+		return coordinates[position * dimension + axis];
+	}
+
+	protected final void swap(final int a, final int b) {
+		if (a == b)
+			return;
+		final int index = indices[a];
+		indices[a] = indices[b];
+		indices[b] = index;
+		for (int d = 0, i = a * dimension, j = b * dimension; d < dimension; d++, i++, j++) {
+			final float v = coordinates[i];
+			coordinates[i] = coordinates[j];
+			coordinates[j] = v;
+		}
+	}
+
+	protected final float squaredDistance(final int position, final float[] point) {
+		float result = 0;
+		for (int d = 0, i = position * dimension; d < dimension; d++, i++) {
+			final float v = coordinates[i] - point[d];
+			result += v * v;
+		}
+		return result;
+	}
+
+	/**
+	 * Find the nearest neighbor of the given point.
+	 *
+	 * @return its index, or -1 if the tree is empty
+	 */
+	public int findNearestNeighbor(final float[] point) {
+		final int position = findNearestNeighbor(point, 0, size, 0, -1);
+		return position < 0 ? -1 : indices[position];
+	}
+
+	protected int findNearestNeighbor(final float[] point, final int lo, final int hi, final int depth, int best) {
+		if (hi <= lo)
+			return best;
+		final int mid = (lo + hi) >>> 1;
+		if (best < 0 || squaredDistance(mid, point) < squaredDistance(best, point))
+			best = mid;
+		final float projectedDistance = point[depth % dimension] - value(mid, depth % dimension);
+		final boolean lookRight = projectedDistance >= 0;
+		best = findNearestNeighbor(point, lookRight ? mid + 1 : lo, lookRight ? hi : mid, depth + 1, best);
+		// maybe there is a better one on the other side
+		if (projectedDistance * projectedDistance < squaredDistance(best, point))
+			best = findNearestNeighbor(point, lookRight ? lo : mid + 1, lookRight ? mid : hi, depth + 1, best);
+		return best;
+	}
+
+	/**
+	 * Find the n nearest neighbors of the given point, closest first.
+	 *
+	 * No memory is allocated: result and squaredDistances (which may be
+	 * null) are used as a bounded max-heap during the search and hold
+	 * the sorted neighbors afterwards.
+	 *
+	 * @param result receives the indices of the neighbors (at least n entries)
+	 * @param squaredDistances receives the squared distances (at least n entries, or null)
+	 * @return the number of neighbors found, which is less than n only if
+	 * the tree holds fewer than n points
+	 */
+	public int findNNearestNeighbors(final float[] point, final int n, final int[] result, float[] squaredDistances) {
+		if (squaredDistances == null)
+			// the heap needs the distances; this is the only allocation
+			squaredDistances = new float[n];
+		final int count = findNNearestNeighbors(point, n, 0, size, 0, result, squaredDistances, 0);
+
+		// heap sort: repeatedly move the farthest neighbor to the end
+		for (int end = count - 1; end > 0; end--) {
+			swapHeap(result, squaredDistances, 0, end);
+			siftDown(result, squaredDistances, 0, end);
+		}
+		return count;
+	}
+
+	protected int findNNearestNeighbors(final float[] point, final int n, final int lo, final int hi, final int depth, final int[] heap, final float[] heapDistances, int count) {
+		if (hi <= lo)
+			return count;
+		final int mid = (lo + hi) >>> 1;
+
+		final float distance = squaredDistance(mid, point);
+		if (count < n) {
+			// grow the heap
+			int i = count++;
+			heap[i] = indices[mid];
+			heapDistances[i] = distance;
+			while (i > 0) {
+				final int parent = (i - 1) >> 1;
+				if (heapDistances[parent] >= heapDistances[i])
+					break;
+				swapHeap(heap, heapDistances, i, parent);
+				i = parent;
+			}
+		}
+		else if (distance < heapDistances[0]) {
+			// replace the farthest neighbor found so far
+			heap[0] = indices[mid];
+			heapDistances[0] = distance;
+			siftDown(heap, heapDistances, 0, count);
+		}
+
+		final float projectedDistance = point[depth % dimension] - value(mid, depth % dimension);
+		final boolean lookRight = projectedDistance >= 0;
+		count = findNNearestNeighbors(point, n, lookRight ? mid + 1 : lo, lookRight ? hi : mid, depth + 1, heap, heapDistances, count);
+		// maybe there is a better one on the other side
+		if (count < n || projectedDistance * projectedDistance < heapDistances[0])
+			count = findNNearestNeighbors(point, n, lookRight ? lo : mid + 1, lookRight ? mid : hi, depth + 1, heap, heapDistances, count);
+		return count;
+	}
+
+	protected static void siftDown(final int[] heap, final float[] heapDistances, int i, final int count) {
+		for (;;) {
+			int child = 2 * i + 1;
+			if (child >= count)
+				return;
+			if (child + 1 < count && heapDistances[child + 1] > heapDistances[child])
+				child++;
+			if (heapDistances[i] >= heapDistances[child])
+				return;
+			swapHeap(heap, heapDistances, i, child);
+			i = child;
+		}
+	}
+
+	protected static void swapHeap(final int[] heap, final float[] heapDistances, final int a, final int b) {
+		final int index = heap[a];
+		heap[a] = heap[b];
+		heap[b] = index;
+		final float distance = heapDistances[a];
+		heapDistances[a] = heapDistances[b];
+		heapDistances[b] = distance;
+	}
+
+	/**
+	 * Find all points within the given radius of a point, in no particular
+	 * order. No memory is allocated; if result is too small, only the first
+	 * result.length indices are stored, but all neighbors are counted.
+	 *
+	 * @return the number of points within the radius
+	 */
+	public int findNeighbors(final float[] point, final float radius, final int[] result) {
+		return findNeighbors(point, radius * radius, 0, size, 0, result, 0);
+	}
+
+	/**
+	 * Find all points within the given radius of a point, in no particular
+	 * order.
+	 */
+	public int[] findNeighbors(final float[] point, final float radius) {
+		int[] result = new int[16];
+		for (;;) {
+			final int count = findNeighbors(point, radius, result);
+			if (count <= result.length) {
+				if (count == result.length)
+					return result;
+				final int[] trimmed = new int[count];
+				System.arraycopy(result, 0, trimmed, 0, count);
+				return trimmed;
+			}
+			result = new int[count];
+		}
+	}
+
+	protected int findNeighbors(final float[] point, final float squaredRadius, final int lo, final int hi, final int depth, final int[] result, int count) {
+		if (hi <= lo)
+			return count;
+		final int mid = (lo + hi) >>> 1;
+		if (squaredDistance(mid, point) <= squaredRadius) {
+			if (count < result.length)
+				result[count] = indices[mid];
+			count++;
+		}
+		final float projectedDistance = point[depth % dimension] - value(mid, depth % dimension);
+		final boolean lookRight = projectedDistance >= 0;
+		count = findNeighbors(point, squaredRadius, lookRight ? mid + 1 : lo, lookRight ? hi : mid, depth + 1, result, count);
+		if (projectedDistance * projectedDistance <= squaredRadius)
+			count = findNeighbors(point, squaredRadius, lookRight ? lo : mid + 1, lookRight ? mid : hi, depth + 1, result, count);
+		return count;
+	}
+
+	/**
+	 * Find the nearest neighbor of each of the given points, using all cores.
+	 *
+	 * @return the indices of the nearest neighbors, one per point
+	 */
+	public int[] findNearestNeighbors(final float[][] points) {
+		return findNNearestNeighbors(points, 1, null);
+	}
+
+	/**
+	 * Find the n nearest neighbors of each of the given points, using all
+	 * cores. The neighbors of point i are stored closest first at
+	 * [i * n, (i + 1) * n) in the returned array; missing neighbors (if the
+	 * tree holds fewer than n points) are -1.
+	 *
+	 * @param squaredDistances receives the squared distances in the same
+	 * layout as the result (points.length * n entries), or null
+	 */
+	public int[] findNNearestNeighbors(final float[][] points, final int n, final float[] squaredDistances) {
+		final int[] result = new int[points.length * n];
+		final AtomicInteger ai = new AtomicInteger(0);
+		final int numChunks = (points.length + QUERY_CHUNK - 1) / QUERY_CHUNK;
+		final Thread[] threads = new Thread[Math.max(1, Math.min(numChunks, Runtime.getRuntime().availableProcessors()))];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread() {
+				public void run() {
+					final int[] neighbors = new int[n];
+					final float[] distances = new float[n];
+					for (int chunk = ai.getAndIncrement(); chunk < numChunks; chunk = ai.getAndIncrement()) {
+						final int end = Math.min(points.length, (chunk + 1) * QUERY_CHUNK);
+						for (int i = chunk * QUERY_CHUNK; i < end; i++) {
+							final int count = findNNearestNeighbors(points[i], n, neighbors, distances);
+							System.arraycopy(neighbors, 0, result, i * n, count);
+							for (int j = count; j < n; j++)
+								result[i * n + j] = -1;
+							if (squaredDistances != null) {
+								System.arraycopy(distances, 0, squaredDistances, i * n, count);
+								for (int j = count; j < n; j++)
+									squaredDistances[i * n + j] = Float.NaN;
+							}
+						}
+					}
+				}
+			};
+			threads[t].start();
+		}
+		join(threads);
+		return result;
+	}
+
+	/**
+	 * Find, for each of the given points, all points within the given
+	 * radius, using all cores.
+	 *
+	 * @return one array of indices per point, in no particular order
+	 */
+	public int[][] findNeighbors(final float[][] points, final float radius) {
+		final int[][] result = new int[points.length][];
+		final AtomicInteger ai = new AtomicInteger(0);
+		final int numChunks = (points.length + QUERY_CHUNK - 1) / QUERY_CHUNK;
+		final Thread[] threads = new Thread[Math.max(1, Math.min(numChunks, Runtime.getRuntime().availableProcessors()))];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread() {
+				public void run() {
+					int[] buffer = new int[64];
+					for (int chunk = ai.getAndIncrement(); chunk < numChunks; chunk = ai.getAndIncrement()) {
+						final int end = Math.min(points.length, (chunk + 1) * QUERY_CHUNK);
+						for (int i = chunk * QUERY_CHUNK; i < end; i++) {
+							int count = findNeighbors(points[i], radius, buffer);
+							if (count > buffer.length) {
+								buffer = new int[Math.max(count, 2 * buffer.length)];
+								count = findNeighbors(points[i], radius, buffer);
+							}
+							result[i] = new int[count];
+							System.arraycopy(buffer, 0, result[i], 0, count);
+						}
+					}
+				}
+			};
+			threads[t].start();
+		}
+		join(threads);
+		return result;
+	}
+
+	protected static void join(final Thread[] threads) {
+		try {
+			for (int t = 0; t < threads.length; t++)
+				threads[t].join();
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
@@ -1,8 +1,5 @@
 package fiji.util;
 
-import java.util.Arrays;
-import java.util.Comparator;
-
 import fiji.util.node.Leaf;
 import fiji.util.node.Node;
 import fiji.util.node.NonLeaf;
@@ -19,13 +16,11 @@ public KDTree<T> getKDTree() {
 		return kdTree;
 	}
 
-	// TODO: use a priority queue for larger n
-	// TODO: refactor to use a class to insert the points into
 	public T[] findNNearestNeighbors(final T point, final int n)
 	{
 		final T[] result = point.createArray(n);
 
-		int count = findNNearestNeighbors(point, kdTree.getRoot(), 0, 0, result);
+		int count = findNNearestNeighbors(point, kdTree.getRoot(), 0, 0, result, new float[n]);
 		if (count < result.length)
 		{
 			T[] newResult = point.createArray(count);
@@ -38,51 +33,40 @@ public T[] findNNearestNeighbors(final T point, final int n)
 		return result;
 	}
 
-	// TODO: store calculated distance in a class to avoid recalculation
-	// TODO: maybe there is a way to avoid calculating the square root?
 	public int findNNearestNeighbors(final T point, Node<T> node, int depth, int gotAlready, T[] result) {
+		final float[] distances = new float[result.length];
+		for (int i = 0; i < gotAlready; i++)
+			distances[i] = point.distanceTo(result[i]);
+		return findNNearestNeighbors(point, node, depth, gotAlready, result, distances);
+	}
+
+	/*
+	 * result[0 .. gotAlready-1] holds the neighbors found so far, sorted by
+	 * distance, and distances[] their distances to the point, so that every
+	 * distance is calculated only once. For the small n this is used with,
+	 * insertion into the sorted array is cheaper than a priority queue;
+	 * FlatKDTree uses a bounded heap instead.
+	 */
+	protected int findNNearestNeighbors(final T point, Node<T> node, int depth, int gotAlready, T[] result, float[] distances) {
 		if (node.isLeaf()) {
-			// TODO: urgh!  This _cries out loud_ for a class
 			final T leaf = (T)node;
-			if (gotAlready == 0) {
-				result[0] = leaf;
-				return 1;
-			}
+			final float distance = point.distanceTo(leaf);
+
+			// the new leaf goes before all neighbors that are not closer
+			int index = gotAlready;
+			while (index > 0 && distances[index - 1] >= distance)
+				index--;
 
-			int index;
-			// TODO: double urgh!
-			if (gotAlready < result.length)
-				for (index = 0; index < gotAlready &&
-						point.distanceTo(result[index]) <
-						point.distanceTo(leaf); index++);
-			else {
-				index = Arrays.binarySearch(result, leaf,
-					new Comparator() {
-					public int compare(Object a, Object b) {
-						float distA = point.distanceTo((T)a);
-						float distB = point.distanceTo((T)b);
-						return distA < distB ? -1 :
-							distA > distB ? +1 : 0;
-					}
-					public boolean equals(Object a, Object b) {
-						return a.equals(b);
-					}});
-				if (index < 0)
-					index = -1 - index;
-			}
 			if (index < result.length) {
-				if (gotAlready < result.length) {
-					if (index < gotAlready)
-						System.arraycopy(result, index,
-							result, index + 1,
-							gotAlready - index);
-					gotAlready++;
+				final int moved = Math.min(gotAlready, result.length - 1) - index;
+				if (moved > 0) {
+					System.arraycopy(result, index, result, index + 1, moved);
+					System.arraycopy(distances, index, distances, index + 1, moved);
 				}
-				else if (index + 1 < result.length)
-					System.arraycopy(result, index,
-						result, index + 1,
-						result.length - index - 1);
+				if (gotAlready < result.length)
+					gotAlready++;
 				result[index] = leaf;
+				distances[index] = distance;
 			}
 
 			return gotAlready;
@@ -92,21 +76,19 @@ else if (index + 1 < result.length)
 		final NonLeaf<T> nonLeaf = (NonLeaf<T>)node;
 
 		if (nonLeaf.right == null)
-			return findNNearestNeighbors(point, nonLeaf.left, depth + 1, gotAlready, result);
+			return findNNearestNeighbors(point, nonLeaf.left, depth + 1, gotAlready, result, distances);
 
 		if (nonLeaf.left == null)
-			return findNNearestNeighbors(point, nonLeaf.right, depth + 1, gotAlready, result);
+			return findNNearestNeighbors(point, nonLeaf.right, depth + 1, gotAlready, result, distances);
 
 		final float projectedDistance = nonLeaf.coordinate - point.get(k);
 		final boolean lookRight = projectedDistance < 0;
 
-		gotAlready = findNNearestNeighbors(point, lookRight ? nonLeaf.right : nonLeaf.left, depth + 1, gotAlready, result);
+		gotAlready = findNNearestNeighbors(point, lookRight ? nonLeaf.right : nonLeaf.left, depth + 1, gotAlready, result, distances);
 
 		// maybe there is a better one
-		float distance = point.distanceTo(result[gotAlready - 1]);
-
-		if (gotAlready < result.length || distance > Math.abs(projectedDistance)) {
-			gotAlready = findNNearestNeighbors(point, lookRight ? nonLeaf.left : nonLeaf.right, depth + 1, gotAlready, result);
+		if (gotAlready < result.length || distances[gotAlready - 1] > Math.abs(projectedDistance)) {
+			gotAlready = findNNearestNeighbors(point, lookRight ? nonLeaf.left : nonLeaf.right, depth + 1, gotAlready, result, distances);
 		}
 
 		return gotAlready;
@@ -152,6 +152,79 @@ protected static boolean testNearestNeighbor(final int numDimensions, final int
 		return true;
 	}
 
+	protected static boolean testFlatKDTree(final int neighbors, final int numDimensions, final int numPoints, final int numTests, final float min, final float max) {
+		final ArrayList<SimpleNode> points = new ArrayList<SimpleNode>();
+		final Random rnd = new Random(435435435);
+
+		final float[] p = new float[numDimensions];
+
+		for (int i = 0; i < numPoints; ++i) {
+			for (int d = 0; d < numDimensions; ++d)
+				p[d] = rnd.nextFloat() * (max - min) + min;
+
+			final SimpleNode t = new SimpleNode(p);
+			points.add(t);
+		}
+
+		long start = System.currentTimeMillis();
+		final FlatKDTree kdTree = new FlatKDTree(points);
+		final long kdSetupTime = System.currentTimeMillis() - start;
+		System.out.println("flat kdtree setup took: " + kdSetupTime + " ms.");
+
+		final float[][] queries = new float[numTests][numDimensions];
+		for (int i = 0; i < numTests; ++i)
+			for (int d = 0; d < numDimensions; ++d)
+				queries[i][d] = rnd.nextFloat() * (2*max - 2*min) + 2*min;
+
+		final int[] nn = new int[neighbors];
+		final float radius = (max - min) / 20;
+		for (int i = 0; i < numTests; ++i) {
+			final SimpleNode t = new SimpleNode(queries[i]);
+			final int count = kdTree.findNNearestNeighbors(queries[i], neighbors, nn, null);
+			final SimpleNode[] nnExhaustive = findNNearestNeighborExhaustive(points, t, neighbors);
+
+			for (int j = 0; j < neighbors; ++j) {
+				if (count != neighbors || !points.get(nn[j]).equals(nnExhaustive[j])) {
+					System.out.println((j+1) + " - Nearest neighbor to: " + t);
+					System.out.println("Flat KD-Tree says: " + points.get(nn[j]) + " (" + points.get(nn[j]).distanceTo(t) + ")");
+					System.out.println("Exhaustive says: " + nnExhaustive[j] + " (" + nnExhaustive[j].distanceTo(t) + ")");
+					return false;
+				}
+			}
+
+			if (!points.get(kdTree.findNearestNeighbor(queries[i])).equals(nnExhaustive[0])) {
+				System.out.println("Nearest neighbor to: " + t);
+				System.out.println("Flat KD-Tree says: " + points.get(kdTree.findNearestNeighbor(queries[i])));
+				System.out.println("Exhaustive says: " + nnExhaustive[0]);
+				return false;
+			}
+
+			int within = 0;
+			for (final SimpleNode node : points)
+				if (node.distanceTo(t) <= radius)
+					within++;
+			if (kdTree.findNeighbors(queries[i], radius).length != within) {
+				System.out.println("Points within " + radius + " of " + t + ": flat KD-Tree says " + kdTree.findNeighbors(queries[i], radius).length + ", exhaustive says " + within);
+				return false;
+			}
+		}
+
+		start = System.currentTimeMillis();
+		final int[] bulk = kdTree.findNNearestNeighbors(queries, neighbors, null);
+		final long bulkTime = System.currentTimeMillis() - start;
+		System.out.println("flat kdtree bulk search took: " + bulkTime + " ms.");
+		for (int i = 0; i < numTests; ++i) {
+			kdTree.findNNearestNeighbors(queries[i], neighbors, nn, null);
+			for (int j = 0; j < neighbors; ++j)
+				if (bulk[i * neighbors + j] != nn[j]) {
+					System.out.println("Bulk search differs for query " + i);
+					return false;
+				}
+		}
+
+		return true;
+	}
+
 	private static SimpleNode findNearestNeighborExhaustive(final ArrayList<SimpleNode> points, final SimpleNode t) {
 		float minDistance = Float.MAX_VALUE;
 		SimpleNode nearest = null;
@@ -202,6 +275,9 @@ public static void main(String[] args) {
 		if (testNearestNeighbor(3, 100000, 1000, -5, 5))
 			System.out.println("Nearest neighbor test successfull\n");
 
+		if (testFlatKDTree(3, 3, 100000, 1000, -5, 5))
+			System.out.println("Flat KD-tree test successfull\n");
+
 		final ArrayList<SimpleNode> points = new ArrayList<SimpleNode>();
 
 		points.add(new SimpleNode(new float[]{ 1, 1, 0 }));
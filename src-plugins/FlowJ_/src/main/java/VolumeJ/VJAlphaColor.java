@@ -85,6 +85,13 @@ public VJAlphaColor(double alpha, double r, double g, double b)
                 this.r = (float)(r * 255); this.g = (float)(g * 255); this.b = (float) (b * 255);
                 grayscale = false;
         }
+        /**
+        * Make this alphacolor fully transparent and black again, so that it can be reused.
+        */
+        public void reset()
+        {
+                alpha = 0; r = 0; g = 0; b = 0;
+        }
         public float getAlpha() { return alpha; }
         public int getRed() { return (int) (r+0.5); }
         public int getGreen() { return (int) (g+0.5); }
@@ -77,6 +77,18 @@ public VJBinaryShell(VJThresholdedVolume vt)
                                 v[z*height*width+y*width+x] = true;
                 }
         }
+        /**
+         * Create a shell that shares the cells of shell, but has its own ray traversal state,
+         * so that several threads can traverse the same shell at the same time.
+         * @param shell the binary shell to be traversed.
+         */
+        public VJBinaryShell(VJBinaryShell shell)
+        {
+                depth = shell.depth;
+                height = shell.height;
+                width = shell.width;
+                v = shell.v;
+        }
         /**
          * Get the shell value as a boolean.
          * @param x the x position of the voxel
@@ -71,6 +71,12 @@ public void                 setSecondaryClassifier(VJClassifier classifier)
 	{ secondaryClassifier = classifier; }
 	public VJClassifier         getSecondaryClassifier(){ return secondaryClassifier; }
 	/**
+	* Get a classifier for concurrent rendering of another view.
+	* Classifiers whose state does not depend on the view can be shared, overload if it does.
+	* @return this classifier, or a copy with its own view dependent state.
+	*/
+	public VJClassifier         duplicate() { return this; }
+	/**
 	* This method can be overloaded as necessary
 	*/
 	public String      		toLongString() { return toString(); }
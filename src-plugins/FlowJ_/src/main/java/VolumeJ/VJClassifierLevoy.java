@@ -30,7 +30,7 @@
  * EXPRESS, IMPLIED OR OTHERWISE, INCLUDING WITHOUT LIMITATION, ANY
  * WARRANTY OF MERCHANTABILITY OR FITNESS FOR A PARTICULAR PURPOSE.
  */
-public class VJClassifierLevoy extends VJClassifier
+public class VJClassifierLevoy extends VJClassifier implements Cloneable
 {
 	protected float []	opacityTable;           // contains opacity values.
 	protected byte []	lut;             // rgb values.
@@ -188,6 +188,27 @@ public void setupOpacities(double  oversampling)
 				1f - (float) Math.pow(1 - uncorrectedOpacity, oversampling);
 		}
 	}
+	/**
+	 * The opacity table depends on the oversampling ratio of the view (see setupOpacities),
+	 * so a copy for another view gets its own opacity table. The LUT is shared.
+	 * @return a copy of this classifier, or null if it cannot be copied.
+	 */
+	public VJClassifier duplicate()
+	{
+		try
+		{
+			VJClassifierLevoy c = (VJClassifierLevoy) clone();
+			c.opacityTable = (float []) opacityTable.clone();
+			if (secondaryClassifier != null)
+			{
+				c.secondaryClassifier = secondaryClassifier.duplicate();
+				if (c.secondaryClassifier == null)
+					return null;
+			}
+			return c;
+		}
+		catch (CloneNotSupportedException e) { return null; }
+	}
 	/**
 	 * Make a LUT obtained from a spectrum.
 	 * First entry is white by default.
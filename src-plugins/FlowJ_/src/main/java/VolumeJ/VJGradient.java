@@ -85,6 +85,18 @@ public VJGradient(double [][] g)
 				mag2 = magnitude(g2x, g2y, g2z);
 			}
 		}
+		/**
+                 * Reuse this VJGradient for another gradient of a scalar volume.
+                 * @param gx, gy, gz the gradients in x, y, and z-dimensions.
+                 * @return this VJGradient.
+                 */
+		public VJGradient set(double gx, double gy, double gz)
+		{
+                        g0x = (float) gx; g0y = (float) gy; g0z = (float) gz;
+			mag0 = magnitude(g0x, g0y, g0z); mag1 = 0; mag2 = 0;
+			dimensions = 1;
+			return this;
+		}
 		public float getx() { return g0x; }
 		public float gety() { return g0y; }
 		public float getz() { return g0z; }
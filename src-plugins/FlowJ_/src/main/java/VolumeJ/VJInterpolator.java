@@ -70,6 +70,15 @@
 	 * @return a VJGradient which contains the gradient in v at vl.
 	 */
 	public abstract VJGradient gradient(Volume v, VJVoxelLoc vl);
+	/**
+	 * Interpolate the gradient of v at location vl into g, so that g can be reused from sample to sample.
+	 * Interpolators that cannot reuse g return a new VJGradient.
+	 * @param g a VJGradient which will contain the gradient on exit.
+	 * @param v a volume
+	 * @param vl a location in the volume.
+	 * @return g or a new VJGradient, which contains the gradient in v at vl.
+	 */
+	public VJGradient gradient(VJGradient g, Volume v, VJVoxelLoc vl) { return gradient(v, vl); }
 	public abstract String toString();
 	/**
 	 * This method should not be here, but where:
@@ -37,6 +37,10 @@ public class VJIsosurfaceRender extends VJRenderer
 	private static final float     EPSILON = 0.0001f;
 	// The binary shell.
 	private VJBinaryShell           shell;
+	// The iso value and ray stepping constants of the current view.
+	private float                   iso;
+	private float []                istep, jstep, kstep, rayvs;
+	private float                   ckx, cky, ckz;
 
 	/**
 	 * Create a new renderer with specified methods.
@@ -102,137 +106,170 @@ public synchronized void run()
 				* ignore all under threshold voxels.
 		*/
 		running = true;
-		float iso = (float) classifier.getThreshold();
+		iso = (float) classifier.getThreshold();
 		//VJZBuffer kbuffer = new VJZBuffer(width, height);
 		//VJZBuffer kintersectbuffer = new VJZBuffer(width, height);
 		// The final rendering buffer.
 		newViewportBuffer();
-		// Create a place to store extra interpolated voxel information for color rendering.
-		VJValue sample0 = null;
-		if (outputType == COLORINT && v instanceof VolumeRGB)
-		   sample0 = (VJValue) (new VJValueHSB());
-		else
-		   sample0 = new VJValue();
-		VJValue sample1 = new VJValue();
 		// Get the deltas to step along ray along i-axis, j-axis, k-axis, respectively, in objectspace.
-		float [] istep = mi.getColumn(0);
-		float [] jstep = mi.getColumn(1);
-		float [] kstep = mi.getColumn(2);
+		istep = mi.getColumn(0);
+		jstep = mi.getColumn(1);
+		kstep = mi.getColumn(2);
 		// Get the constants for stepping along ray.
 		float [] cstep = mi.getColumn(3);
-		// Compute vector orientation of ray.
-		float dx = (depth-1)*kstep[0];
-		float dy = (depth-1)*kstep[1];
-		float dz = (depth-1)*kstep[2];
-		// Initialize the current cell for this coordinate system.
-		VJCell cell = new VJCell(m, mi);
 		// Starting position of first ray in viewspace.
-		float [] rayvs = VJMatrix.newVector(ioffset, joffset, koffset);
-		// Find starting position of first ray in objectspace.
-		float [] rayos = mi.mul(rayvs);
+		rayvs = VJMatrix.newVector(ioffset, joffset, koffset);
 		// Set ray start constants, k position and offsets.
-		float ckx = koffset * kstep[0] + joffset * jstep[0] + ioffset * istep[0] + cstep[0];
-		float cky = koffset * kstep[1] + joffset * jstep[1] + ioffset * istep[1] + cstep[1];
-		float ckz = koffset * kstep[2] + joffset * jstep[2] + ioffset * istep[2] + cstep[2];
-		// Prepare the shell for casting rays with the direction of the ray (stays constant for this rendering view).
-		shell.advancePrepare(dx, dy, dz);
+		ckx = koffset * kstep[0] + joffset * jstep[0] + ioffset * istep[0] + cstep[0];
+		cky = koffset * kstep[1] + joffset * jstep[1] + ioffset * istep[1] + cstep[1];
+		ckz = koffset * kstep[2] + joffset * jstep[2] + ioffset * istep[2] + cstep[2];
 		// Keep amount of time spent in loop for each viewspacepixel.
 		long start = System.currentTimeMillis();
 		// Traverse the viewpane and cast rays into the cells in the binary shell.
-		for (int j = 0; j < height && running; j++) // step in j direction.
+		renderTiles();
+		VJUserInterface.progress(1f);
+		traceWrite();
+		pixelms = (float) (System.currentTimeMillis() - start) / (float) (width * height);
+		running = false;
+		//ImageProcessor imprk = new FloatProcessor(width, height, kbuffer.getBuffer(), null); (new ImagePlus("k values (cells with surfaces)"+description, imprk)).show();
+		//ImageProcessor imprki = new FloatProcessor(width, height, kintersectbuffer.getBuffer(), null); (new ImagePlus("kintersect values (cells with 2 intersections)"+description, imprki)).show();
+	}
+	protected TileRenderer newTileRenderer() { return new SurfaceTracer(); }
+	/**
+	 * Casts the rays for a part of the viewport into the cells of the binary shell.
+	 * Keeps its own samples, cell and shell traversal state.
+	 */
+	private class SurfaceTracer extends TileRenderer
+	{
+		// Create a place to store extra interpolated voxel information for color rendering.
+		private final VJValue sample0;
+		private final VJValue sample1 = new VJValue();
+		// Initialize the current cell for this coordinate system.
+		private final VJCell cell = new VJCell(m, mi);
+		private final VJBinaryShell shell = new VJBinaryShell(VJIsosurfaceRender.this.shell);
+
+		SurfaceTracer()
 		{
-			// Set ray start j position.
-			float ox = ckx + j * jstep[0];
-			float oy = cky + j * jstep[1];
-			float oz = ckz + j * jstep[2];
-			//if (j % 10 == 0) VJUserInterface.progress((float)j/(float) height);
-			for (int i = 0; i < width; i++) // step in i direction
+			if (outputType == COLORINT && v instanceof VolumeRGB)
+			   sample0 = (VJValue) (new VJValueHSB());
+			else
+			   sample0 = new VJValue();
+			// Prepare the shell for casting rays with the direction of the ray (stays constant for this rendering view).
+			shell.advancePrepare((depth-1)*kstep[0], (depth-1)*kstep[1], (depth-1)*kstep[2]);
+		}
+		public void render(int i0, int j0, int i1, int j1)
+		{
+			for (int j = j0; j < j1 && running; j++) // step in j direction.
 			{
-				// Move cell to start of ray in object space.
-				cell.move(ox, oy, oz);
-				// Initialize the search for a surface along this ray starting at cell.
-				int max = shell.advanceInit(cell, ox, oy, oz);
-				// Advance the cell to the next surface, if any.
-				while (true)
+				// Set ray start j position.
+				float ox = ckx + j * jstep[0];
+				float oy = cky + j * jstep[1];
+				float oz = ckz + j * jstep[2];
+				// Step to the ray start i position the same way as the full scanline does.
+				for (int i = 0; i < i0; i++)
 				{
-					int k;
-					if (onTrace(i, j)) { k = shell.advanceToSurfaceTracing(cell); trace("("+sequenceNumber+")"+i+","+j+": "+shell.s); } else
-					k = shell.advanceToSurface(cell);
-					if (k >= max)
-						break;
-					// Surface in this cell. Is cell available for interpolation?
-					else if (interpolator.isValidGradient(cell, v))
+					ox += istep[0];
+					oy += istep[1];
+					oz += istep[2];
+				}
+				for (int i = i0; i < i1; i++) // step in i direction
+				{
+					// Move cell to start of ray in object space.
+					cell.move(ox, oy, oz);
+					// Initialize the search for a surface along this ray starting at cell.
+					int max = shell.advanceInit(cell, ox, oy, oz);
+					// Advance the cell to the next surface, if any.
+					while (true)
 					{
-						//kbuffer.insert(k, i, j);
-						// Find the two intersections of the ray (goes trough i,j)
-						// with the faces of the cell.
-						float [] kintersect;
-						if (onTrace(i, j)) { kintersect = cell.intersectTracing(ioffset+i, joffset+j, koffset+k); trace("("+sequenceNumber+")"+i+","+j+": "+cell.s); } else
-						kintersect = cell.intersect(ioffset+i, joffset+j, koffset+k);
-						// If there are 2 intersections, locate surface between them
-						if (kintersect != null)
+						int k;
+						if (onTrace(i, j)) { k = shell.advanceToSurfaceTracing(cell); trace("("+sequenceNumber+")"+i+","+j+": "+shell.s); } else
+						k = shell.advanceToSurface(cell);
+						if (k >= max)
+							break;
+						// Surface in this cell. Is cell available for interpolation?
+						else if (interpolator.isValidGradient(cell, v))
 						{
-							//kintersectbuffer.insert(kintersect[0], i, j);
-							// Take samples at kintersect[0] and kintersect[1].
-							// Convert intersection (viewspace) to an objectspace VJVoxelLoc.
-							VJVoxelLoc vlk0 = new VJVoxelLoc(ox + (kintersect[0] - rayvs[2])*kstep[0],
-								oy + (kintersect[0] - rayvs[2])*kstep[1],
-								oz + (kintersect[0] - rayvs[2])*kstep[2]);
-							VJVoxelLoc vlk1 = new VJVoxelLoc(ox + (kintersect[1] - rayvs[2])*kstep[0],
-								oy + (kintersect[1] - rayvs[2])*kstep[1],
-								oz + (kintersect[1] - rayvs[2])*kstep[2]);
-							// Saves about 50%.
-							// Optimize: these calculations can be bilinear instead of trilinear.
-							float k0sample = interpolator.value(sample0, v, vlk0).floatvalue;
-							float k1sample = interpolator.value(sample1, v, vlk1).floatvalue;
-							// Only estimate a surface if 2 samples bracket iso value.
-							if (iso >= k0sample && iso <= k1sample || iso >= k1sample && iso <= k0sample)
+							//kbuffer.insert(k, i, j);
+							// Find the two intersections of the ray (goes trough i,j)
+							// with the faces of the cell.
+							float [] kintersect;
+							if (onTrace(i, j)) { kintersect = cell.intersectTracing(ioffset+i, joffset+j, koffset+k); trace("("+sequenceNumber+")"+i+","+j+": "+cell.s); } else
+							kintersect = cell.intersect(ioffset+i, joffset+j, koffset+k);
+							// If there are 2 intersections, locate surface between them
+							if (kintersect != null)
 							{
-								// Determine the iso point cordinate
-								// in object space, i.e. the root of the
-								// surface equation between intersections k0 and k1.
-								VJVoxelLoc vl = bisection(sample0, vlk0, iso, kintersect[0],
-									kintersect[1],  k0sample, k1sample, kstep, 3);
-								// Phong shading. Compute the interpolated gradient.
-								VJGradient g = interpolator.gradient(v, vl);
-								// Normalize the gradient.
-								g.normalize();
-								// Calculate the shade.
-								VJShade shade = shader.shade(g);
-								// Voxel brightness known.
-								// For vector (RGB) rendering, also need actual color of voxel.
-								int pixel;
-								if (sample0 instanceof VJValueHSB)
+								//kintersectbuffer.insert(kintersect[0], i, j);
+								// Take samples at kintersect[0] and kintersect[1].
+								// Convert intersection (viewspace) to an objectspace VJVoxelLoc.
+								VJVoxelLoc vlk0 = new VJVoxelLoc(ox + (kintersect[0] - rayvs[2])*kstep[0],
+									oy + (kintersect[0] - rayvs[2])*kstep[1],
+									oz + (kintersect[0] - rayvs[2])*kstep[2]);
+								VJVoxelLoc vlk1 = new VJVoxelLoc(ox + (kintersect[1] - rayvs[2])*kstep[0],
+									oy + (kintersect[1] - rayvs[2])*kstep[1],
+									oz + (kintersect[1] - rayvs[2])*kstep[2]);
+								// Saves about 50%.
+								// Optimize: these calculations can be bilinear instead of trilinear.
+								float k0sample = interpolator.value(sample0, v, vlk0).floatvalue;
+								float k1sample = interpolator.value(sample1, v, vlk1).floatvalue;
+								// Only estimate a surface if 2 samples bracket iso value.
+								if (iso >= k0sample && iso <= k1sample || iso >= k1sample && iso <= k0sample)
 								{
-									VJValueHSB samplehsb = (VJValueHSB) sample0;
-									// Get the interpolated hue and saturation voxel values at vl.
-									interpolator.valueHS(samplehsb, (VolumeRGB) v, iso, vl);
-									// Shade the hue and saturation to obtain final pixel.
-									pixel = java.awt.Color.HSBtoRGB(samplehsb.getHue(),
-										samplehsb.getSaturation(), shade.get());
+									// Determine the iso point cordinate
+									// in object space, i.e. the root of the
+									// surface equation between intersections k0 and k1.
+									VJVoxelLoc vl = bisection(sample0, vlk0, iso, kintersect[0],
+										kintersect[1],  k0sample, k1sample, kstep, 3);
+									// Phong shading. Compute the interpolated gradient.
+									VJGradient g = interpolator.gradient(v, vl);
+									// Normalize the gradient.
+									g.normalize();
+									// Calculate the shade.
+									VJShade shade = shader.shade(g);
+									// Voxel brightness known.
+									// For vector (RGB) rendering, also need actual color of voxel.
+									int pixel;
+									if (sample0 instanceof VJValueHSB)
+									{
+										VJValueHSB samplehsb = (VJValueHSB) sample0;
+										// Get the interpolated hue and saturation voxel values at vl.
+										interpolator.valueHS(samplehsb, (VolumeRGB) v, iso, vl);
+										// Shade the hue and saturation to obtain final pixel.
+										pixel = java.awt.Color.HSBtoRGB(samplehsb.getHue(),
+											samplehsb.getSaturation(), shade.get());
+									}
+									else
+										// Shade a white pixel.
+										pixel = (int) (shade.get() * 255.0);
+									setPixel(pixel, i, j);
+									break;
 								}
-								else
-									// Shade a white pixel.
-									pixel = (int) (shade.get() * 255.0);
-								setPixel(pixel, i, j);
-								break;
-							}
-							else if (onTrace(i, j)) trace("("+sequenceNumber+") failed iso bracket at "+vlk0+","+vlk1+" samples "+k0sample+", "+k1sample);
-						} // kintersect != null
-					} // while. Continue looking for a surface.
-				}  // k step.
-				ox += istep[0];
-				oy += istep[1];
-				oz += istep[2];
-			}	// i step
-			yield();
-		}	// j step
-		VJUserInterface.progress(1f);
-		traceWrite();
-		pixelms = (float) (System.currentTimeMillis() - start) / (float) (width * height);
-		running = false;
-		//ImageProcessor imprk = new FloatProcessor(width, height, kbuffer.getBuffer(), null); (new ImagePlus("k values (cells with surfaces)"+description, imprk)).show();
-		//ImageProcessor imprki = new FloatProcessor(width, height, kintersectbuffer.getBuffer(), null); (new ImagePlus("kintersect values (cells with 2 intersections)"+description, imprki)).show();
+								else if (onTrace(i, j)) trace("("+sequenceNumber+") failed iso bracket at "+vlk0+","+vlk1+" samples "+k0sample+", "+k1sample);
+							} // kintersect != null
+						} // while. Continue looking for a surface.
+					}  // k step.
+					ox += istep[0];
+					oy += istep[1];
+					oz += istep[2];
+				}	// i step
+			}	// j step
+		}
+	}
+	/**
+	 * Create a renderer for concurrent rendering of another view of the same volume.
+	 * The binary shell is shared.
+	 * @return a new VJIsosurfaceRender or null if the settings of this renderer depend on the view.
+	 */
+	public VJRenderer duplicate()
+	{
+		VJShader shader = this.shader.duplicate();
+		VJClassifier classifier = this.classifier.duplicate();
+		if (shader == null || classifier == null)
+			return null;
+		VJIsosurfaceRender r = new VJIsosurfaceRender(interpolator, shader, classifier);
+		if (! r.duplicateSettings(this))
+			return null;
+		r.shell = shell;
+		return r;
 	}
 	/**
 	 * Do bisection for a number of steps.
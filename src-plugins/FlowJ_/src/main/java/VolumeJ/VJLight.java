@@ -50,6 +50,21 @@ public VJLight(float x, float y, float z, float diffuse, float specular)
                 this.specular = specular;
                 setNormalized(x, y, z);
         }
+        /**
+         * Create a copy of light.
+         * @param light the light to be copied.
+         */
+        public VJLight(VJLight light)
+        {
+                this.x = light.x;
+                this.y = light.y;
+                this.z = light.z;
+                this.tx = light.tx;
+                this.ty = light.ty;
+                this.tz = light.tz;
+                this.diffuse = light.diffuse;
+                this.specular = light.specular;
+        }
         public String toString()
         {
                 return "light ("+x+","+y+","+z+"); ";
@@ -120,6 +120,23 @@ public void rotatez(double theta)
 		} catch (Exception e) { VJUserInterface.error("grave error in VJMatrix"+e); }
 		return r;
         }
+        /**
+         *  Multiply a vector v with this transformation matrix into r, without allocating.
+         *  @param v a 4-D homogeneous vector (x,y,z,w).
+         *  @param r a 4-D vector which will contain the result on exit (must not be v).
+         *  @return r
+         */
+	public float [] mul(float [] v, float [] r)
+        {
+                for (int i = 0; i < r.length; i++)
+                {
+                        float n = 0;
+                        for (int k = 0; k < v.length; k++)
+                                n += m[i][k]*v[k];
+                        r[i] = n;
+                }
+		return r;
+        }
         /**
          * Find the homogenuous coordinate with the lowest value on a dimension in an array of coordinates.
          * @param vertex an array of double[4] coordinates.
@@ -109,13 +109,24 @@ else if (v instanceof VolumeRGB)
          * @return a VJGradient with the interpolated value(s).
          */
         public VJGradient gradient(Volume v, VJVoxelLoc vl)
+        {
+                return gradient(null, v, vl);
+        }
+        /**
+         * Compute an interpolated gradient from a volume into g.
+         * @param g a VJGradient which will contain the gradient on exit, or null for a new one.
+         * @param v the volume.
+         * @param vl the VJVoxelLoc where to interpolate the gradient
+         * @return g (or a new VJGradient) with the interpolated value(s).
+         */
+        public VJGradient gradient(VJGradient g, Volume v, VJVoxelLoc vl)
         {
                 if (v instanceof VolumeShort)
-                        return gradient(((VolumeShort) v).v, vl);
+                        return gradient(g, ((VolumeShort) v).v, vl);
                 else if (v instanceof VolumeFloat)
-                        return gradient(((VolumeFloat) v).v, vl);
+                        return gradient(g, ((VolumeFloat) v).v, vl);
 				else if (v instanceof VolumeRGB)
-						return gradient(((VolumeRGB) v).b, v.getHeight(), v.getWidth(), vl);
+						return gradient(g, ((VolumeRGB) v).b, v.getHeight(), v.getWidth(), vl);
                 else
                 {
                         VJUserInterface.error("unknown Volume type v");
@@ -199,7 +210,7 @@ private static int value(short [][][] v, int mask, VJVoxelLoc vl)
          * @param vl the location where to interpolate.
          * @return the VJGradient containing the 3 dimensional vector of the gradient.
          */
-        protected static VJGradient gradient(short [][][] v, VJVoxelLoc vl)
+        protected static VJGradient gradient(VJGradient g, short [][][] v, VJVoxelLoc vl)
         {
                 double gx =((int)v[vl.getnnz()][vl.getnny()][vl.getnnx()-1]&0xffff)
 					   -((int)v[vl.getnnz()][vl.getnny()][vl.getnnx()+1]&0xffff);
@@ -207,8 +218,7 @@ protected static VJGradient gradient(short [][][] v, VJVoxelLoc vl)
 					   -((int)v[vl.getnnz()][vl.getnny()+1][vl.getnnx()]&0xffff);
                 double gz =((int)v[vl.getnnz()-1][vl.getnny()][vl.getnnx()]&0xffff)
 					   -((int)v[vl.getnnz()+1][vl.getnny()][vl.getnnx()]&0xffff);
-                VJGradient g = new VJGradient(gx, gy, gz);
-                return g;
+                return g == null ? new VJGradient(gx, gy, gz) : g.set(gx, gy, gz);
         }
         /**
          * Interpolate the gradient *xyz* in a float volume (central difference).
@@ -216,7 +226,7 @@ protected static VJGradient gradient(short [][][] v, VJVoxelLoc vl)
          * @param vl the location where to interpolate.
          * @return the VJGradient containing the 3 dimensional vector of the gradient.
          */
-        protected static VJGradient gradient(float [][][] v, VJVoxelLoc vl)
+        protected static VJGradient gradient(VJGradient g, float [][][] v, VJVoxelLoc vl)
         {
                 double gx =v[vl.getnnz()][vl.getnny()][vl.getnnx()-1]
 					   -v[vl.getnnz()][vl.getnny()][vl.getnnx()+1];
@@ -224,8 +234,7 @@ protected static VJGradient gradient(float [][][] v, VJVoxelLoc vl)
 					   -v[vl.getnnz()][vl.getnny()+1][vl.getnnx()];
                 double gz =v[vl.getnnz()-1][vl.getnny()][vl.getnnx()]
 					   -v[vl.getnnz()+1][vl.getnny()][vl.getnnx()];
-                VJGradient g = new VJGradient(gx, gy, gz);
-                return g;
+                return g == null ? new VJGradient(gx, gy, gz) : g.set(gx, gy, gz);
         }
 		 /**
 		 * Interpolate the gradient *xyz* in a byte volume.
@@ -233,13 +242,12 @@ protected static VJGradient gradient(float [][][] v, VJVoxelLoc vl)
 		 * @param vl the location where to interpolate.
 		 * @return the VJGradient containing the 3 dimensional vector of the gradient.
 		 */
-		protected static VJGradient gradient(byte [] v, int height, int width, VJVoxelLoc vl)
+		protected static VJGradient gradient(VJGradient g, byte [] v, int height, int width, VJVoxelLoc vl)
 		{
 				double gx = (((int)v[vl.getnnz()*height*width+vl.getnny()*width+(vl.getnnx()-1)]&0xff)-((int)v[vl.getnnz()*height*width+vl.getnny()*width+(vl.getnnx()+1)]&0xff));
 				double gy = (((int)v[vl.getnnz()*height*width+(vl.getnny()-1)*width+vl.getnnx()]&0xff)-((int)v[vl.getnnz()*height*width+(vl.getnny()+1)*width+vl.getnnx()]&0xff));
 				double gz =	(((int)v[(vl.getnnz()-1)*height*width+vl.getnny()*width+vl.getnnx()]&0xff)-((int)v[(vl.getnnz()+1)*height*width+vl.getnny()*width+vl.getnnx()]&0xff));
-				VJGradient g = new VJGradient(gx, gy, gz);
-				return g;
+				return g == null ? new VJGradient(gx, gy, gz) : g.set(gx, gy, gz);
 		}
         /**
          * Interpolate in a float 4D hypervolume in a single dimension.
@@ -44,6 +44,15 @@ public VJShade shade(VJGradient g)
                 double dot = g.getx() + g.gety() + g.getz();
                 return new VJShade((float) (1-Math.pow(Math.pow(dot, 2), no)));
         }
+        public VJShader duplicate()
+        {
+                VJOutlineShader shader = new VJOutlineShader();
+                shader.no = no;
+                shader.doBackface = doBackface;
+                if (light != null)
+                        shader.light = new VJLight(light);
+                return shader;
+        }
         public VJShade getBackground() { return new VJShade(1); }
         public String toString() { return "Outline shader"; }
 }
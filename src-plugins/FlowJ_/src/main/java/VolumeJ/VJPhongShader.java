@@ -77,6 +77,12 @@ else if (dot < 0)
 				ambient + (diffuse * dot[2]));
 		}
         }
+        public VJShader duplicate()
+        {
+                VJPhongShader shader = new VJPhongShader(ambient, new VJLight(light), doBackface);
+                shader.diffuse = diffuse;
+                return shader;
+        }
         public String toString() { return "Phong shader: "+ambient+" "+diffuse+" "+light; }
 }
 
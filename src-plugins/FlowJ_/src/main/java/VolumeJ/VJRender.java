@@ -61,105 +61,141 @@ public synchronized void run()
                 if (classifier.does() == VJClassifier.RGB)
                         setOutputColor();
                 newViewportBuffer();
-                // Get the third column vector of the inverse matrix.
-                // This contains the deltas for the ray stepper.
-                float [] osstep = mi.getStepperColumn();
                 // prepare a cutout
                 if (cutout instanceof VJCutout)
                         cutout.setup(m, mi);
                 long start = System.currentTimeMillis();
-                VJValue value = null;
-                if (outputType == COLORINT && v instanceof VolumeRGB)
-                        value = new VJValueHSB();
-                else
-                        value = new VJValue();
-                for (int j = 0; j < height && running; j++) // step in j direction (y on image).
+                renderTiles();
+                VJUserInterface.progress(1f);
+                pixelms = (float) (System.currentTimeMillis() - start) / (float) (width * height);
+                running = false;
+        }
+        protected TileRenderer newTileRenderer() { return new RayTracer(); }
+        /**
+         * Casts the rays for a part of the viewport. Keeps its own interpolated sample.
+         */
+        private class RayTracer extends TileRenderer
+        {
+                // Get the third column vector of the inverse matrix.
+                // This contains the deltas for the ray stepper.
+                private final float [] osstep = mi.getStepperColumn();
+                private final VJValue value;
+                // Scratch objects of this worker, reset for every ray.
+                private final float [] vsv = VJMatrix.newVector(0, 0, 0);
+                private final float [] osv = new float[4];
+                private final VJVoxelLoc vl = new VJVoxelLoc();
+                private final VJAlphaColor pixel;
+                private VJGradient g = null;
+
+                RayTracer()
                 {
-                        VJUserInterface.status("Render "+message+"("+(100*j)/height+"%)...");
-                        VJUserInterface.progress((float)j/(float) height);
-                        for (int i = 0; i < width; i++) // step in i direction (x on image).
+                        if (outputType == COLORINT && v instanceof VolumeRGB)
+                                value = new VJValueHSB();
+                        else
+                                value = new VJValue();
+                        if (classifier.does() == VJClassifier.RGB)
+                                pixel = new VJAlphaColor(0, 0, 0, 0);
+                        else
+                                pixel = new VJAlphaColor(0, 0);
+                }
+                public void render(int i0, int j0, int i1, int j1)
+                {
+                        for (int j = j0; j < j1 && running; j++) // step in j direction (y on image).
                         {
-                                // Viewspace location vector.
-                                float [] vsv = VJMatrix.newVector(i+ioffset, j+joffset, koffset); // start of ray.
-                                // Get the start of the ray in objectspace.
-                                VJVoxelLoc vl = new VJVoxelLoc(vsv, mi);
-                                //if (i==0 && j==0) VJUserInterface.write("Viewspace start "+vsv[0]+","+vsv[1]+","+vsv[2]+","+" objectspace start "+vl);
-                                // Optimization.
-                                boolean involume = false;
-                                // Initialize the intermediate composite.
-                                VJAlphaColor pixel;
-                                if (classifier.does() == VJClassifier.RGB)
-                                        pixel = new VJAlphaColor(0, 0, 0, 0);
-                                else
-                                        pixel = new VJAlphaColor(0, 0);
-                                // Step through the ray.
-                                for (int k = 0; k < depth; k++)
+                                for (int i = i0; i < i1; i++) // step in i direction (x on image).
                                 {
-                                        if (onTrace(i, j))
-                                                trace(""+i+","+j+" k: "+k+"("+pixel+")"+" inspect: "+vl.ix+","+vl.iy+","+vl.iz);
-                                        // check if ray within volume and opacity < 1.
-                                        if (pixel.notOpaque() && interpolator.isValid(vl, v))
+                                        // Viewspace location vector.
+                                        vsv[0] = i+ioffset; vsv[1] = j+joffset; vsv[2] = koffset; // start of ray.
+                                        // Get the start of the ray in objectspace.
+                                        mi.mul(vsv, osv);
+                                        vl.set(osv[0], osv[1], osv[2]);
+                                        //if (i==0 && j==0) VJUserInterface.write("Viewspace start "+vsv[0]+","+vsv[1]+","+vsv[2]+","+" objectspace start "+vl);
+                                        // Optimization.
+                                        boolean involume = false;
+                                        // Initialize the intermediate composite.
+                                        pixel.reset();
+                                        // Step through the ray.
+                                        for (int k = 0; k < depth; k++)
                                         {
-                                                 // Interpolate a voxel value.
-                                                interpolator.value(value, v, vl);
-                                                // If value is RGB vector get RGB info.
-                                                if (value instanceof VJValueHSB)
-                                                        interpolator.valueHS((VJValueHSB) value, (VolumeRGB) v, classifier.getThreshold(), vl);
-                                                // Remember the depth.
-                                                value.k = k;
-                                                if (onTrace(i, j)) trace(" value "+value);
-                                                // Check whether this voxel can be skipped (if indexing on
-                                                // and the classifier does not find the index interesting).
-                                                if (interpolator.isValidGradient(vl, v) && (! classifier.doesIndex() || classifier.visible(value)))
+                                                if (onTrace(i, j))
+                                                        trace(""+i+","+j+" k: "+k+"("+pixel+")"+" inspect: "+vl.ix+","+vl.iy+","+vl.iz);
+                                                // check if ray within volume and opacity < 1.
+                                                if (pixel.notOpaque() && interpolator.isValid(vl, v))
                                                 {
-                                                        // Phong: interpolate the gradient.
-                                                        VJGradient g = interpolator.gradient(v, vl);
-                                                        // Classify voxel and gradient.
-                                                        VJAlphaColor color = classifier.alphacolor(value, g);
-                                                        if (onTrace(i, j))
-                                                                trace(classifier.trace(value, g)
-                                                                        +" pixel: "+pixel.toString()+" color: "+color.toString());
-                                                        if (color.visible())
+                                                         // Interpolate a voxel value.
+                                                        interpolator.value(value, v, vl);
+                                                        // If value is RGB vector get RGB info.
+                                                        if (value instanceof VJValueHSB)
+                                                                interpolator.valueHS((VJValueHSB) value, (VolumeRGB) v, classifier.getThreshold(), vl);
+                                                        // Remember the depth.
+                                                        value.k = k;
+                                                        if (onTrace(i, j)) trace(" value "+value);
+                                                        // Check whether this voxel can be skipped (if indexing on
+                                                        // and the classifier does not find the index interesting).
+                                                        if (interpolator.isValidGradient(vl, v) && (! classifier.doesIndex() || classifier.visible(value)))
                                                         {
-                                                                // Normalize the gradient.
-                                                                g.normalize();
-                                                                // Shade.
-                                                                VJShade shade = shader.shade(g);
-                                                                // Compose the alphacolor into pixel
-                                                                blendCompose(pixel, value, g, color, shade);
-                                                                // Early ray termination
-                                                                if (pixel.almostOpaque()) pixel.setOpaque();
-                                                                // Check for cutouts.
-                                                                if (cutout instanceof VJCutout)
-                                                                        cutout.cutout(pixel, i+ioffset, j+joffset, k+koffset);
+                                                                // Phong: interpolate the gradient.
+                                                                g = interpolator.gradient(g, v, vl);
+                                                                // Classify voxel and gradient.
+                                                                VJAlphaColor color = classifier.alphacolor(value, g);
                                                                 if (onTrace(i, j))
-                                                                        trace(" "+shade.toString()+" pixel: "+pixel.toString()+"\n");
+                                                                        trace(classifier.trace(value, g)
+                                                                                +" pixel: "+pixel.toString()+" color: "+color.toString());
+                                                                if (color.visible())
+                                                                {
+                                                                        // Normalize the gradient.
+                                                                        g.normalize();
+                                                                        // Shade.
+                                                                        VJShade shade = shader.shade(g);
+                                                                        // Compose the alphacolor into pixel
+                                                                        blendCompose(pixel, value, g, color, shade);
+                                                                        // Early ray termination
+                                                                        if (pixel.almostOpaque()) pixel.setOpaque();
+                                                                        // Check for cutouts.
+                                                                        if (cutout instanceof VJCutout)
+                                                                                cutout.cutout(pixel, i+ioffset, j+joffset, k+koffset);
+                                                                        if (onTrace(i, j))
+                                                                                trace(" "+shade.toString()+" pixel: "+pixel.toString()+"\n");
+                                                                }
+                                                                involume = true;
                                                         }
-                                                        involume = true;
+                                                }	// within volume data
+                                                else if (involume)
+                                                {
+                                                        if (onTrace(i, j))
+                                                        {
+                                                                trace("break?");
+                                                                traceWrite();
+                                                        }
+                                                        break;	// simple optimization
                                                 }
-                                        }	// within volume data
-                                        else if (involume)
-                                        {
                                                 if (onTrace(i, j))
-                                                {
-                                                        trace("break?");
                                                         traceWrite();
-                                                }
-                                                break;	// simple optimization
-                                        }
-                                        if (onTrace(i, j))
-                                                traceWrite();
-                                        // proceed along k-ray in objectspace.
-                                        vl.move(osstep);
-                                }	// k step
-                                // Set the pixel in the viewport buffer.
-                                setPixel(pixel, i, j);
-                        }	// i step
-                        yield();
-                }	// j step
-                VJUserInterface.progress(1f);
-                pixelms = (float) (System.currentTimeMillis() - start) / (float) (width * height);
-                running = false;
+                                                // proceed along k-ray in objectspace.
+                                                vl.move(osstep);
+                                        }	// k step
+                                        // Set the pixel in the viewport buffer.
+                                        setPixel(pixel, i, j);
+                                }	// i step
+                        }	// j step
+                }
+        }
+        /**
+         * Create a renderer for concurrent rendering of another view of the same volume.
+         * @return a new VJRender or null if the settings of this renderer depend on the view.
+         */
+        public VJRenderer duplicate()
+        {
+                VJShader shader = this.shader.duplicate();
+                VJClassifier classifier = this.classifier.duplicate();
+                if (shader == null || classifier == null)
+                        return null;
+                try
+                {
+                        VJRender r = new VJRender(interpolator, shader, classifier);
+                        return r.duplicateSettings(this) ? r : null;
+                }
+                catch (Exception e) { return null; }
         }
         /**
          * Compose the classified voxel color into pixel.
@@ -3,6 +3,7 @@
 import ij.*;
 import ij.process.*;
 import ij.io.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import volume.*;
 
 /**
@@ -40,6 +41,11 @@ public class VJRenderViewCine extends VJRenderView
 	protected double                stepx, stepy, stepz;
 	/** Whether the cine rendering will be written to disk only or also displayed. **/
 	protected boolean               toDisk;
+	/** The stack (and its window) the views are added to. */
+	protected ImageStack            rs;
+	protected ImagePlus             imp;
+	/** The renderer copies working on separate views, if rendered concurrently. */
+	protected VJRenderer []         frameRenderers;
 
 	/**
 	 * Instantiates a new rendering shell: a wrapper for a VJRenderer to allow
@@ -80,58 +86,198 @@ public synchronized void run()
 		if (toDisk)
 			IJ.showMessage("VolumeJ",
 				"Renderings will not be shown but only written to the ImageJ directory as separate VolumeJ_Cine1xxxx.tif image files.");
-		ImagePlus imp = null;
-		ImageStack rs = null;
-		float ms = 0;
-		// Create the views in a stack rs.
-		for (int j = 0; j < n && running; j++)
+		imp = null;
+		rs = null;
+		long start = System.currentTimeMillis();
+		float ms = -1;
+		if (framesAreIndependent() && n > 1 && renderer.getThreads() > 1)
+			ms = renderViewsConcurrently(vp);
+		if (ms < 0)
+		{
+			ms = 0;
+			// Create the views in a stack rs.
+			for (int j = 0; j < n && running; j++)
+			{
+				// Render the view.
+				renderer.setDescription(""+j+"/"+n);
+				renderer.setSequenceNumber(j);
+				ImageProcessor ip = renderToImageProcessor();
+				ms += renderer.getTimePerPixel();
+				addView(j, ip);
+				// Go to the next rendering.
+				nextView(j);
+			}
+		}
+		double seconds = Math.max(1, System.currentTimeMillis() - start) / 1000.0;
+		float averagems = ms / n;
+		VJUserInterface.write(""+averagems+" ms/pixel.");
+		VJUserInterface.write(""+IJ.d2s(n / seconds, 2)+" frames/second.");
+
+		// Try  garbage collection.
+		System.gc();
+		IJ.showStatus("memory use "+memoryInUse());
+	}
+	/**
+	 * Render all views at the same time, each on a copy of the renderer.
+	 * The transformations of all views are computed beforehand in the same
+	 * way as nextView() would, and the views are added to the stack in order.
+	 * @param vp the viewport for all views.
+	 * @return the sum of the times per pixel of all views, or -1 if
+	 * the renderer cannot be copied (the views then have to be rendered one by one).
+	 */
+	protected float renderViewsConcurrently(final int [] vp)
+	{
+		int nThreads = Math.min(n, renderer.getThreads());
+		final VJRenderer [] renderers = new VJRenderer[nThreads];
+		for (int t = 0; t < nThreads; t++)
+		{
+			renderers[t] = renderer.duplicate();
+			if (renderers[t] == null)
+				return -1;
+			// Share the remaining processors between the views.
+			renderers[t].setThreads(Math.max(1, renderer.getThreads() / nThreads));
+		}
+		final VJMatrix [] views = new VJMatrix[n];
+		views[0] = new VJMatrix(m);
+		for (int j = 1; j < n; j++)
 		{
-			// Render the view.
-			renderer.setDescription(""+j+"/"+n);
-			renderer.setSequenceNumber(j);
-			ImageProcessor ip = renderToImageProcessor();
-			ms += renderer.getTimePerPixel();
-			// Process the rendered image.
-			if (ip instanceof ImageProcessor)
+			rotateView(m);
+			views[j] = new VJMatrix(m);
+		}
+		frameRenderers = renderers;
+
+		final ImageProcessor [] ips = new ImageProcessor[n];
+		final boolean [] done = new boolean[n];
+		final double [] pixelms = new double[n];
+		final AtomicInteger ai = new AtomicInteger(0);
+		final Thread [] threads = new Thread[nThreads];
+		for (int t = 0; t < nThreads; t++)
+		{
+			final VJRenderer r = renderers[t];
+			threads[t] = new Thread("Render view " + t)
 			{
-				if (! toDisk)
+				public void run()
 				{
-					// Update the stack and show in window.
-					if (j == 0)
-					{
-						rs = new ImageStack(ip.getWidth(), ip.getHeight());
-						rs.addSlice(""+j, ip);
-						imp =  new ImagePlus(message, rs);
-						imp.show();
-					}
-					else
+					for (int j = ai.getAndIncrement(); j < n; j = ai.getAndIncrement())
 					{
-						// Add the view as the last slice.
-						//VJUserInterface.write("adding rendering as last slice.");
-						rs.addSlice(""+j, ip);
-						imp.setStack(null, rs);
-						// Show the last slice
-						imp.setSlice(j+1);
+						ImageProcessor ip = null;
+						try
+						{
+							if (! running)
+								continue;
+							// Each copy has its own classifier, which is set up with the transformation.
+							if (j == 0)
+								r.setTransformation(views[j], mLight);
+							else
+								r.setTransformation(views[j]);
+							r.setViewport(vp[0], vp[1]);
+							r.setDescription(""+j+"/"+n);
+							r.setSequenceNumber(j);
+							r.run();
+							ip = toImageProcessor(r, r.getPixels());
+							pixelms[j] = r.getTimePerPixel();
+						}
+						finally
+						{
+							synchronized (done)
+							{
+								ips[j] = ip;
+								done[j] = true;
+								done.notifyAll();
+							}
+						}
 					}
 				}
+			};
+			threads[t].setPriority(Thread.currentThread().getPriority());
+			threads[t].start();
+		}
+		float ms = 0;
+		try
+		{
+			for (int j = 0; j < n; j++)
+			{
+				ImageProcessor ip;
+				synchronized (done)
+				{
+					while (! done[j])
+						done.wait();
+					ip = ips[j];
+					ips[j] = null;
+				}
+				if (! running)
+					continue;
+				ms += pixelms[j];
+				addView(j, ip);
+				IJ.showStatus("VolumeJ: "+(j+1)+"/"+n+" used "+(memoryInUse()/1000)+"Kb ");
+				IJ.showProgress(j+1, n);
+			}
+			for (int t = 0; t < nThreads; t++)
+				threads[t].join();
+		}
+		catch (InterruptedException e) { kill(); }
+		frameRenderers = null;
+		return ms;
+	}
+	/**
+	 * Whether the views can be rendered independently from each other,
+	 * i.e. whether nextView() only rotates the volume.
+	 * Overload to return false if nextView() changes anything else.
+	 */
+	protected boolean framesAreIndependent()
+	{
+		return true;
+	}
+	/**
+	 * Add a rendered view to the cine stack, or save it to disk.
+	 * @param j the number of the view.
+	 * @param ip the rendering of the view.
+	 */
+	protected void addView(int j, ImageProcessor ip)
+	{
+		// Process the rendered image.
+		if (ip instanceof ImageProcessor)
+		{
+			if (! toDisk)
+			{
+				// Update the stack and show in window.
+				if (j == 0)
+				{
+					rs = new ImageStack(ip.getWidth(), ip.getHeight());
+					rs.addSlice(""+j, ip);
+					imp =  new ImagePlus(message, rs);
+					imp.show();
+				}
 				else
 				{
-					// Save the rendering to disk as separate images,
-					// do not make stack, do not show.
-					imp = new ImagePlus(message, ip);
-					FileSaver fs = new FileSaver(imp);
-					fs.saveAsTiff("VolumeJ_Cine_"+(10000+j)+".tif");
+					// Add the view as the last slice.
+					//VJUserInterface.write("adding rendering as last slice.");
+					rs.addSlice(""+j, ip);
+					imp.setStack(null, rs);
+					// Show the last slice
+					imp.setSlice(j+1);
 				}
 			}
-			// Go to the next rendering.
-			nextView(j);
+			else
+			{
+				// Save the rendering to disk as separate images,
+				// do not make stack, do not show.
+				imp = new ImagePlus(message, ip);
+				FileSaver fs = new FileSaver(imp);
+				fs.saveAsTiff("VolumeJ_Cine_"+(10000+j)+".tif");
+			}
 		}
-		float averagems = ms / n;
-		VJUserInterface.write(""+averagems+" ms/pixel.");
-
-		// Try  garbage collection.
-		System.gc();
-		IJ.showStatus("memory use "+memoryInUse());
+	}
+	/**
+	 * Stops the shell and all renderers working on views.
+	 */
+	public void kill()
+	{
+		super.kill();
+		VJRenderer [] renderers = frameRenderers;
+		if (renderers != null)
+			for (int t = 0; t < renderers.length; t++)
+				renderers[t].kill();
 	}
 	/**
 	* Prepare for the next rendering in a cine rendering.
@@ -142,7 +288,19 @@ public synchronized void run()
 	*/
 	protected void nextView(int k)
 	{
-		// Rotate the volume (i.e. m) to the next position
+		rotateView(m);
+		// Setup the renderer transformation matrix with the same size and position viewport.
+		// This also moves the light.
+		renderer.setTransformation(m);
+		renderer.setMessage(""+(k+1)+"/"+n+" used "+(memoryInUse()/1000)+"Kb ");
+		if (IJ.debugMode) VJUserInterface.write("VJRenderViewCine "+k+" rotated: x="+stepx+" y="+stepy+" z="+stepz);
+	}
+	/**
+	 * Rotate the volume (i.e. m) to the next position by the step rotation amounts in x,y,z.
+	 * @param m the transformation matrix to be rotated.
+	 */
+	protected void rotateView(VJMatrix m)
+	{
 		VJMatrix mm = new VJMatrix();
 		mm.rotatex(stepx);
 		m.mul(mm);
@@ -152,11 +310,6 @@ protected void nextView(int k)
 		mm = new VJMatrix();
 		mm.rotatez(stepz);
 		m.mul(mm);
-		// Setup the renderer transformation matrix with the same size and position viewport.
-		// This also moves the light.
-		renderer.setTransformation(m);
-		renderer.setMessage(""+(k+1)+"/"+n+" used "+(memoryInUse()/1000)+"Kb ");
-		if (IJ.debugMode) VJUserInterface.write("VJRenderViewCine "+k+" rotated: x="+stepx+" y="+stepy+" z="+stepz);
 	}
 	/**
 	 * Set the rotation steps around the x,y and z axes (per cine step).
@@ -1,5 +1,7 @@
 package VolumeJ;
 import java.awt.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import ij.Prefs;
 import volume.*;
 
 /**
@@ -89,6 +91,13 @@ public abstract class VJRenderer extends Thread
         protected String	        traceString;
         protected String	        description;
 
+        /** Size of the square tiles the viewport is split into for parallel rendering. */
+        protected final static int      TILE = 32;
+        /** Number of threads rendering tiles of the viewport. */
+        protected int                   threads = Prefs.getThreads();
+        /** Whether this renderer reports its progress (off for concurrent cine frames). */
+        protected boolean               reportProgress = true;
+
         /**
          * Create a new default renderer with specified interpolator, shader and classifier.
          * This renderer does nothing, since run() is not implemented.
@@ -278,6 +287,116 @@ protected void minmax()
         public void run()
         {
         }
+        /**
+         * A TileRenderer renders the rays of a rectangular part of the viewport.
+         * Every rendering thread gets its own TileRenderer, so that the interpolated
+         * samples it keeps can be reused from ray to ray without synchronization.
+         */
+        protected abstract class TileRenderer
+        {
+                /**
+                 * Render the pixels i0 <= i < i1, j0 <= j < j1 of the viewport.
+                 */
+                public abstract void render(int i0, int j0, int i1, int j1);
+        }
+        /**
+         * To be overloaded by renderers that use renderTiles().
+         * @return a new TileRenderer for the current view.
+         */
+        protected TileRenderer newTileRenderer() { return null; }
+        /**
+         * Render the whole viewport with TileRenderers.
+         * With a single thread (or when pixel tracing) the viewport is rendered
+         * scanline by scanline on the calling thread. Otherwise it is split into
+         * TILE x TILE tiles which are handed out to the rendering threads until none are left,
+         * so that threads that render empty parts of the view take over more tiles.
+        */
+        protected void renderTiles()
+        {
+                int nThreads = doPixeltracing ? 1 : threads;
+                if (nThreads <= 1)
+                {
+                        TileRenderer tr = newTileRenderer();
+                        for (int j = 0; j < height && running; j++) // step in j direction (y on image).
+                        {
+                                if (reportProgress)
+                                {
+                                        VJUserInterface.status("Render "+message+"("+(100*j)/height+"%)...");
+                                        VJUserInterface.progress((float)j/(float) height);
+                                }
+                                tr.render(0, j, width, j+1);
+                                yield();
+                        }
+                        return;
+                }
+                final int tilesi = (width + TILE - 1) / TILE;
+                final int nTiles = tilesi * ((height + TILE - 1) / TILE);
+                final AtomicInteger ai = new AtomicInteger(0);
+                final AtomicInteger done = new AtomicInteger(0);
+                Thread [] workers = new Thread[Math.max(1, Math.min(nThreads, nTiles))];
+                for (int t = 0; t < workers.length; t++)
+                {
+                        workers[t] = new Thread()
+                        {
+                                public void run()
+                                {
+                                        TileRenderer tr = newTileRenderer();
+                                        for (int tile = ai.getAndIncrement(); tile < nTiles && running; tile = ai.getAndIncrement())
+                                        {
+                                                int i0 = (tile % tilesi) * TILE;
+                                                int j0 = (tile / tilesi) * TILE;
+                                                tr.render(i0, j0, Math.min(width, i0 + TILE), Math.min(height, j0 + TILE));
+                                                int n = done.incrementAndGet();
+                                                if (reportProgress)
+                                                        VJUserInterface.progress((float) n / (float) nTiles);
+                                        }
+                                }
+                        };
+                        workers[t].setPriority(Thread.currentThread().getPriority());
+                        workers[t].start();
+                }
+                if (reportProgress)
+                        VJUserInterface.status("Render "+message+"("+workers.length+" threads)...");
+                try
+                {
+                        for (int t = 0; t < workers.length; t++)
+                                workers[t].join();
+                }
+                catch (InterruptedException e) { running = false; }
+        }
+        /**
+         * Set the number of threads used to render a view.
+         * @param threads the number of threads, 1 renders on the calling thread.
+         */
+        public void setThreads(int threads) { this.threads = Math.max(1, threads); }
+        public int getThreads() { return threads; }
+        /**
+         * Create a renderer that renders the same volume with the same interpolator, but has its own
+         * shader (light), classifier (see VJClassifier.duplicate()) and transformation, so that it can render another view
+         * at the same time as this renderer.
+         * To be overloaded by renderers that support this.
+         * @return the new renderer, or null if this renderer cannot render views concurrently.
+         */
+        public VJRenderer duplicate() { return null; }
+        /**
+         * Copy the view independent settings of renderer r into this renderer (see duplicate()).
+         * @param r the renderer to copy the settings from.
+         * @return false if r cannot be duplicated, because its shader or cutout depend on the view.
+         */
+        protected boolean duplicateSettings(VJRenderer r)
+        {
+                if (r.cutout != null || r.doPixeltracing || shader == null)
+                        return false;
+                v = r.v;
+                outputType = r.outputType;
+                doPerspective = r.doPerspective;
+                doDepthCueing = r.doDepthCueing;
+                message = r.message;
+                description = r.description;
+                threads = r.threads;
+                reportProgress = false;
+                return true;
+        }
         /**
         * The kill method is called when this renderer is to stop.
         * You can add wrapup method calls in this method.
@@ -50,6 +50,13 @@ public VJShade shade(VJGradient g)
         {
                 return null;
         }
+        /**
+         * Create a copy of this shader with its own light, so that both can be used
+         * to render different views at the same time.
+         * To be overloaded by subclasses.
+         * @return the new shader, or null if this shader cannot be copied.
+         */
+        public VJShader duplicate() { return null; }
         public VJShade getBackground() { return new VJShade(0); }
         public String toString() { return "Empty shader"; }
 }
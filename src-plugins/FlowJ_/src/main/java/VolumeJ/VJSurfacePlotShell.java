@@ -78,6 +78,13 @@ public VJSurfacePlotShell(VJRenderer renderer,
                 // Reset the volume in the renderer
                 renderer.setVolume(v);
         }
+        /**
+         * The views cannot be rendered concurrently, since each has its own volume.
+         */
+        protected boolean framesAreIndependent()
+        {
+                return false;
+        }
         /**
         * Prepare for the (k+1) th rendering in a cine rendering.
         * In this case, get the k+1 image from vimages and make a volume from it to be rendered.
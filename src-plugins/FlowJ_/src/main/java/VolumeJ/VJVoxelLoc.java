@@ -97,6 +97,15 @@ public VJVoxelLoc(float [] v)
         {
                 init((float) v[0], (float) v[1], (float) v[2]);
         }
+        /**
+         * Move this VJVoxelLoc to objectspace location x,y,z, so that it can be reused.
+         * @param x,y,z float the object space location.
+         */
+        public void set(float x, float y, float z)
+        {
+                init(x, y, z);
+                hasWeights = false;
+        }
         private void init(float x, float y, float z)
         {
                 this.x = x;
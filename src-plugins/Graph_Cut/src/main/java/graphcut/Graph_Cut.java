@@ -23,7 +23,6 @@
 
 import java.io.File;
 
-import java.util.Arrays;
 import java.util.Vector;
 
 import java.util.concurrent.ExecutorService;
@@ -46,6 +45,7 @@
 import ij.IJ;
 import ij.ImagePlus;
 import ij.ImageStack;
+import ij.Prefs;
 import ij.WindowManager;
 
 import ij.gui.GenericDialog;
@@ -144,6 +144,12 @@
 	// use an eight connected neighborhood?
 	private boolean eightConnect = true;
 
+	// use all 26 neighbors in 3D for the eight connected neighborhood?
+	private boolean fullNeighborhood = false;
+
+	// the number of threads to compute the max flow with
+	private int numThreads = Prefs.getThreads();
+
 	// the GUI window
 	private GraphCutWindow win;
 
@@ -685,6 +691,29 @@ public void run() {
 				});
 	}
 
+	/**
+	 * Sets the number of threads used to compute the max flow. With more than
+	 * one thread, slabs of the image are solved concurrently before the
+	 * remaining flow is found on the whole image.
+	 *
+	 * @param numThreads The number of threads.
+	 */
+	public void setNumThreads(int numThreads) {
+		this.numThreads = numThreads;
+	}
+
+	/**
+	 * Sets whether the eight connected neighborhood of 3D images consists
+	 * of all 26 neighbors. By default, only the 14 neighbors of earlier
+	 * versions are used, to keep the segmentations unchanged. 2D images
+	 * always use all 8 neighbors.
+	 *
+	 * @param fullNeighborhood Whether to use all 26 neighbors in 3D.
+	 */
+	public void setFullNeighborhood(boolean fullNeighborhood) {
+		this.fullNeighborhood = fullNeighborhood;
+	}
+
 	/**
 	 * Processes a single channel image.
 	 *
@@ -741,7 +770,6 @@ public void processSingleChannelImage(ImagePlus imp, ImagePlus edge, float dataW
 		// get some statistics
 		int[] dimensions = image.getDimensions();
 		int   numNodes   = image.size();
-		int   numEdges   = 0;
 
 		// determine type of edge image
 		if (edge != null) {
@@ -752,44 +780,28 @@ public void processSingleChannelImage(ImagePlus imp, ImagePlus edge, float dataW
 				implicitEdgeWeights = true;
 		}
 
-		// compute number of edges
-		if (eightConnect) {
-
-			// straight and diagonal edges
-
-			// n = (2*a-1)*(2*b-1)*...
-			//   - a*b*c*...
-			//   + (a-1)*(b-1)*...
-			int prod1 = 1;
-			for (int d = 0; d < dimensions.length; d++)
-				prod1 *= (2*dimensions[d] - 1);
-
-			int prod2 = 1;
-			for (int d = 0; d < dimensions.length; d++)
-				prod2 *= dimensions[d];
-
-			int prod3 = 1;
-			for (int d = 0; d < dimensions.length; d++)
-				prod3 *= (dimensions[d] - 1);
-
-			numEdges = prod1 - prod2 + prod3;
-		} else {
-
-			// straight edges
-			for (int d = 0; d < dimensions.length; d++)
-				numEdges += numNodes - numNodes/dimensions[d];
-		}
+		// create neighbor offsets, one for each pair of opposite neighbors
+		int[][] neighborPositions;
+		if (eightConnect && !fullNeighborhood)
+			neighborPositions = GridGraphCut.legacyNeighborhood(dimensions.length);
+		else
+			neighborPositions = GridGraphCut.neighborhood(dimensions.length, eightConnect);
+		IJ.log("num neighbors per pixel: " + 2*neighborPositions.length);
 
 		// setup imglib cursors
 		LocalizableByDimCursor<T> cursor     = image.createLocalizableByDimCursor();
 		LocalizableByDimCursor<T> edgeCursor = null;
 		int[] imagePosition                  = new int[dimensions.length];
 
-		// create a new graph cut instance
+		// create a new graph cut instance, with implicit edges between
+		// neighboring pixels
 		// TODO: reuse an old one
-		IJ.log("Creating graph structure of " + numNodes + " nodes and " + numEdges + " edges...");
+		IJ.log("Creating grid graph of " + numNodes + " nodes...");
 		long start = System.currentTimeMillis();
-		GraphCut graphCut = new GraphCut(numNodes, numEdges);
+		GridGraphCut graphCut = new GridGraphCut(dimensions, neighborPositions);
+		int[] directions = new int[neighborPositions.length];
+		for (int i = 0; i < neighborPositions.length; i++)
+			directions[i] = graphCut.getDirection(neighborPositions[i]);
 		long end   = System.currentTimeMillis();
 		IJ.log("...done. (" + (end - start) + "ms)");
 
@@ -817,62 +829,6 @@ public void processSingleChannelImage(ImagePlus imp, ImagePlus edge, float dataW
 		IJ.log("...done. (" + (end - start) + "ms)");
 
 		// set edge weights
-
-		// create neighbor offsets
-		int[][] neighborPositions;
-
-		if (eightConnect) {
-
-			int numNeighbors = dimensions.length*2;
-			int numDiagonal = 1;
-			for (int d = 0; d < dimensions.length; d++)
-				numDiagonal *= 2;
-			numNeighbors += numDiagonal;
-			numNeighbors /= 2; // consider only half of the edges per pixel
-
-			IJ.log("num neighbors per pixel: " + numNeighbors);
-
-			neighborPositions = new int[numNeighbors][dimensions.length];
-
-			Arrays.fill(neighborPositions[0], -1);
-
-			for (int i = 1; i < neighborPositions.length; i++) {
-
-				System.arraycopy(neighborPositions[i-1], 0, neighborPositions[i], 0, dimensions.length);
-
-				boolean valid = false;
-				do {
-
-					for (int d = dimensions.length - 1; d >= 0; d--) {
-
-						neighborPositions[i][d]++;
-						if (neighborPositions[i][d] < 2)
-							break;
-						neighborPositions[i][d] = -1;
-					}
-
-					// check if valid neighbor
-					for (int d = dimensions.length - 1; d >= 0; d--) {
-
-						if (neighborPositions[i][d] < 0) {
-							valid = true;
-							break;
-						}
-					}
-
-				} while (!valid);
-				System.out.println(Arrays.toString(neighborPositions[i]));
-			}
-		} else {
-
-			neighborPositions = new int[dimensions.length][dimensions.length];
-
-			for (int d = 0; d < dimensions.length; d++) {
-				Arrays.fill(neighborPositions[d], 0);
-				neighborPositions[d][d] = -1;
-			}
-		}
-
 		IJ.log("Setting edge weights to " + pottsWeight + "...");
 		if (edge != null) {
 			IJ.log("   (under consideration of edge image with weight " + edgeWeight + ")");
@@ -911,8 +867,6 @@ public void processSingleChannelImage(ImagePlus imp, ImagePlus edge, float dataW
 						continue A;
 				}
 
-				int neighborNum = listPosition(neighborPosition, dimensions);
-
 				float weight = pottsWeight;
 
 				if (edge != null) {
@@ -944,7 +898,7 @@ public void processSingleChannelImage(ImagePlus imp, ImagePlus edge, float dataW
 				//
 				// since weight_00 = weight_11 = 0 and weight_01 = weight_10 =
 				// weight, the following does it:
-				graphCut.setEdgeWeight(nodeNum, neighborNum, weight);
+				graphCut.setEdgeWeight(nodeNum, directions[i], weight);
 				e++;
 			}
 
@@ -954,9 +908,9 @@ public void processSingleChannelImage(ImagePlus imp, ImagePlus edge, float dataW
 		IJ.log("...done inserting " + e + " edges. (" + (end - start) + "ms)");
 
 		// calculate max flow
-		IJ.log("Calculating max flow...");
+		IJ.log("Calculating max flow" + (numThreads > 1 ? " using " + numThreads + " threads" : "") + "...");
 		start = System.currentTimeMillis();
-		float maxFlow = graphCut.computeMaximumFlow(false, null);
+		float maxFlow = graphCut.computeMaximumFlow(numThreads);
 		end = System.currentTimeMillis();
 		IJ.log("...done. Max flow is " + maxFlow + ". (" + (end - start) + "ms)");
 
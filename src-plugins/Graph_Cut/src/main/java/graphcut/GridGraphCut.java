@@ -0,0 +1,965 @@
+/**
+ * Graph cut implementation for regular grids.
+ *
+ * This is the algorithm of {@link GraphCut} (Boykov and Kolmogorov, PAMI
+ * 2004), specialised for graphs whose nodes are the pixels or voxels of an
+ * image and whose edges connect each node with the same set of neighbor
+ * offsets. The edges are not stored explicitly; instead, the residual
+ * capacity of the edge from each node in each direction is kept in one
+ * float array per direction, and tree parents are stored as directions.
+ * This needs a fraction of the memory of the general graph.
+ *
+ * Optionally, the grid is split into slabs along the last dimension that
+ * are solved concurrently, ignoring the edges between slabs. The flows of
+ * the slabs form a valid flow of the whole graph; a final pass over the
+ * whole grid then augments the remaining paths in the residual graph, so
+ * that the result is the same as that of a single pass.
+ *
+ * @version 0.1
+ */
+package graphcut;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class implementing the graph cut algorithm on a regular grid.
+ */
+public class GridGraphCut {
+
+	// special parent directions, same as in Graph
+	private final static byte NONE     = Graph.NONE;
+	private final static byte TERMINAL = Graph.TERMINAL;
+	private final static byte ORPHAN   = Graph.ORPHAN;
+
+	// the grid
+	private final int width, height, depth;
+	private final int numNodes;
+
+	// offsets of the directions, and the index of the opposite direction
+	private final int[] dx, dy, dz;
+	private final int[] nodeOffsets;
+	private final int[] opposite;
+	private final int numDirections;
+
+	///////////////////////
+	// edge capacities   //
+	///////////////////////
+
+	// residual capacity of the edge from a node in a direction,
+	// indexed [direction][node]
+	private final float[][] residualEdgeCapacities;
+
+	// the residual capacity of a node to the sink (<0) or from the source
+	// (>0)
+	private final float[] residualNodeCapacities;
+
+	///////////////////////
+	// search trees      //
+	///////////////////////
+
+	// direction to the parent in the tree, or NONE, TERMINAL, ORPHAN
+	private final byte[] parents;
+
+	// next active node
+	private final int[] nextNodes;
+
+	// timestamp indicating when distance was computed
+	private final int[] timestamps;
+
+	// distance to the terminal
+	private final int[] distances;
+
+	// indicates whether this node belongs to the sink or the source tree
+	private final boolean[] inSink;
+
+	// the flow of the terminal weights
+	private float terminalFlow;
+
+	// the total flow in the whole graph
+	private float totalFlow;
+
+	/**
+	 * Creates the neighborhood for a grid.
+	 *
+	 * @param numDimensions The number of dimensions of the grid (2 or 3).
+	 * @param diagonal      Whether to include diagonal neighbors, i.e., 8
+	 *                      neighbors in 2D or 26 in 3D instead of 4 or 6.
+	 * @return One offset of each pair of opposite offsets.
+	 */
+	public static int[][] neighborhood(int numDimensions, boolean diagonal) {
+
+		int[][] all = new int[(int)Math.pow(3, numDimensions)][];
+		int num = 0;
+		int[] offset = new int[numDimensions];
+		for (int i = 0; i < all.length; i++) {
+
+			int steps = 0;
+			for (int d = 0, j = i; d < numDimensions; d++, j /= 3) {
+				offset[d] = j%3 - 1;
+				steps += Math.abs(offset[d]);
+			}
+			if (steps == 0 || (!diagonal && steps > 1))
+				continue;
+
+			// keep the offset if its last non-zero component is negative
+			for (int d = numDimensions - 1; d >= 0; d--)
+				if (offset[d] != 0) {
+					if (offset[d] < 0)
+						all[num++] = offset.clone();
+					break;
+				}
+		}
+		int[][] result = new int[num][];
+		System.arraycopy(all, 0, result, 0, num);
+		return result;
+	}
+
+	/**
+	 * Creates the diagonal neighborhood that Graph_Cut used before the grid
+	 * implementation. It is the full 8-neighborhood in 2D, but only 14 of
+	 * the 26 neighbors in 3D: the first (2*n + 2^n)/2 offsets with a negative
+	 * component, counting up from (-1,...,-1) with the last dimension
+	 * changing fastest.
+	 *
+	 * @param numDimensions The number of dimensions of the grid (2 or 3).
+	 * @return One offset of each pair of opposite offsets.
+	 */
+	public static int[][] legacyNeighborhood(int numDimensions) {
+
+		int max = (2*numDimensions + (1 << numDimensions))/2;
+		int[][] result = new int[max][];
+		int num = 0;
+		int[] offset = new int[numDimensions];
+		int numOffsets = (int)Math.pow(3, numDimensions);
+		for (int i = 0; i < numOffsets && num < max; i++) {
+
+			boolean negative = false;
+			for (int d = numDimensions - 1, j = i; d >= 0; d--, j /= 3) {
+				offset[d] = j%3 - 1;
+				if (offset[d] < 0)
+					negative = true;
+			}
+			if (negative)
+				result[num++] = offset.clone();
+		}
+		if (num < max) {
+			int[][] shorter = new int[num][];
+			System.arraycopy(result, 0, shorter, 0, num);
+			result = shorter;
+		}
+		return result;
+	}
+
+	/**
+	 * Initialises the graph cut implementation for a grid.
+	 *
+	 * @param dimensions The size of the grid (up to three dimensions).
+	 * @param neighbors  The neighbor offsets, with components between -1 and
+	 *                   1. For each pair of opposite offsets, only one must be
+	 *                   given (see {@link #neighborhood(int, boolean)}).
+	 */
+	public GridGraphCut(int[] dimensions, int[][] neighbors) {
+
+		if (dimensions.length < 1 || dimensions.length > 3)
+			throw new IllegalArgumentException("Only 1 to 3 dimensions are supported");
+
+		width  = dimensions[0];
+		height = dimensions.length > 1 ? dimensions[1] : 1;
+		depth  = dimensions.length > 2 ? dimensions[2] : 1;
+
+		long size = (long)width*height*depth;
+		if (size > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Too many nodes: " + size);
+		numNodes = (int)size;
+
+		numDirections = 2*neighbors.length;
+		dx          = new int[numDirections];
+		dy          = new int[numDirections];
+		dz          = new int[numDirections];
+		nodeOffsets = new int[numDirections];
+		opposite    = new int[numDirections];
+		for (int i = 0; i < neighbors.length; i++) {
+			int[] n = neighbors[i];
+			for (int d = 0; d < n.length; d++)
+				if (n[d] < -1 || n[d] > 1)
+					throw new IllegalArgumentException("Neighbor offsets must be between -1 and 1");
+			int x = n[0];
+			int y = n.length > 1 ? n[1] : 0;
+			int z = n.length > 2 ? n[2] : 0;
+			if (x == 0 && y == 0 && z == 0)
+				throw new IllegalArgumentException("Neighbor offsets must not be zero");
+			setDirection(2*i,     x,  y,  z);
+			setDirection(2*i + 1, -x, -y, -z);
+			opposite[2*i]     = 2*i + 1;
+			opposite[2*i + 1] = 2*i;
+		}
+
+		residualEdgeCapacities = new float[numDirections][numNodes];
+		residualNodeCapacities = new float[numNodes];
+		parents                = new byte[numNodes];
+		nextNodes              = new int[numNodes];
+		timestamps             = new int[numNodes];
+		distances              = new int[numNodes];
+		inSink                 = new boolean[numNodes];
+		terminalFlow           = 0;
+		totalFlow              = 0;
+	}
+
+	private void setDirection(int direction, int x, int y, int z) {
+		dx[direction] = x;
+		dy[direction] = y;
+		dz[direction] = z;
+		nodeOffsets[direction] = x + width*(y + height*z);
+	}
+
+	/**
+	 * Gets the direction of a neighbor offset.
+	 *
+	 * @param offset The offset to the neighbor, as given to the constructor
+	 *               or opposite to it.
+	 * @return The direction, or -1 if the offset is not in the neighborhood.
+	 */
+	public int getDirection(int[] offset) {
+
+		int x = offset[0];
+		int y = offset.length > 1 ? offset[1] : 0;
+		int z = offset.length > 2 ? offset[2] : 0;
+		for (int direction = 0; direction < numDirections; direction++)
+			if (dx[direction] == x && dy[direction] == y && dz[direction] == z)
+				return direction;
+		return -1;
+	}
+
+	/**
+	 * Gets the index of a node from its grid position.
+	 */
+	public int getNode(int x, int y, int z) {
+		return x + width*(y + height*z);
+	}
+
+	/**
+	 * Set the affinity for one node to belong to the foreground (i.e., source)
+	 * or background (i.e., sink).
+	 *
+	 * @param node   The number of the node.
+	 * @param source The affinity of this node to the foreground (i.e., source)
+	 * @param sink   The affinity of this node to the background (i.e., sink)
+	 */
+	public void setTerminalWeights(int node, float source, float sink) {
+
+		float delta = residualNodeCapacities[node];
+
+		if (delta > 0)
+			source += delta;
+		else
+			sink   -= delta;
+
+		terminalFlow += (source < sink) ? source : sink;
+
+		residualNodeCapacities[node] = source - sink;
+	}
+
+	/**
+	 * Set the edge weight between a node and its neighbor in a direction, in
+	 * both directions.
+	 *
+	 * @param node      The node.
+	 * @param direction The direction of the neighbor.
+	 * @param weight    The weight (i.e., the cost) of the connecting edge.
+	 */
+	public void setEdgeWeight(int node, int direction, float weight) {
+
+		setEdgeWeight(node, direction, weight, weight);
+	}
+
+	/**
+	 * Set the edge weight of the pair of directed edges between a node and
+	 * its neighbor in a direction.
+	 *
+	 * @param node       The node.
+	 * @param direction  The direction of the neighbor.
+	 * @param weightTo   The weight of the edge from the node to the neighbor.
+	 * @param weightFrom The weight of the edge from the neighbor to the node.
+	 */
+	public void setEdgeWeight(int node, int direction, float weightTo, float weightFrom) {
+
+		int x = node%width;
+		int y = (node/width)%height;
+		int z = node/(width*height);
+		if (!isInside(x + dx[direction], y + dy[direction], z + dz[direction]))
+			throw new IllegalArgumentException("Node " + node + " has no neighbor in direction " + direction);
+
+		residualEdgeCapacities[direction][node] = weightTo;
+		residualEdgeCapacities[opposite[direction]][node + nodeOffsets[direction]] = weightFrom;
+	}
+
+	private boolean isInside(int x, int y, int z) {
+		return x >= 0 && x < width && y >= 0 && y < height && z >= 0 && z < depth;
+	}
+
+	/**
+	 * Performs the max-flow/min-cut computation on one thread.
+	 *
+	 * @return The value of the maximal flow.
+	 */
+	public float computeMaximumFlow() {
+		return computeMaximumFlow(1);
+	}
+
+	/**
+	 * Performs the max-flow/min-cut computation.
+	 *
+	 * @param numThreads If greater than one, the grid is first split into as
+	 *                   many slabs, which are solved concurrently.
+	 * @return The value of the maximal flow.
+	 */
+	public float computeMaximumFlow(int numThreads) {
+
+		totalFlow = terminalFlow;
+
+		// the slabs are ranges of planes along the last dimension
+		int numPlanes  = depth > 1 ? depth : height;
+		int planeSize  = numNodes/numPlanes;
+		int numBlocks  = Math.min(numThreads, numPlanes/2);
+
+		if (numBlocks > 1) {
+
+			final Solver[] solvers = new Solver[numBlocks];
+			for (int b = 0; b < numBlocks; b++)
+				solvers[b] = new Solver((int)((long)b*numPlanes/numBlocks)*planeSize,
+				                        (int)((long)(b + 1)*numPlanes/numBlocks)*planeSize);
+
+			final AtomicInteger ai = new AtomicInteger(0);
+			Thread[] threads = new Thread[numBlocks];
+			for (int t = 0; t < threads.length; t++) {
+				threads[t] = new Thread() {
+					public void run() {
+						for (int b = ai.getAndIncrement(); b < solvers.length; b = ai.getAndIncrement())
+							solvers[b].maxflow();
+					}
+				};
+				threads[t].start();
+			}
+			try {
+				for (int t = 0; t < threads.length; t++)
+					threads[t].join();
+			} catch (InterruptedException e) {
+				for (int t = 0; t < threads.length; t++)
+					threads[t].interrupt();
+				Thread.currentThread().interrupt();
+				return totalFlow;
+			}
+
+			for (int b = 0; b < numBlocks; b++)
+				totalFlow += solvers[b].flow;
+		}
+
+		// find the remaining paths, including those across the slabs
+		Solver solver = new Solver(0, numNodes);
+		solver.maxflow();
+		totalFlow += solver.flow;
+
+		return totalFlow;
+	}
+
+	/**
+	 * Get the segmentation, i.e., the terminal node that is connected to the
+	 * specified node. If there are several min-cut solutions, free nodes are
+	 * assigned to the background.
+	 *
+	 * @param node the node to check
+	 * @return Either <tt>Terminal.FOREGROUND</tt> or
+	 *         <tt>Terminal.BACKGROUND</tt>
+	 */
+	public Terminal getTerminal(int node) {
+
+		if (parents[node] != NONE)
+			return inSink[node] ? Terminal.BACKGROUND : Terminal.FOREGROUND;
+		else
+			return Terminal.BACKGROUND;
+	}
+
+	/**
+	 * Gets the number of nodes in this graph.
+	 *
+	 * @return The number of nodes
+	 */
+	public int getNumNodes() {
+		return numNodes;
+	}
+
+	/**
+	 * Gets the number of directions, i.e., twice the number of undirected
+	 * edges per node.
+	 *
+	 * @return The number of directions
+	 */
+	public int getNumDirections() {
+		return numDirections;
+	}
+
+	/*
+	 * PRIVATE CLASSES
+	 */
+
+	/**
+	 * A double ended queue of node numbers.
+	 */
+	private static class NodeQueue {
+
+		private int[] nodes = new int[1024];
+		private int first = 0, size = 0;
+
+		void addFirst(int node) {
+			if (size == nodes.length)
+				grow();
+			first = (first - 1) & (nodes.length - 1);
+			nodes[first] = node;
+			size++;
+		}
+
+		void addLast(int node) {
+			if (size == nodes.length)
+				grow();
+			nodes[(first + size) & (nodes.length - 1)] = node;
+			size++;
+		}
+
+		int poll() {
+			int node = nodes[first];
+			first = (first + 1) & (nodes.length - 1);
+			size--;
+			return node;
+		}
+
+		boolean isEmpty() {
+			return size == 0;
+		}
+
+		void clear() {
+			first = size = 0;
+		}
+
+		private void grow() {
+			int[] grown = new int[2*nodes.length];
+			for (int i = 0; i < size; i++)
+				grown[i] = nodes[(first + i) & (nodes.length - 1)];
+			nodes = grown;
+			first = 0;
+		}
+	}
+
+	/**
+	 * The search trees and queues for a range of nodes. Only edges between
+	 * nodes of the range are considered, so that solvers of disjoint ranges
+	 * can run concurrently.
+	 */
+	private class Solver {
+
+		// the range of nodes
+		private final int begin, end;
+
+		// Lists of active nodes: activeQueueFirst points to first
+		// elements of the lists, activeQueueLast to the last ones.
+		// In between, nodes are connected via reference to next node
+		// in each node.
+		private final int[] activeQueueFirst = new int[2];
+		private final int[] activeQueueLast  = new int[2];
+
+		// list of orphans
+		private final NodeQueue orphans = new NodeQueue();
+
+		// counter for iterations of main loop
+		private int time;
+
+		// the flow found by this solver
+		private float flow;
+
+		// the position of the node of the last call to neighbor()
+		private int x, y, z;
+
+		Solver(int begin, int end) {
+			this.begin = begin;
+			this.end   = end;
+		}
+
+		/**
+		 * Remembers the position of a node for subsequent calls to neighbor().
+		 */
+		private void locate(int node) {
+			x = node%width;
+			y = (node/width)%height;
+			z = node/(width*height);
+		}
+
+		/**
+		 * Gets the neighbor of the last located node in a direction, or -1
+		 * if it is outside the grid or the range of this solver.
+		 */
+		private int neighbor(int direction) {
+			if (!isInside(x + dx[direction], y + dy[direction], z + dz[direction]))
+				return -1;
+			int neighbor = x + dx[direction] + width*(y + dy[direction] + height*(z + dz[direction]));
+			return neighbor >= begin && neighbor < end ? neighbor : -1;
+		}
+
+		void maxflow() {
+
+			maxflowInit();
+
+			int currentNode = NONE;
+
+			// main loop
+			while (true) {
+
+				int activeNode = currentNode;
+
+				if (activeNode != NONE) {
+					// remove active flag
+					nextNodes[activeNode] = NONE;
+					if (parents[activeNode] == NONE)
+						activeNode = NONE;
+				}
+				if (activeNode == NONE) {
+					activeNode = getNextActiveNode();
+					if (activeNode == NONE)
+						// no more active nodes - we're done here
+						break;
+				}
+
+				// the edge (middleNode, middleDirection) from the source to
+				// the sink tree, if found
+				int middleNode      = NONE;
+				int middleDirection = NONE;
+
+				locate(activeNode);
+
+				// growth
+				if (!inSink[activeNode]) {
+					// grow source tree
+					for (int direction = 0; direction < numDirections; direction++) {
+						if (residualEdgeCapacities[direction][activeNode] != 0) {
+
+							int headNode = neighbor(direction);
+							if (headNode < 0)
+								continue;
+
+							if (parents[headNode] == NONE) {
+								// free node found, add to source tree
+								inSink[headNode]     = false;
+								parents[headNode]    = (byte)opposite[direction];
+								timestamps[headNode] = timestamps[activeNode];
+								distances[headNode]  = distances[activeNode] + 1;
+								setNodeActive(headNode);
+
+							} else if (inSink[headNode]) {
+								// node is not free and belongs to other tree - path
+								// via edge found
+								middleNode      = activeNode;
+								middleDirection = direction;
+								break;
+
+							} else if (timestamps[headNode] <= timestamps[activeNode] &&
+							           distances[headNode]  >  distances[activeNode]) {
+								// node is not free and belongs to our tree - try to
+								// shorten its distance to the source
+								parents[headNode]    = (byte)opposite[direction];
+								timestamps[headNode] = timestamps[activeNode];
+								distances[headNode]  = distances[activeNode] + 1;
+							}
+						}
+					}
+				} else {
+					// activeNode is in sink, grow sink tree
+					for (int direction = 0; direction < numDirections; direction++) {
+
+						int headNode = neighbor(direction);
+						if (headNode < 0 || residualEdgeCapacities[opposite[direction]][headNode] == 0)
+							continue;
+
+						if (parents[headNode] == NONE) {
+							// free node found, add to sink tree
+							inSink[headNode]     = true;
+							parents[headNode]    = (byte)opposite[direction];
+							timestamps[headNode] = timestamps[activeNode];
+							distances[headNode]  = distances[activeNode] + 1;
+							setNodeActive(headNode);
+
+						} else if (!inSink[headNode]) {
+							// node is not free and belongs to other tree - path
+							// via edge's sister found
+							middleNode      = headNode;
+							middleDirection = opposite[direction];
+							break;
+
+						} else if (timestamps[headNode] <= timestamps[activeNode] &&
+						           distances[headNode]  >  distances[activeNode]) {
+							// node is not free and belongs to our tree - try to
+							// shorten its distance to the sink
+							parents[headNode]    = (byte)opposite[direction];
+							timestamps[headNode] = timestamps[activeNode];
+							distances[headNode]  = distances[activeNode] + 1;
+						}
+					}
+				}
+
+				time++;
+
+				if (middleNode != NONE) {
+					// we found a path via edge
+
+					// set active flag
+					nextNodes[activeNode] = activeNode;
+					currentNode = activeNode;
+
+					// augmentation
+					augment(middleNode, middleDirection);
+
+					// adoption
+					while (!orphans.isEmpty()) {
+						int orphan = orphans.poll();
+						if (inSink[orphan])
+							processSinkOrphan(orphan);
+						else
+							processSourceOrphan(orphan);
+					}
+				} else {
+					// no path found
+					currentNode = NONE;
+				}
+			}
+		}
+
+		/**
+		 * Marks a node as being active and adds it to second queue of active nodes.
+		 */
+		private void setNodeActive(int node) {
+
+			if (nextNodes[node] == NONE) {
+				if (activeQueueLast[1] != NONE)
+					nextNodes[activeQueueLast[1]] = node;
+				else
+					activeQueueFirst[1] = node;
+
+				activeQueueLast[1] = node;
+				nextNodes[node]    = node;
+			}
+		}
+
+		/**
+		 * Gets the next active node, that is, the first node of the first queue of
+		 * active nodes. If this queue is empty, the second queue is used. Returns
+		 * <tt>NONE</tt>, if no active node is left.
+		 */
+		private int getNextActiveNode() {
+
+			int node;
+
+			while (true) {
+
+				node = activeQueueFirst[0];
+
+				if (node == NONE) {
+					// queue 0 was empty, try other one
+					node = activeQueueFirst[1];
+
+					// swap queues
+					activeQueueFirst[0] = activeQueueFirst[1];
+					activeQueueLast[0]  = activeQueueLast[1];
+					activeQueueFirst[1] = NONE;
+					activeQueueLast[1]  = NONE;
+
+					// if other queue was emtpy as well, return NONE
+					if (node == NONE)
+						return NONE;
+				}
+
+				// remove current node from active list
+				if (nextNodes[node] == node) {
+					// this was the last one
+					activeQueueFirst[0] = NONE;
+					activeQueueLast[0]  = NONE;
+				} else
+					activeQueueFirst[0] = nextNodes[node];
+
+				// not in any list anymore
+				nextNodes[node] = NONE;
+
+				// return only if it has a parent and is therefore active
+				if (parents[node] != NONE)
+					return node;
+			}
+		}
+
+		/**
+		 * Initialise the trees of the nodes in the range.
+		 */
+		private void maxflowInit() {
+
+			activeQueueFirst[0] = NONE;
+			activeQueueLast[0]  = NONE;
+			activeQueueFirst[1] = NONE;
+			activeQueueLast[1]  = NONE;
+
+			orphans.clear();
+
+			time = 0;
+			flow = 0;
+
+			for (int node = begin; node < end; node++) {
+
+				nextNodes[node]  = NONE;
+				timestamps[node] = time;
+
+				if (residualNodeCapacities[node] > 0) {
+					// node is connected to source
+					inSink[node]  = false;
+					parents[node] = TERMINAL;
+					setNodeActive(node);
+					distances[node] = 1;
+				} else if (residualNodeCapacities[node] < 0) {
+					// node is connected to sink
+					inSink[node]  = true;
+					parents[node] = TERMINAL;
+					setNodeActive(node);
+					distances[node] = 1;
+				} else {
+					parents[node] = NONE;
+				}
+			}
+		}
+
+		/**
+		 * Mark a node as orphan and add it to the front of the queue.
+		 */
+		private void addOrphanAtFront(int node) {
+
+			parents[node] = ORPHAN;
+			orphans.addFirst(node);
+		}
+
+		/**
+		 * Mark a node as orphan and add it to the back of the queue.
+		 */
+		private void addOrphanAtBack(int node) {
+
+			parents[node] = ORPHAN;
+			orphans.addLast(node);
+		}
+
+		/**
+		 * Gets the parent of a node in the tree.
+		 */
+		private int parentNode(int node) {
+			return node + nodeOffsets[parents[node]];
+		}
+
+		/**
+		 * Perform the augmentation step of the graph cut algorithm.
+		 *
+		 * This is done whenever a path between the source and the sink was found.
+		 */
+		private void augment(int middleNode, int middleDirection) {
+
+			int node;
+			int parent;
+			int direction;
+
+			float bottleneck;
+
+			// 1. find bottleneck capacity
+
+			// 1a - the source tree
+			bottleneck = residualEdgeCapacities[middleDirection][middleNode];
+			for (node = middleNode; parents[node] != TERMINAL; node = parent) {
+
+				direction = parents[node];
+				parent    = node + nodeOffsets[direction];
+				if (bottleneck > residualEdgeCapacities[opposite[direction]][parent])
+					bottleneck = residualEdgeCapacities[opposite[direction]][parent];
+			}
+			if (bottleneck > residualNodeCapacities[node])
+				bottleneck = residualNodeCapacities[node];
+
+			// 1b - the sink tree
+			for (node = middleNode + nodeOffsets[middleDirection]; parents[node] != TERMINAL; node = parentNode(node)) {
+
+				if (bottleneck > residualEdgeCapacities[parents[node]][node])
+					bottleneck = residualEdgeCapacities[parents[node]][node];
+			}
+			if (bottleneck > -residualNodeCapacities[node])
+				bottleneck = -residualNodeCapacities[node];
+
+			// 2. augmenting
+
+			// 2a - the source tree
+			residualEdgeCapacities[opposite[middleDirection]][middleNode + nodeOffsets[middleDirection]] += bottleneck;
+			residualEdgeCapacities[middleDirection][middleNode] -= bottleneck;
+			for (node = middleNode; parents[node] != TERMINAL; node = parent) {
+
+				direction = parents[node];
+				parent    = node + nodeOffsets[direction];
+				residualEdgeCapacities[direction][node] += bottleneck;
+				residualEdgeCapacities[opposite[direction]][parent] -= bottleneck;
+				if (residualEdgeCapacities[opposite[direction]][parent] == 0)
+					addOrphanAtFront(node);
+			}
+			residualNodeCapacities[node] -= bottleneck;
+			if (residualNodeCapacities[node] == 0)
+				addOrphanAtFront(node);
+
+			// 2b - the sink tree
+			for (node = middleNode + nodeOffsets[middleDirection]; parents[node] != TERMINAL; node = parent) {
+
+				direction = parents[node];
+				parent    = node + nodeOffsets[direction];
+				residualEdgeCapacities[opposite[direction]][parent] += bottleneck;
+				residualEdgeCapacities[direction][node] -= bottleneck;
+				if (residualEdgeCapacities[direction][node] == 0)
+					addOrphanAtFront(node);
+			}
+			residualNodeCapacities[node] += bottleneck;
+			if (residualNodeCapacities[node] == 0)
+				addOrphanAtFront(node);
+
+			flow += bottleneck;
+		}
+
+		/**
+		 * Computes the distance of a node to its terminal, or
+		 * Integer.MAX_VALUE if it does not originate from a terminal, and
+		 * marks the nodes along the path.
+		 */
+		private int originDistance(int start) {
+
+			int node     = start;
+			int distance = 0;
+			while (true) {
+
+				if (timestamps[node] == time) {
+					distance += distances[node];
+					break;
+				}
+				distance++;
+				if (parents[node] == TERMINAL) {
+					timestamps[node] = time;
+					distances[node]  = 1;
+					break;
+				}
+				if (parents[node] == ORPHAN)
+					return Integer.MAX_VALUE;
+				// otherwise, proceed to the next node
+				node = parentNode(node);
+			}
+
+			// set marks along the path
+			int result = distance;
+			for (node = start; timestamps[node] != time; node = parentNode(node)) {
+				timestamps[node] = time;
+				distances[node]  = distance;
+				distance--;
+			}
+			return result;
+		}
+
+		/**
+		 * Adopt an orphan.
+		 */
+		private void processSourceOrphan(int orphan) {
+
+			int bestDirection = NONE;
+			int minDistance   = Integer.MAX_VALUE;
+
+			locate(orphan);
+			for (int direction = 0; direction < numDirections; direction++) {
+
+				int node = neighbor(direction);
+				if (node < 0 || residualEdgeCapacities[opposite[direction]][node] == 0)
+					continue;
+
+				if (!inSink[node] && parents[node] != NONE) {
+
+					int distance = originDistance(node);
+					if (distance < minDistance) {
+						// node originates from the source
+						bestDirection = direction;
+						minDistance   = distance;
+					}
+				}
+			}
+
+			parents[orphan] = (byte)bestDirection;
+			if (bestDirection != NONE) {
+				timestamps[orphan] = time;
+				distances[orphan]  = minDistance + 1;
+			} else {
+				// no parent found, process neighbors
+				for (int direction = 0; direction < numDirections; direction++) {
+
+					int node = neighbor(direction);
+					if (node < 0)
+						continue;
+					int parent = parents[node];
+					if (!inSink[node] && parent != NONE) {
+
+						if (residualEdgeCapacities[opposite[direction]][node] != 0)
+							setNodeActive(node);
+						if (parent == opposite[direction])
+							addOrphanAtBack(node);
+					}
+				}
+			}
+		}
+
+		/**
+		 * Adopt an orphan.
+		 */
+		private void processSinkOrphan(int orphan) {
+
+			int bestDirection = NONE;
+			int minDistance   = Integer.MAX_VALUE;
+
+			locate(orphan);
+			for (int direction = 0; direction < numDirections; direction++) {
+
+				if (residualEdgeCapacities[direction][orphan] == 0)
+					continue;
+				int node = neighbor(direction);
+				if (node < 0)
+					continue;
+
+				if (inSink[node] && parents[node] != NONE) {
+
+					int distance = originDistance(node);
+					if (distance < minDistance) {
+						// node originates from the sink
+						bestDirection = direction;
+						minDistance   = distance;
+					}
+				}
+			}
+
+			parents[orphan] = (byte)bestDirection;
+			if (bestDirection != NONE) {
+				timestamps[orphan] = time;
+				distances[orphan]  = minDistance + 1;
+			} else {
+				// no parent found, process neighbors
+				for (int direction = 0; direction < numDirections; direction++) {
+
+					int node = neighbor(direction);
+					if (node < 0)
+						continue;
+					int parent = parents[node];
+					if (inSink[node] && parent != NONE) {
+
+						if (residualEdgeCapacities[direction][orphan] != 0)
+							setNodeActive(node);
+						if (parent == opposite[direction])
+							addOrphanAtBack(node);
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,126 @@
+package graphcut;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares {@link GridGraphCut} with the general {@link GraphCut} on random
+ * 2D and 3D grids, for the straight, the legacy and the full diagonal
+ * neighborhoods and different numbers of threads. Both must find the same
+ * maximum flow (up to float rounding) and the same segmentation.
+ */
+public class GridGraphCut_TestDrive {
+
+	public static void main(String[] args) {
+
+		Random random = new Random(args.length > 0 ? Long.parseLong(args[0]) : 7);
+		int failures = 0;
+		int trials = 0;
+
+		for (int numDimensions = 2; numDimensions <= 3; numDimensions++)
+			for (int neighborhood = 0; neighborhood < 3; neighborhood++)
+				for (int numThreads = 1; numThreads <= 4; numThreads++) {
+
+					int[][] neighbors;
+					if (neighborhood == 0)
+						neighbors = GridGraphCut.neighborhood(numDimensions, false);
+					else if (neighborhood == 1)
+						neighbors = GridGraphCut.legacyNeighborhood(numDimensions);
+					else
+						neighbors = GridGraphCut.neighborhood(numDimensions, true);
+
+					int[] dimensions = new int[numDimensions];
+					for (int d = 0; d < numDimensions; d++)
+						dimensions[d] = (numDimensions == 2 ? 20 : 6) + random.nextInt(numDimensions == 2 ? 60 : 20);
+
+					if (!compare(dimensions, neighbors, numThreads, random))
+						failures++;
+					trials++;
+				}
+
+		System.out.println(failures + " of " + trials + " comparisons failed");
+		if (failures > 0)
+			System.exit(1);
+	}
+
+	private static boolean compare(int[] dimensions, int[][] neighbors, int numThreads, Random random) {
+
+		int numNodes = 1;
+		for (int d = 0; d < dimensions.length; d++)
+			numNodes *= dimensions[d];
+
+		GridGraphCut grid = new GridGraphCut(dimensions, neighbors);
+		int[] directions = new int[neighbors.length];
+		for (int i = 0; i < neighbors.length; i++)
+			directions[i] = grid.getDirection(neighbors[i]);
+
+		// terminal weights from a smooth probability map with noise
+		float[] source = new float[numNodes];
+		float[] sink   = new float[numNodes];
+		for (int node = 0; node < numNodes; node++) {
+
+			float prob = (float)(0.5 + 0.4*Math.sin(node*0.013)*Math.cos(node*0.0007));
+			prob += (random.nextFloat() - 0.5f)*0.3f;
+			prob = Math.min(0.99f, Math.max(0.01f, prob));
+			source[node] = -(float)Math.log(prob);
+			sink[node]   = -(float)Math.log(1.0 - prob);
+			grid.setTerminalWeights(node, source[node], sink[node]);
+		}
+
+		// random edge weights between neighbors
+		List<int[]> edges   = new ArrayList<int[]>();
+		List<Float> weights = new ArrayList<Float>();
+		int[] position = new int[dimensions.length];
+		int[] neighbor = new int[dimensions.length];
+		for (int node = 0; node < numNodes; node++) {
+
+			int rest = node;
+			for (int d = 0; d < dimensions.length; d++) {
+				position[d] = rest % dimensions[d];
+				rest /= dimensions[d];
+			}
+
+A:			for (int i = 0; i < neighbors.length; i++) {
+
+				int neighborNode = 0;
+				for (int d = dimensions.length - 1; d >= 0; d--) {
+					neighbor[d] = position[d] + neighbors[i][d];
+					if (neighbor[d] < 0 || neighbor[d] >= dimensions[d])
+						continue A;
+					neighborNode = neighborNode*dimensions[d] + neighbor[d];
+				}
+
+				float weight = 0.2f + random.nextFloat();
+				grid.setEdgeWeight(node, directions[i], weight);
+				edges.add(new int[]{node, neighborNode});
+				weights.add(weight);
+			}
+		}
+
+		GraphCut graphCut = new GraphCut(numNodes, edges.size());
+		for (int node = 0; node < numNodes; node++)
+			graphCut.setTerminalWeights(node, source[node], sink[node]);
+		for (int e = 0; e < edges.size(); e++)
+			graphCut.setEdgeWeight(edges.get(e)[0], edges.get(e)[1], weights.get(e));
+
+		long start = System.currentTimeMillis();
+		float expectedFlow = graphCut.computeMaximumFlow(false, null);
+		long middle = System.currentTimeMillis();
+		float flow = grid.computeMaximumFlow(numThreads);
+		long end = System.currentTimeMillis();
+
+		int differences = 0;
+		for (int node = 0; node < numNodes; node++)
+			if (graphCut.getTerminal(node) != grid.getTerminal(node))
+				differences++;
+
+		boolean ok = differences == 0 && Math.abs(expectedFlow - flow) <= 1e-4*Math.abs(expectedFlow);
+		System.out.println(Arrays.toString(dimensions) + ", " + 2*neighbors.length + " neighbors, "
+				+ numThreads + " threads: max flow " + expectedFlow + " vs. " + flow
+				+ ", " + differences + " different labels ("
+				+ (middle - start) + "ms vs. " + (end - middle) + "ms)" + (ok ? "" : " FAILED"));
+		return ok;
+	}
+}
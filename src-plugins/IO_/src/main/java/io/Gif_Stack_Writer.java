@@ -7,6 +7,12 @@
 import java.awt.Point;
 import java.io.OutputStream;
 import java.io.IOException;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import ij.*;
 import ij.io.*;
@@ -190,6 +196,164 @@ else if(type == 4)   //4 for RGB
 
       return ok;
    }
+
+   /**
+    * Maximal number of frames from which a global color table is computed,
+    * and maximal number of pixels that are sampled from them.
+    */
+   protected static final int GCT_SAMPLE_FRAMES = 16;
+   protected static final int GCT_SAMPLE_PIXELS = 1 << 22;
+
+   /**
+    * Adds all frames of an RGB stack.  Unlike <code>addFrame</code>, the
+    * color quantization and LZW encoding of several frames is done
+    * concurrently on a pool of worker threads; the encoded frames are
+    * still written in stack order.  If a global color table was requested
+    * but not loaded from another image, it is computed once from frames
+    * sampled evenly across the stack rather than from the first frame only.
+    *
+    * @param stack  RGB stack to write.
+    * @param threads  number of worker threads.
+    * @return true if successful.
+    */
+   public boolean addFrames(final ImageStack stack, int threads) {
+      if ((stack == null) || !started) return false;
+      final int nSlices = stack.getSize();
+      if (nSlices == 0) return true;
+      if (threads < 1) threads = 1;
+      boolean ok = true;
+      ExecutorService pool = null;
+      try {
+         if (firstFrame) {
+            if (!sizeSet)
+               setSize(stack.getWidth(), stack.getHeight());
+            OverRideQuality(width*height);
+            if (gctused) {
+               if (gct == null)
+                  gctQuant = sampleGCT(stack);
+               writeLSDgct();
+               colorTab = gct;
+               TransparentIndex(colorTab);
+               writePalette();
+            }
+            else
+               writeLSD();
+            if (repeat >= 0)
+               writeNetscapeExt();      // use NS app extension to indicate reps
+            firstFrame = false;
+         }
+         else
+            OverRideQuality(width*height);
+
+         // keep a few frames per thread in flight, but not the whole stack
+         pool = Executors.newFixedThreadPool(threads);
+         LinkedList<Future<byte[]>> pending = new LinkedList<Future<byte[]>>();
+         int written = 0;
+         for (int i = 1; i <= nSlices; i++) {
+            final int[] rgb = (int[])stack.getProcessor(i).convertToRGB().getPixels();
+            pending.add(pool.submit(new Callable<byte[]>() {
+               public byte[] call() throws IOException {
+                  return encodeFrame(rgb);
+               }
+            }));
+            if (pending.size() >= 2*threads) {
+               out.write(pending.removeFirst().get());
+               IJ.showProgress(++written, nSlices);
+            }
+         }
+         while (!pending.isEmpty()) {
+            out.write(pending.removeFirst().get());
+            IJ.showProgress(++written, nSlices);
+         }
+      } catch (IOException e) {
+         ok = false;
+      } catch (InterruptedException e) {
+         ok = false;
+      } catch (ExecutionException e) {
+         if (e.getCause() instanceof RuntimeException)
+            throw (RuntimeException)e.getCause();
+         ok = false;
+      } finally {
+         if (pool != null)
+            pool.shutdownNow();
+         gctQuant = null;
+      }
+      return ok;
+   }
+
+   protected NeuQuant gctQuant;       // maps pixels to a global table computed by sampleGCT
+
+   /**
+    * Computes the global color table from up to GCT_SAMPLE_FRAMES frames,
+    * and returns the trained network to map the pixels of all frames.
+    */
+   protected NeuQuant sampleGCT(ImageStack stack) {
+      int nSlices = stack.getSize();
+      int nFrames = Math.min(nSlices, GCT_SAMPLE_FRAMES);
+      int nPix = width*height;
+      int stride = (int)Math.max(1, ((long)nFrames*nPix + GCT_SAMPLE_PIXELS - 1) / GCT_SAMPLE_PIXELS);
+      byte[] sampled = new byte[3*nFrames*((nPix + stride - 1) / stride)];
+      int k = 0;
+      for (int f = 0; f < nFrames; f++) {
+         int slice = 1 + (int)((long)f*nSlices/nFrames);
+         int[] pix = (int[])stack.getProcessor(slice).convertToRGB().getPixels();
+         for (int i = 0; i < nPix; i += stride) {
+            sampled[k++] = (byte)(pix[i] & 0x0000ff);        //blue
+            sampled[k++] = (byte)((pix[i] & 0x00ff00)>>8);   //green
+            sampled[k++] = (byte)((pix[i] & 0xff0000)>>16);  //red
+         }
+      }
+      NeuQuant nq = new NeuQuant(sampled, k, sample);
+      gct = bgrToRgb(nq.process());
+      colorDepth = 8;
+      lctSize = 7;
+      return nq;
+   }
+
+   /**
+    * Quantizes and encodes one frame, including its graphic control
+    * extension, image descriptor and local color table.  This does not
+    * touch the state of the encoder, so that it can run on several frames
+    * at once.
+    */
+   protected byte[] encodeFrame(int[] rgb) throws IOException {
+      byte[] bgr = pack(rgb);
+      AnimatedGifEncoder2 frame = new AnimatedGifEncoder2();
+      frame.width = width;
+      frame.height = height;
+      frame.delay = delay;
+      frame.dispose = dispose;
+      frame.gctused = gctused;
+      frame.transparent = transparent;
+      frame.transIndex = transIndex;
+      frame.autotransparent = autotransparent;
+      frame.GCTsetTransparent = GCTsetTransparent;
+      frame.GCToverideIndex = GCToverideIndex;
+      frame.GCToverideColor = GCToverideColor;
+      frame.GCTcindex = GCTcindex;
+      frame.GCTred = GCTred;
+      frame.GCTgrn = GCTgrn;
+      frame.GCTbl = GCTbl;
+      frame.colorDepth = 8;
+      frame.lctSize = 7;
+      if (gctused) {
+         frame.colorTab = gct;
+         frame.indexedPixels = gctQuant != null ? mapPixels(gctQuant, bgr) : mapPixels(gct, bgr);
+      }
+      else {
+         NeuQuant nq = new NeuQuant(bgr, bgr.length, sample);
+         frame.colorTab = bgrToRgb(nq.process());
+         frame.indexedPixels = mapPixels(nq, bgr);
+         frame.TransparentIndex(frame.colorTab);
+      }
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream(bgr.length / 4 + 1024);
+      frame.out = bytes;
+      frame.writeGraphicCtrlExt();
+      frame.writeImageDesc();
+      if (!gctused) frame.writePalette();
+      frame.writePixels();
+      return bytes.toByteArray();
+   }
  /*
  
  	Handles transparency color Index
@@ -509,17 +673,24 @@ public void extractGCTrgb(ImagePlus image){
     }
     
 void packrgb(ImagePlus image){
-	int len = image.getWidth()*image.getHeight();
 	ImageProcessor imp = image.getProcessor();
-	 int[] pix = (int[]) imp.getPixels();
-        pixels = new byte[len*3];
+	pixels = pack((int[]) imp.getPixels());
+}
+
+/*
+    * Packs RGB pixels into the BGR byte order used by NeuQuant
+    */
+static byte[] pack(int[] pix){
+	int len = pix.length;
+        byte[] packed = new byte[len*3];
     			//pack pixels
     	 for(int i=0; i<len; i++){
     	 	int k=i*3;
-    	  	pixels[k+2] = (byte)((pix[i] & 0xff0000)>>16);   //red
-    	   	pixels[k+1] = (byte)((pix[i] & 0x00ff00)>>8); //green
-    	    	pixels[k] = (byte)(pix[i] & 0x0000ff); //blue
+    	  	packed[k+2] = (byte)((pix[i] & 0xff0000)>>16);   //red
+    	   	packed[k+1] = (byte)((pix[i] & 0x00ff00)>>8); //green
+    	    	packed[k] = (byte)(pix[i] & 0x0000ff); //blue
     	       	}
+	return packed;
 }
 
 /*
@@ -716,17 +887,9 @@ protected void analyzePixels() {
       indexedPixels = new byte[nPix];
       if (gctused && (gct == null))	{     
       	NeuQuant nq = new NeuQuant(pixels, len, sample);    // initialize quantizer
-      	colorTab = nq.process();                            // create reduced palette
+      	colorTab = bgrToRgb(nq.process());                  // create reduced palette
       	gct = new byte[colorTab.length];
-      	// convert map from BGR to RGB
-      	for (int i = 0; i < colorTab.length; i+=3) {
-         byte temp = colorTab[i];
-         colorTab[i] = colorTab[i+2];
-         colorTab[i+2] = temp;
-         gct[i] = colorTab[i];
-         gct[i+1]  = colorTab[i+1];
-         gct[i+2]  =colorTab[i+2];
-      	}	
+      	System.arraycopy(colorTab, 0, gct, 0, gct.length);
       	if(GCTextracted){
       		indexedPixels= null;
       		return;
@@ -734,52 +897,81 @@ protected void analyzePixels() {
       }		        
       if (!gctused){			        
       	NeuQuant nq = new NeuQuant(pixels, len, sample);    // initialize quantizer
-      	colorTab = nq.process();                            // create reduced palette
-      	// convert map from BGR to RGB
-      	for (int i = 0; i < colorTab.length; i+=3) {
-         byte temp = colorTab[i];
-         colorTab[i] = colorTab[i+2];
-         colorTab[i+2] = temp;
-      	}
-      	// map image pixels to new palette
-     	 int k = 0;
-      	for (int i = 0; i < nPix; i++)
-         indexedPixels[i] =
-            (byte) nq.map(pixels[k++] & 0xff, pixels[k++] & 0xff, pixels[k++] & 0xff);
+      	colorTab = bgrToRgb(nq.process());                  // create reduced palette
+      	indexedPixels = mapPixels(nq, pixels);              // map image pixels to new palette
       	pixels = null;
       	colorDepth = 8;
       	lctSize = 7;
         }
       if(gctused){
-      // find closest match for all pixels This routine is not optimized real slow linear search.
       	colorTab = gct;   
-       	int k = 0;
-       	int minpos;
-      	for (int j = 0; j < nPix; j++){
-   		int b = pixels[k++] & 0xff;
-    		int g = pixels[k++] & 0xff;
-    		int r = pixels[k++] & 0xff;
-    		minpos = 0;
-   		int dmin = 256*256*256;
-    		int lenct = colorTab.length;
-   		for (int i = 0; i < lenct; ) {
-         		int dr = r - (colorTab[i++] & 0xff);
-        		int dg = g - (colorTab[i++] & 0xff);
-       		 	int db = b - (colorTab[i] & 0xff);
-         		int d = dr*dr + dg*dg + db*db;
-         		if (d < dmin) {
-               			dmin = d;
-            			minpos = i/3;
-         			}
-         		i++;
-        	}//end inside for
-        	indexedPixels[j]=(byte)minpos;
-     }//end for
+      	indexedPixels = mapPixels(colorTab, pixels);
         pixels = null;
       	colorDepth = 8;
       	lctSize = 7;
    } //end if
 }
+
+   /**
+    * Converts a color map from BGR (as returned by NeuQuant) to RGB, in place.
+    */
+   static byte[] bgrToRgb(byte[] colorTab) {
+      for (int i = 0; i < colorTab.length; i+=3) {
+         byte temp = colorTab[i];
+         colorTab[i] = colorTab[i+2];
+         colorTab[i+2] = temp;
+      }
+      return colorTab;
+   }
+
+   /**
+    * Maps BGR pixels to the palette of a trained network.
+    */
+   static byte[] mapPixels(NeuQuant nq, byte[] bgr) {
+      int nPix = bgr.length / 3;
+      byte[] indexed = new byte[nPix];
+      int k = 0;
+      for (int i = 0; i < nPix; i++)
+         indexed[i] =
+            (byte) nq.map(bgr[k++] & 0xff, bgr[k++] & 0xff, bgr[k++] & 0xff);
+      return indexed;
+   }
+
+   /**
+    * Maps BGR pixels to the closest colors of an RGB color table.  This is
+    * a linear search, so runs of equal pixels reuse the previous match.
+    */
+   static byte[] mapPixels(byte[] colorTab, byte[] bgr) {
+      int nPix = bgr.length / 3;
+      byte[] indexed = new byte[nPix];
+      int lenct = colorTab.length;
+      int previous = -1, minpos = 0;
+      int k = 0;
+      for (int j = 0; j < nPix; j++){
+         int b = bgr[k++] & 0xff;
+         int g = bgr[k++] & 0xff;
+         int r = bgr[k++] & 0xff;
+         int rgb = (r << 16) | (g << 8) | b;
+         if (rgb != previous) {
+            previous = rgb;
+            minpos = 0;
+            int dmin = 256*256*256;
+            for (int i = 0; i < lenct; ) {
+               int dr = r - (colorTab[i++] & 0xff);
+               int dg = g - (colorTab[i++] & 0xff);
+               int db = b - (colorTab[i] & 0xff);
+               int d = dr*dr + dg*dg + db*db;
+               if (d < dmin) {
+                  dmin = d;
+                  minpos = i/3;
+               }
+               i++;
+            }
+         }
+         indexed[j]=(byte)minpos;
+      }
+      return indexed;
+   }
    
 
 
@@ -1000,7 +1192,18 @@ public void run(String arg) {
 		int nSlices = stack.getSize();
 		//String path = directory+name;
 	        fr.start(directory+file);
-		
+
+		long start = System.currentTimeMillis();
+		if (imp.getType() == ImagePlus.COLOR_RGB) {
+			IJ.showStatus("writing "+nSlices+" frames");
+			if (!fr.addFrames(stack, Prefs.getThreads()))
+				IJ.showMessage("Save as "+type, "Could not write "+directory+file);
+			fr.finish();
+			IJ.showStatus(nSlices+" frames written in "+IJ.d2s((System.currentTimeMillis()-start)/1000.0, 2)+" seconds");
+			IJ.showProgress(1.0);
+			return;
+		}
+
  		for (int i=1; i<=nSlices; i++) {
 			IJ.showStatus("writing: "+i+"/"+nSlices);
 			IJ.showProgress((double)i/nSlices);
@@ -0,0 +1,392 @@
+package io;
+
+// NrrdBlockGzip
+// -------------
+// Block compressed data for gzip encoded nrrd files.
+//
+// The data is split into blocks of whole slices, and every block is
+// compressed on its own, as a separate gzip member.  Concatenated gzip
+// members are still a valid gzip stream, so the files can be read by
+// any nrrd reader; but when the sidecar block index (<file>.blockindex)
+// is present, the blocks can be decompressed in parallel, or single
+// slices can be decompressed on demand for a virtual stack.
+//
+// The index is a small text file in the style of a nrrd header:
+//
+//   # nrrd block index
+//   data offset: <offset of the first block in the data file>
+//   slices: <number of slices>
+//   slices per block: <number of slices in all but the last block>
+//   block lengths:
+//   <compressed length of the first block>
+//   ...
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.VirtualStack;
+import ij.io.FileInfo;
+import ij.io.ImageReader;
+import ij.io.ImageWriter;
+import ij.measure.Calibration;
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+class NrrdBlockGzip {
+
+	// blocks hold as many whole slices as fit into this many bytes, but at least one
+	public static final int BLOCK_SIZE = 4 << 20;
+	public static final String INDEX_SUFFIX = ".blockindex";
+
+	final File dataFile;
+	final int nImages;
+	final int slicesPerBlock;
+	// file offsets of the blocks, plus the end of the last block
+	final long[] offsets;
+
+	NrrdBlockGzip(File dataFile, long dataOffset, int nImages, int slicesPerBlock, long[] lengths) {
+		this.dataFile=dataFile;
+		this.nImages=nImages;
+		this.slicesPerBlock=slicesPerBlock;
+		offsets=new long[lengths.length+1];
+		offsets[0]=dataOffset;
+		for(int i=0;i<lengths.length;i++) offsets[i+1]=offsets[i]+lengths[i];
+	}
+
+	public static File getIndexFile(File dataFile) {
+		return new File(dataFile.getPath()+INDEX_SUFFIX);
+	}
+
+	public static int getSlicesPerBlock(FileInfo fi) {
+		long sliceBytes=(long)fi.width*fi.height*fi.getBytesPerPixel();
+		return (int)Math.max(1, Math.min(fi.nImages, BLOCK_SIZE/Math.max(1, sliceBytes)));
+	}
+
+	public int getBlockCount() {
+		return offsets.length-1;
+	}
+
+	/**
+	 * Compresses the image data described by fi, block by block on a pool of
+	 * threads, appends the blocks to out in order, and writes the block index
+	 * next to dataFile.
+	 */
+	public static void write(final FileInfo fi, FileOutputStream out, File dataFile, int threads) throws IOException {
+		final int slicesPerBlock=getSlicesPerBlock(fi);
+		final int nBlocks=(fi.nImages+slicesPerBlock-1)/slicesPerBlock;
+		final long dataOffset=out.getChannel().position();
+		final long[] lengths=new long[nBlocks];
+		if(threads<1) threads=1;
+
+		// keep a couple of blocks per thread in flight, but not the whole image
+		ExecutorService pool=Executors.newFixedThreadPool(threads);
+		try {
+			LinkedList<Future<byte[]>> pending=new LinkedList<Future<byte[]>>();
+			int written=0;
+			for(int b=0;b<nBlocks;b++) {
+				final int first=b*slicesPerBlock;
+				final int count=Math.min(slicesPerBlock, fi.nImages-first);
+				// slices of virtual stacks are loaded here, on one thread
+				final Object[] pixels=new Object[count];
+				for(int i=0;i<count;i++) pixels[i]=getPixels(fi, first+i);
+				pending.add(pool.submit(new Callable<byte[]>() {
+					public byte[] call() throws IOException {
+						return compress(fi, pixels);
+					}
+				}));
+				if(pending.size()>=2*threads) {
+					byte[] block=pending.removeFirst().get();
+					out.write(block);
+					lengths[written++]=block.length;
+					IJ.showProgress(written, nBlocks);
+				}
+			}
+			while(!pending.isEmpty()) {
+				byte[] block=pending.removeFirst().get();
+				out.write(block);
+				lengths[written++]=block.length;
+				IJ.showProgress(written, nBlocks);
+			}
+		} catch (InterruptedException e) {
+			throw new IOException("Interrupted while compressing "+dataFile);
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof IOException) throw (IOException)e.getCause();
+			throw new RuntimeException(e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+		writeIndex(getIndexFile(dataFile), dataOffset, fi.nImages, slicesPerBlock, lengths);
+	}
+
+	static Object getPixels(FileInfo fi, int slice) {
+		if(fi.virtualStack!=null) return fi.virtualStack.getPixels(slice+1);
+		if(fi.nImages>1) return ((Object[])fi.pixels)[slice];
+		return fi.pixels;
+	}
+
+	static byte[] compress(FileInfo fi, Object[] pixels) throws IOException {
+		FileInfo bfi=(FileInfo)fi.clone();
+		bfi.nImages=pixels.length;
+		bfi.virtualStack=null;
+		bfi.pixels=pixels.length>1?pixels:pixels[0];
+		ByteArrayOutputStream bytes=new ByteArrayOutputStream(BLOCK_SIZE/4);
+		GZIPOutputStream zStream=new GZIPOutputStream(bytes, 65536);
+		new ImageWriter(bfi).write(zStream);
+		zStream.close();
+		return bytes.toByteArray();
+	}
+
+	static void writeIndex(File indexFile, long dataOffset, int nImages, int slicesPerBlock, long[] lengths) throws IOException {
+		PrintWriter pw=new PrintWriter(new FileWriter(indexFile));
+		pw.print("# nrrd block index\n");
+		pw.print("data offset: "+dataOffset+"\n");
+		pw.print("slices: "+nImages+"\n");
+		pw.print("slices per block: "+slicesPerBlock+"\n");
+		pw.print("block lengths:\n");
+		for(int i=0;i<lengths.length;i++) pw.print(lengths[i]+"\n");
+		pw.close();
+		if(pw.checkError()) throw new IOException("Could not write "+indexFile);
+	}
+
+	/**
+	 * Reads the block index of a data file, if there is one, and checks it
+	 * against the header.  Returns null if there is no index, or if it does
+	 * not match the data file, e.g. because the file was rewritten without it.
+	 */
+	public static NrrdBlockGzip readIndex(File dataFile, long dataOffset, int nImages) {
+		File indexFile=getIndexFile(dataFile);
+		if(!indexFile.exists()) return null;
+		try {
+			BufferedReader in=new BufferedReader(new FileReader(indexFile));
+			long offset=-1;
+			int slices=-1, slicesPerBlock=-1;
+			LinkedList<Long> lengths=null;
+			try {
+				for(String line=in.readLine();line!=null;line=in.readLine()) {
+					line=line.trim();
+					if(line.equals("") || line.startsWith("#")) continue;
+					if(lengths!=null) lengths.add(Long.valueOf(line));
+					else if(line.startsWith("data offset:")) offset=Long.parseLong(value(line));
+					else if(line.startsWith("slices per block:")) slicesPerBlock=Integer.parseInt(value(line));
+					else if(line.startsWith("slices:")) slices=Integer.parseInt(value(line));
+					else if(line.startsWith("block lengths:")) lengths=new LinkedList<Long>();
+				}
+			} finally {
+				in.close();
+			}
+			if(lengths==null || offset!=dataOffset || slices!=nImages || slicesPerBlock<1
+					|| lengths.size()!=(nImages+slicesPerBlock-1)/slicesPerBlock) {
+				if(IJ.debugMode) IJ.log("NrrdBlockGzip: ignoring "+indexFile+", it does not match the header");
+				return null;
+			}
+			long[] l=new long[lengths.size()];
+			int i=0;
+			for(Long length : lengths) l[i++]=length.longValue();
+			NrrdBlockGzip index=new NrrdBlockGzip(dataFile, offset, slices, slicesPerBlock, l);
+			if(index.offsets[l.length]!=dataFile.length()) {
+				if(IJ.debugMode) IJ.log("NrrdBlockGzip: ignoring "+indexFile+", it does not match the data file");
+				return null;
+			}
+			return index;
+		} catch (IOException e) {
+			if(IJ.debugMode) IJ.log("NrrdBlockGzip: could not read "+indexFile+": "+e);
+		} catch (NumberFormatException e) {
+			if(IJ.debugMode) IJ.log("NrrdBlockGzip: could not parse "+indexFile+": "+e);
+		}
+		return null;
+	}
+
+	private static String value(String line) {
+		return line.substring(line.indexOf(':')+1).trim();
+	}
+
+	/**
+	 * Reads and decompresses one block.
+	 */
+	byte[] readBlock(RandomAccessFile raf, int block, int blockBytes) throws IOException {
+		byte[] compressed=new byte[(int)(offsets[block+1]-offsets[block])];
+		raf.seek(offsets[block]);
+		raf.readFully(compressed);
+		InputStream in=new GZIPInputStream(new ByteArrayInputStream(compressed), 65536);
+		byte[] bytes=new byte[blockBytes];
+		for(int n=0;n<blockBytes;) {
+			int count=in.read(bytes, n, blockBytes-n);
+			if(count<0) throw new EOFException("Block "+block+" of "+dataFile+" is truncated");
+			n+=count;
+		}
+		in.close();
+		return bytes;
+	}
+
+	int getSliceCount(int block) {
+		return Math.min(slicesPerBlock, nImages-block*slicesPerBlock);
+	}
+
+	static FileInfo getSliceInfo(FileInfo fi) {
+		FileInfo sfi=(FileInfo)fi.clone();
+		sfi.nImages=1;
+		sfi.offset=0;
+		sfi.longOffset=0;
+		sfi.compression=FileInfo.COMPRESSION_NONE;
+		return sfi;
+	}
+
+	static int getSliceBytes(FileInfo fi) {
+		return fi.width*fi.height*fi.getBytesPerPixel();
+	}
+
+	/**
+	 * Decompresses all blocks on the given number of threads.
+	 */
+	public ImagePlus open(final FileInfo fi, int threads) throws IOException {
+		final FileInfo sfi=getSliceInfo(fi);
+		final int sliceBytes=getSliceBytes(fi);
+		final int nBlocks=getBlockCount();
+		final Object[] slices=new Object[nImages];
+		final AtomicInteger ai=new AtomicInteger(0), done=new AtomicInteger(0);
+		final IOException[] error=new IOException[1];
+
+		Thread[] workers=new Thread[Math.max(1, Math.min(threads, nBlocks))];
+		for(int t=0;t<workers.length;t++) {
+			workers[t]=new Thread() {
+				public void run() {
+					RandomAccessFile raf=null;
+					try {
+						raf=new RandomAccessFile(dataFile, "r");
+						for(int b=ai.getAndIncrement();b<nBlocks && error[0]==null;b=ai.getAndIncrement()) {
+							int count=getSliceCount(b);
+							byte[] block=readBlock(raf, b, count*sliceBytes);
+							ImageReader reader=new ImageReader(sfi);
+							for(int i=0;i<count;i++)
+								slices[b*slicesPerBlock+i]=reader.readPixels(new ByteArrayInputStream(block, i*sliceBytes, sliceBytes));
+							IJ.showProgress(done.incrementAndGet(), nBlocks);
+						}
+					} catch (IOException e) {
+						error[0]=e;
+					} finally {
+						if(raf!=null) try { raf.close(); } catch (IOException e) { }
+					}
+				}
+			};
+			workers[t].start();
+		}
+		for(int t=0;t<workers.length;t++) {
+			try {
+				workers[t].join();
+			} catch (InterruptedException e) {
+				throw new IOException("Interrupted while reading "+dataFile);
+			}
+		}
+		if(error[0]!=null) throw error[0];
+
+		ImageStack stack=new ImageStack(fi.width, fi.height);
+		for(int i=0;i<nImages;i++) {
+			if(slices[i]==null) throw new IOException("Could not read slice "+(i+1)+" of "+dataFile);
+			stack.addSlice(null, slices[i]);
+		}
+		return createImagePlus(fi, stack);
+	}
+
+	/**
+	 * Returns a virtual stack that decompresses blocks only when their
+	 * slices are shown.
+	 */
+	public ImagePlus openVirtual(FileInfo fi) {
+		return createImagePlus(fi, new BlockStack(fi));
+	}
+
+	ImagePlus createImagePlus(FileInfo fi, ImageStack stack) {
+		ImagePlus imp=new ImagePlus(fi.fileName, stack);
+		if(fi.fileType==FileInfo.GRAY16_SIGNED) {
+			Calibration cal=imp.getCalibration();
+			cal.setSigned16BitCalibration();
+		}
+		imp.setFileInfo(fi);
+		return imp;
+	}
+
+	class BlockStack extends VirtualStack {
+		final FileInfo sfi;
+		final int sliceBytes;
+		int cachedBlock=-1;
+		byte[] cached;
+
+		BlockStack(FileInfo fi) {
+			super(fi.width, fi.height, null, dataFile.getParent());
+			sfi=getSliceInfo(fi);
+			sliceBytes=getSliceBytes(fi);
+		}
+
+		synchronized byte[] getBlock(int block) throws IOException {
+			if(block!=cachedBlock) {
+				RandomAccessFile raf=new RandomAccessFile(dataFile, "r");
+				try {
+					cached=readBlock(raf, block, getSliceCount(block)*sliceBytes);
+					cachedBlock=block;
+				} finally {
+					raf.close();
+				}
+			}
+			return cached;
+		}
+
+		public ImageProcessor getProcessor(int n) {
+			int block=(n-1)/slicesPerBlock;
+			Object pixels;
+			try {
+				byte[] bytes=getBlock(block);
+				pixels=new ImageReader(sfi).readPixels(new ByteArrayInputStream(bytes, (n-1-block*slicesPerBlock)*sliceBytes, sliceBytes));
+			} catch (IOException e) {
+				IJ.log("Could not read slice "+n+" of "+dataFile+": "+e);
+				pixels=null;
+			}
+			int w=getWidth(), h=getHeight();
+			if(pixels instanceof short[]) return new ShortProcessor(w, h, (short[])pixels, null);
+			if(pixels instanceof float[]) return new FloatProcessor(w, h, (float[])pixels, null);
+			if(pixels instanceof byte[]) return new ByteProcessor(w, h, (byte[])pixels, null);
+			// keep the stack usable even if a block is damaged
+			switch(sfi.fileType) {
+				case FileInfo.GRAY8:
+				case FileInfo.COLOR8:
+					return new ByteProcessor(w, h);
+				case FileInfo.GRAY16_SIGNED:
+				case FileInfo.GRAY16_UNSIGNED:
+					return new ShortProcessor(w, h);
+				default:
+					return new FloatProcessor(w, h);
+			}
+		}
+
+		public int getSize() {
+			return nImages;
+		}
+
+		public String getSliceLabel(int n) {
+			return null;
+		}
+	}
+}
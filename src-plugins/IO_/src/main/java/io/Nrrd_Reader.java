@@ -22,6 +22,7 @@
 
 import ij.IJ;
 import ij.ImagePlus;
+import ij.Prefs;
 import ij.io.FileInfo;
 import ij.io.FileOpener;
 import ij.io.OpenDialog;
@@ -71,7 +72,8 @@ public void run(String arg) {
 			name = dest.getName();
 		}
 
-		ImagePlus imp = load(directory, name);
+		// Alt opens block compressed files as virtual stacks
+		ImagePlus imp = load(directory, name, IJ.altKeyDown());
 
 		if (imp==null) return;  // failed to load the file		
 		if (imageName!=null) {
@@ -92,7 +94,17 @@ public void run(String arg) {
 		if (arg.equals("")) show();
 	}
 
-	public ImagePlus load(String directory, String fileName) {    
+	public ImagePlus load(String directory, String fileName) {
+		return load(directory, fileName, false);
+	}
+
+	/**
+	 * Loads a nrrd file.  If it is gzip encoded and there is a block index
+	 * next to the data file (see Nrrd_Writer), the blocks are decompressed
+	 * on several threads, or, if virtual is true, only when their slices
+	 * are accessed.
+	 */
+	public ImagePlus load(String directory, String fileName, boolean virtual) {    
 
 		if (!directory.endsWith(File.separator)) directory += File.separator;
 		if ((fileName == null) || (fileName == "")) return null;
@@ -112,9 +124,23 @@ public ImagePlus load(String directory, String fileName) {
 		
 		IJ.showStatus("Loading Nrrd File: " + directory + fileName);
 		
-		ImagePlus imp; FlexibleFileOpener gzfo;
+		ImagePlus imp=null; FlexibleFileOpener gzfo;
 		
-		if(fi.encoding.equals("gzip") && detachedHeader) {
+		if(fi.encoding.equals("gzip")) {
+			NrrdBlockGzip blocks = NrrdBlockGzip.readIndex(new File(fi.directory, fi.fileName),
+					fi.longOffset>0?fi.longOffset:fi.offset, fi.nImages);
+			if(blocks!=null) {
+				if (IJ.debugMode) IJ.log("Reading "+blocks.getBlockCount()+" gzip blocks");
+				try {
+					imp = virtual ? blocks.openVirtual(fi) : blocks.open(fi, Prefs.getThreads());
+				} catch (IOException e) {
+					IJ.log("Could not read gzip blocks, reading sequentially: "+e.getMessage());
+				}
+			}
+		}
+		if(imp!=null) {
+			// already read using the block index
+		} else if(fi.encoding.equals("gzip") && detachedHeader) {
 			// call my nice gzip opener plugin which has had the 
 			// createInputStream method overloaded.
 			gzfo = new FlexibleFileOpener(fi,FlexibleFileOpener.GZIP);
@@ -29,6 +29,7 @@
 
 import ij.IJ;
 import ij.ImagePlus;
+import ij.Prefs;
 import ij.WindowManager;
 import ij.io.FileInfo;
 import ij.VirtualStack;
@@ -58,6 +59,8 @@ public class Nrrd_Writer implements PlugIn {
 	public static final int NRRD_VERSION = 4;	
 	private String imgTypeString=null;	
 	String nrrdEncoding="raw";
+	// compress gzip data in independent blocks, with a block index next to the file
+	boolean blockCompression=true;
 	// See http://teem.sourceforge.net/nrrd/format.html#centers
 	static final String defaultNrrdCentering="node";	
 	
@@ -72,6 +75,16 @@ public String setNrrdEncoding(String enc) throws IOException {
 		return nrrdEncoding;
 	}
 						
+	/**
+	 * Whether gzip encoded data is written as independently compressed blocks
+	 * (concatenated gzip members, which are still valid gzip data) together
+	 * with a sidecar block index, so that it can be compressed and read back
+	 * on several threads.
+	 */
+	public void setBlockCompression(boolean blockCompression) {
+		this.blockCompression=blockCompression;
+	}
+
 	public void run(String arg) {
 		ImagePlus imp = WindowManager.getCurrentImage();
 		if (imp == null) {
@@ -148,6 +161,16 @@ void writeImage(FileInfo fi, Calibration cal) throws IOException {
 		bw.flush();		
 
 		// Then the image data
+		File dataFile = new File(fi.directory, fi.fileName);
+		File indexFile = NrrdBlockGzip.getIndexFile(dataFile);
+		if(nrrdEncoding.equals("gzip") && blockCompression) {
+			NrrdBlockGzip.write(fi, out, dataFile, Prefs.getThreads());
+			out.close();
+			IJ.showStatus("Saved "+ fi.fileName);
+			return;
+		}
+		// A stale index must not be used for the new data
+		if(indexFile.exists()) indexFile.delete();
 		ImageWriter writer = new ImageWriter(fi);
 		if(nrrdEncoding.equals("gzip")) {
 			GZIPOutputStream zStream = new GZIPOutputStream(new BufferedOutputStream( out ));
@@ -0,0 +1,80 @@
+package io;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ColorProcessor;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * Measures the throughput of writing a synthetic RGB time-lapse with
+ * {@link AnimatedGifEncoder2}, frame by frame and with all available
+ * threads. With local color tables, both must write the same bytes.
+ *
+ * Usage: Gif_Stack_Writer_TestDrive [width height frames]
+ */
+public class Gif_Stack_Writer_TestDrive {
+
+	public static void main(String[] args) {
+		int width = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+		int height = args.length > 1 ? Integer.parseInt(args[1]) : 1024;
+		int nSlices = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+
+		ImageStack stack = new ImageStack(width, height);
+		for (int z = 0; z < nSlices; z++) {
+			int[] pixels = new int[width * height];
+			for (int y = 0; y < height; y++)
+				for (int x = 0; x < width; x++) {
+					int r = (x + 3 * z) & 0xff;
+					int g = (y + 5 * z) & 0xff;
+					int b = ((x ^ y) + 7 * z) & 0xff;
+					pixels[x + width * y] = (r << 16) | (g << 8) | b;
+				}
+			stack.addSlice("", new ColorProcessor(width, height, pixels));
+		}
+		ImagePlus tmp = new ImagePlus();
+		int threads = Runtime.getRuntime().availableProcessors();
+		boolean failed = false;
+
+		for (int pass = 0; pass < 2; pass++) {
+			for (boolean global : new boolean[] { false, true }) {
+				ByteArrayOutputStream serialOut = new ByteArrayOutputStream();
+				AnimatedGifEncoder2 serial = new AnimatedGifEncoder2();
+				serial.setGCT(global);
+				serial.start(serialOut);
+				long start = System.currentTimeMillis();
+				for (int i = 1; i <= nSlices; i++) {
+					tmp.setProcessor(null, stack.getProcessor(i));
+					serial.addFrame(tmp);
+				}
+				serial.finish();
+				long serialTime = System.currentTimeMillis() - start;
+
+				ByteArrayOutputStream parallelOut = new ByteArrayOutputStream();
+				AnimatedGifEncoder2 parallel = new AnimatedGifEncoder2();
+				parallel.setGCT(global);
+				parallel.start(parallelOut);
+				start = System.currentTimeMillis();
+				parallel.addFrames(stack, threads);
+				parallel.finish();
+				long parallelTime = System.currentTimeMillis() - start;
+
+				boolean same = Arrays.equals(serialOut.toByteArray(), parallelOut.toByteArray());
+				if (!global && !same)
+					failed = true;
+
+				System.out.println((global ? "global" : "local") + " color tables, "
+					+ nSlices + " frames of " + width + "x" + height + ": "
+					+ "one frame at a time " + serialTime + "ms (" + serialOut.size() / 1024 + "kB), "
+					+ threads + " threads " + parallelTime + "ms (" + parallelOut.size() / 1024 + "kB), "
+					+ IJ.d2s(nSlices * 1000.0 / Math.max(1, parallelTime), 1) + " frames/s"
+					+ (same ? ", same output" : global ? "" : ", DIFFERENT OUTPUT"));
+			}
+		}
+
+		if (failed)
+			System.exit(1);
+	}
+}
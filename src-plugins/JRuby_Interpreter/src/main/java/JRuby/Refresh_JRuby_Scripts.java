@@ -4,13 +4,79 @@
 
 import ij.IJ;
 
+import common.InterpreterPool;
 import common.RefreshScripts;
+import common.ScriptTimings;
 import org.jruby.*;
 
 import java.io.*;
 
+/**
+ * Runs Ruby scripts.
+ *
+ * A runtime is reused by the next script once {@link RuntimeSnapshot} put
+ * back the state it had after start-up. If the script failed, left threads
+ * running or changed classes other than Object, that is not possible; the
+ * runtime is thrown away instead, and a fresh one is started in the
+ * background to hide the start-up time.
+ */
 public class Refresh_JRuby_Scripts extends RefreshScripts {
 
+	/** A runtime whose output can be redirected after it was started. */
+	protected static class WarmRuntime {
+		protected Ruby ruby;
+		protected RuntimeSnapshot snapshot;
+		protected RedirectableOutputStream out = new RedirectableOutputStream();
+		protected RedirectableOutputStream err = new RedirectableOutputStream();
+	}
+
+	protected static class RedirectableOutputStream extends OutputStream {
+		protected volatile OutputStream out = System.out;
+
+		public void write(int b) throws IOException {
+			out.write(b);
+		}
+
+		public void write(byte[] buffer, int offset, int length) throws IOException {
+			out.write(buffer, offset, length);
+		}
+
+		public void flush() throws IOException {
+			out.flush();
+		}
+	}
+
+	protected static ScriptTimings timings = getTimings("Ruby");
+
+	protected static InterpreterPool<WarmRuntime> pool =
+		new InterpreterPool<WarmRuntime>(timings, 1) {
+			protected WarmRuntime create() {
+				WarmRuntime runtime = new WarmRuntime();
+				runtime.ruby = Ruby.newInstance(System.in,
+					new PrintStream(runtime.out), new PrintStream(runtime.err));
+				runtime.ruby.evalScriptlet(JRuby_Interpreter.getStartupScript());
+				runtime.snapshot = new RuntimeSnapshot(runtime.ruby);
+				return runtime;
+			}
+
+			protected boolean reset(WarmRuntime runtime) {
+				runtime.out.out = System.out;
+				runtime.err.out = System.err;
+				if (runtime.snapshot.restore())
+					return true;
+				warmUp(1);
+				return false;
+			}
+
+			protected void dispose(WarmRuntime runtime) {
+				try {
+					runtime.ruby.tearDown(false);
+				} catch (Throwable t) {
+					// the script may have left the runtime in any state
+				}
+			}
+		};
+
 	public void run(String arg) {
 		setLanguageProperties(".rb","Ruby");
 		setVerbose(false);
@@ -33,15 +99,17 @@ public void runScript(InputStream istream) {
 
 	/** Will consume and close the stream. */
 	public void runScript(InputStream istream, String filename) {
-		System.out.println("Starting JRuby in runScript()...");
+		long start = System.nanoTime();
 		Thread.currentThread().setContextClassLoader(IJ.getClassLoader());
-		Ruby rubyRuntime = Ruby.newInstance(System.in, new PrintStream(super.out), new PrintStream(super.err));
-		System.out.println("Done.");
-		rubyRuntime.evalScriptlet(JRuby_Interpreter.getStartupScript());
-
+		WarmRuntime runtime = null;
+		boolean failed = false;
 		try {
-			rubyRuntime.runFromMain(istream, filename);
+			runtime = pool.acquire();
+			runtime.out.out = super.out;
+			runtime.err.out = super.err;
+			runtime.ruby.runFromMain(istream, filename);
 		} catch( Throwable t ) {
+			failed = true;
 			printError(t);
 		} finally {
 			try {
@@ -50,6 +118,12 @@ public void runScript(InputStream istream, String filename) {
 				System.out.println("JRuby runScript could not close the stream!");
 				e.printStackTrace();
 			}
+			if (null != runtime && failed) {
+				pool.discard(runtime);
+				pool.warmUp(1);
+			} else if (null != runtime)
+				pool.release(runtime);
+			timings.ran(System.nanoTime() - start);
 		}
 
 		// Undesirably this throws an exception, so just let the 
@@ -0,0 +1,180 @@
+/* -*- mode: java; c-basic-offset: 8; indent-tabs-mode: t; tab-width: 8 -*- */
+
+package JRuby;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jruby.MetaClass;
+import org.jruby.Ruby;
+import org.jruby.RubyArray;
+import org.jruby.RubyClass;
+import org.jruby.RubyModule;
+import org.jruby.internal.runtime.GlobalVariables;
+import org.jruby.internal.runtime.methods.DynamicMethod;
+import org.jruby.runtime.builtin.IRubyObject;
+import org.jruby.runtime.builtin.InstanceVariables;
+import org.jruby.util.func.Function1;
+
+/**
+ * The state of a Ruby runtime right after it was started, so that it can
+ * run another script once the previous one is done.
+ *
+ * What a script usually leaves behind is put back: top-level constants
+ * (including its classes and modules), methods and instance variables,
+ * global variables, and the contents of $LOAD_PATH, $LOADED_FEATURES and
+ * ARGV, so that a required file is loaded again by the next script.
+ *
+ * Changes to any other class or module, e.g. a reopened core class, cannot
+ * be undone. In that case, or if the script left threads running,
+ * restore() returns false and the runtime must not be used again.
+ */
+public class RuntimeSnapshot {
+
+	/** The methods and constants of a module. */
+	protected static class ModuleState {
+		protected final RubyModule module;
+		protected final RubyClass superClass;
+		protected final Map<String, DynamicMethod> methods;
+		protected final Map<String, IRubyObject> constants;
+		protected final boolean grows;
+
+		protected ModuleState(RubyModule module) {
+			this.module = module;
+			superClass = module.getSuperClass();
+			methods = new HashMap<String, DynamicMethod>(module.getMethods());
+			constants = new HashMap<String, IRubyObject>(module.getConstantMap());
+			grows = isJavaModule(module);
+		}
+
+		/**
+		 * Java packages may have gained methods and constants, as they get
+		 * them when their classes are first used.
+		 */
+		protected boolean isUnchanged() {
+			return module.getSuperClass() == superClass
+				&& sameEntries(methods, module.getMethods(), grows)
+				&& sameEntries(constants, module.getConstantMap(), grows);
+		}
+
+		/** Remove added methods and constants, and put back the others. */
+		protected void restore() {
+			Ruby ruby = module.getRuntime();
+			for (String name : new ArrayList<String>(module.getMethods().keySet()))
+				if (!methods.containsKey(name))
+					module.removeMethod(ruby.getCurrentContext(), name);
+			for (String name : methods.keySet())
+				if (module.getMethods().get(name) != methods.get(name))
+					module.addMethod(name, methods.get(name));
+			for (String name : new ArrayList<String>(module.getConstantMap().keySet()))
+				if (!constants.containsKey(name))
+					module.deleteConstant(name);
+			for (String name : constants.keySet())
+				if (module.getConstantMap().get(name) != constants.get(name))
+					module.setConstant(name, constants.get(name));
+			ruby.incrementConstantGeneration();
+		}
+	}
+
+	protected final Ruby ruby;
+	protected final ModuleState object, main;
+	protected final List<ModuleState> modules = new ArrayList<ModuleState>();
+	protected final Set<String> mainVariables, globalNames;
+	protected final Map<String, IRubyObject> globals = new HashMap<String, IRubyObject>();
+	protected final Map<RubyArray, RubyArray> arrays = new IdentityHashMap<RubyArray, RubyArray>();
+	protected final int threads;
+
+	public RuntimeSnapshot(Ruby ruby) {
+		this.ruby = ruby;
+		IRubyObject topSelf = ruby.getTopSelf();
+		object = new ModuleState(ruby.getObject());
+		main = new ModuleState(topSelf.getSingletonClass());
+		final Set<RubyModule> skip = new HashSet<RubyModule>();
+		skip.add(object.module);
+		skip.add(main.module);
+		ruby.eachModule(new Function1<Object, IRubyObject>() {
+			public Object apply(IRubyObject module) {
+				if (!skip.contains(module))
+					modules.add(new ModuleState((RubyModule)module));
+				return null;
+			}
+		});
+		mainVariables = new HashSet<String>(topSelf.getInstanceVariables().getInstanceVariableNameList());
+		GlobalVariables variables = ruby.getGlobalVariables();
+		globalNames = new HashSet<String>(variables.getNames());
+		for (String name : globalNames) {
+			// special variables like $~ or $= return a new object every time
+			IRubyObject value = variables.get(name);
+			if (value == variables.get(name))
+				globals.put(name, value);
+		}
+		keepContents(variables.get("$LOAD_PATH"));
+		keepContents(variables.get("$LOADED_FEATURES"));
+		keepContents(object.constants.get("ARGV"));
+		threads = ruby.getThreadService().getActiveRubyThreads().length;
+	}
+
+	protected void keepContents(IRubyObject array) {
+		if (array instanceof RubyArray)
+			arrays.put((RubyArray)array, ((RubyArray)array).aryDup());
+	}
+
+	/**
+	 * Put back the state of the runtime after a script ran.
+	 *
+	 * @return whether the runtime can run another script
+	 */
+	public boolean restore() {
+		if (ruby.getThreadService().getActiveRubyThreads().length > threads)
+			return false;
+		for (ModuleState module : modules)
+			if (!module.isUnchanged())
+				return false;
+		if (object.superClass != object.module.getSuperClass()
+				|| main.superClass != main.module.getSuperClass())
+			return false;
+
+		object.restore();
+		main.restore();
+		InstanceVariables variables = ruby.getTopSelf().getInstanceVariables();
+		for (String name : variables.getInstanceVariableNameList())
+			if (!mainVariables.contains(name))
+				variables.removeInstanceVariable(name);
+
+		GlobalVariables globalVariables = ruby.getGlobalVariables();
+		for (String name : new ArrayList<String>(globalVariables.getNames()))
+			if (!globalNames.contains(name))
+				globalVariables.clear(name);
+			else if (globals.containsKey(name)
+					&& globalVariables.get(name) != globals.get(name))
+				globalVariables.set(name, globals.get(name));
+		for (RubyArray array : arrays.keySet())
+			array.replace(arrays.get(array));
+		return true;
+	}
+
+	protected static boolean isJavaModule(RubyModule module) {
+		if (module instanceof MetaClass) {
+			IRubyObject attached = ((MetaClass)module).getAttached();
+			if (!(attached instanceof RubyModule))
+				return false;
+			module = (RubyModule)attached;
+		}
+		String name = module.getName();
+		return name != null && (name.equals("Java") || name.startsWith("Java::"));
+	}
+
+	protected static boolean sameEntries(Map<String, ?> a, Map<String, ?> b, boolean grows) {
+		if (grows ? a.size() > b.size() : a.size() != b.size())
+			return false;
+		for (String key : a.keySet())
+			if (b.get(key) != a.get(key))
+				return false;
+		return true;
+	}
+}
@@ -80,17 +80,28 @@ protected void threadQuitting() {
 		new HashSet(Arrays.<String>asList("InternalError", "Math",
 			"Number", "Boolean", "Error", "String", "Object", "Array"));
 
+	/**
+	 * Defines load(path), which evaluates a file in the top-level scope
+	 * of its caller. It imports nothing, so it can live in a sealed scope.
+	 */
+	protected static final String LOAD_FUNCTION = "function load(path) {\n"
+		+ "var cx = Packages.org.mozilla.javascript.Context.getCurrentContext();\n"
+		+ "cx.evaluateReader(this, new Packages.java.io.FileReader(path), path, 1, null);\n"
+		+ "}";
+
 	protected static Scriptable getScopeAndImportAll(Context cx) {
+		return getScopeAndImportAll(cx, false);
+	}
+
+	/**
+	 * @param sealed whether the standard objects (Object, Array, ...) are sealed
+	 */
+	protected static Scriptable getScopeAndImportAll(Context cx, boolean sealed) {
 		try {
 			cx.setApplicationClassLoader(IJ.getClassLoader());
-			Scriptable scope = new ImporterTopLevel(cx);
+			Scriptable scope = new ImporterTopLevel(cx, sealed);
 			new Javascript_Interpreter(cx, scope).importAll();
-			cx.evaluateString(scope, "function load(path) {\n"
-				+ "importClass(Packages.org.mozilla.javascript.Context);\n"
-				+ "importClass(Packages.java.io.FileReader);\n"
-				+ "var cx = Context.getCurrentContext();\n"
-				+ "cx.evaluateReader(this, new FileReader(path), path, 1, null);\n"
-				+ "}", "<init>", 1, null);
+			cx.evaluateString(scope, LOAD_FUNCTION, "<init>", 1, null);
 			return scope;
 		} catch (Throwable t) { }
 
@@ -102,7 +113,7 @@ protected static Scriptable getScopeAndImportAll(Context cx) {
 			for (String className : defaultImports.get(packageName))
 				map.put(className, packageName);
 
-		return new ImporterTopLevel(cx) {
+		Scriptable scope = new ImporterTopLevel(cx, sealed) {
 			// reverse map class -> package
 			@Override
 			public Object get(String name, Scriptable start) {
@@ -120,6 +131,10 @@ public Object get(String name, Scriptable start) {
 				}
 			};
 		};
+		try {
+			cx.evaluateString(scope, LOAD_FUNCTION, "<init>", 1, null);
+		} catch (Throwable t) { }
+		return scope;
 	}
 
 	/** Import all ImageJ and java.lang classes. */
@@ -4,17 +4,47 @@
 import ij.IJ;
 
 import common.RefreshScripts;
+import common.ScriptCache;
+import common.ScriptTimings;
 import org.mozilla.javascript.Context;
-import org.mozilla.javascript.Scriptable;
 import org.mozilla.javascript.ImporterTopLevel;
+import org.mozilla.javascript.Script;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
 import java.io.BufferedReader;
-import java.io.FileInputStream;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.File;
 
+/**
+ * Runs Javascript files.
+ *
+ * The standard objects and the imported ImageJ classes live in one sealed
+ * scope, which is set up once and shared by all scripts. Every script runs
+ * in a new top-level scope whose prototype it is, so that its variables,
+ * imports and loaded files are gone after it ran. Since the shared scope
+ * is sealed, scripts cannot modify the standard objects either.
+ * Scripts run from files are compiled once, and only compiled again when
+ * the file changed.
+ */
 public class Refresh_Javascript_Scripts extends RefreshScripts {
+	protected static ScriptTimings timings = getTimings("Javascript");
+
+	/**
+	 * The prototype of the scope of every script run: it holds importClass()
+	 * and importPackage(), and its own prototype is the sealed scope with
+	 * the standard objects and the ImageJ imports. See getSharedScope().
+	 */
+	protected static Scriptable sharedScope;
+
+	/** Must be used from a thread with a current Context. */
+	protected static ScriptCache<Script> cache = new ScriptCache<Script>(timings, MAX_CACHED_SCRIPTS) {
+		protected Script compile(String source, String path) {
+			return Context.getCurrentContext().compileString(source, path, 1, null);
+		}
+	};
+
 	@Override
 	public void run(String arg) {
 		setLanguageProperties(".js","Javascript");
@@ -24,15 +54,21 @@ public void run(String arg) {
 
 	@Override
 	public void runScript(String filename) {
+		if (! new File(filename).exists()) {
+			IJ.log("Could not read javascript file at " + filename);
+			return;
+		}
+		long start = System.nanoTime();
 		try {
-			if (! new File(filename).exists()) {
-				IJ.log("Could not read javascript file at " + filename);
-				return;
-			}
-			// The stream will be closed by runScript(InputStream)
-			runScript(new FileInputStream(filename), filename);
+			Context cx = enter();
+			Scriptable scope = newScope(cx);
+			Script script = cache.get(filename);
+			logResult(cx, script.exec(cx, scope));
 		} catch (Throwable t) {
 			printError(t);
+		} finally {
+			Context.exit();
+			timings.ran(System.nanoTime() - start);
 		}
 	}
 
@@ -43,9 +79,10 @@ public void runScript(InputStream istream) {
 	}
 
 	public void runScript(InputStream istream, String filename) {
+		long start = System.nanoTime();
 		try {
-			Context cx = Context.enter();
-			Scriptable scope = Javascript_Interpreter.getScopeAndImportAll(cx);
+			Context cx = enter();
+			Scriptable scope = newScope(cx);
 			Reader reader = null;
 			Object result = null;
 			try {
@@ -63,14 +100,70 @@ public void runScript(InputStream istream, String filename) {
 					}
 				}
 			}
-			// don't print null or undefined results
-			if (null != result && !(result instanceof org.mozilla.javascript.Undefined)) {
-				IJ.log(cx.toString(result));
-			}
+			logResult(cx, result);
 		} catch( Throwable t ) {
 			printError(t);
 		} finally {
 			Context.exit();
+			timings.ran(System.nanoTime() - start);
+		}
+	}
+
+	protected static Context enter() {
+		Context cx = Context.enter();
+		ClassLoader loader = IJ.getClassLoader();
+		if (null != loader)
+			cx.setApplicationClassLoader(loader);
+		return cx;
+	}
+
+	/**
+	 * Returns a new top-level scope which sees everything in the shared
+	 * scope, but keeps the variables of the script to itself.
+	 *
+	 * It has to be an ImporterTopLevel of its own: importClass() and
+	 * importPackage() store the imports in the top-level scope they are
+	 * called from. It is created without standard objects, which are
+	 * found in the shared scope instead.
+	 */
+	protected static Scriptable newScope(Context cx) {
+		ImporterTopLevel scope = new ImporterTopLevel();
+		scope.setPrototype(getSharedScope(cx));
+		scope.setParentScope(null);
+		return scope;
+	}
+
+	/**
+	 * Returns the prototype for newScope(), setting up the shared scope
+	 * the first time.
+	 *
+	 * The importClass() and importPackage() functions of the shared scope
+	 * itself would always import into the shared scope. The ones of a
+	 * JavaImporter prototype import into the scope they are called from,
+	 * so that prototype sits between the script's scope and the shared one.
+	 */
+	protected static synchronized Scriptable getSharedScope(Context cx) {
+		if (null != sharedScope) {
+			timings.reused();
+			return sharedScope;
+		}
+		long start = System.nanoTime();
+		ScriptableObject shared = (ScriptableObject)Javascript_Interpreter.getScopeAndImportAll(cx, true);
+		// replaces JavaImporter by an equivalent one, and gives us its prototype
+		ImporterTopLevel.init(cx, shared, true);
+		Scriptable importer = (Scriptable)((Scriptable)shared.get("JavaImporter", shared)).get("prototype", shared);
+		importer.setPrototype(shared);
+		importer.setParentScope(null);
+		shared.sealObject();
+		sharedScope = importer;
+		timings.created(System.nanoTime() - start);
+		return sharedScope;
+	}
+
+	protected static void logResult(Context cx, Object result) {
+		// don't print null or undefined results
+		if (null != result && !(result instanceof org.mozilla.javascript.Undefined)) {
+			IJ.log(cx.toString(result));
 		}
 	}
 
@@ -0,0 +1,80 @@
+package Javascript;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import org.junit.Test;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.EvaluatorException;
+
+/**
+ * Checks that scripts run by {@link Refresh_Javascript_Scripts} cannot see
+ * anything that an earlier script left behind.
+ */
+public class TestScopeIsolation {
+
+	@Test
+	public void testVariables() {
+		run("var a = 1; b = 2; function c() { return 3; }");
+		assertEquals("undefined undefined undefined",
+			run("typeof a + ' ' + typeof b + ' ' + typeof c"));
+	}
+
+	@Test
+	public void testImports() {
+		assertEquals("2", run("importClass(Packages.java.awt.Point);"
+			+ "importPackage(Packages.java.util.regex);"
+			+ "new Point(2, 3).x + Pattern.compile('x').flags()"));
+		assertEquals("undefined undefined",
+			run("typeof Point + ' ' + typeof Pattern"));
+
+		// the same simple name may be imported from another package
+		run("importClass(Packages.java.awt.List);");
+		assertEquals("0", run("importClass(Packages.java.util.List);"
+			+ "function f() { importClass(Packages.java.util.ArrayList); }"
+			+ "f(); new ArrayList().size()"));
+		assertEquals("undefined", run("typeof ArrayList"));
+	}
+
+	@Test
+	public void testStandardObjects() {
+		try {
+			run("Object.prototype.leaked = 1;");
+			fail("the standard objects must be sealed");
+		} catch (EvaluatorException e) {
+			// expected
+		}
+		assertEquals("undefined", run("typeof ({}).leaked"));
+		assertEquals("2,4", run("[1, 2].map(function(x) { return 2 * x; })"));
+	}
+
+	@Test
+	public void testLoad() throws IOException {
+		File file = File.createTempFile("loaded", ".js");
+		try {
+			FileWriter writer = new FileWriter(file);
+			writer.write("var loaded = 42;");
+			writer.close();
+			String path = file.getAbsolutePath().replace('\\', '/');
+			assertEquals("42", run("load('" + path + "'); loaded"));
+			assertEquals("undefined", run("typeof loaded"));
+		} finally {
+			file.delete();
+		}
+	}
+
+	protected static String run(String source) {
+		Context cx = Refresh_Javascript_Scripts.enter();
+		try {
+			Object result = cx.evaluateString(Refresh_Javascript_Scripts.newScope(cx),
+				source, "<test>", 1, null);
+			return Context.toString(result);
+		} finally {
+			Context.exit();
+		}
+	}
+}
@@ -18,15 +18,21 @@ as published by the Free Software Foundation (http://www.gnu.org/licenses/gpl.tx
 You may contact Albert Cardona at albert at pensament dot net, at http://www.pensament.net/java/
 */
 import ij.IJ;
+import org.python.core.CompileMode;
+import org.python.core.CompilerFlags;
+import org.python.core.ParserFacade;
+import org.python.core.Py;
+import org.python.core.PyCode;
 import org.python.core.PyDictionary;
 import org.python.core.PyException;
+import org.python.core.PyList;
+import org.python.core.PyObject;
 import org.python.core.PySystemState;
 import org.python.util.PythonInterpreter;
+import common.InterpreterPool;
 import common.RefreshScripts;
-import java.io.BufferedInputStream;
-import java.io.FileInputStream;
-import java.io.File;
-import java.io.IOException;
+import common.ScriptCache;
+import common.ScriptTimings;
 import java.io.InputStream;
 
 /**
@@ -36,47 +42,124 @@ as published by the Free Software Foundation (http://www.gnu.org/licenses/gpl.tx
  *
  * 	To create a shortcut to a Python plugin a macro can be done to pass appropriate arguments to the Launch_Python_Script class, or tweak ImageJ, or a thousand not-so-straighforward ways.
  *
+ * 	The interpreters are kept in a pool: after running a script, the namespace of the
+ * 	interpreter, as well as sys.modules, sys.path, sys.argv and the other attributes of
+ * 	sys, are reset to the state right after importing the ImageJ classes, so that the
+ * 	next script need not wait for the interpreter to start. Modules imported by a script
+ * 	are dropped with it, and run again when the next script imports them. Scripts run
+ * 	from files are compiled once, and only compiled again when the file changed.
+ *
+ * 	The __builtin__ module is shared by all Jython interpreters of the virtual machine,
+ * 	pooled or not, so changes to it are not undone.
+ *
  */
 public class Refresh_Jython_Scripts extends RefreshScripts {
 
+	/** An interpreter, and its state right after importing the ImageJ classes. */
+	protected static class Interpreter {
+		protected PythonInterpreter pi;
+		protected PyDictionary baseline;
+		protected PyObject modules, sysDict;
+		protected PyList path, argv, metaPath, pathHooks;
+
+		protected Interpreter(PythonInterpreter pi) {
+			this.pi = pi;
+			PySystemState sys = pi.getSystemState();
+			baseline = ((PyDictionary)pi.getLocals()).copy();
+			modules = sys.modules.invoke("copy");
+			sysDict = sys.__dict__.invoke("copy");
+			path = new PyList((PyObject)sys.path);
+			argv = new PyList((PyObject)sys.argv);
+			metaPath = new PyList((PyObject)sys.meta_path);
+			pathHooks = new PyList((PyObject)sys.path_hooks);
+		}
+
+		/**
+		 * Restore the namespace and sys. The dictionaries are refilled
+		 * rather than replaced, since the import machinery keeps references
+		 * to them.
+		 */
+		protected void reset() {
+			PySystemState sys = pi.getSystemState();
+			sys.modules.invoke("clear");
+			sys.modules.invoke("update", modules);
+			sys.__dict__.invoke("clear");
+			sys.__dict__.invoke("update", sysDict);
+			sys.path = new PyList((PyObject)path);
+			sys.argv = new PyList((PyObject)argv);
+			sys.meta_path = new PyList((PyObject)metaPath);
+			sys.path_hooks = new PyList((PyObject)pathHooks);
+			sys.path_importer_cache.invoke("clear");
+			pi.setLocals(baseline.copy());
+		}
+	}
+
+	protected static ScriptTimings timings = getTimings("Jython");
+
+	protected static InterpreterPool<Interpreter> pool =
+		new InterpreterPool<Interpreter>(timings, getMaxIdleInterpreters()) {
+			protected Interpreter create() {
+				ClassLoader classLoader = IJ.getClassLoader();
+				if (classLoader == null)
+					classLoader = Refresh_Jython_Scripts.class.getClassLoader();
+				PySystemState.initialize(System.getProperties(), System.getProperties(), new String[] { }, classLoader);
+				PySystemState pystate = new PySystemState();
+				pystate.setClassLoader(classLoader);
+				PythonInterpreter pi = new PythonInterpreter(new PyDictionary(), pystate);
+				new Jython_Interpreter(pi).importAll();
+				return new Interpreter(pi);
+			}
+
+			protected boolean reset(Interpreter interpreter) {
+				interpreter.reset();
+				return true;
+			}
+
+			protected void dispose(Interpreter interpreter) {
+				interpreter.pi.cleanup();
+			}
+		};
+
+	protected static ScriptCache<PyCode> cache = new ScriptCache<PyCode>(timings, MAX_CACHED_SCRIPTS) {
+		protected PyCode compile(String source, String path) {
+			CompilerFlags cflags = Py.getCompilerFlags(0, false);
+			return Py.compile_flags(ParserFacade.parse(source, CompileMode.exec, path, cflags),
+				Py.getName(), path, true, false, cflags);
+		}
+	};
+
 	public void run(String arg) {
 		setLanguageProperties(".py", "Jython");
 		setVerbose(false);
 		super.run(arg);
 	}
 
-	/** Run a jython script in its own separate interpreter and namespace. */
+	/** Run a jython script in its own separate namespace. */
 	public void runScript(String path) {
+		long start = System.nanoTime();
+		Interpreter interpreter = null;
 		try {
-			// runScript(InputStream) will close the stream
-			runScript(new BufferedInputStream(new FileInputStream(new File(path))));
+			interpreter = acquire();
+			interpreter.pi.exec(cache.get(path));
+		} catch (PyException e) {
+			writeError(e);
 		} catch (Throwable t) {
 			printError(t);
+		} finally {
+			if (null != interpreter) release(interpreter);
+			timings.ran(System.nanoTime() - start);
 		}
 	}
 
 	/** Will consume and close the stream. */
 	public void runScript(InputStream istream) {
-		Thread.currentThread().setContextClassLoader(IJ.getClassLoader());
-		PythonInterpreter PI = null;
+		long start = System.nanoTime();
+		Interpreter interpreter = null;
 		try {
-			ClassLoader classLoader = IJ.getClassLoader();
-			if (classLoader == null)
-				classLoader = getClass().getClassLoader();
-			PySystemState.initialize(System.getProperties(), System.getProperties(), new String[] { }, classLoader);
-			PySystemState pystate = new PySystemState();
-			pystate.setClassLoader(classLoader);
-			PI = new PythonInterpreter(new PyDictionary(), pystate);
-			PI.setOut(this.out);
-			PI.setErr(this.err);
-			new Jython_Interpreter(PI).importAll();
-			PI.execfile(istream);
+			interpreter = acquire();
+			interpreter.pi.execfile(istream);
 		} catch (PyException e) {
-			try {
-				err.write(e.toString().getBytes());
-			} catch (Exception e2) {
-				e.printStackTrace();
-			}
+			writeError(e);
 		} catch (Throwable t) {
 			printError(t);
 		} finally {
@@ -86,11 +169,35 @@ public void runScript(InputStream istream) {
 				System.out.println("Jython runScript could not close the stream!");
 				e.printStackTrace();
 			}
-			try {
-				if (null != PI) PI.cleanup();
-			} catch (Throwable t) {
-				t.printStackTrace();
-			}
+			if (null != interpreter) release(interpreter);
+			timings.ran(System.nanoTime() - start);
+		}
+	}
+
+	protected Interpreter acquire() throws Exception {
+		Thread.currentThread().setContextClassLoader(IJ.getClassLoader());
+		Interpreter interpreter = pool.acquire();
+		interpreter.pi.setOut(this.out);
+		interpreter.pi.setErr(this.err);
+		return interpreter;
+	}
+
+	protected void release(Interpreter interpreter) {
+		try {
+			PySystemState pystate = interpreter.pi.getSystemState();
+			pystate.stdout.invoke("flush");
+			pystate.stderr.invoke("flush");
+		} catch (Throwable t) {
+			t.printStackTrace();
+		}
+		pool.release(interpreter);
+	}
+
+	protected void writeError(PyException e) {
+		try {
+			err.write(e.toString().getBytes());
+		} catch (Exception e2) {
+			e.printStackTrace();
 		}
 	}
 }
@@ -108,6 +108,7 @@ public void run(ImageProcessor ip) {
 		IJ.showStatus("Clean Up Local Thickness complete");
 		String title = stripExtension(imp.getTitle());
 		ImagePlus impOut = new ImagePlus(title+"_CL",newStack);
+		impOut.setCalibration(imp.getCalibration());
 		impOut.getProcessor().setMinAndMax(0,2*imp.getProcessor().getMax());
 		impOut.show();
 		IJ.run("Fire");
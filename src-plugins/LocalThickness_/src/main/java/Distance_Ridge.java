@@ -191,6 +191,7 @@ public void run(ImageProcessor ip) {
 		IJ.showStatus("Distance Ridge complete");
 		String title = stripExtension(imp.getTitle());
 		ImagePlus impOut = new ImagePlus(title+"_DR",newStack);
+		impOut.setCalibration(imp.getCalibration());
 		impOut.getProcessor().setMinAndMax(0,distMax);
 		impOut.show();
 		IJ.run("Fire");
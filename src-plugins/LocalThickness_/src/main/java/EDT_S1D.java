@@ -2,6 +2,7 @@
 import ij.plugin.filter.PlugInFilter;
 import ij.process.*;
 import ij.gui.*;
+import ij.measure.Calibration;
 import java.awt.*;
 
 /* Bob Dougherty 8/8/2006
@@ -15,6 +16,9 @@
 Version S1C Oct. 1, 2006.  Option for inverse case.
                            Fixed inverse behavior in y and z directions.
 Version D July 30, 2007.  Multithread processing for step 2.
+Version D.1 October 2026.  Anisotropic voxels: the y and z steps are weighted by the
+                           squared voxel height and depth relative to the width, so the
+                           distances are in units of the pixel width.
 
 This version assumes the input stack is already in memory, 8-bit, and
 outputs to a new 32-bit stack.  Versions that are more stingy with memory
@@ -56,6 +60,8 @@ public class EDT_S1D implements  PlugInFilter {
 	public int w,h,d;
 	public int thresh;
 	public boolean inverse;
+	//Squared voxel height and depth relative to the voxel width
+	public double ay2 = 1, az2 = 1;
 
 	public int setup(String arg, ImagePlus imp) {
  		this.imp = imp;
@@ -69,6 +75,7 @@ public void run(ImageProcessor ip) {
 		int nThreads = Runtime.getRuntime().availableProcessors();
 
 		if(!getScale())return;
+		setVoxelSize(imp.getCalibration());
 		//Create references to input data
 		data = new byte[d][];
 		for (int k = 0; k < d; k++)data[k] = (byte[])stack.getPixels(k+1);
@@ -99,7 +106,7 @@ public void run(ImageProcessor ip) {
 		IJ.showStatus("EDT transformation 2/3");
 		Step2Thread[] s2t = new Step2Thread[nThreads];
 		for(int thread = 0; thread < nThreads; thread++){
-			s2t[thread] = new Step2Thread(thread,nThreads,w,h,d,s);
+			s2t[thread] = new Step2Thread(thread,nThreads,w,h,d,ay2,s);
 			s2t[thread].start();
 		}
 		try{
@@ -113,7 +120,7 @@ public void run(ImageProcessor ip) {
 		IJ.showStatus("EDT transformation 3/3");
 		Step3Thread[] s3t = new Step3Thread[nThreads];
 		for(int thread = 0; thread < nThreads; thread++){
-			s3t[thread] = new Step3Thread(thread,nThreads,w,h,d,s,data);
+			s3t[thread] = new Step3Thread(thread,nThreads,w,h,d,az2,s,data);
 			s3t[thread].start();
 		}
 		try{
@@ -145,6 +152,7 @@ public void run(ImageProcessor ip) {
 		IJ.showStatus("Done");
 		String title = stripExtension(imp.getTitle());
 		ImagePlus impOut = new ImagePlus(title+"EDT",sStack);
+		impOut.setCalibration(imp.getCalibration());
 		impOut.getProcessor().setMinAndMax(0,distMax);
 		impOut.show();
 		IJ.run("Fire");
@@ -158,6 +166,18 @@ String stripExtension(String name) {
 		}
 		return name;
     }
+	void setVoxelSize(Calibration cal){
+		ay2 = az2 = 1;
+		if(cal == null || cal.pixelWidth <= 0)return;
+		if(cal.pixelHeight > 0){
+			double ay = cal.pixelHeight/cal.pixelWidth;
+			ay2 = ay*ay;
+		}
+		if(cal.pixelDepth > 0){
+			double az = cal.pixelDepth/cal.pixelWidth;
+			az2 = az*az;
+		}
+	}
 	boolean getScale() {
 		thresh = (int)Prefs.get("edtS1.thresh", 128);
 		inverse = Prefs.get("edtS1.inverse", false);
@@ -230,13 +250,15 @@ public void run(){
 	}//Step1Thread
 	class Step2Thread extends Thread{
 		int thread,nThreads,w,h,d;
+		double ay2;
 		float[][] s; 
-		public Step2Thread(int thread, int nThreads, int w, int h, int d, float[][] s){
+		public Step2Thread(int thread, int nThreads, int w, int h, int d, double ay2, float[][] s){
 			this.thread = thread;
 			this.nThreads = nThreads;
 			this.w = w;
 			this.h = h;
 			this.d = d;
+			this.ay2 = ay2;
 			this.s = s;
 		}
 		public void run(){
@@ -244,18 +266,21 @@ public void run(){
 			int n = w;
 			if(h > n) n = h;
 			if(d > n) n = d;
-			int noResult = 3*(n+1)*(n+1);
-			int[] tempInt = new int[n];
-			int[] tempS = new int[n];
+			//The sums of squares are exact integers in double precision
+			//on an isotropic grid, so they round to float as before.
+			double noResult = 3*(n+1)*(n+1)*Math.max(1,Math.max(ay2,az2));
+			double[] tempInt = new double[n];
+			double[] tempS = new double[n];
 			boolean nonempty;
-			int test, min, delta;
+			double test, min;
+			int delta;
 			for(int k = thread; k < d; k+=nThreads){
 				IJ.showProgress(k/(1.*d));
 				sk = s[k];
 				for (int i = 0; i < w; i++){
 					nonempty = false;
 					for (int j = 0; j < h; j++){
-						tempS[j] = (int)sk[i+w*j];
+						tempS[j] = sk[i+w*j];
 						if(tempS[j] >0)nonempty = true;
 					}
 					if(nonempty){
@@ -263,13 +288,13 @@ public void run(){
 							min = noResult;
 							delta = j;
 							for(int y = 0; y < h; y++){
-								test = tempS[y] + delta*delta--;
+								test = tempS[y] + ay2*delta*delta--;
 								if(test < min)min = test;
 							}
 							tempInt[j] = min;
 						}
 						for (int j = 0; j < h; j++){
-							sk[i+w*j] = tempInt[j];
+							sk[i+w*j] = (float)tempInt[j];
 						}
 					}
 				}
@@ -278,14 +303,16 @@ public void run(){
 	}//Step2Thread	
 	class Step3Thread extends Thread{
 		int thread,nThreads,w,h,d;
+		double az2;
 		float[][] s; 
 		byte[][] data;
-		public Step3Thread(int thread, int nThreads, int w, int h, int d, float[][] s, byte[][] data){
+		public Step3Thread(int thread, int nThreads, int w, int h, int d, double az2, float[][] s, byte[][] data){
 			this.thread = thread;
 			this.nThreads = nThreads;
 			this.w = w;
 			this.h = h;
 			this.d = d;
+			this.az2 = az2;
 			this.s = s;
 			this.data = data;
 		}
@@ -295,17 +322,20 @@ public void run(){
 			int n = w;
 			if(h > n) n = h;
 			if(d > n) n = d;
-			int noResult = 3*(n+1)*(n+1);
-			int[] tempInt = new int[n];
-			int[] tempS = new int[n];
+			//The sums of squares are exact integers in double precision
+			//on an isotropic grid, so they round to float as before.
+			double noResult = 3*(n+1)*(n+1)*Math.max(1,Math.max(ay2,az2));
+			double[] tempInt = new double[n];
+			double[] tempS = new double[n];
 			boolean nonempty;
-			int test, min, delta;
+			double test, min;
+			int delta;
 			for(int j = thread; j < h; j+=nThreads){
 				IJ.showProgress(j/(1.*h));
 				for(int i = 0; i < w; i++){
 					nonempty = false;
 					for(int k = 0; k < d; k++){
-						tempS[k] = (int)s[k][i+w*j];
+						tempS[k] = s[k][i+w*j];
 						if(tempS[k] >0)nonempty = true;
 					}
 					if(nonempty){
@@ -326,7 +356,7 @@ public void run(){
 								if(zEnd < k)zEnd = k;
 								delta = k - zBegin;
 								for (int z = zBegin; z <= zEnd; z++){
-									test = tempS[z] + delta*delta--;
+									test = tempS[z] + az2*delta*delta--;
 									if(test < min)min = test;
 									//min = (test < min) ? test : min;
 								}
@@ -334,7 +364,7 @@ public void run(){
 							}
 						}
 						for(int k = 0; k < d; k++){
-							s[k][i+w*j] = tempInt[k];
+							s[k][i+w*j] = (float)tempInt[k];
 						}
 					}
 				}
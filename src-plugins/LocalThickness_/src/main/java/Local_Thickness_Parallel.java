@@ -1,7 +1,10 @@
 import ij.*;
 import ij.plugin.filter.PlugInFilter;
 import ij.process.*;
+import ij.measure.Calibration;
 import java.awt.*;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /* Bob Dougherty September 6, 2006
 
@@ -16,6 +19,10 @@
 Version 2.1 Oct. 1, 2006.  Fixed a rounding error that caused some points to be missed.
 Version 3 July 31, 2007.  Parellel processing version.
 Version 3.1  Multiplies the output by 2 to conform with the definition of local thickness
+Version 4 October 2026.  Ridge points are gathered into one list, sorted by decreasing radius
+                         and handed out to the threads one at a time, so clusters of thick
+                         structures no longer serialize on a single slice.  Anisotropic voxels
+                         are honoured (the ridge values are in units of the pixel width).
 
 
  License:
@@ -52,6 +59,13 @@ public class Local_Thickness_Parallel implements  PlugInFilter {
 	private ImagePlus imp;
 	public float[][] data;
 	public int w,h,d;
+	//Squared voxel height and depth relative to the voxel width
+	float ay2 = 1, az2 = 1;
+	//Distance ridge points in raster order (z, then y, then x)
+	int nPoints;
+	int[] iPoint, jPoint, kPoint;
+	float[] rSqPoint;
+	float sMax;
 
 	public int setup(String arg, ImagePlus imp) {
  		this.imp = imp;
@@ -62,195 +76,202 @@ public void run(ImageProcessor ip) {
 		w = stack.getWidth();
 		h = stack.getHeight();
 		d = imp.getStackSize();
-		int wh = w*h;
-		//Create reference to input data
+		setVoxelSize(imp.getCalibration());
+		//Pull out the distance ridge points
+		IJ.showStatus("Local Thickness: scanning stack ");
+		collectRidgePoints(stack);
+		String title = stripExtension(imp.getTitle());
+		//Create reference to input data; the ridge points were cleared
+		//while collecting them, so the stack is used for the output.
 		float[][] s = new float[d][];
 		for (int k = 0; k < d; k++)s[k] = (float[])stack.getPixels(k+1);
-		float[] sk;
-		//Count the distance ridge points on each slice
-		int[] nRidge = new int[d];
-		int ind,nr,iR;
-		IJ.showStatus("Local Thickness: scanning stack ");
-		for (int k = 0; k < d; k++){
-			sk = s[k];
-			nr = 0;
-			for (int j = 0; j < h; j++){
-				for (int i = 0; i < w; i++){
-					ind = i + w*j;
-					if(sk[ind] > 0)nr++;
-				}
-			}
-			nRidge[k] = nr;
+		stampBalls(s);
+
+		//Fix the square values and apply factor of 2
+		IJ.showStatus("Local Thickness: square root ");
+		for (int k = 0; k < d; k++)squareRoot(s[k]);
+		IJ.showStatus("Local Thickness complete");
+		imp.setTitle(title+"_LT_");
+		imp.getProcessor().setMinAndMax(0,sMax);
+		imp.updateAndDraw();
+	}
+	//Modified from ImageJ code by Wayne Rasband
+    String stripExtension(String name) {
+        if (name!=null) {
+            int dotIndex = name.lastIndexOf(".");
+            if (dotIndex>=0)
+                name = name.substring(0, dotIndex);
 		}
-		int[][] iRidge = new int[d][];
-		int[][] jRidge = new int[d][];
-		float[][] rRidge = new float[d][];
-		//Pull out the distance ridge points
-		int[] iRidgeK,jRidgeK;
-		float[] rRidgeK;
-		float sMax = 0;
+		return name;
+    }
+	//The ridge values are distances in units of the pixel width, so only
+	//the height and depth of a voxel relative to its width matter.
+	void setVoxelSize(Calibration cal){
+		ay2 = az2 = 1;
+		if(cal == null || cal.pixelWidth <= 0)return;
+		if(cal.pixelHeight > 0){
+			float ay = (float)(cal.pixelHeight/cal.pixelWidth);
+			ay2 = ay*ay;
+		}
+		if(cal.pixelDepth > 0){
+			float az = (float)(cal.pixelDepth/cal.pixelWidth);
+			az2 = az*az;
+		}
+	}
+	boolean isIsotropic(){
+		return ay2 == 1 && az2 == 1;
+	}
+	//Read the ridge slice by slice and keep only the ridge points, which
+	//are a small fraction of the volume.  The ridge values are set to zero
+	//so the stack can be reused for the output.
+	void collectRidgePoints(ImageStack stack){
+		int wh = w*h;
+		int capacity = 1024;
+		iPoint = new int[capacity];
+		jPoint = new int[capacity];
+		kPoint = new int[capacity];
+		rSqPoint = new float[capacity];
+		nPoints = 0;
+		sMax = 0;
+		boolean isotropic = isIsotropic();
 		for (int k = 0; k < d; k++){
-			nr = nRidge[k];
-			iRidge[k] = new int[nr];
-			jRidge[k] = new int[nr];
-			rRidge[k] = new float[nr];
-			sk = s[k];
-			iRidgeK = iRidge[k];
-			jRidgeK = jRidge[k];
-			rRidgeK = rRidge[k];
-			iR = 0;
-			for (int j = 0; j < h; j++){
-				for (int i = 0; i < w; i++){
-					ind = i + w*j;
-					if(sk[ind] > 0){;
-						iRidgeK[iR] = i;
-						jRidgeK[iR] = j;
-						rRidgeK[iR++] = sk[ind];
-						if(sk[ind]>sMax)sMax = sk[ind];
-						sk[ind] = 0;
+			float[] sk = (float[])stack.getPixels(k+1);
+			for (int ind = 0; ind < wh; ind++){
+				float r = sk[ind];
+				if(r > 0){
+					if(nPoints == capacity){
+						capacity *= 2;
+						iPoint = grow(iPoint, capacity);
+						jPoint = grow(jPoint, capacity);
+						kPoint = grow(kPoint, capacity);
+						float[] grown = new float[capacity];
+						System.arraycopy(rSqPoint, 0, grown, 0, nPoints);
+						rSqPoint = grown;
 					}
+					iPoint[nPoints] = ind % w;
+					jPoint[nPoints] = ind / w;
+					kPoint[nPoints] = k;
+					//On an isotropic grid the squared radius is rounded, as before.
+					rSqPoint[nPoints++] = isotropic ? (int)(r*r + 0.5f) : r*r;
+					if(r > sMax)sMax = r;
+					sk[ind] = 0;
 				}
 			}
 		}
-		int nThreads = Runtime.getRuntime().availableProcessors();
+	}
+	static int[] grow(int[] array, int capacity){
+		int[] grown = new int[capacity];
+		System.arraycopy(array, 0, grown, 0, array.length);
+		return grown;
+	}
+	//Number of grid steps of size sqrt(a2) that fit in a ball of squared radius rSq.
+	static int reach(float rSq, float a2){
+		return (int)Math.ceil(Math.sqrt(rSq/a2));
+	}
+	//Stamp the balls of all ridge points into s.  The points are handed out in
+	//order of decreasing radius: the big balls, which carry most of the work, are
+	//spread over the threads first, and most voxels of the small balls that follow
+	//are already covered, so they rarely need the lock.
+	void stampBalls(final float[][] s){
+		final long[] order = sortByRadius();
+		final int n = order.length;
+		if(n == 0)return;
 		final Object[] resources = new Object[d];//For synchronization
-		for(int k = 0; k < d; k++){
+		for(int k = 0; k < resources.length; k++){
 			resources[k] = new Object();
 		}
-		LTThread[] ltt = new LTThread[nThreads];
+		final AtomicInteger ai = new AtomicInteger(0);
+		int nThreads = Runtime.getRuntime().availableProcessors();
+		if(nThreads > n)nThreads = n;
+		Thread[] threads = new Thread[nThreads];
 		for(int thread = 0; thread < nThreads; thread++){
-			ltt[thread] = new LTThread(thread,nThreads,w,h,d,nRidge,
-					 				s,iRidge,jRidge,rRidge,resources);
-			ltt[thread].start();
+			threads[thread] = new Thread(){
+				public void run(){
+					for(int p = ai.getAndIncrement(); p < n; p = ai.getAndIncrement()){
+						if((p & 1023) == 0)IJ.showProgress(p, n);
+						//Largest radius first
+						int point = (int)order[n-1-p];
+						stampBall(point, s, resources);
+					}
+				}
+			};
+			threads[thread].start();
 		}
 		try{
 			for(int thread = 0; thread< nThreads; thread++){
-				ltt[thread].join();
+				threads[thread].join();
 			}
 		}catch(InterruptedException ie){
 			IJ.error("A thread was interrupted .");
-		}		
-		
-		
-		
-		
-
-		//Fix the square values and apply factor of 2
-		IJ.showStatus("Local Thickness: square root ");
-		for (int k = 0; k < d; k++){
-			sk = s[k];
-			for (int j = 0; j < h; j++){
-				for (int i = 0; i < w; i++){
-					ind = i + w*j;
-					sk[ind] = (float)(2*Math.sqrt(sk[ind]));
-				}
-			}
 		}
-		IJ.showStatus("Local Thickness complete");
-		String title = stripExtension(imp.getTitle());
-		imp.setTitle(title+"_LT_");
-		imp.getProcessor().setMinAndMax(0,sMax);
-		imp.updateAndDraw();
+		IJ.showProgress(1.0);
 	}
-	//Modified from ImageJ code by Wayne Rasband
-    String stripExtension(String name) {
-        if (name!=null) {
-            int dotIndex = name.lastIndexOf(".");
-            if (dotIndex>=0)
-                name = name.substring(0, dotIndex);
+	//Sort the ridge points by increasing radius.  Each entry holds the
+	//(non-negative, hence monotonic) bits of the squared radius in the upper
+	//and the point index in the lower half.
+	long[] sortByRadius(){
+		long[] order = new long[nPoints];
+		for(int p = 0; p < nPoints; p++){
+			order[p] = ((long)Float.floatToIntBits(rSqPoint[p]) << 32) | p;
 		}
-		return name;
-    }
-	class LTThread extends Thread{
-		int thread,nThreads,w,h,d,nR;
-		float[][] s;
-		int[] nRidge;
-		int[][] iRidge, jRidge;
-		float[][] rRidge;
-		Object[] resources;
-		public LTThread(int thread, int nThreads, int w, int h, int d, int[] nRidge,
-					float[][] s,int[][] iRidge, int[][] jRidge, float[][] rRidge,
-					Object[] resources){
-			this.thread = thread;
-			this.nThreads = nThreads;
-			this.w = w;
-			this.h = h;
-			this.d = d;
-			this.s = s;
-			this.nRidge = nRidge;
-			this.iRidge = iRidge;
-			this.jRidge = jRidge;
-			this.rRidge = rRidge;
-			this.resources = resources;
+		Arrays.sort(order);
+		return order;
+	}
+	//Update the local thickness for the points within the ball of one ridge point.
+	void stampBall(int point, float[][] s, Object[] resources){
+		int i = iPoint[point];
+		int j = jPoint[point];
+		int k = kPoint[point];
+		float rSquared = rSqPoint[point];
+		int rI = reach(rSquared, 1);
+		int rJ = reach(rSquared, ay2);
+		int rK = reach(rSquared, az2);
+		int iStart = i - rI;
+		if(iStart < 0)iStart = 0;
+		int iStop = i + rI;
+		if(iStop >= w) iStop = w-1;
+		int jStart = j - rJ;
+		if(jStart < 0)jStart = 0;
+		int jStop = j + rJ;
+		if(jStop >= h) jStop = h-1;
+		int kStart = k - rK;
+		if(kStart < 0)kStart = 0;
+		int kStop = k + rK;
+		if(kStop >= d) kStop = d-1;
+		float r1SquaredK,r1SquaredJK,r1Squared,s1;
+		float[] sk1;
+		int ind1;
+		for(int k1 = kStart; k1 <= kStop; k1++){
+			r1SquaredK = az2*(k1 - k)*(k1 - k);
+			sk1 = s[k1];
+			for(int j1 = jStart; j1 <= jStop; j1++){
+				r1SquaredJK = r1SquaredK + ay2*(j1 - j)*(j1 - j);
+				if(r1SquaredJK <= rSquared){
+					for(int i1 = iStart; i1 <= iStop; i1++){
+						r1Squared = r1SquaredJK + (i1 - i)*(i1 - i);
+						if(r1Squared <= rSquared){
+							ind1 = i1 + w*j1;
+							s1 = sk1[ind1];
+							if(rSquared > s1){
+								//Get a lock on sk1 and check again to make sure
+								//that another thread has not increased
+								//sk1[ind1] to something larger than rSquared.
+								synchronized(resources[k1]){
+									s1 = sk1[ind1];
+									if(rSquared > s1){
+										sk1[ind1] = rSquared;
+									}
+								}
+							}
+						}//if within sphere of DR point
+					}//i1
+				}//if k and j components within sphere of DR point
+			}//j1
+		}//k1
+	}
+	static void squareRoot(float[] sk){
+		for (int ind = 0; ind < sk.length; ind++){
+			sk[ind] = (float)(2*Math.sqrt(sk[ind]));
 		}
-		public void run(){
-			int i,j;
-			float[] sk,sk1;
-			//Loop through ridge points.  For each one, update the local thickness for
-			//the points within its sphere.
-			float r;
-			int rInt,ind1;
-			int iStart,iStop,jStart,jStop,kStart,kStop;
-			float r1SquaredK,r1SquaredJK, r1Squared,s1;
-			int rSquared;
-			int[] iRidgeK,jRidgeK;
-			float[] rRidgeK;
-			for(int k = thread; k < d; k+=nThreads){
-				IJ.showStatus("Local Thickness: processing slice "+(k+1)+"/"+(d+1));
-				int nR = nRidge[k];
-				iRidgeK = iRidge[k];
-				jRidgeK = jRidge[k];
-				rRidgeK = rRidge[k];
-				//sk = s[k];
-				for (int iR = 0; iR < nR; iR++){
-					i = iRidgeK[iR];
-					j = jRidgeK[iR];
-					r = rRidgeK[iR];
-					rSquared = (int)(r*r + 0.5f);
-					rInt = (int)r;
-					if(rInt < r)rInt++;
-					iStart = i - rInt;
-					if(iStart < 0)iStart = 0;
-					iStop = i + rInt;
-					if(iStop >= w) iStop = w-1;
-					jStart = j - rInt;
-					if(jStart < 0)jStart = 0;
-					jStop = j + rInt;
-					if(jStop >= h) jStop = h-1;
-					kStart = k - rInt;
-					if(kStart < 0)kStart = 0;
-					kStop = k + rInt;
-					if(kStop >= d) kStop = d-1;
-					for(int k1 = kStart; k1 <= kStop; k1++){
-						r1SquaredK = (k1 - k)*(k1 - k);
-						sk1 = s[k1];
-						for(int j1 = jStart; j1 <= jStop; j1++){
-							r1SquaredJK = r1SquaredK + (j1 - j)*(j1 - j);
-							if(r1SquaredJK <= rSquared){
-								for(int i1 = iStart; i1 <= iStop; i1++){
-									r1Squared = r1SquaredJK + (i1 - i)*(i1 - i);
-									if(r1Squared <= rSquared){
-										ind1 = i1 + w*j1;
-										s1 = sk1[ind1];
-										if(rSquared > s1){
-											//Get a lock on sk1 and check again to make sure
-											//that another thread has not increased
-											//sk1[ind1] to something larger than rSquared.
-											//A test shows that this may not be required...
-											synchronized(resources[k1]){
-												s1 = sk1[ind1];
-												if(rSquared > s1){
-													sk1[ind1] = rSquared;
-												}
-											}
-										}
-									}//if within shere of DR point
-								}//i1
-							}//if k and j components within sphere of DR point
-						}//j1
-					}//k1
-				}//iR
-			}//k
-		}//run
-	}//Step1Thread
-}
\ No newline at end of file
+	}
+}
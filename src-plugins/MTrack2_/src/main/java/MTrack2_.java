@@ -10,6 +10,7 @@
 import ij.plugin.filter.ParticleAnalyzer;
 import ij.plugin.filter.Analyzer;
 import ij.measure.*;
+import java.util.concurrent.atomic.AtomicInteger;
  
 
 /**
@@ -136,37 +137,22 @@ public void track(ImagePlus imp, int minSize, int maxSize, float maxVelocity, St
 		}
 
 		ImageStack stack = imp.getStack();
-		int options = 0; // set all PA options false
-		int measurements = CENTROID;
-
-		// Initialize results table
-		ResultsTable rt = new ResultsTable();
-		rt.reset();
 
 		// create storage for particle positions
 		List[] theParticles = new ArrayList[nFrames];
 		int trackCount=0;
 
 		// record particle positions for each frame in an ArrayList
-		for (int iFrame=1; iFrame<=nFrames; iFrame++) {
-			theParticles[iFrame-1]=new ArrayList();
-			rt.reset();
-			ParticleAnalyzer pa = new ParticleAnalyzer(options, measurements, rt, minSize, maxSize);
-			pa.analyze(imp, stack.getProcessor(iFrame));
-			float[] sxRes = rt.getColumn(ResultsTable.X_CENTROID);				
-			float[] syRes = rt.getColumn(ResultsTable.Y_CENTROID);
-			if (sxRes==null)
-				continue;
-
-			for (int iPart=0; iPart<sxRes.length; iPart++) {
-				particle aParticle = new particle();
-				aParticle.x=sxRes[iPart];
-				aParticle.y=syRes[iPart];
-				aParticle.z=iFrame-1;
-				theParticles[iFrame-1].add(aParticle);
-			}
-			IJ.showProgress((double)iFrame/nFrames);
+		detectParticles(imp, theParticles, minSize, maxSize);
+
+		// sort the particles of each frame into a grid, so that only those close to a track are tested
+		ParticleGrid[] grids = new ParticleGrid[nFrames];
+		int maxParticles = 0;
+		for (int i=0; i<=(nFrames-1); i++) {
+			grids[i] = new ParticleGrid(theParticles[i], maxVelocity);
+			maxParticles = Math.max(maxParticles, theParticles[i].size());
 		}
+		int[] candidates = new int[maxParticles];
 
 		// now assemble tracks out of the particle lists
 		// Also record to which track a particle belongs in ArrayLists
@@ -187,11 +173,13 @@ public void track(ImagePlus imp, int minSize, int maxSize, float maxVelocity, St
 					particle oldParticle=new particle();
 					particle tmpParticle=new particle();
 					oldParticle.copy(aParticle);
-					for (int iF=i+1; iF<=(nFrames-1);iF++) {
+					for (int iF=i+1; iF<=(nFrames-1) && searchOn;iF++) {
 						boolean foundOne=false;
 						particle newParticle=new particle();
-						for (ListIterator jF=theParticles[iF].listIterator();jF.hasNext() && searchOn;) { 
-							particle testParticle =(particle) jF.next();
+						// all particles within maxVelocity, in the order of the frame's list
+						int nCandidates = grids[iF].find(oldParticle.x, oldParticle.y, maxVelocity, candidates);
+						for (int c=0; c<nCandidates; c++) { 
+							particle testParticle =(particle) theParticles[iF].get(candidates[c]);
 							float distance = testParticle.distance(oldParticle);
 							// record a particle when it is within the search radius, and when it had not yet been claimed by another track
 							if ( (distance < maxVelocity) && !testParticle.inTrack) {
@@ -240,6 +228,9 @@ else if (distance < maxVelocity) {
 			}
 		}
 
+		// for the output, the particles of one frame at a time indexed by their track number
+		particle[] byTrack = new particle[trackCount+1];
+
 		// Create the column headings based on the number of tracks
 		// with length greater than minTrackLength
 		// since the number of tracks can be larger than can be accomodated by Excell, we deliver the tracks in chunks of maxColumns
@@ -293,29 +284,27 @@ else if (distance < maxVelocity) {
 					String strLine = "" + (i+1);
 					int trackNr=0;
 					int listTrackNr=0;
+					indexByTrack(theParticles[i], byTrack);
 					for (ListIterator iT=theTracks.listIterator(); iT.hasNext();) {
 						trackNr++;
 						List bTrack=(ArrayList) iT.next();
-						boolean particleFound=false;
 						if (bTrack.size() >= minTrackLength) {
 							listTrackNr++;
 							if ( (listTrackNr>((j-1)*maxColumns)) && (listTrackNr<=(j*maxColumns))) {
-								for (ListIterator k=theParticles[i].listIterator();k.hasNext() && !particleFound;) {
-									particle aParticle=(particle) k.next();
-									if (aParticle.trackNr==trackNr) {
-										particleFound=true;
-										if (aParticle.flag) 
-											flag="*";
-										else
-											flag=" ";
-										strLine+="\t" + aParticle.x + "\t" + aParticle.y + "\t" + flag;
-									}
+								particle aParticle=byTrack[trackNr];
+								if (aParticle!=null) {
+									if (aParticle.flag) 
+										flag="*";
+									else
+										flag=" ";
+									strLine+="\t" + aParticle.x + "\t" + aParticle.y + "\t" + flag;
 								}
-								if (!particleFound)
+								else
 									strLine+="\t \t \t ";
 							}
 						}
 					}
+					clearByTrack(theParticles[i], byTrack);
 					IJ.write(strLine);
 				}
 			}
@@ -336,29 +325,27 @@ else if (distance < maxVelocity) {
 						String strLine = "" + (i+1);
 						int trackNr=0;
 						int listTrackNr=0;
+						indexByTrack(theParticles[i], byTrack);
 						for (ListIterator iT=theTracks.listIterator(); iT.hasNext();) {
 							trackNr++;
 							List bTrack=(ArrayList) iT.next();
-							boolean particleFound=false;
 							if (bTrack.size() >= minTrackLength) {
 								listTrackNr++;
 								if ( (listTrackNr>((j-1)*maxColumns)) && (listTrackNr<=(j*maxColumns))) {
-									for (ListIterator k=theParticles[i].listIterator();k.hasNext() && !particleFound;) {
-										particle aParticle=(particle) k.next();
-										if (aParticle.trackNr==trackNr) {
-											particleFound=true;
-											if (aParticle.flag) 
-												flag="*";
-											else
-												flag=" ";
-											strLine+="\t" + aParticle.x + "\t" + aParticle.y + "\t" + flag;
-										}
+									particle aParticle=byTrack[trackNr];
+									if (aParticle!=null) {
+										if (aParticle.flag) 
+											flag="*";
+										else
+											flag=" ";
+										strLine+="\t" + aParticle.x + "\t" + aParticle.y + "\t" + flag;
 									}
-									if (!particleFound)
+									else
 										strLine+="\t \t \t ";
 								}
 							}
 						}
+						clearByTrack(theParticles[i], byTrack);
 						dos.write(strLine + "\n",0,strLine.length()+1);
 					}
 				}
@@ -421,26 +408,26 @@ else if (distance < maxVelocity) {
 				// hack to only show tracks longerthan minTrackLength
 				int trackNr=0;
 				int displayTrackNr=0;
+				indexByTrack(theParticles[i], byTrack);
 				for (ListIterator iT=theTracks.listIterator(); iT.hasNext();) {
 					trackNr++;
 					List bTrack=(ArrayList) iT.next();
 					if (bTrack.size() >= minTrackLength) {
 						displayTrackNr++;
-						for (ListIterator k=theParticles[i].listIterator();k.hasNext();) {
-							particle aParticle=(particle) k.next();
-							if (aParticle.trackNr==trackNr) {
-								strPart=""+displayTrackNr;
-								if (bShowPositions) {
-									strPart+="="+(int)aParticle.x+","+(int)aParticle.y;
-								}
-								// we could do someboundary testing here to place the labels better when we are close to the edge
-								nip.moveTo((int)aParticle.x+5,doOffset((int)aParticle.y,yWidth,5) );
-								//nip.moveTo(doOffset((int)aParticle.x,xHeight,5),doOffset((int)aParticle.y,yWidth,5) );
-								nip.drawString(strPart);
+						particle aParticle=byTrack[trackNr];
+						if (aParticle!=null) {
+							strPart=""+displayTrackNr;
+							if (bShowPositions) {
+								strPart+="="+(int)aParticle.x+","+(int)aParticle.y;
 							}
+							// we could do someboundary testing here to place the labels better when we are close to the edge
+							nip.moveTo((int)aParticle.x+5,doOffset((int)aParticle.y,yWidth,5) );
+							//nip.moveTo(doOffset((int)aParticle.x,xHeight,5),doOffset((int)aParticle.y,yWidth,5) );
+							nip.drawString(strPart);
 						}
 					}
 				}
+				clearByTrack(theParticles[i], byTrack);
 				IJ.showProgress((double)iFrame/nFrames);
 			}
 			ImagePlus nimp = new ImagePlus(imp.getTitle() + " labels",newstack);
@@ -516,6 +503,189 @@ else if (distance < maxVelocity) {
 		}
 	}
 
+	/**
+	 * Runs the particle analyzer on all frames, several frames at a time, and records
+	 * the particles of each frame in theParticles.
+	 */
+	void detectParticles(final ImagePlus imp, final List[] theParticles, final int minSize, final int maxSize) {
+		final ImageStack stack = imp.getStack();
+		final int nFrames = stack.getSize();
+		final AtomicInteger nextFrame = new AtomicInteger(0);
+		final AtomicInteger framesDone = new AtomicInteger(0);
+		final Throwable[] exception = new Throwable[1];
+		final Thread[] threads = new Thread[Math.max(1, Math.min(Prefs.getThreads(), nFrames))];
+
+		for (int t=0; t<threads.length; t++) {
+			// The analyzer changes the image it is given, so each thread gets its own.
+			// It tests the current slice for being binary, hence a copy of that.
+			final ImagePlus frameImp = new ImagePlus(imp.getTitle(), imp.getProcessor().duplicate());
+			frameImp.setCalibration(imp.getCalibration());
+			threads[t] = new Thread() {
+				public void run() {
+					try {
+						ResultsTable rt = new ResultsTable();
+						for (int iFrame=nextFrame.getAndIncrement()+1; iFrame<=nFrames; iFrame=nextFrame.getAndIncrement()+1) {
+							ImageProcessor ip;
+							synchronized (stack) {
+								ip = stack.getProcessor(iFrame);
+							}
+							theParticles[iFrame-1] = analyzeFrame(frameImp, ip, iFrame, rt, minSize, maxSize);
+							IJ.showProgress(framesDone.incrementAndGet(), nFrames);
+						}
+					}
+					catch (Throwable e) {
+						synchronized (exception) {
+							if (exception[0]==null)
+								exception[0] = e;
+						}
+						nextFrame.set(nFrames);
+					}
+				}
+			};
+		}
+
+		for (int t=0; t<threads.length; t++)
+			threads[t].start();
+		try {
+			for (int t=0; t<threads.length; t++)
+				threads[t].join();
+		}
+		catch (InterruptedException e) {
+			for (int t=0; t<threads.length; t++)
+				threads[t].interrupt();
+			throw new RuntimeException(e);
+		}
+
+		if (exception[0] instanceof RuntimeException)
+			throw (RuntimeException)exception[0];
+		else if (exception[0] instanceof Error)
+			throw (Error)exception[0];
+		else if (exception[0]!=null)
+			throw new RuntimeException(exception[0]);
+	}
+
+	List analyzeFrame(ImagePlus frameImp, ImageProcessor ip, int iFrame, ResultsTable rt, int minSize, int maxSize) {
+		List particles = new ArrayList();
+		int options = 0; // set all PA options false
+		int measurements = CENTROID;
+
+		rt.reset();
+		ParticleAnalyzer pa = new ParticleAnalyzer(options, measurements, rt, minSize, maxSize);
+		pa.analyze(frameImp, ip);
+		float[] sxRes = rt.getColumn(ResultsTable.X_CENTROID);				
+		float[] syRes = rt.getColumn(ResultsTable.Y_CENTROID);
+		if (sxRes==null)
+			return particles;
+
+		for (int iPart=0; iPart<sxRes.length; iPart++) {
+			particle aParticle = new particle();
+			aParticle.x=sxRes[iPart];
+			aParticle.y=syRes[iPart];
+			aParticle.z=iFrame-1;
+			particles.add(aParticle);
+		}
+		return particles;
+	}
+
+	/**
+	 * The particles of one frame, sorted into a uniform grid so that the
+	 * particles close to a position are found without testing all of them.
+	 * The coordinates are kept in primitive arrays, and the particles of
+	 * each cell in the order of the frame's list.
+	 */
+	static class ParticleGrid {
+		final float[] x, y;
+		final double minX, minY, cellSize;
+		final int nX, nY;
+		final int[] cellStart;
+		final int[] indices;
+
+		ParticleGrid(List particles, float maxVelocity) {
+			int n = particles.size();
+			x = new float[n];
+			y = new float[n];
+			float maxX = 0, maxY = 0, loX = 0, loY = 0;
+			for (int i=0; i<n; i++) {
+				particle aParticle = (particle) particles.get(i);
+				x[i] = aParticle.x;
+				y[i] = aParticle.y;
+				if (i==0 || x[i]<loX) loX = x[i];
+				if (i==0 || y[i]<loY) loY = y[i];
+				if (i==0 || x[i]>maxX) maxX = x[i];
+				if (i==0 || y[i]>maxY) maxY = y[i];
+			}
+			minX = loX;
+			minY = loY;
+
+			// cells of maxVelocity, but not (many) more cells than particles
+			double width = (double)maxX - loX, height = (double)maxY - loY;
+			double size = maxVelocity > 0 ? maxVelocity : 1;
+			size = Math.max(size, Math.sqrt(width * height / (4.0 * n + 16)));
+			while ((width / size + 1) * (height / size + 1) > 4.0 * n + 16)
+				size *= 2;
+			cellSize = size;
+			nX = (int)(width / cellSize) + 1;
+			nY = (int)(height / cellSize) + 1;
+
+			// counting sort of the particles by cell, keeping their order within a cell
+			int[] cells = new int[n];
+			cellStart = new int[nX * nY + 1];
+			for (int i=0; i<n; i++) {
+				cells[i] = cellY(y[i]) * nX + cellX(x[i]);
+				cellStart[cells[i]+1]++;
+			}
+			for (int c=0; c<nX * nY; c++)
+				cellStart[c+1] += cellStart[c];
+			indices = new int[n];
+			int[] next = cellStart.clone();
+			for (int i=0; i<n; i++)
+				indices[next[cells[i]]++] = i;
+		}
+
+		int cellX(double value) {
+			return Math.max(0, Math.min(nX - 1, (int)Math.floor((value - minX) / cellSize)));
+		}
+
+		int cellY(double value) {
+			return Math.max(0, Math.min(nY - 1, (int)Math.floor((value - minY) / cellSize)));
+		}
+
+		/**
+		 * Stores the indices of all particles closer than radius to (x0, y0) in
+		 * ascending order in result, possibly along with some that are farther.
+		 * @return the number of indices stored
+		 */
+		int find(float x0, float y0, float radius, int[] result) {
+			if (x.length==0)
+				return 0;
+			int count = 0;
+			int fromX = cellX((double)x0 - radius), toX = cellX((double)x0 + radius);
+			int fromY = cellY((double)y0 - radius), toY = cellY((double)y0 + radius);
+			for (int cY=fromY; cY<=toY; cY++)
+				for (int c=cY * nX + fromX; c<=cY * nX + toX; c++)
+					for (int k=cellStart[c]; k<cellStart[c+1]; k++)
+						result[count++] = indices[k];
+			// the cells are in row order, the particles have to be in list order
+			if (fromX!=toX || fromY!=toY)
+				Arrays.sort(result, 0, count);
+			return count;
+		}
+	}
+
+	// Records each particle of a frame in byTrack at its track number.
+	// A track has at most one particle per frame, the first one is kept in any case.
+	static void indexByTrack(List frameParticles, particle[] byTrack) {
+		for (int k=frameParticles.size()-1; k>=0; k--) {
+			particle aParticle=(particle) frameParticles.get(k);
+			byTrack[aParticle.trackNr]=aParticle;
+		}
+	}
+
+	static void clearByTrack(List frameParticles, particle[] byTrack) {
+		for (int k=0; k<frameParticles.size(); k++)
+			byTrack[((particle) frameParticles.get(k)).trackNr]=null;
+	}
+
 	// Utility functions
 	double sqr(double n) {return n*n;}
 	
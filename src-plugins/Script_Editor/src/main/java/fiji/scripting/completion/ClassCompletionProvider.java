@@ -145,7 +145,8 @@ protected List getCompletionsImpl(JTextComponent comp) {
 	public CompletionProvider getDefaultProvider() {
 		defaultProvider.clear();
 		KeywordsCompletion.completeKeywords(defaultProvider, language, defaultProvider.getEnteredText(textArea));
-		names.setClassCompletions(textArea, language);
+		if (names != null)
+			names.setClassCompletions(textArea, language);
 		return defaultProvider;
 	}
 
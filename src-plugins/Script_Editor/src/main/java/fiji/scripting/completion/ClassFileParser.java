@@ -0,0 +1,187 @@
+package fiji.scripting.completion;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the public members of a class directly from its .class file,
+ * without loading (and initializing) the class.
+ *
+ * The members are described in the same format as that of
+ * <code>Method.toString()</code> and <code>Field.toString()</code>, e.g.
+ * "public static java.lang.String ij.IJ.d2s(double,int)", so that they can
+ * be handed to {@link ClassMethod}.
+ */
+public class ClassFileParser {
+	protected final static int ACC_PUBLIC = 0x0001;
+	protected final static int ACC_STATIC = 0x0008;
+	protected final static int ACC_FINAL = 0x0010;
+	protected final static int ACC_BRIDGE = 0x0040;
+	protected final static int ACC_ABSTRACT = 0x0400;
+	protected final static int ACC_SYNTHETIC = 0x1000;
+
+	/**
+	 * The public members of a class, and the names of its super classes
+	 * (whose members are inherited).
+	 */
+	public static class ClassMembers {
+		public String name, superName;
+		public String[] interfaces;
+		public String[] members;
+	}
+
+	/**
+	 * Parse a class file.
+	 *
+	 * @return the members, or null if the class is not public
+	 */
+	public static ClassMembers parse(InputStream in) throws IOException {
+		DataInputStream data = new DataInputStream(in);
+		if (data.readInt() != 0xcafebabe)
+			throw new IOException("Not a class file");
+		data.readUnsignedShort(); // minor version
+		data.readUnsignedShort(); // major version
+
+		int count = data.readUnsignedShort();
+		String[] utf8 = new String[count];
+		int[] classNameIndex = new int[count];
+		for (int i = 1; i < count; i++) {
+			int tag = data.readUnsignedByte();
+			switch (tag) {
+			case 1: // Utf8
+				utf8[i] = data.readUTF();
+				break;
+			case 7: // Class
+				classNameIndex[i] = data.readUnsignedShort();
+				break;
+			case 8: case 16: case 19: case 20: // String, MethodType, Module, Package
+				data.skipBytes(2);
+				break;
+			case 15: // MethodHandle
+				data.skipBytes(3);
+				break;
+			case 3: case 4: case 9: case 10: case 11: case 12: case 17: case 18:
+				data.skipBytes(4);
+				break;
+			case 5: case 6: // Long, Double take two entries
+				data.skipBytes(8);
+				i++;
+				break;
+			default:
+				throw new IOException("Invalid constant pool tag " + tag);
+			}
+		}
+
+		int access = data.readUnsignedShort();
+		if ((access & ACC_PUBLIC) == 0)
+			return null;
+		ClassMembers result = new ClassMembers();
+		result.name = className(utf8, classNameIndex, data.readUnsignedShort());
+		int superClass = data.readUnsignedShort();
+		result.superName = superClass == 0 ? null : className(utf8, classNameIndex, superClass);
+		result.interfaces = new String[data.readUnsignedShort()];
+		for (int i = 0; i < result.interfaces.length; i++)
+			result.interfaces[i] = className(utf8, classNameIndex, data.readUnsignedShort());
+
+		List<String> members = new ArrayList<String>();
+		for (int pass = 0; pass < 2; pass++) {
+			boolean isMethod = pass == 1;
+			int n = data.readUnsignedShort();
+			for (int i = 0; i < n; i++) {
+				int flags = data.readUnsignedShort();
+				String name = utf8[data.readUnsignedShort()];
+				String descriptor = utf8[data.readUnsignedShort()];
+				int attributes = data.readUnsignedShort();
+				for (int j = 0; j < attributes; j++) {
+					data.skipBytes(2);
+					skipFully(data, data.readInt() & 0xffffffffl);
+				}
+				if ((flags & ACC_PUBLIC) == 0 || (flags & (ACC_SYNTHETIC | ACC_BRIDGE)) != 0
+						|| name.startsWith("<"))
+					continue;
+				members.add(describe(result.name, flags, name, descriptor, isMethod));
+			}
+		}
+		result.members = members.toArray(new String[members.size()]);
+		return result;
+	}
+
+	protected static String className(String[] utf8, int[] classNameIndex, int index) {
+		return utf8[classNameIndex[index]].replace('/', '.');
+	}
+
+	protected static String describe(String className, int flags, String name, String descriptor, boolean isMethod) {
+		StringBuilder builder = new StringBuilder("public ");
+		if (isMethod && (flags & ACC_ABSTRACT) != 0)
+			builder.append("abstract ");
+		if ((flags & ACC_STATIC) != 0)
+			builder.append("static ");
+		if ((flags & ACC_FINAL) != 0)
+			builder.append("final ");
+		int[] pos = { 0 };
+		if (isMethod) {
+			List<String> parameters = new ArrayList<String>();
+			pos[0] = 1;
+			while (descriptor.charAt(pos[0]) != ')')
+				parameters.add(parseType(descriptor, pos));
+			pos[0]++;
+			builder.append(parseType(descriptor, pos)).append(' ');
+			builder.append(className).append('.').append(name).append('(');
+			for (int i = 0; i < parameters.size(); i++) {
+				if (i > 0)
+					builder.append(',');
+				builder.append(parameters.get(i));
+			}
+			builder.append(')');
+		}
+		else
+			builder.append(parseType(descriptor, pos)).append(' ')
+				.append(className).append('.').append(name);
+		return builder.toString();
+	}
+
+	/* Converts the type descriptor at pos[0] to its Java name, and advances pos[0] */
+	protected static String parseType(String descriptor, int[] pos) {
+		int dimensions = 0;
+		while (descriptor.charAt(pos[0]) == '[') {
+			dimensions++;
+			pos[0]++;
+		}
+		String type;
+		char c = descriptor.charAt(pos[0]++);
+		switch (c) {
+		case 'B': type = "byte"; break;
+		case 'C': type = "char"; break;
+		case 'D': type = "double"; break;
+		case 'F': type = "float"; break;
+		case 'I': type = "int"; break;
+		case 'J': type = "long"; break;
+		case 'S': type = "short"; break;
+		case 'Z': type = "boolean"; break;
+		case 'V': type = "void"; break;
+		case 'L':
+			int end = descriptor.indexOf(';', pos[0]);
+			type = descriptor.substring(pos[0], end).replace('/', '.');
+			pos[0] = end + 1;
+			break;
+		default:
+			throw new IllegalArgumentException("Invalid descriptor: " + descriptor);
+		}
+		for (int i = 0; i < dimensions; i++)
+			type += "[]";
+		return type;
+	}
+
+	protected static void skipFully(DataInputStream data, long count) throws IOException {
+		while (count > 0) {
+			int skipped = data.skipBytes((int)Math.min(count, Integer.MAX_VALUE));
+			if (skipped <= 0)
+				throw new IOException("Unexpected end of class file");
+			count -= skipped;
+		}
+	}
+}
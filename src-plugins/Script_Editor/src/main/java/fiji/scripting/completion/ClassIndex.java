@@ -0,0 +1,530 @@
+package fiji.scripting.completion;
+
+import ij.Prefs;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.lang.ref.SoftReference;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * A persistent index of the classes on the class path, and of their public
+ * members.
+ *
+ * The class names of every class path element are stored together with the
+ * size and modification time of the element, so that the index can be loaded
+ * quickly when the editor starts. A background thread then rescans only those
+ * jars which were added or changed since, and updates the index file.
+ *
+ * The public members of the classes of each element are kept in a separate
+ * file, which is only read when the members of one of its classes are
+ * needed.
+ */
+public class ClassIndex {
+	protected final static int VERSION = 1;
+	protected final static String INDEX_FILE = "classes.idx";
+	protected final static String MEMBERS_SUFFIX = ".members";
+
+	protected static ClassIndex instance;
+
+	/**
+	 * Returns the index of the current class path. When called for the first
+	 * time, the index is loaded and updated in the background.
+	 */
+	public static synchronized ClassIndex getInstance() {
+		if (instance == null) {
+			instance = new ClassIndex(new File(Prefs.getPrefsDir(), "script-editor-index"));
+			instance.load();
+			instance.update(getClassPath(), true);
+		}
+		return instance;
+	}
+
+	protected static List<String> getClassPath() {
+		List<String> result = new ArrayList<String>();
+		for (String property : new String[] { "java.class.path", "sun.boot.class.path" }) {
+			String value = System.getProperty(property);
+			if (value != null)
+				for (String path : value.split(File.pathSeparator))
+					if (!path.equals("") && !result.contains(path))
+						result.add(path);
+		}
+		return result;
+	}
+
+	/**
+	 * A class path element, i.e. a jar or a directory.
+	 */
+	protected static class Source {
+		protected String path;
+		protected long size, lastModified;
+		protected String[] classNames;
+		protected String memberFile;
+		protected SoftReference<Map<String, ClassFileParser.ClassMembers>> members;
+
+		/* Whether the element changed since it was indexed */
+		protected boolean isUpToDate(File file) {
+			return size == getSize(file) && lastModified == getLastModified(file);
+		}
+	}
+
+	/**
+	 * The state of the index at one point in time; it is never modified,
+	 * but replaced as a whole.
+	 */
+	protected static class Snapshot {
+		protected final List<Source> sources;
+		protected final Map<String, Source> sourceOfClass = new HashMap<String, Source>();
+		protected final Map<String, Package> packages = new TreeMap<String, Package>();
+		protected final ClassNameTrie trie = new ClassNameTrie();
+
+		protected Snapshot(List<Source> sources) {
+			this.sources = sources;
+			for (Source source : sources) {
+				Package pkg = null;
+				for (String className : source.classNames) {
+					if (sourceOfClass.containsKey(className))
+						continue; // the first element on the class path wins
+					sourceOfClass.put(className, source);
+					int dot = className.lastIndexOf('.');
+					String pkgName = dot < 0 ? "" : className.substring(0, dot);
+					if (pkg == null || !pkg.getName().equals(pkgName)) {
+						pkg = packages.get(pkgName);
+						if (pkg == null) {
+							pkg = new Package(pkgName);
+							packages.put(pkgName, pkg);
+						}
+					}
+					String simpleName = className.substring(dot + 1);
+					pkg.add(new ClassName(simpleName));
+					if (!isAnonymous(simpleName))
+						trie.add(simpleName, className);
+				}
+			}
+		}
+	}
+
+	protected File directory;
+	protected volatile Snapshot snapshot = new Snapshot(new ArrayList<Source>());
+	protected Thread updater;
+
+	public ClassIndex(File directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * Returns the full names of the classes with the given name (without
+	 * package), sorted by package.
+	 */
+	public List<String> getFullClassNames(String className) {
+		List<String> result = snapshot.trie.get(className);
+		Collections.sort(result);
+		return result;
+	}
+
+	/**
+	 * Returns the full names of the classes whose names (without package)
+	 * start with the given prefix, ordered by their names.
+	 */
+	public List<String> getFullClassNamesByPrefix(String prefix, int max) {
+		return snapshot.trie.getByPrefix(prefix, max);
+	}
+
+	/**
+	 * Returns the packages, mapping the package names to the class names.
+	 */
+	public Map<String, Package> getPackages() {
+		return snapshot.packages;
+	}
+
+	public int getClassCount() {
+		return snapshot.sourceOfClass.size();
+	}
+
+	/**
+	 * Returns the public members of a class, including inherited ones, or
+	 * null if the class is not in the index.
+	 */
+	public List<String> getMembers(String className) {
+		Snapshot snapshot = this.snapshot;
+		if (!snapshot.sourceOfClass.containsKey(className))
+			return null;
+		List<String> result = new ArrayList<String>();
+		addMembers(snapshot, className, result, new HashSet<String>());
+		return result;
+	}
+
+	protected void addMembers(Snapshot snapshot, String className, List<String> result, Set<String> seen) {
+		if (className == null || !seen.add(className))
+			return;
+		Source source = snapshot.sourceOfClass.get(className);
+		if (source == null)
+			return;
+		ClassFileParser.ClassMembers members = getMembers(source).get(className);
+		if (members == null)
+			return;
+		for (String member : members.members)
+			result.add(member);
+		addMembers(snapshot, members.superName, result, seen);
+		for (String name : members.interfaces)
+			addMembers(snapshot, name, result, seen);
+	}
+
+	protected Map<String, ClassFileParser.ClassMembers> getMembers(Source source) {
+		synchronized (source) {
+			Map<String, ClassFileParser.ClassMembers> result =
+				source.members == null ? null : source.members.get();
+			if (result == null) {
+				try {
+					result = readMembers(new File(directory, source.memberFile));
+				} catch (IOException e) {
+					result = new HashMap<String, ClassFileParser.ClassMembers>();
+				}
+				source.members = new SoftReference<Map<String, ClassFileParser.ClassMembers>>(result);
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Update the index for the given class path, rescanning only the
+	 * elements which changed.
+	 *
+	 * @param background whether to scan in a background thread
+	 */
+	public synchronized void update(final List<String> classPath, boolean background) {
+		if (updater != null && updater.isAlive())
+			return;
+		updater = new Thread("Update class index") {
+			public void run() {
+				updateNow(classPath);
+			}
+		};
+		if (!background) {
+			updater.run();
+			return;
+		}
+		updater.setDaemon(true);
+		updater.setPriority(Thread.MIN_PRIORITY);
+		updater.start();
+	}
+
+	/**
+	 * Waits until the index is up-to-date.
+	 */
+	public void waitForUpdate() throws InterruptedException {
+		Thread thread;
+		synchronized (this) {
+			thread = updater;
+		}
+		if (thread != null)
+			thread.join();
+	}
+
+	/* Returns whether anything changed */
+	protected boolean updateNow(List<String> classPath) {
+		Map<String, Source> old = new HashMap<String, Source>();
+		for (Source source : snapshot.sources)
+			old.put(source.path, source);
+
+		boolean changed = false;
+		List<Source> sources = new ArrayList<Source>();
+		for (String path : classPath) {
+			File file = new File(path);
+			if (!file.exists() || (!file.isDirectory() && !path.endsWith(".jar")))
+				continue;
+			Source source = old.remove(path);
+			if (source == null || !source.isUpToDate(file)) {
+				Source scanned = scan(file);
+				if (scanned == null)
+					continue;
+				if (source != null)
+					new File(directory, source.memberFile).delete();
+				source = scanned;
+				changed = true;
+			}
+			sources.add(source);
+		}
+		for (Source source : old.values()) {
+			new File(directory, source.memberFile).delete();
+			changed = true;
+		}
+
+		if (changed) {
+			snapshot = new Snapshot(sources);
+			try {
+				save();
+			} catch (IOException e) {
+				System.err.println("Could not save the class index: " + e);
+			}
+		}
+		return changed;
+	}
+
+	/* Returns null if the element could not be read */
+	protected Source scan(File file) {
+		Source source = new Source();
+		source.path = file.getPath();
+		source.size = getSize(file);
+		source.lastModified = getLastModified(file);
+
+		List<String> classNames = new ArrayList<String>();
+		Map<String, ClassFileParser.ClassMembers> members = new HashMap<String, ClassFileParser.ClassMembers>();
+		try {
+			if (file.isDirectory())
+				scanDirectory(file, "", classNames, members);
+			else {
+				ZipFile jar = new ZipFile(file);
+				try {
+					for (Enumeration<? extends ZipEntry> e = jar.entries(); e.hasMoreElements(); ) {
+						ZipEntry entry = e.nextElement();
+						String name = entry.getName();
+						if (!name.endsWith(".class")) // ignore non-class files
+							continue;
+						String className = stripClassSuffix(name).replace('/', '.');
+						classNames.add(className);
+						addMembers(jar.getInputStream(entry), members);
+					}
+				} finally {
+					jar.close();
+				}
+			}
+		} catch (IOException e) {
+			String path = file.getPath();
+			if (path.endsWith("/sunrsasign.jar") || path.endsWith("/jsfd.jar"))
+				return null;
+			System.err.println("Exception while processing " + path);
+			e.printStackTrace();
+			return null;
+		}
+		source.classNames = classNames.toArray(new String[classNames.size()]);
+
+		try {
+			if (!directory.isDirectory() && !directory.mkdirs())
+				throw new IOException("Could not create " + directory);
+			File memberFile = File.createTempFile("classes-", MEMBERS_SUFFIX, directory);
+			writeMembers(memberFile, members);
+			source.memberFile = memberFile.getName();
+		} catch (IOException e) {
+			System.err.println("Could not save the members of " + file + ": " + e);
+			source.memberFile = "";
+		}
+		source.members = new SoftReference<Map<String, ClassFileParser.ClassMembers>>(members);
+		return source;
+	}
+
+	protected void scanDirectory(File dir, String packageName, List<String> classNames,
+			Map<String, ClassFileParser.ClassMembers> members) throws IOException {
+		String[] list = dir.list();
+		if (list == null)
+			return;
+		for (String name : list)
+			if (name.endsWith(".class")) {
+				classNames.add((packageName.equals("") ? "" : packageName + ".") + stripClassSuffix(name));
+				addMembers(new FileInputStream(new File(dir, name)), members);
+			}
+			else if (name.indexOf('.') < 0) {
+				File subDir = new File(dir, name);
+				if (subDir.isDirectory())
+					scanDirectory(subDir, packageName.equals("") ? name : packageName + "." + name,
+						classNames, members);
+			}
+	}
+
+	protected void addMembers(InputStream in, Map<String, ClassFileParser.ClassMembers> members) {
+		try {
+			ClassFileParser.ClassMembers result = ClassFileParser.parse(new BufferedInputStream(in));
+			if (result != null)
+				members.put(result.name, result);
+		} catch (Exception e) {
+			// a broken class file; its members will be missing
+		} finally {
+			try {
+				in.close();
+			} catch (IOException e) { /* ignore */ }
+		}
+	}
+
+	protected final static String stripClassSuffix(String name) {
+		return name.substring(0, name.length() - 6);
+	}
+
+	protected static boolean isAnonymous(String simpleName) {
+		int dollar = simpleName.lastIndexOf('$');
+		return dollar >= 0 && dollar + 1 < simpleName.length()
+			&& Character.isDigit(simpleName.charAt(dollar + 1));
+	}
+
+	/* The size of a jar, or the number of files in a directory */
+	protected static long getSize(File file) {
+		if (!file.isDirectory())
+			return file.length();
+		long count = 0;
+		String[] list = file.list();
+		if (list != null)
+			for (String name : list) {
+				File child = new File(file, name);
+				count += child.isDirectory() ? getSize(child) : 1;
+			}
+		return count;
+	}
+
+	/* The modification time of a jar, or of the newest file in a directory */
+	protected static long getLastModified(File file) {
+		long result = file.lastModified();
+		if (file.isDirectory()) {
+			File[] list = file.listFiles();
+			if (list != null)
+				for (File child : list)
+					result = Math.max(result, getLastModified(child));
+		}
+		return result;
+	}
+
+	/**
+	 * Read the persisted index.
+	 */
+	public void load() {
+		File file = new File(directory, INDEX_FILE);
+		if (!file.exists())
+			return;
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new GZIPInputStream(new FileInputStream(file), 1 << 16)));
+			try {
+				if (in.readInt() != VERSION)
+					return;
+				int count = in.readInt();
+				List<Source> sources = new ArrayList<Source>(count);
+				for (int i = 0; i < count; i++) {
+					Source source = new Source();
+					source.path = in.readUTF();
+					source.size = in.readLong();
+					source.lastModified = in.readLong();
+					source.memberFile = in.readUTF();
+					source.classNames = new String[in.readInt()];
+					// class names are stored relative to the previous package
+					String pkg = "";
+					for (int j = 0; j < source.classNames.length; j++) {
+						String name = in.readUTF();
+						if (name.startsWith("."))
+							name = pkg + name;
+						source.classNames[j] = name;
+						int dot = name.lastIndexOf('.');
+						pkg = dot < 0 ? "" : name.substring(0, dot);
+					}
+					sources.add(source);
+				}
+				snapshot = new Snapshot(sources);
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			System.err.println("Could not read the class index: " + e);
+		}
+	}
+
+	protected void save() throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Could not create " + directory);
+		File file = new File(directory, INDEX_FILE);
+		File tmp = new File(directory, INDEX_FILE + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+			new GZIPOutputStream(new FileOutputStream(tmp), 1 << 16)));
+		try {
+			List<Source> sources = snapshot.sources;
+			out.writeInt(VERSION);
+			out.writeInt(sources.size());
+			for (Source source : sources) {
+				out.writeUTF(source.path);
+				out.writeLong(source.size);
+				out.writeLong(source.lastModified);
+				out.writeUTF(source.memberFile);
+				out.writeInt(source.classNames.length);
+				String pkg = null;
+				for (String name : source.classNames) {
+					int dot = name.lastIndexOf('.');
+					String namePkg = dot < 0 ? "" : name.substring(0, dot);
+					out.writeUTF(dot > 0 && namePkg.equals(pkg) ? name.substring(dot) : name);
+					pkg = namePkg;
+				}
+			}
+		} finally {
+			out.close();
+		}
+		file.delete();
+		if (!tmp.renameTo(file))
+			throw new IOException("Could not rename " + tmp + " to " + file);
+	}
+
+	protected static void writeMembers(File file, Map<String, ClassFileParser.ClassMembers> members) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+			new GZIPOutputStream(new FileOutputStream(file), 1 << 16)));
+		try {
+			out.writeInt(VERSION);
+			out.writeInt(members.size());
+			for (ClassFileParser.ClassMembers m : members.values()) {
+				out.writeUTF(m.name);
+				out.writeUTF(m.superName == null ? "" : m.superName);
+				out.writeInt(m.interfaces.length);
+				for (String name : m.interfaces)
+					out.writeUTF(name);
+				out.writeInt(m.members.length);
+				for (String member : m.members)
+					out.writeUTF(member);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	protected static Map<String, ClassFileParser.ClassMembers> readMembers(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+			new GZIPInputStream(new FileInputStream(file), 1 << 16)));
+		try {
+			if (in.readInt() != VERSION)
+				throw new IOException("Unsupported version: " + file);
+			int count = in.readInt();
+			Map<String, ClassFileParser.ClassMembers> result = new HashMap<String, ClassFileParser.ClassMembers>();
+			for (int i = 0; i < count; i++) {
+				ClassFileParser.ClassMembers m = new ClassFileParser.ClassMembers();
+				m.name = in.readUTF();
+				m.superName = in.readUTF();
+				if (m.superName.equals(""))
+					m.superName = null;
+				m.interfaces = new String[in.readInt()];
+				for (int j = 0; j < m.interfaces.length; j++)
+					m.interfaces[j] = in.readUTF();
+				m.members = new String[in.readInt()];
+				for (int j = 0; j < m.members.length; j++)
+					m.members[j] = in.readUTF();
+				result.put(m.name, m);
+			}
+			return result;
+		} finally {
+			in.close();
+		}
+	}
+}
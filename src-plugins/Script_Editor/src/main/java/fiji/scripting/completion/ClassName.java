@@ -3,6 +3,7 @@
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 
+import java.util.Collection;
 import java.util.Set;
 import java.util.TreeSet;
 
@@ -32,4 +33,9 @@ public void setFieldNames(Field[] fields) {
 		for (Field f : fields)
 			methodNames.add(new ClassMethod(f.toString()));
 	}
+
+	public void setMemberNames(Collection<String> members) {
+		for (String member : members)
+			methodNames.add(new ClassMethod(member));
+	}
 }
\ No newline at end of file
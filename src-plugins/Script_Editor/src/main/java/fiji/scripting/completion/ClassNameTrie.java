@@ -0,0 +1,193 @@
+package fiji.scripting.completion;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A radix tree mapping simple class names to the full names of the
+ * classes, for fast prefix lookups.
+ *
+ * Each edge is labeled with a string; the children of a node are kept
+ * sorted by the first character of their labels, so that the names are
+ * enumerated in lexicographic order.
+ */
+public class ClassNameTrie {
+	protected static final char[] NO_KEYS = new char[0];
+	protected static final Node[] NO_CHILDREN = new Node[0];
+
+	protected static class Node {
+		protected String label;
+		protected char[] keys = NO_KEYS;
+		protected Node[] children = NO_CHILDREN;
+		protected String[] values;
+
+		Node(String label) {
+			this.label = label;
+		}
+
+		int find(char c) {
+			int low = 0, high = keys.length - 1;
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				if (keys[mid] < c)
+					low = mid + 1;
+				else if (keys[mid] > c)
+					high = mid - 1;
+				else
+					return mid;
+			}
+			return -(low + 1);
+		}
+
+		void insertChild(int index, Node child) {
+			char[] newKeys = new char[keys.length + 1];
+			Node[] newChildren = new Node[children.length + 1];
+			System.arraycopy(keys, 0, newKeys, 0, index);
+			System.arraycopy(children, 0, newChildren, 0, index);
+			newKeys[index] = child.label.charAt(0);
+			newChildren[index] = child;
+			System.arraycopy(keys, index, newKeys, index + 1, keys.length - index);
+			System.arraycopy(children, index, newChildren, index + 1, children.length - index);
+			keys = newKeys;
+			children = newChildren;
+		}
+
+		boolean addValue(String value) {
+			if (values == null) {
+				values = new String[] { value };
+				return true;
+			}
+			for (String v : values)
+				if (v.equals(value))
+					return false;
+			String[] newValues = new String[values.length + 1];
+			System.arraycopy(values, 0, newValues, 0, values.length);
+			newValues[values.length] = value;
+			values = newValues;
+			return true;
+		}
+	}
+
+	protected Node root = new Node("");
+	protected int size;
+
+	/**
+	 * Add a class.
+	 *
+	 * @param simpleName the name of the class without the package
+	 * @param fullName the name of the class including the package
+	 */
+	public void add(String simpleName, String fullName) {
+		Node node = root;
+		int i = 0;
+		for (;;) {
+			if (i == simpleName.length()) {
+				if (node.addValue(fullName))
+					size++;
+				return;
+			}
+			int index = node.find(simpleName.charAt(i));
+			if (index < 0) {
+				Node leaf = new Node(simpleName.substring(i));
+				leaf.addValue(fullName);
+				node.insertChild(-index - 1, leaf);
+				size++;
+				return;
+			}
+			Node child = node.children[index];
+			String label = child.label;
+			int common = 1;
+			while (common < label.length() && i + common < simpleName.length()
+					&& label.charAt(common) == simpleName.charAt(i + common))
+				common++;
+			if (common < label.length()) {
+				// split the edge
+				Node middle = new Node(label.substring(0, common));
+				child.label = label.substring(common);
+				middle.insertChild(0, child);
+				node.children[index] = middle;
+				child = middle;
+			}
+			node = child;
+			i += common;
+		}
+	}
+
+	/**
+	 * Returns the number of classes in this trie.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the full names of the classes with the given simple name.
+	 */
+	public List<String> get(String simpleName) {
+		List<String> result = new ArrayList<String>();
+		Node node = root;
+		int i = 0;
+		while (i < simpleName.length()) {
+			int index = node.find(simpleName.charAt(i));
+			if (index < 0)
+				return result;
+			node = node.children[index];
+			if (!simpleName.startsWith(node.label, i))
+				return result;
+			i += node.label.length();
+		}
+		if (node.values != null)
+			for (String value : node.values)
+				result.add(value);
+		return result;
+	}
+
+	/**
+	 * Returns the full names of the classes whose simple names start with
+	 * the given prefix, sorted by their simple names.
+	 *
+	 * @param max the maximal number of names to return
+	 */
+	public List<String> getByPrefix(String prefix, int max) {
+		List<String> result = new ArrayList<String>();
+		Node node = findPrefix(prefix);
+		if (node != null)
+			collect(node, result, max);
+		return result;
+	}
+
+	/*
+	 * Returns the node below which all names starting with the prefix are
+	 * stored, or null if there are none.
+	 */
+	protected Node findPrefix(String prefix) {
+		Node node = root;
+		int i = 0;
+		while (i < prefix.length()) {
+			int index = node.find(prefix.charAt(i));
+			if (index < 0)
+				return null;
+			node = node.children[index];
+			String label = node.label;
+			int n = Math.min(label.length(), prefix.length() - i);
+			if (!label.regionMatches(0, prefix, i, n))
+				return null;
+			i += label.length();
+		}
+		return node;
+	}
+
+	protected void collect(Node node, List<String> result, int max) {
+		if (node.values != null)
+			for (String value : node.values) {
+				if (result.size() >= max)
+					return;
+				result.add(value);
+			}
+		for (Node child : node.children) {
+			if (result.size() >= max)
+				return;
+			collect(child, result, max);
+		}
+	}
+}
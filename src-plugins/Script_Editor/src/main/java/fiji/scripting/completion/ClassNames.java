@@ -3,27 +3,16 @@
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 
-import java.io.DataInputStream;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.IOException;
-import java.io.InputStream;
-
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.Enumeration;
-import java.util.Iterator;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
-import java.util.TreeMap;
+import java.util.Set;
 import java.util.TreeSet;
 
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
-
 import org.fife.ui.autocomplete.CompletionProvider;
 import org.fife.ui.autocomplete.BasicCompletion;
+import org.fife.ui.autocomplete.Completion;
 import org.fife.ui.autocomplete.FunctionCompletion;
 import org.fife.ui.rsyntaxtextarea.RSyntaxDocument;
 import org.fife.ui.rsyntaxtextarea.RSyntaxTextArea;
@@ -38,82 +27,16 @@
  */
 
 public class ClassNames {
-	protected static Map<String, Package> packages;
+	protected final static int MAX_CLASS_COMPLETIONS = 50;
+
+	protected ClassIndex index;
 	protected DefaultProvider defaultProvider;
 	protected ImportStatementsParser importStatementsParser = new ImportStatementsParser();
 	protected ObjStartCompletions obj;
 
 	public ClassNames(DefaultProvider provider) {
 		defaultProvider = provider;
-		if (packages == null) {
-			packages = new TreeMap<String, Package>();
-			addPaths(System.getProperty("java.class.path").split(File.pathSeparator));
-			addPaths(System.getProperty("sun.boot.class.path").split(File.pathSeparator));
-		}
-	}
-
-	protected void addPaths(String[] args) {
-		for (String arg : args)
-			addPath(arg);
-	}
-
-	protected void addPath(String path) {
-		File file = new File(path);
-		if (file.isDirectory())
-			addDirectory(file, "");
-		else if (path.endsWith(".jar") && file.length() > 0) try {
-				ZipFile jarFile = new ZipFile(file);
-				Enumeration e = jarFile.entries();
-				Package pkg = null;
-				while (e.hasMoreElements()) {
-					ZipEntry entry = (ZipEntry)e.nextElement();
-					String name = entry.getName();
-					if (name.endsWith(".class")) //ignore non-class files
-						pkg = addClassName(pkg, stripClassSuffix(name).replace('/', '.'));
-				}
-			} catch (Exception e) {
-				if (path.endsWith("/sunrsasign.jar") || path.endsWith("/jsfd.jar"))
-					return;
-				System.err.println("Exception while processing " + path);
-				e.printStackTrace();
-			}
-	}
-
-	protected void addDirectory(File file, String packageName) {
-		Package pkg = getPackage(packageName);
-		for (String name : file.list())
-			if (name.endsWith(".class"))
-				pkg.add(new ClassName(stripClassSuffix(name)));
-			else if (name.indexOf('.') < 0) {
-				File dir = new File(file, name);
-				if (dir.isDirectory())
-					addDirectory(dir, packageName.equals("") ? name : packageName + "." + name);
-			}
-	}
-
-	protected final String stripClassSuffix(String name) {
-		return name.substring(0, name.length() - 6);
-	}
-
-	protected Package addClassName(final Package previousPackage, String className) {
-		int dot = className.lastIndexOf('.');
-		String pkgName = dot < 0 ? "" : className.substring(0, dot);
-		Package pkg = getPackage(previousPackage, pkgName);
-		pkg.add(new ClassName(className.substring(dot + 1)));
-		return pkg;
-	}
-
-	protected Package getPackage(Package previous, String name) {
-		return previous != null && previous.getName().equals(name) ? previous : getPackage(name);
-	}
-
-	protected Package getPackage(String name) {
-		Package pkg = packages.get(name);
-		if (pkg == null) {
-			pkg = new Package(name);
-			packages.put(name, pkg);
-		}
-		return pkg;
+		index = ClassIndex.getInstance();
 	}
 
 	private ArrayList<String> getPackageNamesImported(RSyntaxDocument document, String language) {
@@ -134,7 +57,18 @@ private Package getImportedClassCompletions(RSyntaxTextArea texArea) {
 	*/
 
 	protected void setClassCompletions(RSyntaxTextArea textArea, String language) {
-		// TODO
+		String text = defaultProvider.getEnteredText(textArea);
+		if (text == null || text.equals("") || text.indexOf('.') >= 0
+				|| !Character.isUpperCase(text.charAt(0)))
+			return;
+		List<Completion> completions = new ArrayList<Completion>();
+		Set<String> seen = new HashSet<String>();
+		for (String fullName : index.getFullClassNamesByPrefix(text, MAX_CLASS_COMPLETIONS)) {
+			String simpleName = fullName.substring(fullName.lastIndexOf('.') + 1);
+			if (seen.add(simpleName))
+				completions.add(new BasicCompletion(defaultProvider, simpleName));
+		}
+		defaultProvider.addCompletions(completions);
 	}
 
 	protected void findAndAddCompletions(String text, int index, int tempIndex, Package tempPackage, boolean isClassBeforeDot) {
@@ -169,6 +103,11 @@ protected void loadMethodNames(String pkgName, ClassName clazz) {
 		if (clazz.methodNames.size() > 0)
 			return;
 		String fullname = getFullName(pkgName, clazz.getName());
+		List<String> members = index.getMembers(fullname);
+		if (members != null && members.size() > 0) {
+			clazz.setMemberNames(members);
+			return;
+		}
 		try {
 			Class clazz2 = getClass().getClassLoader().loadClass(fullname);
 			clazz.setMethodNames(clazz2.getMethods());
@@ -226,29 +165,24 @@ protected ArrayList createFunctionCompletion(TreeSet<ClassMethod> setOfCompletio
 	}
 
 	public String isClassPresent(String name) {
-		for (String pkgName : packages.keySet())
-			if (packages.get(pkgName).contains(name))
-				return getFullName(pkgName, name);
-		return "";
+		List<String> names = index.getFullClassNames(name);
+		return names.size() > 0 ? names.get(0) : "";
 	}
 
 	public Collection<String> getPackageNames() {
-		return packages.keySet();
+		return index.getPackages().keySet();
 	}
 
 	public List<String> getFullPackageNames(String className) {
 		List<String> result = new ArrayList<String>();
-		for (String pkgName : packages.keySet())
-			if (packages.get(pkgName).contains(className))
-				result.add(pkgName);
+		for (String fullName : index.getFullClassNames(className)) {
+			int dot = fullName.lastIndexOf('.');
+			result.add(dot < 0 ? "" : fullName.substring(0, dot));
+		}
 		return result;
 	}
 
 	public List<String> getFullClassNames(String className) {
-		List<String> result = new ArrayList<String>();
-		for (String pkgName : packages.keySet())
-			if (packages.get(pkgName).contains(className))
-				result.add(getFullName(pkgName, className));
-		return result;
+		return index.getFullClassNames(className);
 	}
-}
\ No newline at end of file
+}
@@ -19,6 +19,7 @@
 import java.awt.Rectangle;
 import java.awt.geom.Area;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.siox.util.*;
 
@@ -56,12 +57,14 @@
  * Algorithm idea by Gerald Friedland.
  *
  * @author Gerald Friedland, Kristian Jantz, Lars Knipping
- * @version 1.13
+ * @version 1.14
  */
 public class SioxSegmentator
 {
 
 	// CHANGELOG
+	// 2026-10-19 1.14 classify the pixels of an image in parallel; keep the
+	//                 classifications when applying precomputed signatures
 	// 2006-26-04 1.13 added method segmentatevideo_firstframe() and segmentatevideo_nextframe()
 	//                 for quick video segmentation.
 	// 2006-01-16 1.12 fixed bug in subpixelrefine that handled the sure regions improperly
@@ -104,6 +107,15 @@
 	/** Confidence corresponding to a certain background region (equals zero). */
 	public static final float CERTAIN_BACKGROUND_CONFIDENCE=0.0f;
 
+	/** Number of pixels classified at a time by one thread. */
+	private static final int PIXELS_PER_CHUNK=1<<14;
+
+	/**
+	 * Maximum number of cached classifications. The cache is cleared
+	 * when it grows beyond this, e.g. after many frames of a video.
+	 */
+	private static final int MAX_CACHED_COLORS=1<<20;
+
 	// instance fields:
 
 	/** Horizontal resolution of the image to be segmented. */
@@ -153,6 +165,9 @@
 	/** A flag that stores if the segmentation algorithm has already ran.*/
 	private boolean segmentated;
 
+	/** Number of threads used to classify the pixels. */
+	private int numThreads=Runtime.getRuntime().availableProcessors();
+
 	/**
 	 * Constructs a SioxSegmentator Object to be used for image segmentation.
 	 *
@@ -168,8 +183,8 @@ public SioxSegmentator(int w, int h, float[] limits)
 		imgWidth=w;
 		imgHeight=h;
 		labelField=new int[imgWidth*imgHeight];
-		knownBg=new float[imgWidth*imgHeight][3];
-		knownFg=new float[imgWidth*imgHeight][3];
+		knownBg=new float[imgWidth*imgHeight][];
+		knownFg=new float[imgWidth*imgHeight][];
 
 		if (limits==null) {
 			this.limits=new float[] {0.64f, 1.28f, 2.56f};
@@ -204,8 +219,8 @@ public SioxSegmentator(
 		imgWidth=w;
 		imgHeight=h;
 		labelField=new int[imgWidth*imgHeight];
-		knownBg=new float[imgWidth*imgHeight][3];
-		knownFg=new float[imgWidth*imgHeight][3];
+		knownBg=new float[imgWidth*imgHeight][];
+		knownFg=new float[imgWidth*imgHeight][];
 
 		if (limits==null) {
 			this.limits=new float[] {0.64f, 1.28f, 2.56f};
@@ -286,74 +301,8 @@ else if (cm[i]>=FOREGROUND_CONFIDENCE)
 			return false;
 		}
 
-		// classify using color signatures,
-		// classification cached in hashmap for drb and speedup purposes
-		for (int i=0; i<cm.length; i++) 
-		{
-			if (cm[i]>=FOREGROUND_CONFIDENCE) 
-			{
-				cm[i]=CERTAIN_FOREGROUND_CONFIDENCE;
-				continue;
-			}
-			else if (cm[i]>BACKGROUND_CONFIDENCE) 
-			{
-				Tupel tupel=(Tupel)hs.get(image[i]);
-				boolean isBackground=true;
-				if (tupel == null) 
-				{
-					tupel=new Tupel(0f, 0, 0f, 0);
-					final float[] lab=Utils.rgbToClab(image[i]);
-					float minBg=Utils.sqrEuclidianDist(lab, bgSignature[0]);
-					int minIndex=0;
-					for (int j=1; j<bgSignature.length; j++) 
-					{
-						final float d=Utils.sqrEuclidianDist(lab, bgSignature[j]);
-						if (d<minBg) 
-						{
-							minBg=d;
-							minIndex=j;
-						}
-					}
-					tupel.minBgDist=minBg;
-					tupel.indexMinBg=minIndex;
-					float minFg=Float.MAX_VALUE;
-					minIndex=-1;
-					for (int j=0; j<fgSignature.length; j++) {
-						final float d=Utils.sqrEuclidianDist(lab, fgSignature[j]);
-						if (d<minFg) {
-							minFg=d;
-							minIndex=j;
-						}
-					}
-					tupel.minFgDist=minFg;
-					tupel.indexMinFg=minIndex;
-					if (fgSignature.length==0) {
-						isBackground=(minBg<=clusterSize);
-						// remove next line to force behavior of old algorithm
-						throw new IllegalStateException("foreground signature does not exist");
-					} else {
-						isBackground=minBg<minFg;
-					}
-					hs.put(image[i], tupel);
-				} 
-				else 
-				{
-					isBackground=tupel.minBgDist<=tupel.minFgDist;
-				}
-				if (isBackground) 
-				{
-					cm[i]=CERTAIN_BACKGROUND_CONFIDENCE;
-				} 
-				else 
-				{
-					cm[i]=CERTAIN_FOREGROUND_CONFIDENCE;
-				}
-			} 
-			else 
-			{
-				cm[i]=CERTAIN_BACKGROUND_CONFIDENCE;
-			}
-		}
+		// classify using color signatures
+		classify(image, cm);
 
 		// postprocessing
 		Utils.smoothcm(cm, imgWidth, imgHeight, 0.33f, 0.33f, 0.33f); // average
@@ -412,107 +361,20 @@ public boolean applyPrecomputedSignatures(
 			double sizeFactorToKeep)
 	{
 		segmentated = false;
-		hs.clear();
+		// the signatures do not change here, so the classifications cached
+		// by previous calls are still valid and need not be cleared
 
 		// save image for drb
 		origImage = new int[image.length];
 		System.arraycopy(image, 0, origImage, 0, image.length);
 
-		// user predefined foreground pixels
-		IntArrayList predefinedFgPixels = new IntArrayList();
-		
-		// create color signatures
-		int knownBgCount=0, knownFgCount=0;
-		for (int i=0; i<cm.length; i++) 
-		{
-			if (cm[i] <= BACKGROUND_CONFIDENCE) 
-			{
-				knownBg[knownBgCount++]=Utils.rgbToClab(image[i]);
-			} 
-			else if (cm[i]>=FOREGROUND_CONFIDENCE) 
-			{
-				knownFg[knownFgCount++]=Utils.rgbToClab(image[i]);
-				if(cm[i] == CERTAIN_FOREGROUND_CONFIDENCE)
-				{
-					predefinedFgPixels.add(i);
-					//System.out.println("added " + i);
-				}
-			}
-		}
-		
 		if (bgSignature.length<1) {
 			// segmentation impossible
 			return false;
 		}
 
-		// classify using color signatures,
-		// classification cached in hashmap for drb and speedup purposes
-		for (int i=0; i<cm.length; i++) 
-		{
-			if (cm[i]>=FOREGROUND_CONFIDENCE) 
-			{
-				cm[i]=CERTAIN_FOREGROUND_CONFIDENCE;
-				continue;
-			}
-			else if (cm[i]>BACKGROUND_CONFIDENCE) 
-			{
-				Tupel tupel=(Tupel)hs.get(image[i]);
-				boolean isBackground=true;
-				if (tupel == null) 
-				{
-					tupel=new Tupel(0f, 0, 0f, 0);
-					final float[] lab=Utils.rgbToClab(image[i]);
-					float minBg=Utils.sqrEuclidianDist(lab, bgSignature[0]);
-					int minIndex=0;
-					for (int j=1; j<bgSignature.length; j++) 
-					{
-						final float d=Utils.sqrEuclidianDist(lab, bgSignature[j]);
-						if (d<minBg) 
-						{
-							minBg=d;
-							minIndex=j;
-						}
-					}
-					tupel.minBgDist=minBg;
-					tupel.indexMinBg=minIndex;
-					float minFg=Float.MAX_VALUE;
-					minIndex=-1;
-					for (int j=0; j<fgSignature.length; j++) {
-						final float d=Utils.sqrEuclidianDist(lab, fgSignature[j]);
-						if (d<minFg) {
-							minFg=d;
-							minIndex=j;
-						}
-					}
-					tupel.minFgDist=minFg;
-					tupel.indexMinFg=minIndex;
-					if (fgSignature.length==0) {
-						isBackground=(minBg<=clusterSize);
-						// remove next line to force behavior of old algorithm
-						throw new IllegalStateException("foreground signature does not exist");
-					} else {
-						isBackground=minBg<minFg;
-					}
-					hs.put(image[i], tupel);
-				} 
-				else 
-				{
-					isBackground=tupel.minBgDist<=tupel.minFgDist;
-				}
-				if (isBackground) 
-				{
-					cm[i]=CERTAIN_BACKGROUND_CONFIDENCE;
-				} 
-				else 
-				{
-					cm[i]=CERTAIN_FOREGROUND_CONFIDENCE;
-				}
-			} 
-			else 
-			{
-				cm[i]=CERTAIN_BACKGROUND_CONFIDENCE;
-			}
-		}
+		// classify using color signatures
+		classify(image, cm);
 
 		// postprocessing
 		Utils.smoothcm(cm, imgWidth, imgHeight, 0.33f, 0.33f, 0.33f); // average
@@ -600,61 +462,9 @@ public boolean segmentatevideo_firstframe(int[] image, float[] cm, double sizeFa
 			return false;
 		}
 
-		// classify using color signatures,
-		// classification cached in hashmap for drb and speedup purposes
-		for (int i=0; i<cm.length; i++) {
-			if (cm[i]>=FOREGROUND_CONFIDENCE) {
-				cm[i]=CERTAIN_FOREGROUND_CONFIDENCE;
-				continue;
-			}
-			if (cm[i]>BACKGROUND_CONFIDENCE) {
-				Tupel tupel=(Tupel)hs.get(image[i]);
-				boolean isBackground=true;
-				if (tupel==null) {
-					tupel=new Tupel(0f, 0, 0f, 0);
-					final float[] lab=Utils.rgbToClab(image[i]);
-					float minBg=Utils.sqrEuclidianDist(lab, bgSignature[0]);
-					int minIndex=0;
-					for (int j=1; j<bgSignature.length; j++) {
-						final float d=Utils.sqrEuclidianDist(lab, bgSignature[j]);
-						if (d<minBg) {
-							minBg=d;
-							minIndex=j;
-						}
-					}
-					tupel.minBgDist=minBg;
-					tupel.indexMinBg=minIndex;
-					float minFg=Float.MAX_VALUE;
-					minIndex=-1;
-					for (int j=0; j<fgSignature.length; j++) {
-						final float d=Utils.sqrEuclidianDist(lab, fgSignature[j]);
-						if (d<minFg) {
-							minFg=d;
-							minIndex=j;
-						}
-					}
-					tupel.minFgDist=minFg;
-					tupel.indexMinFg=minIndex;
-					if (fgSignature.length==0) {
-						isBackground=(minBg<=clusterSize);
-						// remove next line to force behavior of old algorithm
-						throw new IllegalStateException("foreground signature does not exist");
-					} else {
-						isBackground=minBg<minFg;
-					}
-					hs.put(image[i], tupel);
-				} else {
-					isBackground=tupel.minBgDist<=tupel.minFgDist;
-				}
-				if (isBackground) {
-					cm[i]=CERTAIN_BACKGROUND_CONFIDENCE;
-				} else {
-					cm[i]=CERTAIN_FOREGROUND_CONFIDENCE;
-				}
-			} else {
-				cm[i]=CERTAIN_BACKGROUND_CONFIDENCE;
-			}
-		}
+		// classify using color signatures
+		classify(image, cm);
+
 		// postprocessing
 		Utils.smoothcm(cm, imgWidth, imgHeight, 0.33f, 0.33f, 0.33f); // average
 		Utils.normalizeMatrix(cm);				
@@ -702,15 +512,132 @@ public boolean segmentatevideo_nextframe(int[] image, float[] cm, double sizeFac
 		origImage=new int[image.length];
 		System.arraycopy(image, 0, origImage, 0, image.length);
 
-		// classify using color signatures,
-		// classification cached in hashmap for drb and speedup purposes
-		for (int i=0; i<cm.length; i++) {
+		// classify using color signatures
+		classify(image, cm);
+
+		// postprocessing
+		Utils.smoothcm(cm, imgWidth, imgHeight, 0.33f, 0.33f, 0.33f); // average
+		Utils.normalizeMatrix(cm);
+		keepOnlyLargeComponents(cm, UNKNOWN_REGION_CONFIDENCE, sizeFactorToKeep);
+		segmentated=true;
+		return true;
+	}
+
+
+	/**
+	 * Sets the number of threads used to classify the pixels of an image.
+	 * When segmenting several images concurrently, each with a segmentator
+	 * of its own, this should be set to one.
+	 *
+	 * @param numThreads number of threads, at least one.
+	 */
+	public void setNumThreads(int numThreads)
+	{
+		this.numThreads=Math.max(1, numThreads);
+	}
+
+	/**
+	 * Classifies each pixel of the image using the color signatures. Known
+	 * foreground pixels become certain foreground, known background pixels
+	 * become certain background, and the others get the confidence of the
+	 * nearer signature.
+	 * <P>
+	 * The classification is cached by color in <code>hs</code>, for drb
+	 * and speedup purposes. The image is split into chunks of rows which
+	 * are classified concurrently; while that happens, <code>hs</code> is
+	 * only read, and each thread caches the colors it classifies in a map
+	 * of its own, remembering their order in a list. These are merged into
+	 * <code>hs</code> afterwards.
+	 *
+	 * @param image Pixel data of the image to be segmented.
+	 * @param cm Confidence matrix, overwritten with the classification.
+	 * @exception IllegalStateException if there is no foreground signature.
+	 */
+	private void classify(final int[] image, final float[] cm)
+	{
+		if (hs.size()>MAX_CACHED_COLORS) {
+			hs.clear();
+		}
+
+		final int chunkSize=Math.max(1, PIXELS_PER_CHUNK/imgWidth)*imgWidth;
+		final int numChunks=(cm.length+chunkSize-1)/chunkSize;
+		final int threads=Math.min(numThreads, numChunks);
+		if (threads<2) {
+			classify(image, cm, 0, cm.length, hs, null);
+			return;
+		}
+
+		final AtomicInteger nextChunk=new AtomicInteger(0);
+		final IntHashMap[] caches=new IntHashMap[threads];
+		final IntArrayList[] cachedColors=new IntArrayList[threads];
+		final RuntimeException[] failure=new RuntimeException[1];
+		final Thread[] workers=new Thread[threads];
+		for (int t=0; t<threads; t++) {
+			final IntHashMap cache=caches[t]=new IntHashMap();
+			final IntArrayList colors=cachedColors[t]=new IntArrayList();
+			workers[t]=new Thread() {
+				public void run()
+				{
+					try {
+						for (int chunk=nextChunk.getAndIncrement(); chunk<numChunks;
+								chunk=nextChunk.getAndIncrement()) {
+							final int from=chunk*chunkSize;
+							classify(image, cm, from, Math.min(cm.length, from+chunkSize), cache, colors);
+						}
+					} catch (RuntimeException e) {
+						synchronized (failure) {
+							if (failure[0]==null) {
+								failure[0]=e;
+							}
+						}
+						nextChunk.set(numChunks);
+					}
+				}
+			};
+			workers[t].start();
+		}
+		try {
+			for (int t=0; t<threads; t++) {
+				workers[t].join();
+			}
+		} catch (InterruptedException e) {
+			for (int t=0; t<threads; t++) {
+				workers[t].interrupt();
+			}
+			throw new RuntimeException(e);
+		}
+		if (failure[0]!=null) {
+			throw failure[0];
+		}
+		for (int t=0; t<threads; t++) {
+			final IntArrayList colors=cachedColors[t];
+			for (int c=0; c<colors.size(); c++) {
+				final int color=colors.get(c);
+				hs.put(color, caches[t].get(color));
+			}
+		}
+	}
+
+	/**
+	 * Classifies the pixels <code>from</code> to <code>to</code> (exclusive).
+	 * Cached classifications are looked up in <code>hs</code> and
+	 * <code>cache</code>, new ones are only stored in <code>cache</code>,
+	 * and their colors added to <code>cachedColors</code> unless it is
+	 * <code>null</code>.
+	 */
+	private void classify(int[] image, float[] cm, int from, int to,
+			IntHashMap cache, IntArrayList cachedColors)
+	{
+		for (int i=from; i<to; i++) {
 			if (cm[i]>=FOREGROUND_CONFIDENCE) {
 				cm[i]=CERTAIN_FOREGROUND_CONFIDENCE;
 				continue;
 			}
 			if (cm[i]>BACKGROUND_CONFIDENCE) {
 				Tupel tupel=(Tupel)hs.get(image[i]);
+				if (tupel==null && cache!=hs) {
+					tupel=(Tupel)cache.get(image[i]);
+				}
 				boolean isBackground=true;
 				if (tupel==null) {
 					tupel=new Tupel(0f, 0, 0f, 0);
@@ -739,12 +666,15 @@ public boolean segmentatevideo_nextframe(int[] image, float[] cm, double sizeFac
 					tupel.indexMinFg=minIndex;
 					if (fgSignature.length==0) {
 						isBackground=(minBg<=clusterSize);
-						// remove next line to force behaviour of old algorithm
+						// remove next line to force behavior of old algorithm
 						throw new IllegalStateException("foreground signature does not exist");
 					} else {
 						isBackground=minBg<minFg;
 					}
-					hs.put(image[i], tupel);
+					cache.put(image[i], tupel);
+					if (cachedColors!=null) {
+						cachedColors.add(image[i]);
+					}
 				} else {
 					isBackground=tupel.minBgDist<=tupel.minFgDist;
 				}
@@ -757,15 +687,8 @@ public boolean segmentatevideo_nextframe(int[] image, float[] cm, double sizeFac
 				cm[i]=CERTAIN_BACKGROUND_CONFIDENCE;
 			}
 		}
-		// postprocessing
-		Utils.smoothcm(cm, imgWidth, imgHeight, 0.33f, 0.33f, 0.33f); // average
-		Utils.normalizeMatrix(cm);
-		keepOnlyLargeComponents(cm, UNKNOWN_REGION_CONFIDENCE, sizeFactorToKeep);
-		segmentated=true;
-		return true;
 	}
 
-
 	/**
 	 * Clears given confidence matrix except entries for the largest connected
 	 * component and every component with
@@ -32,12 +32,13 @@
  *
  * @author Lars Knipping
 
- * @version 1.01
+ * @version 1.02
  * @see java.util.HashMap
  */
 public class IntHashMap {
 	
   // CHANGELOG
+  // 2026-10-19 1.02 fixed clear() leaving most of the buckets filled
   // 2005-11-21 1.01 fixed rehash size bug
   // 2005-11-18 1.00 initial release.
   //                 CAVEAT: Most methods are completely untested for now.
@@ -108,7 +109,7 @@ public IntHashMap(IntHashMap anIntHashMap) {
   public void clear(){
 	if (size > 0) {
 	  ++modCount;
-	  Arrays.fill((Object[]) data, 0, size-1, null);
+	  Arrays.fill((Object[]) data, null);
 	  size = 0;
 	}
   }
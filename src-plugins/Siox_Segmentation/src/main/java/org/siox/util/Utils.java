@@ -314,7 +314,12 @@ public static float labcolordiff(int rgb0, int rgb1)
 	 */
 	public static float[] rgbToClab(int rgb)
 	{
-		float lab[]=(float[])RGB_TO_LAB.get(rgb);
+		float lab[];
+	// the cache is shared by all threads; the conversion itself is done
+	// outside the lock, computing a color twice does no harm
+	synchronized (RGB_TO_LAB) {
+		lab=(float[])RGB_TO_LAB.get(rgb);
+	}
 	if (lab!=null) {
 		return lab;
 	}
@@ -378,7 +383,9 @@ public static float[] rgbToClab(int rgb)
 	lab[1]=500f*(var_X-var_Y);
 	lab[2]=200f*(var_Y-var_Z);
 
-	RGB_TO_LAB.put(rgb, lab);
+	synchronized (RGB_TO_LAB) {
+		RGB_TO_LAB.put(rgb, lab);
+	}
 	return lab;
 	}
 
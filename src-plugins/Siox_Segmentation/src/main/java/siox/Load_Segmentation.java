@@ -4,6 +4,8 @@
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.siox.SioxSegmentator;
 
@@ -115,7 +117,10 @@ public boolean setup()
 	}
 	
 	/**
-	 * Execute SIOX segmentator
+	 * Execute SIOX segmentator. The slices of the stack are segmented
+	 * concurrently, each thread with a segmentator of its own; when there
+	 * are fewer slices than threads, the pixels of each slice are
+	 * classified in parallel as well.
 	 * 
 	 * @return segmentation result image
 	 */
@@ -129,48 +134,93 @@ public ImagePlus execute(final ImagePlus imRef)
 		
 		final int w = imRef.getWidth();
 		final int h = imRef.getHeight();
+		final ImageStack inputStack = imRef.getImageStack();
+		final int size = inputStack.getSize();
 		
-		// Output image
-		ImageStack outputStack = new ImageStack(w, h, null);
+		// Segmented slices
+		final ByteProcessor[] results = new ByteProcessor[size];
+		final boolean[] failed = new boolean[size];
+		final AtomicBoolean noForeground = new AtomicBoolean(false);
 		
-		// Confidence matrix
-		FloatProcessor confMatrix = new FloatProcessor(w, h);
-		final float[] confMatrixArray = (float[])confMatrix.getPixels();
+		final int numThreads = Math.max(1, Math.min(Prefs.getThreads(), size));
+		final int threadsPerSlice = Math.max(1, Prefs.getThreads() / numThreads);
+		final AtomicInteger nextSlice = new AtomicInteger(0);
+		final AtomicInteger done = new AtomicInteger(0);
 		
-		final int size = imRef.getImageStack().getSize();
-		
-		// Iterate on all images in the stack
-		for(int i = 0 ; i < size; i++)
+		final Thread[] threads = new Thread[numThreads];
+		for(int t = 0; t < numThreads; t++)
 		{
-			IJ.showStatus("Segmenting image " + (i+1) + "/" + size);
-			IJ.showProgress((double) (i+1) / size);
-			
-			Arrays.fill(confMatrixArray, SioxSegmentator.UNKNOWN_REGION_CONFIDENCE);
-			boolean success = false;
-			
-			ColorProcessor image = (ColorProcessor) imRef.getImageStack().getProcessor(i+1);
-			
-			try{
-				success = siox.applyPrecomputedSignatures(
-						(int[]) image.getPixels(), confMatrixArray, 
-						sioxInfo.getSmoothness(), sioxInfo.getSizeFactorToKeep());
-			}catch(IllegalStateException ex){
-				IJ.error("Siox Segmentation", "ERROR: foreground signature does not exist.");
-			}
-			
-			if(!success)		
-				IJ.error("Siox Segmentation", "The segmentation failed on image "+ i+1 + "!");
+			final SioxSegmentator segmentator = t == 0 ? siox :
+				new SioxSegmentator(w, h, null, sioxInfo.getBgSignature(), sioxInfo.getFgSignature());
+			segmentator.setNumThreads(threadsPerSlice);
 			
-			final ByteProcessor result = (ByteProcessor) confMatrix.convertToByte(false);
-			result.multiply(255);
-			// Set background color based on the Process > Binary > Options 
-			if(!Prefs.blackBackground)
-				result.invert();
-			
-			// Add binary image to output stack
-			outputStack.addSlice(imRef.getImageStack().getSliceLabel(i+1), result.duplicate());
+			threads[t] = new Thread() {
+				public void run()
+				{
+					// Confidence matrix
+					final FloatProcessor confMatrix = new FloatProcessor(w, h);
+					final float[] confMatrixArray = (float[])confMatrix.getPixels();
+					
+					for(int i = nextSlice.getAndIncrement(); i < size; i = nextSlice.getAndIncrement())
+					{
+						Arrays.fill(confMatrixArray, SioxSegmentator.UNKNOWN_REGION_CONFIDENCE);
+						boolean success = false;
+						
+						final ColorProcessor image;
+						// virtual stacks may not be read concurrently
+						synchronized (inputStack) {
+							image = (ColorProcessor) inputStack.getProcessor(i+1);
+						}
+						
+						try{
+							success = segmentator.applyPrecomputedSignatures(
+									(int[]) image.getPixels(), confMatrixArray, 
+									sioxInfo.getSmoothness(), sioxInfo.getSizeFactorToKeep());
+						}catch(IllegalStateException ex){
+							noForeground.set(true);
+						}
+						failed[i] = !success;
+						
+						final ByteProcessor result = (ByteProcessor) confMatrix.convertToByte(false);
+						result.multiply(255);
+						// Set background color based on the Process > Binary > Options 
+						if(!Prefs.blackBackground)
+							result.invert();
+						results[i] = result;
+						
+						final int count = done.incrementAndGet();
+						IJ.showStatus("Segmenting image " + count + "/" + size);
+						IJ.showProgress(count, size);
+					}
+				}
+			};
+			threads[t].start();
+		}
+		
+		try {
+			for(int t = 0; t < numThreads; t++)
+				threads[t].join();
+		} catch (InterruptedException e) {
+			for(int t = 0; t < numThreads; t++)
+				threads[t].interrupt();
+			IJ.showStatus("Segmentation interrupted!");
+			return null;
 		}
 		
+		if(noForeground.get())
+			IJ.error("Siox Segmentation", "ERROR: foreground signature does not exist.");
+		for(int i = 0; i < size; i++)
+			if(failed[i])
+			{
+				IJ.error("Siox Segmentation", "The segmentation failed on image "+ (i+1) + "!");
+				break;
+			}
+		
+		// Output image
+		ImageStack outputStack = new ImageStack(w, h, null);
+		for(int i = 0; i < size; i++)
+			outputStack.addSlice(inputStack.getSliceLabel(i+1), results[i]);
+		
 		IJ.showStatus("Segmentation done!");
 		IJ.showProgress(1.0);
 		
@@ -19,11 +19,14 @@
  * 
  */
 
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import ij.IJ;
 import ij.ImagePlus;
 import ij.ImageStack;
+import ij.Prefs;
 import ij.plugin.filter.PlugInFilter;
 import ij.process.ImageProcessor;
 
@@ -59,6 +62,21 @@ public class Skeletonize3D_ implements PlugInFilter
 	private int depth = 0;
 	/** working image stack*/
 	private ImageStack inputImage = null;
+
+	/** number of frontier voxels checked by a thread at a time */
+	private static final int FRONTIER_CHUNK = 4096;
+	/** surface voxels (linear indices in raster order) */
+	private long[] frontier = null;
+	/** number of voxels in the frontier */
+	private int frontierSize = 0;
+	/** voxels that became surface voxels during the current pass */
+	private long[] added = null;
+	/** number of newly added voxels */
+	private int addedSize = 0;
+	/** voxels which are (or were) part of the frontier, per slice */
+	private BitSet[] queued = null;
+	/** simple border points of the current pass, parallel to the frontier */
+	private boolean[] isCandidate = null;
 	
 	/* -----------------------------------------------------------------------*/
 	/**
@@ -140,241 +158,88 @@ public void prepareData(ImageStack outputImage)
 	/* -----------------------------------------------------------------------*/
 	/**
 	 * Post processing for computing thinning.
-	 * 
+	 * <p>
+	 * Only foreground voxels with at least one background 6-neighbor can
+	 * be border points, so instead of rescanning the whole stack for every
+	 * border direction we keep a frontier of those surface voxels (in raster
+	 * order) and update it as points are deleted. The simple border points
+	 * of each direction are detected in parallel (the image is not modified
+	 * during detection) and then re-checked sequentially in raster order,
+	 * which produces exactly the same skeleton as a full scan.
+	 *
 	 * @param outputImage output image stack
 	 */
-	public void computeThinImage(ImageStack outputImage) 
+	public void computeThinImage(ImageStack outputImage)
 	{
 		//IJ.write("Compute Thin Image Start");
 		IJ.showStatus("Computing thin image ...");
-						
+
 		// Prepare Euler LUT [Lee94]
-		int eulerLUT[] = new int[256]; 
+		final int eulerLUT[] = new int[256];
 		fillEulerLUT( eulerLUT );
-		
-		// Prepare number of points LUT
-		int pointsLUT[] = new int[ 256 ];
-		fillnumOfPointsLUT(pointsLUT);
-		
-		// Following Lee[94], save versions (Q) of input image S, while 
-		// deleting each type of border points (R)
-		//ImagePlus Q[] = new ImagePlus[6];
-		ArrayList <int[]> simpleBorderPoints = new ArrayList<int[]>();				
-		
+
+		// Work directly on the slice arrays
+		final byte[][] pixels = new byte[ this.depth ][];
+		for( int z = 0; z < this.depth; z++ )
+			pixels[ z ] = (byte[]) outputImage.getPixels( z + 1 );
+
+		// Up and bottom borders only exist in 3D
+		final int nBorders = this.depth > 1 ? 6 : 4;
+
+		initFrontier( pixels, nBorders );
+
+		final byte[] neighborhood = new byte[ 27 ];
+		final int[] cube = new int[ 26 ];
+		final int wh = this.width * this.height;
+
 		int iter = 1;
-		//boolean debug = false;			
 		// Loop through the image several times until there is no change.
 		int unchangedBorders = 0;
 		while( unchangedBorders < 6 )  // loop until no change for all the six border types
-		{						
+		{
 			unchangedBorders = 0;
 			for( int currentBorder = 1; currentBorder <= 6; currentBorder++)
 			{
-				//Q[ currentBorder-1 ] = new ImagePlus("Q-" + currentBorder, outputImage).duplicate();
-				
 				IJ.showStatus("Thinning iteration " + iter + " (" + currentBorder +"/6 borders) ...");
-				
-				//if( debug ) IJ.log( " *** current border = " + currentBorder + " ***");	
-				
-				boolean noChange = true;				
-				
-				// Loop through the image.				 
-				for (int z = 0; z < depth; z++)
-				{
-					for (int y = 0; y < height; y++)
-					{
-						for (int x = 0; x < width; x++)						
-						{
-
-							// check if point is foreground
-							if ( getPixelNoCheck(outputImage, x, y, z) != 1 )
-							{
-								//IJ.log("  background");
-								continue;         // current point is already background 
-							}
-																				
-							// check 6-neighbors if point is a border point of type currentBorder
-							boolean isBorderPoint = false;
-							// North
-							if( currentBorder == 1 && N(outputImage, x, y, z) <= 0 )
-								isBorderPoint = true;
-							// South
-							if( currentBorder == 2 && S(outputImage, x, y, z) <= 0 )
-								isBorderPoint = true;
-							// East
-							if( currentBorder == 3 && E(outputImage, x, y, z) <= 0 )
-								isBorderPoint = true;
-							// West
-							if( currentBorder == 4 && W(outputImage, x, y, z) <= 0 )
-								isBorderPoint = true;
-							if(outputImage.getSize() > 1)
-							{
-								// Up							
-								if( currentBorder == 5 && U(outputImage, x, y, z) <= 0 )
-									isBorderPoint = true;
-								// Bottom
-								if( currentBorder == 6 && B(outputImage, x, y, z) <= 0 )
-									isBorderPoint = true;
-							}
-							if( !isBorderPoint )
-							{
-								//if (debug) IJ.log("  not border");
-								continue;         // current point is not deletable
-							}
-							
-							//else // remove border point from Q
-							//	setPixelNoCheck( Q[ currentBorder -1 ].getImageStack(), x, y, z, (byte)0);
-
-
-							if( isEndPoint( outputImage, x, y, z))
-							{
-								//if (debug) IJ.log("checking point (" + x + ", " + y + ", " + z + ")");
-								//if (debug) IJ.log("  end point");
-								continue;
-							}
 
-							final byte[] neighborhood = getNeighborhood(outputImage, x, y, z);
-							
-							// Check if point is Euler invariant (condition 1 in Lee[94])
-							if( !isEulerInvariant( neighborhood, eulerLUT ) )
-							{
-								//if (debug) IJ.log("checking point (" + x + ", " + y + ", " + z + ")");
-								//if (debug) IJ.log("  not Euler invariant");								
-								continue;         // current point is not deletable
-							}
-
-							/*
-							// check if point is the end of an arc
-							if ( isSurfacePoint(  neighborhood, pointsLUT) )
-							{
-								if (debug) IJ.log("  surface point");								
-								// Calculate intersection of Q and N(v)
-								byte[] qPix = getNeighborhood(Q[ currentBorder - 1 ].getImageStack(), x, y, z);
-								byte[] nPix = neighborhood;
-
-								int nPoints = 0;
-								for(int n=0; n<qPix.length; n++)
-									if( qPix[ n ] == 1 && nPix[ n ] == 1)
-										nPoints ++;
-
-								// Condition 4 in Lee[94]
-								if( nPoints-1 < 2 )			
-								{
-									if (debug) IJ.log("  nPoints < 2");									
-									continue; // current point is not deletable
-								}
-							}
-							 */
-
-							
-							// Check if point is simple (deletion does not change connectivity in the 3x3x3 neighborhood)
-							// (conditions 2 and 3 in Lee[94])
-							if( !isSimplePoint( neighborhood ) )
-							{
-								//if (debug) IJ.log("checking point (" + x + ", " + y + ", " + z + ")");
-								//if (debug) IJ.log("  not simple point");								
-								continue;         // current point is not deletable
-							}
-
-
-
-							// add all simple border points to a list for sequential re-checking
-							int[] index = new int[3];
-							index[0] = x;
-							index[1] = y;
-							index[2] = z;
-							simpleBorderPoints.add(index);							
-							/*
-							// delete point
-							if (debug) IJ.log("  delete point!");							
-							setPixel( outputImage, x, y, z, (byte) 0);
-							noChange = false;
-							 */
-
-						}
-					}					
-					IJ.showProgress(z, this.depth);				
-				}							
+				if( currentBorder > nBorders )
+				{
+					unchangedBorders++;
+					continue;
+				}
 
+				// Mark all simple border points of the current type
+				findSimpleBorderPoints( pixels, currentBorder, eulerLUT );
 
 				// sequential re-checking to preserve connectivity when
 				// deleting in a parallel way
-				//				boolean noChange = true;
-				int[] index = null;
-				
-				
-				for(int i = 0; 	i < simpleBorderPoints.size() ; i++)
-				{					
-					index = simpleBorderPoints.get(i);
-
-					// 1. Set simple border point to 0
-					//setPixel( outputImage, index[0], index[1], index[2], (byte) 0);
-					/*
-					if( !isEulerInvariant( getNeighborhood(outputImage,  index[0], index[1], index[2]), eulerLUT ) )
-					{
-						if (debug) IJ.log("checking point (" + index[0] + ", " + index[1] + ", " + index[2] + ")");
-						if (debug) IJ.log("  not Euler invariant");								
-						continue;         // current point is not deletable
-					}
-					
-					// 2. Check if neighborhood is still connected
-					if( isSimplePoint( getNeighborhood(outputImage, index[0], index[1], index[2])) )
-					{
-						if (debug) IJ.log("checking point (" + index[0] + ", " + index[1] + ", " + index[2] + ")");
-						if (debug) IJ.log("  simple point");				
-						if(	 !isSurfacePoint( getNeighborhood(outputImage, index[0], index[1], index[2]), pointsLUT) ) 
-						{
-							if (debug) IJ.log("  not surface point");
-							// Calculate intersection of Q and N(v)
-							byte[] qPix = getNeighborhood(Q[ currentBorder - 1 ].getImageStack(),  index[0], index[1], index[2]);
-							byte[] nPix = getNeighborhood(outputImage, index[0], index[1], index[2]);
-
-							int nPoints = 0;
-							for(int n=0; n<qPix.length; n++)
-								if( qPix[ n ] == 1 && nPix[ n ] == 1)
-									nPoints ++;
-
-							// Condition 4 in Lee[94]
-							if( nPoints < 2 )			
-							{
-								if (debug) IJ.log("  nPoints < 2");									
-								continue; // current point is not deletable
-							}
-
-							setPixel( outputImage, index[0], index[1], index[2], (byte) 0);
-							if (debug) IJ.log("  nPoints >= 2");
-							if (debug) IJ.log("  delete point!");				
-							noChange = false;
-						}
-					}
-					*/
+				boolean noChange = true;
+				for( int i = 0; i < this.frontierSize; i++ )
+				{
+					if( !this.isCandidate[ i ] )
+						continue;
 
+					final long index = this.frontier[ i ];
+					final int z = (int) ( index / wh );
+					final int rest = (int) ( index - (long) z * wh );
+					final int y = rest / this.width;
+					final int x = rest - y * this.width;
 
-					// Check if border points is simple			        
-					if( isSimplePoint( getNeighborhood(outputImage, index[0], index[1], index[2]) )	 )
+					// Check if border points is simple
+					getNeighborhood( pixels, x, y, z, neighborhood );
+					if( isSimplePoint( neighborhood, cube ) )
 					{
 						// we can delete the current point
-						setPixel( outputImage, index[0], index[1], index[2], (byte) 0);
+						pixels[ z ][ rest ] = 0;
 						noChange = false;
+						addNeighborsToFrontier( pixels, x, y, z, nBorders );
 					}
-
-
 				}
 
 				if( noChange )
 					unchangedBorders++;
-
-				//IJ.write("# simple border points = " + simpleBorderPoints.size());
-				/*
-				if(index != null)
-					IJ.write("# last point = [" + index[0] + ", " + index[1] + "," +  index[2]+ "]");
-				else 
-					IJ.write("# last point = [0, 0, 0]");
-				 */
-
-				simpleBorderPoints.clear();
-
-				//IJ.write("# simple border points = " + simpleBorderPoints.size() + "\n");
+				else
+					updateFrontier( pixels );
 
 			} // end currentBorder for loop
 
@@ -382,241 +247,380 @@ public void computeThinImage(ImageStack outputImage)
 			iter++;
 		}
 
+		releaseFrontier();
+
 		//IJ.write("Compute Thin Image End");
 		IJ.showStatus("Computed thin image.");
-	} /* end computeThinImage */	
-	
-	
+	} /* end computeThinImage */
+
+	/* -----------------------------------------------------------------------*/
 	/**
-	 * Check if point is the end of an arc
-	 * 
-	 * @param image
-	 * @param x
-	 * @param y
-	 * @param z
-	 * @return
+	 * Collect all surface voxels (foreground voxels with at least one
+	 * background 6-neighbor) in raster order.
+	 *
+	 * @param pixels slice arrays of the image
+	 * @param nBorders number of border directions (4 in 2D, 6 in 3D)
 	 */
-	boolean isEndPoint(ImageStack image, int x, int y, int z)
+	private void initFrontier(byte[][] pixels, int nBorders)
 	{
-		int numberOfNeighbors = -1;   // -1 and not 0 because the center pixel will be counted as well
-        byte[] neighbor = getNeighborhood(image, x, y, z);
-        for( int i = 0; i < 27; i++ ) // i =  0..26
-        {					        	
-          if( neighbor[i] == 1 )
-            numberOfNeighbors++;
-        }
-
-        return  numberOfNeighbors == 1;        
-	}
-	
+		this.frontier = new long[ 1024 ];
+		this.frontierSize = 0;
+		this.added = new long[ 1024 ];
+		this.addedSize = 0;
+		this.queued = new BitSet[ this.depth ];
+
+		final long wh = (long) this.width * this.height;
+		for( int z = 0; z < this.depth; z++ )
+		{
+			this.queued[ z ] = new BitSet( this.width * this.height );
+			for( int y = 0; y < this.height; y++ )
+				for( int x = 0; x < this.width; x++ )
+				{
+					final int offset = x + y * this.width;
+					if( pixels[ z ][ offset ] == 1 && hasBackgroundNeighbor( pixels, x, y, z, nBorders ) )
+					{
+						this.queued[ z ].set( offset );
+						this.frontier = append( this.frontier, this.frontierSize++, z * wh + offset );
+					}
+				}
+			IJ.showProgress( z, this.depth );
+		}
+		this.isCandidate = new boolean[ this.frontier.length ];
+	} /* end initFrontier */
+
 	/* -----------------------------------------------------------------------*/
 	/**
-	 * Get neighborhood of a pixel in a 3D image (0 border conditions) 
-	 * 
-	 * @param image 3D image (ImageStack)
-	 * @param x x- coordinate
-	 * @param y y- coordinate
-	 * @param z z- coordinate (in image stacks the indexes start at 1)
-	 * @return corresponding 27-pixels neighborhood (0 if out of image)
+	 * Queue the foreground 6-neighbors of a deleted voxel, which are now
+	 * surface voxels.
+	 *
+	 * @param pixels slice arrays of the image
+	 * @param x x- coordinate of the deleted voxel
+	 * @param y y- coordinate of the deleted voxel
+	 * @param z z- coordinate of the deleted voxel (starting at 0)
+	 * @param nBorders number of border directions (4 in 2D, 6 in 3D)
 	 */
-	public byte[] getNeighborhood(ImageStack image, int x, int y, int z)
+	private void addNeighborsToFrontier(byte[][] pixels, int x, int y, int z, int nBorders)
 	{
-		byte[] neighborhood = new byte[27];
-		
-		neighborhood[ 0] = getPixel(image, x-1, y-1, z-1);
-		neighborhood[ 1] = getPixel(image, x  , y-1, z-1);
-		neighborhood[ 2] = getPixel(image, x+1, y-1, z-1);
-		
-		neighborhood[ 3] = getPixel(image, x-1, y,   z-1);
-		neighborhood[ 4] = getPixel(image, x,   y,   z-1);
-		neighborhood[ 5] = getPixel(image, x+1, y,   z-1);
-		
-		neighborhood[ 6] = getPixel(image, x-1, y+1, z-1);
-		neighborhood[ 7] = getPixel(image, x,   y+1, z-1);
-		neighborhood[ 8] = getPixel(image, x+1, y+1, z-1);
-		
-		neighborhood[ 9] = getPixel(image, x-1, y-1, z  );
-		neighborhood[10] = getPixel(image, x,   y-1, z  );
-		neighborhood[11] = getPixel(image, x+1, y-1, z  );
-		
-		neighborhood[12] = getPixel(image, x-1, y,   z  );
-		neighborhood[13] = getPixel(image, x,   y,   z  );
-		neighborhood[14] = getPixel(image, x+1, y,   z  );
-		
-		neighborhood[15] = getPixel(image, x-1, y+1, z  );
-		neighborhood[16] = getPixel(image, x,   y+1, z  );
-		neighborhood[17] = getPixel(image, x+1, y+1, z  );
-		
-		neighborhood[18] = getPixel(image, x-1, y-1, z+1);
-		neighborhood[19] = getPixel(image, x,   y-1, z+1);
-		neighborhood[20] = getPixel(image, x+1, y-1, z+1);
-		
-		neighborhood[21] = getPixel(image, x-1, y,   z+1);
-		neighborhood[22] = getPixel(image, x,   y,   z+1);
-		neighborhood[23] = getPixel(image, x+1, y,   z+1);
-		
-		neighborhood[24] = getPixel(image, x-1, y+1, z+1);
-		neighborhood[25] = getPixel(image, x,   y+1, z+1);
-		neighborhood[26] = getPixel(image, x+1, y+1, z+1);
-		
-		return neighborhood;
-	} /* end getNeighborhood */
-	
+		queueVoxel( pixels, x, y - 1, z );
+		queueVoxel( pixels, x, y + 1, z );
+		queueVoxel( pixels, x + 1, y, z );
+		queueVoxel( pixels, x - 1, y, z );
+		if( nBorders > 4 )
+		{
+			queueVoxel( pixels, x, y, z + 1 );
+			queueVoxel( pixels, x, y, z - 1 );
+		}
+	} /* end addNeighborsToFrontier */
+
 	/* -----------------------------------------------------------------------*/
 	/**
-	 * Get pixel in 3D image (0 border conditions) 
-	 * 
-	 * @param image 3D image
-	 * @param x x- coordinate
-	 * @param y y- coordinate
-	 * @param z z- coordinate (in image stacks the indexes start at 1)
-	 * @return corresponding pixel (0 if out of image)
+	 * Add a foreground voxel to the list of voxels joining the frontier
+	 * (if it is not already part of it).
 	 */
-	private byte getPixel(ImageStack image, int x, int y, int z)
+	private void queueVoxel(byte[][] pixels, int x, int y, int z)
 	{
-		if(x >= 0 && x < this.width && y >= 0 && y < this.height && z >= 0 && z < this.depth)
-			return ((byte[]) image.getPixels(z + 1))[x + y * this.width];
-		else return 0;
-	} /* end getPixel */
-	
+		if( x < 0 || x >= this.width || y < 0 || y >= this.height || z < 0 || z >= this.depth )
+			return;
+		final int offset = x + y * this.width;
+		if( pixels[ z ][ offset ] != 1 || this.queued[ z ].get( offset ) )
+			return;
+		this.queued[ z ].set( offset );
+		this.added = append( this.added, this.addedSize++, (long) z * this.width * this.height + offset );
+	} /* end queueVoxel */
+
 	/* -----------------------------------------------------------------------*/
 	/**
-	 * Get pixel in 3D image (no border checking) 
-	 * 
-	 * @param image 3D image
-	 * @param x x- coordinate
-	 * @param y y- coordinate
-	 * @param z z- coordinate (in image stacks the indexes start at 1)
-	 * @return corresponding pixel
+	 * Remove deleted voxels from the frontier and merge the newly exposed
+	 * surface voxels, keeping the raster order.
+	 *
+	 * @param pixels slice arrays of the image
 	 */
-	private byte getPixelNoCheck(ImageStack image, int x, int y, int z)
-	{		
-		return ((byte[]) image.getPixels(z + 1))[x + y * this.width];		
-	} /* end getPixelNocheck */
-	
-	
+	private void updateFrontier(byte[][] pixels)
+	{
+		final long wh = (long) this.width * this.height;
+		int n = 0;
+		for( int i = 0; i < this.frontierSize; i++ )
+		{
+			final long index = this.frontier[ i ];
+			final int z = (int) ( index / wh );
+			if( pixels[ z ][ (int) ( index - z * wh ) ] == 1 )
+				this.frontier[ n++ ] = index;
+		}
+		this.frontierSize = n;
+
+		if( this.addedSize > 0 )
+		{
+			for( int i = 0; i < this.addedSize; i++ )
+				this.frontier = append( this.frontier, this.frontierSize++, this.added[ i ] );
+			this.addedSize = 0;
+			Arrays.sort( this.frontier, 0, this.frontierSize );
+		}
+
+		if( this.isCandidate.length < this.frontier.length )
+			this.isCandidate = new boolean[ this.frontier.length ];
+	} /* end updateFrontier */
+
 	/* -----------------------------------------------------------------------*/
 	/**
-	 * Set pixel in 3D image 
-	 * 
-	 * @param image 3D image
-	 * @param x x- coordinate
-	 * @param y y- coordinate
-	 * @param z z- coordinate (in image stacks the indexes start at 1)
-	 * @param value pixel value
+	 * Free the memory used by the frontier.
 	 */
-	private void setPixel(ImageStack image, int x, int y, int z, byte value)
+	private void releaseFrontier()
 	{
-		if(x >= 0 && x < this.width && y >= 0 && y < this.height && z >= 0 && z < this.depth)
-			((byte[]) image.getPixels(z + 1))[x + y * this.width] = value;
-	} /* end setPixel */
-	
-	
+		this.frontier = null;
+		this.added = null;
+		this.queued = null;
+		this.isCandidate = null;
+		this.frontierSize = this.addedSize = 0;
+	} /* end releaseFrontier */
+
 	/* -----------------------------------------------------------------------*/
 	/**
-	 * Set pixel in 3D image (without checking border conditions)
-	 * 
-	 * @param image 3D image
-	 * @param x x- coordinate
-	 * @param y y- coordinate
-	 * @param z z- coordinate (in image stacks the indexes start at 1)
-	 * @param value pixel value
+	 * Store a value at the given position of an array, growing the array
+	 * if necessary.
+	 *
+	 * @return the (possibly reallocated) array
 	 */
-	private void setPixelNoCheck(ImageStack image, int x, int y, int z, byte value)
-	{		
-			((byte[]) image.getPixels(z + 1))[x + y * this.width] = value;
-	} /* end setPixelNoCheck */
-	
+	private static long[] append(long[] array, int position, long value)
+	{
+		if( position >= array.length )
+		{
+			final long[] grown = new long[ array.length + ( array.length >> 1 ) + 1 ];
+			System.arraycopy( array, 0, grown, 0, position );
+			array = grown;
+		}
+		array[ position ] = value;
+		return array;
+	} /* end append */
+
 	/* -----------------------------------------------------------------------*/
 	/**
-	 * North neighborhood (0 border conditions) 
-	 * 
-	 * @param image 3D image
-	 * @param x x- coordinate
-	 * @param y y- coordinate
-	 * @param z z- coordinate (in image stacks the indexes start at 1)
-	 * @return corresponding north pixel
+	 * Mark the frontier voxels that are simple border points of the given
+	 * type (conditions 1 to 3 in Lee[94], end points excluded). The image
+	 * is only read, so the frontier is processed by several threads.
+	 *
+	 * @param pixels slice arrays of the image
+	 * @param currentBorder border type (1 to 6)
+	 * @param eulerLUT Euler LUT
 	 */
-	private byte N(ImageStack image, int x, int y, int z)
+	private void findSimpleBorderPoints(final byte[][] pixels, final int currentBorder, final int[] eulerLUT)
 	{
-		return getPixel(image, x, y-1, z);
-	} /* end N */
-	
+		final int size = this.frontierSize;
+		final int nChunks = ( size + FRONTIER_CHUNK - 1 ) / FRONTIER_CHUNK;
+		final int nThreads = Math.min( Prefs.getThreads(), nChunks );
+
+		if( nThreads <= 1 )
+		{
+			markSimpleBorderPoints( pixels, currentBorder, eulerLUT, 0, size, new byte[ 27 ], new int[ 26 ] );
+			return;
+		}
+
+		final AtomicInteger ai = new AtomicInteger( 0 );
+		final Thread[] threads = new Thread[ nThreads ];
+		for( int ithread = 0; ithread < nThreads; ithread++ )
+		{
+			threads[ ithread ] = new Thread()
+			{
+				public void run()
+				{
+					final byte[] neighborhood = new byte[ 27 ];
+					final int[] cube = new int[ 26 ];
+					for( int chunk = ai.getAndIncrement(); chunk < nChunks; chunk = ai.getAndIncrement() )
+					{
+						final int start = chunk * FRONTIER_CHUNK;
+						final int end = Math.min( start + FRONTIER_CHUNK, size );
+						markSimpleBorderPoints( pixels, currentBorder, eulerLUT, start, end, neighborhood, cube );
+					}
+				}
+			};
+			threads[ ithread ].start();
+		}
+
+		try
+		{
+			for( int ithread = 0; ithread < nThreads; ithread++ )
+				threads[ ithread ].join();
+		}
+		catch( InterruptedException e )
+		{
+			IJ.handleException( e );
+		}
+	} /* end findSimpleBorderPoints */
+
 	/* -----------------------------------------------------------------------*/
 	/**
-	 * South neighborhood (0 border conditions) 
-	 * 
-	 * @param image 3D image
-	 * @param x x- coordinate
-	 * @param y y- coordinate
-	 * @param z z- coordinate (in image stacks the indexes start at 1)
-	 * @return corresponding south pixel
+	 * Mark the simple border points in a range of the frontier.
+	 *
+	 * @param pixels slice arrays of the image
+	 * @param currentBorder border type (1 to 6)
+	 * @param eulerLUT Euler LUT
+	 * @param start first frontier position
+	 * @param end frontier position after the last one
+	 * @param neighborhood buffer for the 27-voxels neighborhood
+	 * @param cube buffer for the simple point labeling
 	 */
-	private byte S(ImageStack image, int x, int y, int z)
+	private void markSimpleBorderPoints(byte[][] pixels, int currentBorder, int[] eulerLUT,
+			int start, int end, byte[] neighborhood, int[] cube)
 	{
-		return getPixel(image, x, y+1, z);
-	} /* end S */
-	
+		final int wh = this.width * this.height;
+		for( int i = start; i < end; i++ )
+		{
+			this.isCandidate[ i ] = false;
+
+			final long index = this.frontier[ i ];
+			final int z = (int) ( index / wh );
+			final int rest = (int) ( index - (long) z * wh );
+			final int y = rest / this.width;
+			final int x = rest - y * this.width;
+
+			// check if point is foreground
+			if( pixels[ z ][ rest ] != 1 )
+				continue;
+
+			// check 6-neighbors if point is a border point of type currentBorder
+			if( !isBorderPoint( pixels, x, y, z, currentBorder ) )
+				continue;
+
+			getNeighborhood( pixels, x, y, z, neighborhood );
+
+			if( isEndPoint( neighborhood ) )
+				continue;
+
+			// Check if point is Euler invariant (condition 1 in Lee[94])
+			if( !isEulerInvariant( neighborhood, eulerLUT ) )
+				continue;
+
+			// Check if point is simple (deletion does not change connectivity in the 3x3x3 neighborhood)
+			// (conditions 2 and 3 in Lee[94])
+			if( !isSimplePoint( neighborhood, cube ) )
+				continue;
+
+			this.isCandidate[ i ] = true;
+		}
+	} /* end markSimpleBorderPoints */
+
 	/* -----------------------------------------------------------------------*/
 	/**
-	 * East neighborhood (0 border conditions) 
-	 * 
-	 * @param image 3D image
+	 * Check if a point is a border point of a given type, i.e. if its
+	 * neighbor in that direction is background (0 border conditions).
+	 *
+	 * @param pixels slice arrays of the image
 	 * @param x x- coordinate
 	 * @param y y- coordinate
-	 * @param z z- coordinate (in image stacks the indexes start at 1)
-	 * @return corresponding east pixel
+	 * @param z z- coordinate (starting at 0)
+	 * @param border border type (1 to 6: north, south, east, west, up, bottom)
+	 * @return true if the neighbor in the border direction is background
 	 */
-	private byte E(ImageStack image, int x, int y, int z)
+	private boolean isBorderPoint(byte[][] pixels, int x, int y, int z, int border)
 	{
-		return getPixel(image, x+1, y, z);
-	} /* end E */
-	
+		switch( border )
+		{
+			case 1:
+				return y == 0 || pixels[ z ][ x + ( y - 1 ) * this.width ] <= 0;
+			case 2:
+				return y == this.height - 1 || pixels[ z ][ x + ( y + 1 ) * this.width ] <= 0;
+			case 3:
+				return x == this.width - 1 || pixels[ z ][ x + 1 + y * this.width ] <= 0;
+			case 4:
+				return x == 0 || pixels[ z ][ x - 1 + y * this.width ] <= 0;
+			case 5:
+				return z == this.depth - 1 || pixels[ z + 1 ][ x + y * this.width ] <= 0;
+			case 6:
+				return z == 0 || pixels[ z - 1 ][ x + y * this.width ] <= 0;
+		}
+		return false;
+	} /* end isBorderPoint */
+
 	/* -----------------------------------------------------------------------*/
 	/**
-	 * West neighborhood (0 border conditions) 
-	 * 
-	 * @param image 3D image
-	 * @param x x- coordinate
-	 * @param y y- coordinate
-	 * @param z z- coordinate (in image stacks the indexes start at 1)
-	 * @return corresponding west pixel
+	 * Check if a point is a border point of any of the first nBorders types
+	 * (i.e. a surface voxel).
 	 */
-	private byte W(ImageStack image, int x, int y, int z)
+	private boolean hasBackgroundNeighbor(byte[][] pixels, int x, int y, int z, int nBorders)
 	{
-		return getPixel(image, x-1, y, z);
-	} /* end W */
-	
+		for( int border = 1; border <= nBorders; border++ )
+			if( isBorderPoint( pixels, x, y, z, border ) )
+				return true;
+		return false;
+	} /* end hasBackgroundNeighbor */
+
+	/**
+	 * Check if point is the end of an arc
+	 *
+	 * @param neighborhood 27-voxels neighborhood of the point
+	 * @return true if the point has exactly one neighbor
+	 */
+	private boolean isEndPoint(byte[] neighborhood)
+	{
+		int numberOfNeighbors = -1;   // -1 and not 0 because the center pixel will be counted as well
+		for( int i = 0; i < 27; i++ )
+			if( neighborhood[i] == 1 )
+				numberOfNeighbors++;
+		return numberOfNeighbors == 1;
+	}
+
 	/* -----------------------------------------------------------------------*/
 	/**
-	 * Up neighborhood (0 border conditions) 
-	 * 
-	 * @param image 3D image
+	 * Get neighborhood of a pixel in a 3D image (0 border conditions),
+	 * reading directly from the slice arrays into the given buffer.
+	 *
+	 * @param pixels slice arrays of the image
 	 * @param x x- coordinate
 	 * @param y y- coordinate
-	 * @param z z- coordinate (in image stacks the indexes start at 1)
-	 * @return corresponding up pixel
+	 * @param z z- coordinate (starting at 0)
+	 * @param neighborhood buffer of length 27 for the neighborhood
 	 */
-	private byte U(ImageStack image, int x, int y, int z)
+	private void getNeighborhood(byte[][] pixels, int x, int y, int z, byte[] neighborhood)
 	{
-		return getPixel(image, x, y, z+1);
-	} /* end U */
-	
+		int n = 0;
+		if( x > 0 && x < this.width - 1 && y > 0 && y < this.height - 1 && z > 0 && z < this.depth - 1 )
+		{
+			for( int k = z - 1; k <= z + 1; k++ )
+			{
+				final byte[] slice = pixels[ k ];
+				for( int offset = x + ( y - 1 ) * this.width; offset <= x + ( y + 1 ) * this.width; offset += this.width )
+				{
+					neighborhood[ n++ ] = slice[ offset - 1 ];
+					neighborhood[ n++ ] = slice[ offset ];
+					neighborhood[ n++ ] = slice[ offset + 1 ];
+				}
+			}
+			return;
+		}
+
+		for( int k = z - 1; k <= z + 1; k++ )
+			for( int j = y - 1; j <= y + 1; j++ )
+				for( int i = x - 1; i <= x + 1; i++ )
+				{
+					if( i >= 0 && i < this.width && j >= 0 && j < this.height && k >= 0 && k < this.depth )
+						neighborhood[ n++ ] = pixels[ k ][ i + j * this.width ];
+					else
+						neighborhood[ n++ ] = 0;
+				}
+	} /* end getNeighborhood */
+
 	/* -----------------------------------------------------------------------*/
 	/**
-	 * Bottom neighborhood (0 border conditions) 
-	 * 
-	 * @param image 3D image
+	 * Get neighborhood of a pixel in a 3D image (0 border conditions)
+	 *
+	 * @param image 3D image (ImageStack)
 	 * @param x x- coordinate
 	 * @param y y- coordinate
-	 * @param z z- coordinate (in image stacks the indexes start at 1)
-	 * @return corresponding bottom pixel
+	 * @param z z- coordinate (starting at 0)
+	 * @return corresponding 27-pixels neighborhood (0 if out of image)
+	 * @deprecated the thinning reads the neighborhoods from the slice
+	 *             arrays; use the buffer-based lookup instead
 	 */
-	private byte B(ImageStack image, int x, int y, int z)
+	@Deprecated
+	public byte[] getNeighborhood(ImageStack image, int x, int y, int z)
 	{
-		return getPixel(image, x, y, z-1);
-	} /* end B */
-	
+		final byte[][] pixels = new byte[ this.depth ][];
+		for( int k = 0; k < this.depth; k++ )
+			pixels[ k ] = (byte[]) image.getPixels( k + 1 );
+		final byte[] neighborhood = new byte[ 27 ];
+		getNeighborhood( pixels, x, y, z, neighborhood );
+		return neighborhood;
+	} /* end getNeighborhood */
+
 	/* -----------------------------------------------------------------------*/
 	/**
 	 * Fill Euler LUT
@@ -1037,12 +1041,12 @@ public boolean isSurfacePoint( byte[] neighbors, int[] pointsLUT )
 	 * after this point would have been removed.
 	 * 
 	 * @param neighbors neighbor pixels of the point
+	 * @param cube buffer of length 26 for the labeling
 	 * @return true or false if the point is simple or not
 	 */
-	private boolean isSimplePoint(byte[] neighbors) 
+	private boolean isSimplePoint(byte[] neighbors, int[] cube)
 	{
 		// copy neighbors for labeling
-		int cube[] = new int[26];
 		int i = 0;
 		for( i = 0; i < 13; i++ )  // i =  0..12 -> cube[0..12]
 			cube[i] = neighbors[i];
@@ -12,6 +12,8 @@
 import javax.swing.*;
 import java.awt.event.*;
 import javax.swing.event.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 /* Christopher Philip Mauer. Copyright (c) 2003.
 Permission to use, copy, modify, and distribute this software for any purpose 
 without fee is hereby granted, provided that this entire notice is included in 
@@ -60,6 +62,7 @@ public class Kalman_Filter implements PlugIn{
 	private boolean stopit = false;
 	private boolean stop = true;
 	private boolean save = false;
+	private boolean stream = false;
 	private boolean test = true;
 	
 	public void run (String argv){
@@ -73,7 +76,10 @@ public void run (String argv){
 				imp2 = new ImagePlus(filteredDirectory[0]);
 			}
 		}
-		if(f==true&&g==true) Kalmanizer();
+		if(f==true&&g==true){
+			if(stream==true) KalmanizeToDisk();
+			else Kalmanizer();
+		}
 	}
 	public boolean getFiles(){
 		String directory = "";
@@ -124,7 +130,7 @@ public boolean getFiles(){
 				++j;
 			}
 		}
-		newfileName = savedirectory+"\\"+savename+"K";/*for naming the saved files*/
+		newfileName = savedirectory+File.separator+savename+"K";/*for naming the saved files*/
 		return true;
 	}
 	public boolean getStartSpecs(){
@@ -141,6 +147,7 @@ public boolean getStartSpecs(){
 		finfo.addNumericField("Enter the system noise estimate", percentvar, 2);
 		finfo.addNumericField("Enter the frame per second rate", fps, 0);
 		finfo.addCheckbox("Save the results?", save);
+		finfo.addCheckbox("Stream to disk without display (constant memory)", stream);
 		finfo.showDialog();
 		if(finfo.wasCanceled()) return false;
 		numimages = finfo.getNextNumber();
@@ -173,6 +180,7 @@ public boolean getStartSpecs(){
 			gain = 0.80;
 		}
 		save = finfo.getNextBoolean();	
+		stream = finfo.getNextBoolean();
 		sbar.gainval.setText(String.valueOf(gain));
 		sbar.fpsval.setText(String.valueOf((int)fps));
 		sbar.gslider.setValue((int)(gain*100));
@@ -294,6 +302,147 @@ public void Kalmanizer(){
 			}			
 		}
 	}
+	/* Streaming variant of the Kalmanizer: the frames are read one at a time through a
+	virtual stack, the per pixel state is kept in float arrays and updated in parallel
+	row chunks, and every filtered frame is written to disk while the next one is
+	computed. Memory use does not depend on the number of frames. Nothing is displayed,
+	and the filter runs as fast as the frames can be read and written. */
+	public void KalmanizeToDisk(){
+		int m = imp.getWidth();
+		int n = imp.getHeight();
+		int frames = (int)numimages;
+		if(imp.getType()!=ImagePlus.GRAY16){
+			IJ.showMessage("KalmanFilter uses 16bit images");
+			return;
+		}
+		/*all files share the directory of the naming convention*/
+		File first = new File(filteredDirectory[0]);
+		ColorModel cm = imp.getProcessor().getColorModel();
+		VirtualStack input = new VirtualStack(m, n, cm, first.getParent()+File.separator);
+		for(int i=0;i<frames;++i) input.addSlice(new File(filteredDirectory[i]).getName());
+
+		float predicted[] = new float[m*n];
+		float predictedvar[] = new float[m*n];
+		short firstslice[] = (short[])imp.getProcessor().getPixels();
+		for(int k=0;k<predicted.length;++k){
+			predicted[k] = (float)((((double)firstslice[k])+32768)/65535);
+			predictedvar[k] = (float)percentvar;
+		}
+
+		frameSaver saver = new frameSaver(m, n, cm);
+		saver.start();
+		stopit = false;
+		for(int i=0;i<frames&&!stopit&&saver.failed==null;++i){
+			IJ.showStatus("Kalman Filter "+(i+1)+"/"+frames);
+			IJ.showProgress(i, frames);
+			short observed[];
+			try{
+				observed = (short[])input.getProcessor(i+1).getPixels();
+			}
+			catch(ClassCastException e){
+				IJ.showMessage("KalmanFilter uses 16bit images: "+filteredDirectory[i]);
+				break;
+			}
+			short filtered[] = new short[m*n];
+			filterFrame(observed, predicted, predictedvar, filtered, m, n, gain, percentvar);
+			saver.add(filtered);
+		}
+		saver.finish();
+		IJ.showProgress(1.0);
+		if(saver.failed!=null) IJ.showMessage("Kalman Filter", "Could not save "+saver.failed);
+		else IJ.showStatus("Kalman Filter: saved to "+savedirectory);
+	}
+	/* Corrects the prediction of each pixel with the observed frame, in chunks of rows on
+	all available threads. The arithmetic is that of the Kalmanizer. */
+	public static void filterFrame(final short observed[], final float predicted[], final float predictedvar[],
+			final short filtered[], final int m, final int n, final double gain, final double noisevar){
+		final int numThreads = Math.max(1, Math.min(Prefs.getThreads(), n));
+		final int rows = Math.max(1, n/(4*numThreads));
+		final AtomicInteger nextRow = new AtomicInteger(0);
+		Thread threads[] = new Thread[numThreads];
+		for(int t=0;t<numThreads;++t){
+			threads[t] = new Thread(){
+				public void run(){
+					for(int y=nextRow.getAndAdd(rows);y<n;y=nextRow.getAndAdd(rows)){
+						int end = Math.min(n, y+rows)*m;
+						for(int k=y*m;k<end;++k){
+							double observedk = (((double)observed[k])+32768)/65535;
+							double Kalman = predictedvar[k]/(predictedvar[k]+noisevar);
+							double corrected = gain*predicted[k]+(1.0-gain)*observedk
+							+Kalman*(observedk - predicted[k]);
+							predictedvar[k] = (float)(predictedvar[k]*(1.0 - Kalman));
+							predicted[k] = (float)corrected;
+							filtered[k] = (short)((corrected*65535)-32768);
+						}
+					}
+				}
+			};
+		}
+		if(numThreads==1){
+			threads[0].run();
+			return;
+		}
+		for(int t=0;t<numThreads;++t) threads[t].start();
+		try{
+			for(int t=0;t<numThreads;++t) threads[t].join();
+		}
+		catch(InterruptedException e){
+			for(int t=0;t<numThreads;++t) threads[t].interrupt();
+			throw new RuntimeException(e);
+		}
+	}
+	/* Writes the filtered frames, named like the saved results of the Kalmanizer,
+	on a thread of its own. At most two frames are waiting at any time. */
+	class frameSaver extends Thread{
+		private final ArrayBlockingQueue<short[]> queue = new ArrayBlockingQueue<short[]>(2);
+		private final int m, n;
+		private final ColorModel cm;
+		protected volatile String failed = null;
+		frameSaver(int m, int n, ColorModel cm){
+			this.m = m;
+			this.n = n;
+			this.cm = cm;
+		}
+		void add(short filtered[]){
+			try{
+				queue.put(filtered);
+			}
+			catch(InterruptedException e){
+				throw new RuntimeException(e);
+			}
+		}
+		void finish(){
+			add(new short[0]);
+			try{
+				join();
+			}
+			catch(InterruptedException e){
+				throw new RuntimeException(e);
+			}
+		}
+		public void run(){
+			for(int i=0;;++i){
+				short filtered[];
+				try{
+					filtered = queue.take();
+				}
+				catch(InterruptedException e){
+					return;
+				}
+				if(filtered.length==0) return;
+				if(failed!=null) continue;
+				String s = "00000"+i;
+				String ss = s.substring(s.length()-6);
+				ImagePlus frame = new ImagePlus("Kalman Filter "+(i+1), new ShortProcessor(m, n, filtered, cm));
+				try{
+					if(!new FileSaver(frame).saveAsTiff(newfileName+ss+".tif")) failed = newfileName+ss+".tif";
+				}
+				catch(RuntimeException e){
+					failed = newfileName+ss+".tif ("+e+")";
+				}
+			}
+		}
+	}
 	public short[] double2short(double array[]){
 		short shortarray[] = new short[array.length];
 		for(int j=0;j<array.length;++j){
@@ -0,0 +1,157 @@
+package fiji.plugin.volumeviewer;
+
+/**
+ * Coarse min/max grid over the padded volume arrays, used by the ray caster
+ * to jump over bricks whose samples can only map to a transparent alpha.
+ *
+ * The per-brick value ranges are computed once per data array; which bricks
+ * are transparent is re-evaluated cheaply whenever the transfer function is
+ * rebuilt (see {@link #update}).
+ */
+class BrickGrid {
+
+	static final int SHIFT = 3;
+	static final int SIZE = 1 << SHIFT;		// brick edge length in voxels
+
+	private Volume vol;
+	private int nx, ny, nz;
+
+	// value ranges [min, max] of each brick, lazily computed per array
+	private byte[][] rangeData, rangeGrad, rangeMean, rangeDiff;
+
+	private boolean[] empty;
+	private boolean active;
+
+	BrickGrid(Volume vol) {
+		this.vol = vol;
+		nx = ((vol.widthV  + 4) >> SHIFT) + 1;
+		ny = ((vol.heightV + 4) >> SHIFT) + 1;
+		nz = ((vol.depthV  + 4) >> SHIFT) + 1;
+		empty = new boolean[nx*ny*nz];
+	}
+
+	/**
+	 * Re-evaluates the empty bricks for the current alpha mode and transfer
+	 * function. The skipping is only exact for nearest neighbor and trilinear
+	 * interpolation, whose results never leave the range of the voxels they read.
+	 *
+	 * @param paintChanged whether the painted alpha volume (ALPHA4) may have changed
+	 */
+	void update(int alphaMode, int interpolationMode, float[] a1, float[][] a2, float[][] a3, boolean paintChanged) {
+		active = interpolationMode == Control.NN || interpolationMode == Control.TRILINEAR;
+		if (!active)
+			return;
+
+		if (alphaMode == Control.ALPHA1) {
+			if (rangeData == null)
+				rangeData = getRanges(vol.data3D[0]);
+			int[] count = new int[a1.length+1];
+			for (int i = 0; i < a1.length; i++)
+				count[i+1] = count[i] + (a1[i] != 0 ? 1 : 0);
+			for (int i = 0; i < empty.length; i++) {
+				int min = rangeData[0][i] & 0xff, max = rangeData[1][i] & 0xff;
+				empty[i] = count[max+1] - count[min] == 0;
+			}
+		}
+		else if (alphaMode == Control.ALPHA2 || alphaMode == Control.ALPHA3) {
+			byte[][] rangeX, rangeY;
+			float[][] a;
+			if (alphaMode == Control.ALPHA2) {
+				if (rangeData == null)
+					rangeData = getRanges(vol.data3D[0]);
+				if (rangeGrad == null)
+					rangeGrad = getRanges(vol.grad3D);
+				rangeX = rangeData;
+				rangeY = rangeGrad;
+				a = a2;
+			}
+			else {
+				if (rangeMean == null)
+					rangeMean = getRanges(vol.mean3D);
+				if (rangeDiff == null)
+					rangeDiff = getRanges(vol.diff3D);
+				rangeX = rangeMean;
+				rangeY = rangeDiff;
+				a = a3;
+			}
+			// summed area table of the non transparent entries
+			int w = a.length, h = a[0].length;
+			int[][] count = new int[w+1][h+1];
+			for (int x = 0; x < w; x++)
+				for (int y = 0; y < h; y++)
+					count[x+1][y+1] = count[x][y+1] + count[x+1][y] - count[x][y] + (a[x][y] != 0 ? 1 : 0);
+			for (int i = 0; i < empty.length; i++) {
+				int x0 = rangeX[0][i] & 0xff, x1 = rangeX[1][i] & 0xff;
+				int y0 = Math.min(h-1, rangeY[0][i] & 0xff), y1 = Math.min(h-1, rangeY[1][i] & 0xff);
+				empty[i] = count[x1+1][y1+1] - count[x0][y1+1] - count[x1+1][y0] + count[x0][y0] == 0;
+			}
+		}
+		else if (paintChanged) { // ALPHA4
+			byte[][] rangePaint = getRanges(vol.aPaint_3D);
+			for (int i = 0; i < empty.length; i++)
+				empty[i] = rangePaint[1][i] == 0;
+		}
+	}
+
+	/**
+	 * Returns the number of further samples along the ray (x, y, z) + n*(dx, dy, dz)
+	 * that are guaranteed to fall into the same transparent brick, or -1 if the
+	 * brick of the current sample is not transparent.
+	 */
+	final int samplesToSkip(float x, float y, float z, float dx, float dy, float dz) {
+		if (!active)
+			return -1;
+		// the interpolation reads the voxels (int)(v+0.5)+1 and the next one
+		int bx = ((int)(x+0.5f)+1) >> SHIFT;
+		int by = ((int)(y+0.5f)+1) >> SHIFT;
+		int bz = ((int)(z+0.5f)+1) >> SHIFT;
+		if (!empty[(bz*ny + by)*nx + bx])
+			return -1;
+
+		float t = Math.min(steps(x, dx, bx), Math.min(steps(y, dy, by), steps(z, dz, bz)));
+		return Math.max(0, (int)t - 1);
+	}
+
+	// number of steps until the sample coordinate v leaves brick b
+	private static float steps(float v, float d, int b) {
+		if (d > 0)
+			return (((b+1) << SHIFT) - 1.5f - v) / d;
+		if (d < 0)
+			return ((b << SHIFT) - 1.5f - v) / d;
+		return Float.MAX_VALUE;
+	}
+
+	private byte[][] getRanges(byte[][][] data) {
+		byte[] min = new byte[empty.length];
+		byte[] max = new byte[empty.length];
+		int d = data.length, h = data[0].length, w = data[0][0].length;
+
+		for (int bz = 0; bz < nz; bz++) {
+			// a brick also covers the neighbors read by the interpolation
+			int z0 = bz << SHIFT, z1 = Math.min(d, z0 + SIZE + 2);
+			for (int by = 0; by < ny; by++) {
+				int y0 = by << SHIFT, y1 = Math.min(h, y0 + SIZE + 2);
+				for (int bx = 0; bx < nx; bx++) {
+					int x0 = bx << SHIFT, x1 = Math.min(w, x0 + SIZE + 2);
+					int lo = 255, hi = 0;
+					for (int z = z0; z < z1; z++)
+						for (int y = y0; y < y1; y++) {
+							byte[] row = data[z][y];
+							for (int x = x0; x < x1; x++) {
+								int v = row[x] & 0xff;
+								if (v < lo) lo = v;
+								if (v > hi) hi = v;
+							}
+						}
+					if (lo > hi)
+						lo = hi = 0;
+					// trilinear weights may round just below the smallest voxel
+					int i = (bz*ny + by)*nx + bx;
+					min[i] = (byte) Math.max(0, lo-1);
+					max[i] = (byte) hi;
+				}
+			}
+		}
+		return new byte[][] {min, max};
+	}
+}
@@ -106,6 +106,7 @@ public class Control {
 	int lightGreen = 128;
 	int lightBlue = 0;
 	boolean snapshot = false;
+	int movieFrames = 0;		// > 0: render a rotation movie in batch mode
 	
 	int xloc;
 	int yloc;
@@ -15,6 +15,8 @@
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.swing.SwingWorker;
 import javax.swing.UIManager;
@@ -561,10 +563,8 @@ public void render_SliceAndBorders(){
 		updateImage();
 	}
 
-	private int maxThreads = 8;
-	private int numThreads = 1;
+	private int numThreads = Runtime.getRuntime().availableProcessors();
 	private int subMax;
-	private int counter = 0;
 	private boolean doStopRendering;
 	private boolean isRendering = false;
 	private int sub;
@@ -572,14 +572,38 @@ public void render_SliceAndBorders(){
 	private float[] light;
 	private boolean lastReady;
 	private boolean isRGB;
+	private BrickGrid bricks;
+
+	// rows per work item, the threads pull these tiles until the image is done
+	private static final int TILE_ROWS = 8;
 
 
 	public void render_volume(int sub){
 		if (control.LOG) System.out.println("render volume, sub: " + sub);
 		
 		isRendering = true;
-		counter = numThreads = (sub == subMax) ? 1 : maxThreads;
 		
+		int actualInterpolationMode = control.interpolationMode;
+		RenderCalculations rc = prepareRendering(sub);
+		rc.execute();
+			
+		control.interpolationMode = actualInterpolationMode;			
+	}
+
+	/**
+	 * Renders the volume at full resolution in the calling thread and returns 
+	 * the ARGB pixels. Unlike {@link #startVolumeRendering()} this does not 
+	 * refine progressively nor touch the GUI, so it can be called repeatedly 
+	 * (e.g. for the frames of a rotation movie) once the viewer is idle.
+	 */
+	public int[] renderVolumeOffscreen() {
+		sub = 1;
+		prepareRendering(1).doRendering();
+		updateImage();
+		return pixels.clone();
+	}
+
+	private RenderCalculations prepareRendering(int sub) {
 		setPixelsToZero();
 
 		int actualInterpolationMode = control.interpolationMode;
@@ -654,19 +678,18 @@ else if (control.alphaMode == Control.ALPHA3) {
 			vv.vol.calculateGradients();
 
 		volData3D = vv.vol.data3D[0];
+
+		// transparent bricks follow the transfer function, the painted alpha
+		// can only have changed when a new progressive rendering is started
+		if (bricks == null)
+			bricks = new BrickGrid(vv.vol);
+		bricks.update(control.alphaMode, actualInterpolationMode, vv.a1_R, vv.a2_R, vv.a3_R, sub == subMax || sub == 1);
 		
 		ySmin = (ySmin/sub)*sub;
-		int stripHeight = (ySmax-ySmin) / numThreads;
-		stripHeight = (stripHeight/sub) *sub;
-		int stripStart = ySmin;
 
 		isRGB = control.isRGB && control.lutNr == 0;
 		
-		for(int i = 0; i < numThreads-1; i++, stripStart += stripHeight) 
-			new RenderCalculations(sub, nd, dxV, dyV, dzV, xSmin, xSmax, stripStart, stripStart+stripHeight, zSmin).execute();
-		new RenderCalculations(sub, nd, dxV, dyV, dzV, xSmin, xSmax, stripStart, stripStart+stripHeight, zSmin).execute();
-			
-		control.interpolationMode = actualInterpolationMode;			
+		return new RenderCalculations(sub, nd, dxV, dyV, dzV, xSmin, xSmax, ySmin, ySmax, zSmin);
 	}
 
 
@@ -674,6 +697,7 @@ private class RenderCalculations extends SwingWorker<Void, Void> {
 
 		private int sub, nd, xSMin, xSMax, ySMin, ySMax;
 		private float dxV, dyV, dzV, zSMin;
+		private final AtomicInteger nextTile = new AtomicInteger();
 		
 		public RenderCalculations(int sub, int nd, float dxV, float dyV, float dzV, 
 				int xSMin, int xSMax, int ySMin, int ySMax, float zSMin) {
@@ -696,14 +720,13 @@ protected Void doInBackground(){
 
 		@Override
 		protected void done(){
-			counter--;
-			if (doStopRendering && counter == 0) {
+			if (doStopRendering) {
 				isRendering = false;
 				doStopRendering = false;
 				sub = subMax;
 				startVolumeRendering(sub);
 			}
-			else if (!doStopRendering && counter == 0) {
+			else {
 				updateImage();
 				isRendering = false;
 				if (sub==1)
@@ -728,7 +751,35 @@ else if (sub >= 3) {
 			}
 		}
 
+		// render the image in small tiles of rows which are handed out to all cores
 		private Void doRendering() {
+			final int tileHeight = ((TILE_ROWS + sub - 1)/sub)*sub;
+			final int nTiles = (ySMax - ySMin + tileHeight - 1)/tileHeight;
+
+			Thread[] threads = new Thread[Math.max(1, Math.min(numThreads, nTiles))];
+			for (int t = 0; t < threads.length; t++) {
+				threads[t] = new Thread() {
+					public void run() {
+						Random random = new Random();
+						for (int i = nextTile.getAndIncrement(); i < nTiles; i = nextTile.getAndIncrement()) {
+							int y0 = ySMin + i*tileHeight;
+							if (!renderTile(y0, Math.min(ySMax, y0 + tileHeight), random))
+								return;
+						}
+					}
+				};
+				threads[t].start();
+			}
+			try {
+				for (int t = 0; t < threads.length; t++)
+					threads[t].join();
+			} catch (InterruptedException e) {
+				doStopRendering = true;
+			}
+			return null;
+		}
+
+		private boolean renderTile(int ySMin, int ySMax, Random random) {
 			int s_2 = sub/2;
 
 			// Startpunkt xSMin ySMin zSMin (tiefster Punkt) in Screenkoordinaten
@@ -745,12 +796,12 @@ private Void doRendering() {
 
 			for (int yS = ySMin; yS < ySMax; yS++) {				
 				for (int j=0, xS = xSMin; xS < xSMax; xS++, j++) {
-					if (doStopRendering) return null;
+					if (doStopRendering) return false;
 					if (vv.cube.isInside(xS, yS)) {
 						if (yS%sub == 0 && xS%sub == 0) {
 							boolean hasBeenInTheVolume = false;
 
-							float rand = (float) (-Math.random());
+							float rand = -random.nextFloat();
 							float xV = x0V + j*dxVx + rand*dxV; 
 							float yV = y0V + j*dyVx + rand*dyV; 
 							float zV = z0V + j*dzVx + rand*dzV; 
@@ -788,6 +839,16 @@ else if(zV > vv.vol.depthV)
 								if (xV >= 0 && xV <= vv.vol.widthV && yV >= 0 && yV <= vv.vol.heightV && zV >= 0 && zV <= vv.vol.depthV) { 
 									hasBeenInTheVolume = true;
 									
+									// jump over bricks that are completely transparent
+									int skip = bricks.samplesToSkip(xV, yV, zV, dxV, dyV, dzV);
+									if (skip >= 0) {
+										n += skip;
+										xV += skip*dxV;
+										yV += skip*dyV;
+										zV += skip*dzV;
+										continue;
+									}
+
 									if (control.alphaMode == Control.ALPHA1) {
 										val = interpolation.get(volData3D, zV, yV, xV);
 										a = vv.a1_R[val];
@@ -954,7 +1015,7 @@ else if (control.renderMode == Control.PROJECTION) {
 				y0V += dyVy; 
 				z0V += dzVy; 
 			}
-			return null;
+			return true;
 		}
 	}
 	
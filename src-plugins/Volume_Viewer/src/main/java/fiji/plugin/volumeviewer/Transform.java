@@ -379,6 +379,20 @@ public void setMouseMovement(int xAct, int yAct, int xStart, int yStart, float w
 		initializeTransformation();	
 	}
 
+	// rotate the current view by angle (radians) around the given screen axis
+	public void rotate(float xAxis, float yAxis, float zAxis, float angle) {
+		float len = xAxis*xAxis+yAxis*yAxis+zAxis*zAxis;
+		if (len <= 0)
+			return;
+		float len_ = (float) (1./Math.sqrt(len));
+		xRot = xAxis*len_;
+		yRot = yAxis*len_;
+		zRot = zAxis*len_;
+		rotAngle = angle;
+
+		initializeTransformation();
+	}
+
 	public void setMouseMovementOffset(int dx, int dy) {
 		xOff += dx/scale;
 		yOff += dy/scale;
@@ -10,11 +10,13 @@
 import ij.IJ;
 //import ij.ImageJ;
 import ij.ImagePlus;
+import ij.ImageStack;
 import ij.Macro;
 import ij.Prefs;
 import ij.WindowManager;
 import ij.macro.Interpreter;
 import ij.plugin.PlugIn;
+import ij.process.ColorProcessor;
 
 import java.awt.Color;
 import java.awt.Dimension;
@@ -142,7 +144,10 @@ public void run(String args) {
 					e.printStackTrace();
 				}
 			} while (!control.isReady);
-			gui.imageRegion.saveToImage();
+			if (control.movieFrames > 0)
+				renderRotationMovie(control.movieFrames, 0, 1, 0).show();
+			else
+				gui.imageRegion.saveToImage();
 			cleanup();
 		}
 		else {
@@ -349,6 +354,43 @@ void initializeTransformation() {
 		updateGuiSpinners();
 	}
 	
+	/**
+	 * Renders nFrames volume views offscreen, rotating the view by 360/nFrames
+	 * degrees around the given screen axis between frames. The viewer must be
+	 * idle (control.isReady), the view is left at its starting orientation.
+	 */
+	ImagePlus renderRotationMovie(int nFrames, float xAxis, float yAxis, float zAxis) {
+		int width = gui.pic.getWidth();
+		int height = gui.pic.getHeight();
+		int bg = control.backgroundColor.getRGB();
+		int bgR = (bg >> 16) & 0xff, bgG = (bg >> 8) & 0xff, bgB = bg & 0xff;
+		float angle = (float) (2*Math.PI/nFrames);
+
+		ImageStack stack = new ImageStack(width, height);
+		for (int i = 0; i < nFrames; i++) {
+			IJ.showStatus("Rendering frame " + (i+1) + "/" + nFrames);
+			IJ.showProgress(i, nFrames);
+
+			int[] pixels = gui.pic.renderVolumeOffscreen();
+			// the rendered colors are weighted by their alpha, blend over the background
+			for (int j = 0; j < pixels.length; j++) {
+				int c = pixels[j];
+				int a_ = 255 - (c >>> 24);
+				int r = Math.min(255, ((c >> 16) & 0xff) + bgR*a_/255);
+				int g = Math.min(255, ((c >>  8) & 0xff) + bgG*a_/255);
+				int b = Math.min(255, ( c        & 0xff) + bgB*a_/255);
+				pixels[j] = (r << 16) | (g << 8) | b;
+			}
+			stack.addSlice("" + (i+1), new ColorProcessor(width, height, pixels));
+
+			tr.rotate(xAxis, yAxis, zAxis, angle);
+			updateGuiSpinners();
+		}
+		IJ.showProgress(1.0);
+		IJ.showStatus("");
+		return new ImagePlus("Volume_Viewer_Movie", stack);
+	}
+
 	void setScale() {
 		tr.setScale(control.scale);
 	}
@@ -418,7 +460,8 @@ private boolean getMacroParameters(String st) {		// read macro parameters
 				"lightRed=",
 				"lightGreen=",
 				"lightBlue=",
-				"snapshot="
+				"snapshot=",
+				"movie_frames="
 		};
 	
 		float[] paramVals = {
@@ -450,7 +493,8 @@ private boolean getMacroParameters(String st) {		// read macro parameters
 				control.lightRed,
 				control.lightGreen,
 				control.lightBlue,
-				(control.snapshot == true) ? 1 : 0
+				(control.snapshot == true) ? 1 : 0,
+				control.movieFrames
 		};
 		boolean distWasSet = false;
 		try {
@@ -500,7 +544,8 @@ private boolean getMacroParameters(String st) {		// read macro parameters
 								"shineValue=17		float (0 .. 200)\n"+
 								"objectLightValue=0.5	float (0 .. 2)\n"+
 								"lightRed=255  lightGreen=128  lightBlue=0	int (0 .. 255)\n"+
-								"snapshot=0		int (0,1)"
+								"snapshot=0		int (0,1)\n"+
+								"movie_frames=0		int (>= 0)"
 								);
 						return false;
 					}	
@@ -541,6 +586,7 @@ private boolean getMacroParameters(String st) {		// read macro parameters
 		control.lightGreen=		(int) Math.max(0, Math.min(255, paramVals[26]));
 		control.lightBlue=		(int) Math.max(0, Math.min(255, paramVals[27]));
 		control.snapshot= 	    ((int) paramVals[28] == 0)? false : true;
+		control.movieFrames=	(int) Math.max(0, paramVals[29]);
 		
 		control.scaledDist = control.dist*control.scale;
 		
@@ -0,0 +1,139 @@
+package common;
+
+import java.util.LinkedList;
+
+/**
+ * A pool of warm interpreters for one scripting language.
+ *
+ * Starting an interpreter, and importing the ImageJ classes into it, often
+ * takes much longer than the script itself. Interpreters are therefore
+ * handed back to the pool after running a script, and reused by the next
+ * script once their state was reset.
+ *
+ * For languages whose state cannot be reset, {@link #reset(Object)} returns
+ * false, and {@link #warmUp(int)} can be used to start fresh interpreters in
+ * the background instead.
+ */
+public abstract class InterpreterPool<T> {
+	protected final ScriptTimings timings;
+	protected final int maxIdle;
+	protected final LinkedList<T> idle = new LinkedList<T>();
+	protected Thread warmer;
+
+	/**
+	 * @param maxIdle how many unused interpreters to keep at most
+	 */
+	public InterpreterPool(ScriptTimings timings, int maxIdle) {
+		this.timings = timings;
+		this.maxIdle = maxIdle;
+	}
+
+	/** Start a new interpreter. */
+	protected abstract T create() throws Exception;
+
+	/**
+	 * Reset the state of an interpreter after it ran a script.
+	 *
+	 * @return whether the interpreter can be reused
+	 */
+	protected boolean reset(T interpreter) throws Exception {
+		return true;
+	}
+
+	/** Release the resources of an interpreter which is no longer used. */
+	protected void dispose(T interpreter) { }
+
+	/**
+	 * Returns an idle interpreter, or a new one if there is none.
+	 */
+	public T acquire() throws Exception {
+		synchronized (this) {
+			if (!idle.isEmpty()) {
+				timings.reused();
+				return idle.removeFirst();
+			}
+		}
+		return createTimed();
+	}
+
+	/**
+	 * Hand an interpreter back to the pool after it ran a script.
+	 */
+	public void release(T interpreter) {
+		boolean reusable;
+		try {
+			reusable = reset(interpreter);
+		} catch (Throwable t) {
+			t.printStackTrace();
+			reusable = false;
+		}
+		if (reusable && offer(interpreter))
+			return;
+		dispose(interpreter);
+	}
+
+	/**
+	 * Throw away an interpreter whose state is unknown, e.g. because the
+	 * script failed.
+	 */
+	public void discard(T interpreter) {
+		dispose(interpreter);
+	}
+
+	/**
+	 * Make sure that the given number of idle interpreters is available,
+	 * starting them in a low-priority background thread.
+	 */
+	public synchronized void warmUp(final int count) {
+		if (idle.size() >= count || (warmer != null && warmer.isAlive()))
+			return;
+		final ClassLoader loader = Thread.currentThread().getContextClassLoader();
+		warmer = new Thread("Warm up " + timings.languageName + " interpreters") {
+			public void run() {
+				setContextClassLoader(loader);
+				try {
+					for (;;) {
+						synchronized (InterpreterPool.this) {
+							if (idle.size() >= count)
+								return;
+						}
+						if (!offer(createTimed()))
+							return;
+					}
+				} catch (Throwable t) {
+					t.printStackTrace();
+				}
+			}
+		};
+		warmer.setDaemon(true);
+		warmer.setPriority(Thread.MIN_PRIORITY);
+		warmer.start();
+	}
+
+	/**
+	 * Dispose of all idle interpreters.
+	 */
+	public void clear() {
+		LinkedList<T> list;
+		synchronized (this) {
+			list = new LinkedList<T>(idle);
+			idle.clear();
+		}
+		for (T interpreter : list)
+			dispose(interpreter);
+	}
+
+	protected T createTimed() throws Exception {
+		long start = System.nanoTime();
+		T result = create();
+		timings.created(System.nanoTime() - start);
+		return result;
+	}
+
+	protected synchronized boolean offer(T interpreter) {
+		if (idle.size() >= maxIdle)
+			return false;
+		idle.addLast(interpreter);
+		return true;
+	}
+}
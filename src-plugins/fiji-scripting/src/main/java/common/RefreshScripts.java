@@ -35,6 +35,7 @@ as published by the Free Software Foundation (http://www.gnu.org/licenses/gpl.tx
 import ij.ImageJ;
 import ij.Macro;
 import ij.Menus;
+import ij.Prefs;
 
 import ij.plugin.PlugIn;
 
@@ -52,6 +53,8 @@ as published by the Free Software Foundation (http://www.gnu.org/licenses/gpl.tx
 import java.io.OutputStream;
 
 import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
 
 /**
  *  This class looks through the plugins directory for files with a
@@ -334,6 +337,43 @@ public void runScript(InputStream istream, String fileName) {
 	/** Run the script in a new thread. */
 	abstract public void runScript(String filename);
 
+	protected static Map<String, ScriptTimings> timings = new TreeMap<String, ScriptTimings>();
+
+	/** Returns the timings of the given language, creating them if necessary. */
+	public static ScriptTimings getTimings(String languageName) {
+		synchronized (timings) {
+			ScriptTimings result = timings.get(languageName);
+			if (result == null) {
+				result = new ScriptTimings(languageName);
+				timings.put(languageName, result);
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Reports the time spent starting interpreters, compiling and
+	 * running scripts, one line per language.
+	 *
+	 * From a macro: print(call("common.RefreshScripts.getTimingReport"));
+	 */
+	public static String getTimingReport() {
+		StringBuffer buffer = new StringBuffer();
+		synchronized (timings) {
+			for (ScriptTimings t : timings.values())
+				buffer.append(t).append('\n');
+		}
+		return buffer.toString();
+	}
+
+	/** How many compiled scripts to keep per language. */
+	protected final static int MAX_CACHED_SCRIPTS = 64;
+
+	/** How many idle interpreters to keep per language. */
+	protected static int getMaxIdleInterpreters() {
+		return Math.max(1, Prefs.getThreads());
+	}
+
 	static public void printError(Throwable t) {
 		if (t instanceof RuntimeException && t.getMessage() == Macro.MACRO_CANCELED) {
 			IJ.showStatus("Macro/script aborted");
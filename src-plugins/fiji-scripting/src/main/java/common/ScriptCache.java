@@ -0,0 +1,76 @@
+package common;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache of compiled scripts, keyed by the path of the script file.
+ *
+ * A script is compiled again when the modification time or the size of its
+ * file changed. The least recently used scripts are evicted first.
+ */
+public abstract class ScriptCache<T> {
+	protected static class Entry<T> {
+		protected long lastModified, size;
+		protected T code;
+	}
+
+	protected final ScriptTimings timings;
+	protected final Map<String, Entry<T>> cache;
+
+	public ScriptCache(ScriptTimings timings, final int maxSize) {
+		this.timings = timings;
+		cache = new LinkedHashMap<String, Entry<T>>(16, 0.75f, true) {
+			protected boolean removeEldestEntry(Map.Entry<String, Entry<T>> eldest) {
+				return size() > maxSize;
+			}
+		};
+	}
+
+	/**
+	 * Compile the source of a script.
+	 *
+	 * @param path the path of the script, for error messages
+	 */
+	protected abstract T compile(String source, String path) throws Exception;
+
+	/**
+	 * Returns the compiled script, compiling it only if it was not cached
+	 * or if the file changed since.
+	 */
+	public T get(String path) throws Exception {
+		File file = new File(path).getAbsoluteFile();
+		String key = file.getPath();
+		long lastModified = file.lastModified(), size = file.length();
+		synchronized (cache) {
+			Entry<T> entry = cache.get(key);
+			if (entry != null && entry.lastModified == lastModified && entry.size == size) {
+				timings.cacheHit();
+				return entry.code;
+			}
+		}
+
+		long start = System.nanoTime();
+		String source = RefreshScripts.openTextFile(key);
+		if (source == null)
+			throw new IOException("Could not read " + path);
+		Entry<T> entry = new Entry<T>();
+		entry.lastModified = lastModified;
+		entry.size = size;
+		entry.code = compile(source, path);
+		timings.compiled(System.nanoTime() - start);
+		synchronized (cache) {
+			cache.put(key, entry);
+		}
+		return entry.code;
+	}
+
+	public void clear() {
+		synchronized (cache) {
+			cache.clear();
+		}
+	}
+}
@@ -0,0 +1,69 @@
+package common;
+
+/**
+ * Counts where the time goes when running scripts of one language: starting
+ * interpreters, compiling scripts and running them.
+ *
+ * See {@link RefreshScripts#getTimingReport()}.
+ */
+public class ScriptTimings {
+	protected String languageName;
+	protected long runs, runNanos;
+	protected long created, createNanos, reused;
+	protected long compiled, compileNanos, cacheHits;
+
+	public ScriptTimings(String languageName) {
+		this.languageName = languageName;
+	}
+
+	public synchronized void ran(long nanos) {
+		runs++;
+		runNanos += nanos;
+	}
+
+	public synchronized void created(long nanos) {
+		created++;
+		createNanos += nanos;
+	}
+
+	public synchronized void reused() {
+		reused++;
+	}
+
+	public synchronized void compiled(long nanos) {
+		compiled++;
+		compileNanos += nanos;
+	}
+
+	public synchronized void cacheHit() {
+		cacheHits++;
+	}
+
+	public synchronized void reset() {
+		runs = runNanos = created = createNanos = reused = 0;
+		compiled = compileNanos = cacheHits = 0;
+	}
+
+	public synchronized String toString() {
+		StringBuffer buffer = new StringBuffer();
+		buffer.append(languageName).append(": ").append(runs).append(" runs");
+		if (runs > 0)
+			buffer.append(" (").append(ms(runNanos)).append(", ")
+				.append(ms(runNanos / runs)).append(" per run)");
+		buffer.append("; ").append(created).append(" interpreters started");
+		if (created > 0)
+			buffer.append(" (").append(ms(createNanos)).append(")");
+		buffer.append(", ").append(reused).append(" reused");
+		if (compiled + cacheHits > 0) {
+			buffer.append("; ").append(compiled).append(" scripts compiled");
+			if (compiled > 0)
+				buffer.append(" (").append(ms(compileNanos)).append(")");
+			buffer.append(", ").append(cacheHits).append(" cached");
+		}
+		return buffer.toString();
+	}
+
+	protected static String ms(long nanos) {
+		return (nanos / 100000) / 10.0 + "ms";
+	}
+}
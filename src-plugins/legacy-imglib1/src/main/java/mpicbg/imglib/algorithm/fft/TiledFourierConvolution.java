@@ -0,0 +1,599 @@
+/*
+ * #%L
+ * ImgLib: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2013 Stephan Preibisch, Tobias Pietzsch, Barry DeZonia,
+ * Stephan Saalfeld, Albert Cardona, Curtis Rueden, Christian Dietz, Jean-Yves
+ * Tinevez, Johannes Schindelin, Lee Kamentsky, Larry Lindsey, Grant Harris,
+ * Mark Hiner, Aivar Grislis, Martin Horn, Nick Perry, Michael Zinsmaier,
+ * Steffen Jaensch, Jan Funke, Mark Longair, and Dimiter Prodanov.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+package mpicbg.imglib.algorithm.fft;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.mines.jtk.dsp.FftComplex;
+import edu.mines.jtk.dsp.FftReal;
+
+import mpicbg.imglib.algorithm.Benchmark;
+import mpicbg.imglib.algorithm.MultiThreaded;
+import mpicbg.imglib.algorithm.OutputAlgorithm;
+import mpicbg.imglib.cursor.LocalizableByDimCursor;
+import mpicbg.imglib.cursor.LocalizableCursor;
+import mpicbg.imglib.image.Image;
+import mpicbg.imglib.multithreading.SimpleMultiThreading;
+import mpicbg.imglib.outofbounds.OutOfBoundsStrategyFactory;
+import mpicbg.imglib.outofbounds.OutOfBoundsStrategyMirrorFactory;
+import mpicbg.imglib.type.numeric.RealType;
+
+/**
+ * Convolves an image with a kernel in Fourier space block by block (overlap-save), instead of
+ * transforming the whole image at once like {@link FourierConvolution}.
+ *
+ * The output is split into blocks, each block is read together with a border of half the kernel
+ * size (using the given {@link OutOfBoundsStrategyFactory} outside of the image), convolved with
+ * one FFT of a fixed size and only the part unaffected by the cyclic wrap-around is written back.
+ * The FFT size is chosen by {@link FftReal#nfftFast(int)} and {@link FftComplex#nfftFast(int)}, so
+ * that all blocks use a fast size, and the blocks are distributed over the threads.
+ *
+ * Only one spectrum of the kernel of the size of a block is computed. It is kept when the image is
+ * replaced by {@link #replaceImage(Image)}, so the same kernel can be applied to many images
+ * without transforming it again. Apart from the result, the memory needed is one real and one
+ * complex block per thread.
+ */
+public class TiledFourierConvolution<T extends RealType<T>, S extends RealType<S>> implements MultiThreaded, OutputAlgorithm<T>, Benchmark
+{
+	/**
+	 * The default size of the output blocks in each dimension
+	 */
+	public static int defaultBlockSize = 128;
+
+	final int numDimensions;
+	Image<T> image, convolved;
+	Image<S> kernel;
+	int[] kernelDim;
+	int[] blockSize;
+
+	// the cached spectrum of the kernel and the FFT size it was computed for
+	float[] kernelFFT;
+	int[] fftSize;
+
+	OutOfBoundsStrategyFactory<T> strategy = new OutOfBoundsStrategyMirrorFactory<T>();
+
+	String errorMessage = "";
+	int numThreads;
+	long processingTime;
+
+	public TiledFourierConvolution( final Image<T> image, final Image<S> kernel )
+	{
+		this( image, kernel, null );
+	}
+
+	public TiledFourierConvolution( final Image<T> image, final Image<S> kernel, final int[] blockSize )
+	{
+		this.numDimensions = image.getNumDimensions();
+
+		this.image = image;
+		this.kernel = kernel;
+		this.kernelDim = kernel.getDimensions();
+		this.kernelFFT = null;
+		this.fftSize = null;
+
+		if ( blockSize == null )
+		{
+			this.blockSize = new int[ numDimensions ];
+
+			for ( int d = 0; d < numDimensions; ++d )
+				this.blockSize[ d ] = defaultBlockSize;
+		}
+		else
+		{
+			this.blockSize = blockSize.clone();
+		}
+
+		setNumThreads();
+	}
+
+	public Image< T > getImage() { return image; }
+	public Image< S > getKernel() { return kernel; }
+
+	public void setImageOutOfBoundsStrategy( final OutOfBoundsStrategyFactory<T> strategy ) { this.strategy = strategy; }
+	public OutOfBoundsStrategyFactory<T> getImageOutOfBoundsStrategy() { return this.strategy; }
+
+	/**
+	 * Sets the size of the output blocks. The blocks will usually be a bit larger, so that
+	 * together with the border of the kernel they fill a fast FFT size.
+	 *
+	 * @param blockSize - the minimal size of an output block in each dimension
+	 */
+	public void setBlockSize( final int[] blockSize ) { this.blockSize = blockSize.clone(); }
+	public int[] getBlockSize() { return blockSize.clone(); }
+
+	/**
+	 * @return the size of the FFTs computed for each block, or null if not computed yet
+	 */
+	public int[] getFFTSize() { return fftSize == null ? null : fftSize.clone(); }
+
+	/**
+	 * Replaces the image to convolve. The spectrum of the kernel is kept and reused as long as the
+	 * blocks of the new image have the same FFT size.
+	 *
+	 * @param img - the new image, must have the same dimensionality
+	 * @return true if the image could be replaced
+	 */
+	public boolean replaceImage( final Image<T> img )
+	{
+		if ( img.getNumDimensions() != numDimensions )
+		{
+			errorMessage = "Image has a different dimensionality, cannot exchange image";
+			return false;
+		}
+		else
+		{
+			this.image = img;
+			return true;
+		}
+	}
+
+	public boolean replaceKernel( final Image<S> knl )
+	{
+		if ( knl.getNumDimensions() != numDimensions )
+		{
+			errorMessage = "Kernel has a different dimensionality, cannot exchange kernel";
+			return false;
+		}
+		else
+		{
+			this.kernel = knl;
+			this.kernelDim = knl.getDimensions();
+			// the fft has to be recomputed
+			this.kernelFFT = null;
+			this.fftSize = null;
+			return true;
+		}
+	}
+
+	/**
+	 * Computes the FFT size for each block, so that it holds at least a block of the given size (or
+	 * the whole image if it is smaller) plus the kernel size - 1, and is fast to compute.
+	 *
+	 * @param imageSize - the size of the image
+	 * @param kernelSize - the size of the kernel
+	 * @param blockSize - the minimal size of an output block
+	 * @return the size of the FFT in each dimension
+	 */
+	public static int[] getFFTSize( final int[] imageSize, final int[] kernelSize, final int[] blockSize )
+	{
+		final int[] fftSize = new int[ imageSize.length ];
+
+		for ( int d = 0; d < imageSize.length; ++d )
+		{
+			final int size = Math.min( blockSize[ d ], imageSize[ d ] ) + kernelSize[ d ] - 1;
+
+			if ( d == 0 )
+				fftSize[ d ] = FftReal.nfftFast( size );
+			else
+				fftSize[ d ] = FftComplex.nfftFast( size );
+		}
+
+		return fftSize;
+	}
+
+	@Override
+	public boolean process()
+	{
+		final long startTime = System.currentTimeMillis();
+
+		final int[] imageSize = image.getDimensions();
+		final int[] newFFTSize = getFFTSize( imageSize, kernelDim, blockSize );
+
+		//
+		// compute the spectrum of the kernel if it is not cached for this FFT size
+		//
+		if ( kernelFFT == null || !Arrays.equals( newFFTSize, fftSize ) )
+		{
+			fftSize = newFFTSize;
+			kernelFFT = computeKernelFFT( kernel, fftSize );
+		}
+
+		// the actual size of the blocks, which is everything that is not affected
+		// by the cyclic wrap-around of the FFT
+		final int[] block = new int[ numDimensions ];
+		final int[] numBlocks = new int[ numDimensions ];
+		int numBlocksTotal = 1;
+
+		for ( int d = 0; d < numDimensions; ++d )
+		{
+			block[ d ] = fftSize[ d ] - kernelDim[ d ] + 1;
+			numBlocks[ d ] = ( imageSize[ d ] + block[ d ] - 1 ) / block[ d ];
+			numBlocksTotal *= numBlocks[ d ];
+		}
+
+		final Image<T> output = image.createNewImage();
+
+		if ( output == null )
+		{
+			errorMessage = "Cannot create the output image, not enough memory?";
+			return false;
+		}
+
+		final int numBlocksAll = numBlocksTotal;
+		final AtomicInteger ai = new AtomicInteger( 0 );
+		final Thread[] threads = SimpleMultiThreading.newThreads( Math.min( getNumThreads(), numBlocksAll ) );
+
+		for ( int ithread = 0; ithread < threads.length; ++ithread )
+			threads[ ithread ] = new Thread( new Runnable()
+			{
+				public void run()
+				{
+					final BlockFFT fft = new BlockFFT( fftSize );
+					final float[] real = new float[ fft.realSize() ];
+					final float[] complex = new float[ fft.complexSize() ];
+
+					final LocalizableByDimCursor<T> in = image.createLocalizableByDimCursor( strategy );
+					final LocalizableByDimCursor<T> out = output.createLocalizableByDimCursor();
+
+					final int[] blockIndex = new int[ numDimensions ];
+					final int[] offset = new int[ numDimensions ];
+					final int[] size = new int[ numDimensions ];
+
+					// the blocks are handed out one by one, as blocks at the border may be smaller
+					for ( int b = ai.getAndIncrement(); b < numBlocksAll; b = ai.getAndIncrement() )
+					{
+						int i = b;
+						for ( int d = 0; d < numDimensions; ++d )
+						{
+							blockIndex[ d ] = i % numBlocks[ d ];
+							i /= numBlocks[ d ];
+
+							offset[ d ] = blockIndex[ d ] * block[ d ];
+							size[ d ] = Math.min( block[ d ], imageSize[ d ] - offset[ d ] );
+						}
+
+						readBlock( in, offset, real );
+
+						fft.realToComplex( real, complex );
+						multiply( complex, kernelFFT );
+						fft.complexToReal( complex, real );
+
+						writeBlock( out, offset, size, real );
+					}
+
+					in.close();
+					out.close();
+				}
+			});
+
+		SimpleMultiThreading.startAndJoin( threads );
+
+		convolved = output;
+
+		processingTime = System.currentTimeMillis() - startTime;
+		return true;
+	}
+
+	/**
+	 * Reads one FFT block of the image starting half a kernel size before the output offset, out of
+	 * bounds values are taken from the cursor's {@link OutOfBoundsStrategyFactory}.
+	 */
+	protected void readBlock( final LocalizableByDimCursor<T> cursor, final int[] offset, final float[] real )
+	{
+		final int[] position = new int[ numDimensions ];
+		final int[] line = new int[ numDimensions ];
+		final int size0 = fftSize[ 0 ];
+
+		for ( int index = 0; index < real.length; index += size0 )
+		{
+			for ( int d = 0; d < numDimensions; ++d )
+				position[ d ] = offset[ d ] - kernelDim[ d ] / 2 + line[ d ];
+
+			cursor.setPosition( position );
+
+			for ( int x = 0; x < size0 - 1; ++x )
+			{
+				real[ index + x ] = cursor.getType().getRealFloat();
+				cursor.fwd( 0 );
+			}
+			real[ index + size0 - 1 ] = cursor.getType().getRealFloat();
+
+			nextLine( line, fftSize );
+		}
+	}
+
+	/**
+	 * Writes the part of the convolved block that is not affected by the cyclic wrap-around.
+	 */
+	protected void writeBlock( final LocalizableByDimCursor<T> cursor, final int[] offset, final int[] size, final float[] real )
+	{
+		final int[] position = new int[ numDimensions ];
+		final int[] line = new int[ numDimensions ];
+
+		int numLines = 1;
+		for ( int d = 1; d < numDimensions; ++d )
+			numLines *= size[ d ];
+
+		for ( int l = 0; l < numLines; ++l )
+		{
+			// index of the first valid pixel of this line in the block
+			int index = 0;
+			for ( int d = numDimensions - 1; d >= 0; --d )
+			{
+				position[ d ] = offset[ d ] + line[ d ];
+				index = index * fftSize[ d ] + line[ d ] + kernelDim[ d ] / 2;
+			}
+
+			cursor.setPosition( position );
+
+			for ( int x = 0; x < size[ 0 ] - 1; ++x )
+			{
+				cursor.getType().setReal( real[ index + x ] );
+				cursor.fwd( 0 );
+			}
+			cursor.getType().setReal( real[ index + size[ 0 ] - 1 ] );
+
+			nextLine( line, size );
+		}
+	}
+
+	/**
+	 * Moves to the start of the next line in dimension 0
+	 */
+	final private static void nextLine( final int[] line, final int[] size )
+	{
+		for ( int d = 1; d < line.length; ++d )
+		{
+			if ( ++line[ d ] < size[ d ] )
+				return;
+
+			line[ d ] = 0;
+		}
+	}
+
+	/**
+	 * Multiply in Fourier Space
+	 *
+	 * @param a - interleaved complex values, overwritten with the product
+	 * @param b - interleaved complex values
+	 */
+	final private static void multiply( final float[] a, final float[] b )
+	{
+		for ( int i = 0; i < a.length; i += 2 )
+		{
+			final float re = a[ i ] * b[ i ] - a[ i + 1 ] * b[ i + 1 ];
+			final float im = a[ i ] * b[ i + 1 ] + a[ i + 1 ] * b[ i ];
+			a[ i ] = re;
+			a[ i + 1 ] = im;
+		}
+	}
+
+	/**
+	 * Computes the spectrum of the kernel for a given FFT size. The center pixel of the kernel is
+	 * located at (0,0,0), and the spectrum is already divided by the number of pixels, so that the
+	 * inverse transform does not need to be scaled.
+	 */
+	public static <S extends RealType<S>> float[] computeKernelFFT( final Image<S> kernel, final int[] fftSize )
+	{
+		final int numDimensions = fftSize.length;
+		final int[] kernelDim = kernel.getDimensions();
+
+		final BlockFFT fft = new BlockFFT( fftSize );
+		final float[] real = new float[ fft.realSize() ];
+		final float[] complex = new float[ fft.complexSize() ];
+
+		final LocalizableCursor<S> cursor = kernel.createLocalizableCursor();
+		final int[] position = new int[ numDimensions ];
+
+		while ( cursor.hasNext() )
+		{
+			cursor.fwd();
+			cursor.getPosition( position );
+
+			int index = 0;
+			for ( int d = numDimensions - 1; d >= 0; --d )
+				index = index * fftSize[ d ] + ( position[ d ] - kernelDim[ d ]/2 + fftSize[ d ] ) % fftSize[ d ];
+
+			real[ index ] = cursor.getType().getRealFloat();
+		}
+
+		cursor.close();
+
+		fft.realToComplex( real, complex );
+
+		final float scale = 1.0f / real.length;
+		for ( int i = 0; i < complex.length; ++i )
+			complex[ i ] *= scale;
+
+		return complex;
+	}
+
+	/**
+	 * Unscaled n-dimensional FFT of one block stored as a flat array, dimension 0 varying
+	 * fastest. The complex result is interleaved and, as for a real-valued input, only contains
+	 * size[ 0 ] / 2 + 1 values in dimension 0.
+	 */
+	protected static class BlockFFT
+	{
+		final int[] size;
+		final int complexSize0;
+		final FftReal fftReal;
+		final FftComplex[] fftComplex;
+		final float[] lineReal, lineComplex, tmpIn, tmpOut;
+
+		public BlockFFT( final int[] size )
+		{
+			this.size = size.clone();
+			this.complexSize0 = size[ 0 ] / 2 + 1;
+			this.fftReal = new FftReal( size[ 0 ] );
+			this.fftComplex = new FftComplex[ size.length ];
+
+			int maxSize = 0;
+			for ( int d = 1; d < size.length; ++d )
+			{
+				fftComplex[ d ] = new FftComplex( size[ d ] );
+				maxSize = Math.max( maxSize, size[ d ] );
+			}
+
+			this.lineReal = new float[ size[ 0 ] ];
+			this.lineComplex = new float[ complexSize0 * 2 ];
+			this.tmpIn = new float[ maxSize * 2 ];
+			this.tmpOut = new float[ maxSize * 2 ];
+		}
+
+		public int realSize()
+		{
+			int n = 1;
+			for ( final int s : size )
+				n *= s;
+			return n;
+		}
+
+		public int complexSize() { return realSize() / size[ 0 ] * complexSize0 * 2; }
+
+		public void realToComplex( final float[] real, final float[] complex )
+		{
+			final int numLines = real.length / size[ 0 ];
+
+			for ( int l = 0; l < numLines; ++l )
+			{
+				System.arraycopy( real, l * size[ 0 ], lineReal, 0, size[ 0 ] );
+				fftReal.realToComplex( -1, lineReal, lineComplex );
+				System.arraycopy( lineComplex, 0, complex, l * complexSize0 * 2, complexSize0 * 2 );
+			}
+
+			for ( int d = 1; d < size.length; ++d )
+				complexToComplex( -1, complex, d );
+		}
+
+		public void complexToReal( final float[] complex, final float[] real )
+		{
+			for ( int d = size.length - 1; d > 0; --d )
+				complexToComplex( 1, complex, d );
+
+			final int numLines = real.length / size[ 0 ];
+
+			for ( int l = 0; l < numLines; ++l )
+			{
+				System.arraycopy( complex, l * complexSize0 * 2, lineComplex, 0, complexSize0 * 2 );
+				fftReal.complexToReal( 1, lineComplex, lineReal );
+				System.arraycopy( lineReal, 0, real, l * size[ 0 ], size[ 0 ] );
+			}
+		}
+
+		/**
+		 * Transforms all lines of the complex block in dimension dim
+		 */
+		protected void complexToComplex( final int sign, final float[] complex, final int dim )
+		{
+			final int length = size[ dim ];
+			final FftComplex fft = fftComplex[ dim ];
+
+			// distance of two neighboring values in dimension dim, in complex values
+			int stride = complexSize0;
+			for ( int d = 1; d < dim; ++d )
+				stride *= size[ d ];
+
+			final int numOuter = complex.length / 2 / ( stride * length );
+
+			for ( int outer = 0; outer < numOuter; ++outer )
+				for ( int inner = 0; inner < stride; ++inner )
+				{
+					final int start = ( outer * stride * length + inner ) * 2;
+
+					for ( int i = 0, j = start; i < length; ++i, j += stride * 2 )
+					{
+						tmpIn[ i * 2 ] = complex[ j ];
+						tmpIn[ i * 2 + 1 ] = complex[ j + 1 ];
+					}
+
+					fft.complexToComplex( sign, tmpIn, tmpOut );
+
+					for ( int i = 0, j = start; i < length; ++i, j += stride * 2 )
+					{
+						complex[ j ] = tmpOut[ i * 2 ];
+						complex[ j + 1 ] = tmpOut[ i * 2 + 1 ];
+					}
+				}
+		}
+	}
+
+	@Override
+	public long getProcessingTime() { return processingTime; }
+
+	@Override
+	public void setNumThreads() { this.numThreads = Runtime.getRuntime().availableProcessors(); }
+
+	@Override
+	public void setNumThreads( final int numThreads ) { this.numThreads = numThreads; }
+
+	@Override
+	public int getNumThreads() { return numThreads; }
+
+	@Override
+	public Image<T> getResult() { return convolved; }
+
+	@Override
+	public boolean checkInput()
+	{
+		if ( errorMessage.length() > 0 )
+		{
+			return false;
+		}
+
+		if ( image == null )
+		{
+			errorMessage = "Input image is null";
+			return false;
+		}
+
+		if ( kernel == null )
+		{
+			errorMessage = "Kernel image is null";
+			return false;
+		}
+
+		for ( int d = 0; d < numDimensions; ++d )
+		{
+			if ( kernel.getDimension( d ) % 2 != 1)
+			{
+				errorMessage = "Kernel image has NO odd dimensionality in dim " + d + " (" + kernel.getDimension( d ) + ")";
+				return false;
+			}
+
+			if ( blockSize[ d ] < 1 )
+			{
+				errorMessage = "Block size must be at least 1 in dim " + d + " (" + blockSize[ d ] + ")";
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	public void close()
+	{
+		image = null;
+		convolved = null;
+		kernel = null;
+		kernelFFT = null;
+	}
+
+	@Override
+	public String getErrorMessage()  { return errorMessage; }
+}
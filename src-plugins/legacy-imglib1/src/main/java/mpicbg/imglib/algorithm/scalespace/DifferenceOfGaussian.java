@@ -70,7 +70,7 @@ public static enum SpecialPoint { INVALID, MIN, MAX };
 	protected final ArrayList<DifferenceOfGaussianPeak<B>> peaks = new ArrayList<DifferenceOfGaussianPeak<B>>();
 	protected final Converter<A, B> converter;
 	
-	boolean computeConvolutionsParalell, keepDoGImage;
+	boolean computeConvolutionsParalell, computeConvolutionsIncremental, keepDoGImage;
 	long processingTime;
 	int numThreads;
 	String errorMessage = "";
@@ -154,6 +154,19 @@ public DifferenceOfGaussian( final Image<A> img, final ImageFactory<B> factory,
 	public ArrayList<DifferenceOfGaussianPeak<B>> getPeaks() { return peaks; }
 	public void setComputeConvolutionsParalell( final boolean paralell ) { this.computeConvolutionsParalell = paralell; }
 	public boolean getComputeConvolutionsParalell() { return computeConvolutionsParalell; }
+
+	/**
+	 * If set, the second gaussian image is computed from the first one with sqrt(sigma2^2 - sigma1^2)
+	 * instead of from the input image. The smaller kernel makes it cheaper, but both convolutions
+	 * cannot run in parallel anymore.
+	 * 
+	 * If sigma2 is not larger than sigma1 in every dimension, the second image cannot be computed
+	 * from the first one. Both are then convolved from the input image as if this was not set.
+	 *
+	 * @param incremental - compute the second convolution from the first one
+	 */
+	public void setComputeConvolutionsIncremental( final boolean incremental ) { this.computeConvolutionsIncremental = incremental; }
+	public boolean getComputeConvolutionsIncremental() { return computeConvolutionsIncremental; }
 	
 	/**
 	 * This method returns the {@link OutputAlgorithm} that will compute the Gaussian Convolutions, more efficient versions can override this method
@@ -169,6 +182,41 @@ protected OutputAlgorithm<B> getGaussianConvolution( final double[] sigma, final
 		return gauss;
 	}
 	
+	/**
+	 * This method returns the {@link OutputAlgorithm} that will compute the second Gaussian Convolution from the first one
+	 * if {@link #setComputeConvolutionsIncremental(boolean)} is set, more efficient versions can override this method
+	 * 
+	 * @param gauss1 - the image convolved with sigma1
+	 * @param sigma - the differential sigma of the convolution
+	 * @param nThreads - the number of threads for this convolution
+	 * @return
+	 */
+	protected OutputAlgorithm<B> getIncrementalGaussianConvolution( final Image<B> gauss1, final double[] sigma, final int nThreads )
+	{
+		final GaussianConvolution<B> gauss = new GaussianConvolution<B>( gauss1, outOfBoundsFactory, sigma );
+		gauss.setNumThreads( nThreads );
+		
+		return gauss;
+	}
+	
+	/**
+	 * @return - the sigma that has to be applied to an image convolved with sigma1 to get an image convolved with sigma2, or null if sigma2 is not larger in all dimensions 
+	 */
+	protected double[] getDifferentialSigma()
+	{
+		final double[] sigma = new double[ sigma1.length ];
+		
+		for ( int d = 0; d < sigma.length; ++d )
+		{
+			if ( sigma2[ d ] <= sigma1[ d ] )
+				return null;
+			
+			sigma[ d ] = Math.sqrt( sigma2[ d ] * sigma2[ d ] - sigma1[ d ] * sigma1[ d ] );
+		}
+		
+		return sigma;
+	}
+
 	/**
 	 * Returns the function that does the normalized subtraction of the gauss images, more efficient versions can override this method
 	 * @return - the Subtraction Function
@@ -242,60 +290,90 @@ public boolean process()
 	{
 		final long startTime = System.currentTimeMillis();
 		
-		//
-		// perform the gaussian convolutions transferring it to the new (potentially higher precision) type T
-		//
-		final int divisor = computeConvolutionsParalell ? 2 : 1;
-		final OutputAlgorithm<B> conv1 = getGaussianConvolution( sigma1, Math.max( 1, getNumThreads() / divisor ) );
-		final OutputAlgorithm<B> conv2 = getGaussianConvolution( sigma2, Math.max( 1, getNumThreads() / divisor ) );
-		        
-        final Image<B> gauss1, gauss2;
-        
-        if ( conv1.checkInput() && conv2.checkInput() )
-        {       	
-            final AtomicInteger ai = new AtomicInteger(0);					
-            Thread[] threads = SimpleMultiThreading.newThreads( divisor );
+		final double[] differentialSigma = computeConvolutionsIncremental ? getDifferentialSigma() : null;
+		final Image<B> gauss1, gauss2;
 
-        	for (int ithread = 0; ithread < threads.length; ++ithread)
-                threads[ithread] = new Thread(new Runnable()
-                {
-                    public void run()
-                    {
-                    	final int myNumber = ai.getAndIncrement();
-                    	if ( myNumber == 0 || !computeConvolutionsParalell )
-                    	{
-                    		if ( !conv1.process() )
-                            	System.out.println( "Cannot compute gaussian convolution 1: " + conv1.getErrorMessage() );                    		
-                    	}
-                    	
-                    	if ( myNumber == 1 || !computeConvolutionsParalell )
-                    	{
-                    		if ( !conv2.process() )
-                    			System.out.println( "Cannot compute gaussian convolution 2: " + conv2.getErrorMessage() );
-                    	}                    	
-                    }
-                });
-        	
-    		SimpleMultiThreading.startAndJoin( threads );       	
-        }
-        else
-        {
-        	errorMessage =  "Cannot compute gaussian convolutions: " + conv1.getErrorMessage() + " & " + conv2.getErrorMessage();
-        
-        	gauss1 = gauss2 = null;
-        	return false;
-        }
-                
-        if ( conv1.getErrorMessage().length() == 0 && conv2.getErrorMessage().length() == 0 )
-        {
-	        gauss1 = conv1.getResult();
-	        gauss2 = conv2.getResult();
-        }
-        else
-        {
-        	gauss1 = gauss2 = null;
-        	return false;        	
-        }
+		if ( differentialSigma != null )
+		{
+			//
+			// convolve the input with sigma1 and the result with the differential sigma
+			//
+			final OutputAlgorithm<B> conv1 = getGaussianConvolution( sigma1, getNumThreads() );
+			
+			if ( !conv1.checkInput() || !conv1.process() )
+			{
+				errorMessage =  "Cannot compute gaussian convolution 1: " + conv1.getErrorMessage();
+				return false;
+			}
+			
+			gauss1 = conv1.getResult();
+			
+			final OutputAlgorithm<B> conv2 = getIncrementalGaussianConvolution( gauss1, differentialSigma, getNumThreads() );
+			
+			if ( !conv2.checkInput() || !conv2.process() )
+			{
+				errorMessage =  "Cannot compute gaussian convolution 2: " + conv2.getErrorMessage();
+				gauss1.close();
+				return false;
+			}
+			
+			gauss2 = conv2.getResult();
+		}
+		else
+		{
+			//
+			// perform the gaussian convolutions transferring it to the new (potentially higher precision) type T
+			//
+			final int divisor = computeConvolutionsParalell ? 2 : 1;
+			final OutputAlgorithm<B> conv1 = getGaussianConvolution( sigma1, Math.max( 1, getNumThreads() / divisor ) );
+			final OutputAlgorithm<B> conv2 = getGaussianConvolution( sigma2, Math.max( 1, getNumThreads() / divisor ) );
+			        
+	        if ( conv1.checkInput() && conv2.checkInput() )
+	        {       	
+	            final AtomicInteger ai = new AtomicInteger(0);					
+	            Thread[] threads = SimpleMultiThreading.newThreads( divisor );
+
+	        	for (int ithread = 0; ithread < threads.length; ++ithread)
+	                threads[ithread] = new Thread(new Runnable()
+	                {
+	                    public void run()
+	                    {
+	                    	final int myNumber = ai.getAndIncrement();
+	                    	if ( myNumber == 0 || !computeConvolutionsParalell )
+	                    	{
+	                    		if ( !conv1.process() )
+	                            	System.out.println( "Cannot compute gaussian convolution 1: " + conv1.getErrorMessage() );                    		
+	                    	}
+	                    	
+	                    	if ( myNumber == 1 || !computeConvolutionsParalell )
+	                    	{
+	                    		if ( !conv2.process() )
+	                    			System.out.println( "Cannot compute gaussian convolution 2: " + conv2.getErrorMessage() );
+	                    	}                    	
+	                    }
+	                });
+	        	
+	    		SimpleMultiThreading.startAndJoin( threads );       	
+	        }
+	        else
+	        {
+	        	errorMessage =  "Cannot compute gaussian convolutions: " + conv1.getErrorMessage() + " & " + conv2.getErrorMessage();
+	        
+	        	gauss1 = gauss2 = null;
+	        	return false;
+	        }
+	                
+	        if ( conv1.getErrorMessage().length() == 0 && conv2.getErrorMessage().length() == 0 )
+	        {
+		        gauss1 = conv1.getResult();
+		        gauss2 = conv2.getResult();
+	        }
+	        else
+	        {
+	        	gauss1 = gauss2 = null;
+	        	return false;        	
+	        }
+		}
 
         //
         // subtract the images to get the LaPlace image
@@ -29,6 +29,7 @@
 import mpicbg.imglib.algorithm.OutputAlgorithm;
 import mpicbg.imglib.algorithm.function.SubtractNormReal;
 import mpicbg.imglib.algorithm.gauss.GaussianConvolution2;
+import mpicbg.imglib.algorithm.gauss.GaussianConvolutionReal;
 import mpicbg.imglib.cursor.special.LocalNeighborhoodCursor;
 import mpicbg.imglib.function.Function;
 import mpicbg.imglib.function.RealTypeConverter;
@@ -93,6 +94,24 @@ protected OutputAlgorithm<B> getGaussianConvolution( final double[] sigma, final
 		return gauss;
 	}
 	
+	/**
+	 * This method returns the {@link OutputAlgorithm} that will compute the second Gaussian Convolution from the first one,
+	 * more efficient versions can override this method
+	 * 
+	 * @param gauss1 - the image convolved with sigma1
+	 * @param sigma - the differential sigma of the convolution
+	 * @param numThreads - the number of threads for this convolution
+	 * @return
+	 */
+	@Override
+	protected OutputAlgorithm<B> getIncrementalGaussianConvolution( final Image<B> gauss1, final double[] sigma, final int numThreads )
+	{
+		final GaussianConvolutionReal<B> gauss = new GaussianConvolutionReal<B>( gauss1, outOfBoundsFactory, sigma );
+		gauss.setNumThreads( numThreads );
+		
+		return gauss;
+	}
+	
 	/**
 	 * Returns the function that does the normalized subtraction of the gauss images, more efficient versions can override this method
 	 * @return - the Subtraction Function
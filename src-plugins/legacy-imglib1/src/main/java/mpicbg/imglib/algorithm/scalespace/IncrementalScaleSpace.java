@@ -0,0 +1,624 @@
+/*
+ * #%L
+ * ImgLib: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2013 Stephan Preibisch, Tobias Pietzsch, Barry DeZonia,
+ * Stephan Saalfeld, Albert Cardona, Curtis Rueden, Christian Dietz, Jean-Yves
+ * Tinevez, Johannes Schindelin, Lee Kamentsky, Larry Lindsey, Grant Harris,
+ * Mark Hiner, Aivar Grislis, Martin Horn, Nick Perry, Michael Zinsmaier,
+ * Steffen Jaensch, Jan Funke, Mark Longair, and Dimiter Prodanov.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+package mpicbg.imglib.algorithm.scalespace;
+
+import java.util.ArrayList;
+import java.util.Vector;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import mpicbg.imglib.algorithm.Algorithm;
+import mpicbg.imglib.algorithm.Benchmark;
+import mpicbg.imglib.algorithm.MultiThreaded;
+import mpicbg.imglib.algorithm.gauss.GaussianConvolutionReal;
+import mpicbg.imglib.algorithm.scalespace.DifferenceOfGaussian.SpecialPoint;
+import mpicbg.imglib.container.ContainerFactory;
+import mpicbg.imglib.cursor.LocalizableByDimCursor;
+import mpicbg.imglib.cursor.LocalizableCursor;
+import mpicbg.imglib.cursor.special.LocalNeighborhoodCursor;
+import mpicbg.imglib.cursor.special.LocalNeighborhoodCursorFactory;
+import mpicbg.imglib.function.Converter;
+import mpicbg.imglib.image.Image;
+import mpicbg.imglib.image.ImageFactory;
+import mpicbg.imglib.multithreading.SimpleMultiThreading;
+import mpicbg.imglib.outofbounds.OutOfBoundsStrategyMirrorFactory;
+import mpicbg.imglib.type.Type;
+import mpicbg.imglib.type.numeric.RealType;
+import mpicbg.imglib.util.Util;
+
+/**
+ * Finds the same kind of scale space extrema as {@link ScaleSpace}, but never builds the
+ * complete scale space.
+ *
+ * The Gaussian levels are computed as a pyramid: every level is convolved from the previous
+ * one with the differential sigma, and after each octave the level with twice the initial sigma
+ * is downsampled by 2 and becomes the first level of the next octave. The difference of gaussian
+ * images are streamed through a window of three levels, in which the extrema of the middle level
+ * are detected in a 3x3x...x3 neighborhood and localized with {@link SubpixelLocalization}.
+ * Updating the window and detecting the extrema is done in slabs along the last dimension,
+ * which are processed in parallel.
+ *
+ * So the memory needed is two Gaussian levels, the three difference of gaussian levels and the
+ * first level of the next octave, and each octave costs only an eighth (in 3d) of the previous one.
+ * As there is no complete scale space, this is no {@link mpicbg.imglib.algorithm.OutputAlgorithm};
+ * the result are the peaks only. The input image is prepared by a {@link ScaleSpace}.
+ */
+public class IncrementalScaleSpace< A extends Type<A>, B extends RealType<B> > implements Algorithm, MultiThreaded, Benchmark
+{
+	final Image<A> image;
+	final ImageFactory<B> processFactory;
+	final Converter<A, B> converter;
+
+	ContainerFactory scaleSpaceContainerFactory;
+	ArrayList<DifferenceOfGaussianPeak<B>> peaks;
+
+	// the initial sigma as given, initialSigma is doubled if the image is upsampled
+	final double requestedSigma;
+	double initialSigma, scale, imageSigma, minPeakValue;
+	int minImageSize, stepsPerOctave;
+
+	long processingTime;
+	int numThreads;
+	String errorMessage = "";
+
+	public IncrementalScaleSpace( final Image<A> image, final ImageFactory<B> processFactory, final Converter<A, B> converter, final double initialSigma )
+	{
+		setNumThreads();
+
+		this.image = image;
+		this.processFactory = processFactory;
+		this.converter = converter;
+
+		this.scaleSpaceContainerFactory = processFactory.getContainerFactory();
+
+		this.requestedSigma = initialSigma;
+		this.minImageSize = 16;
+		this.stepsPerOctave = 7;
+		this.minPeakValue = 0.03;
+	}
+
+	public ArrayList<DifferenceOfGaussianPeak<B>> getPeaks() { return peaks; }
+
+	public void setMinImageSize( final int minImageSize ) { this.minImageSize = minImageSize; }
+	public int getMinImageSize() { return minImageSize; }
+
+	public void setMinPeakValue( final double minPeakValue ) { this.minPeakValue = minPeakValue; }
+	public double getMinPeakValue() { return minPeakValue; }
+
+	public void setStepsPerOctave( final int stepsPerOctave ) { this.stepsPerOctave = stepsPerOctave; }
+	public int getStepsPerOctave() { return stepsPerOctave; }
+
+	@Override
+	public boolean process()
+	{
+		final long startTime = System.currentTimeMillis();
+
+		//
+		// compute the input image exactly like ScaleSpace does
+		//
+		final ScaleSpace<A, B> scaleSpace = new ScaleSpace<A, B>( image, processFactory, converter, requestedSigma );
+		scaleSpace.setNumThreads( getNumThreads() );
+
+		final Image<B> input = scaleSpace.computeInput();
+
+		if ( input == null )
+		{
+			errorMessage = scaleSpace.getErrorMessage();
+			return false;
+		}
+
+		initialSigma = scaleSpace.initialSigma;
+		imageSigma = scaleSpace.imageSigma;
+		scale = scaleSpace.scale;
+
+		final int numDimensions = input.getNumDimensions();
+
+		int minDim = input.getDimension( 0 );
+
+		for ( int d = 1; d < numDimensions; ++d )
+			minDim = Math.min( minDim, input.getDimension( d ) );
+
+		// the same number of octaves as the complete scale space would have
+		final int numOctaves = (int)Math.round( Util.log2( minDim ) - Util.log2( minImageSize ) + 0.25 );
+
+		// the sigmas within one octave relative to its pixel size, the last two are needed to find
+		// extrema up to the sigma of the first level of the next octave
+		final double[] sigma = new double[ stepsPerOctave + 3 ];
+
+		for ( int i = 0; i < sigma.length; ++i )
+			sigma[ i ] = initialSigma * Math.pow( 2.0f, ( double )i / ( double )stepsPerOctave );
+
+		final double norm = scaleSpace.getNormalizationFactor( stepsPerOctave );
+
+		peaks = new ArrayList<DifferenceOfGaussianPeak<B>>();
+
+		//
+		// compute the first level
+		//
+		Image<B> gauss1 = gauss( input, Math.sqrt( sigma[ 0 ] * sigma[ 0 ] - imageSigma * imageSigma ) );
+		input.close();
+
+		if ( gauss1 == null )
+			return false;
+
+		for ( int octave = 0; octave < numOctaves && gauss1 != null; ++octave )
+		{
+			final int[] dimensions = gauss1.getDimensions();
+			boolean tooSmall = false;
+
+			for ( int d = 0; d < numDimensions; ++d )
+				if ( dimensions[ d ] < 3 )
+					tooSmall = true;
+
+			if ( tooSmall )
+				break;
+
+			// the difference of gaussian window, the last dimension holds three levels
+			final int[] windowDimensions = new int[ numDimensions + 1 ];
+			gauss1.getDimensions( windowDimensions );
+			windowDimensions[ numDimensions ] = 3;
+
+			final Image<B> window = new ImageFactory<B>( gauss1.createType(), scaleSpaceContainerFactory ).createImage( windowDimensions, "DoG window of " + image.getName() );
+
+			Image<B> nextOctave = null;
+
+			for ( int i = 1; i < sigma.length; ++i )
+			{
+				final Image<B> gauss2 = gauss( gauss1, Math.sqrt( sigma[ i ] * sigma[ i ] - sigma[ i - 1 ] * sigma[ i - 1 ] ) );
+
+				if ( gauss2 == null )
+				{
+					gauss1.close();
+					window.close();
+
+					if ( nextOctave != null )
+						nextOctave.close();
+
+					return false;
+				}
+
+				// difference of gaussian i-1 enters the window
+				updateWindow( window, gauss1, gauss2, norm );
+
+				// the middle level is difference of gaussian i-2
+				if ( i >= 3 )
+				{
+					final ArrayList<DifferenceOfGaussianPeak<B>> windowPeaks = findPeaks( window );
+
+					if ( !localizePeaks( window, windowPeaks, octave, octave * stepsPerOctave + i - 2 ) )
+					{
+						gauss1.close();
+						gauss2.close();
+						window.close();
+
+						if ( nextOctave != null )
+							nextOctave.close();
+
+						return false;
+					}
+
+					peaks.addAll( windowPeaks );
+				}
+
+				// twice the initial sigma, the start of the next octave
+				if ( i == stepsPerOctave && octave + 1 < numOctaves )
+					nextOctave = downSample( gauss2 );
+
+				gauss1.close();
+				gauss1 = gauss2;
+			}
+
+			gauss1.close();
+			window.close();
+
+			gauss1 = nextOctave;
+		}
+
+		if ( gauss1 != null )
+			gauss1.close();
+
+		processingTime = System.currentTimeMillis() - startTime;
+
+		return true;
+	}
+
+	protected Image<B> gauss( final Image<B> img, final double sigma )
+	{
+		final GaussianConvolutionReal<B> gauss = new GaussianConvolutionReal<B>( img, new OutOfBoundsStrategyMirrorFactory<B>(), sigma );
+		gauss.setNumThreads( getNumThreads() );
+
+		if ( !gauss.checkInput() || !gauss.process() )
+		{
+			errorMessage = "Cannot compute gaussian convolution with sigma=" + sigma + " : " + gauss.getErrorMessage();
+			return null;
+		}
+
+		return gauss.getResult();
+	}
+
+	/**
+	 * Takes every second pixel of the image
+	 *
+	 * @param img - the image to downsample
+	 * @return the downsampled image of size (size+1)/2
+	 */
+	protected Image<B> downSample( final Image<B> img )
+	{
+		final int numDimensions = img.getNumDimensions();
+		final int[] dimensions = img.getDimensions();
+
+		for ( int d = 0; d < numDimensions; ++d )
+			dimensions[ d ] = ( dimensions[ d ] + 1 ) / 2;
+
+		final Image<B> downSampled = img.createNewImage( dimensions );
+
+		final LocalizableCursor<B> cursorOut = downSampled.createLocalizableCursor();
+		final LocalizableByDimCursor<B> cursorIn = img.createLocalizableByDimCursor();
+		final int[] position = new int[ numDimensions ];
+
+		while ( cursorOut.hasNext() )
+		{
+			cursorOut.fwd();
+			cursorOut.getPosition( position );
+
+			for ( int d = 0; d < numDimensions; ++d )
+				position[ d ] *= 2;
+
+			cursorIn.setPosition( position );
+			cursorOut.getType().set( cursorIn.getType() );
+		}
+
+		cursorOut.close();
+		cursorIn.close();
+
+		return downSampled;
+	}
+
+	/**
+	 * Moves the difference of gaussian levels in the window down by one and computes the new
+	 * highest level as the normalized difference of the two gaussian images.
+	 */
+	protected void updateWindow( final Image<B> window, final Image<B> gauss1, final Image<B> gauss2, final double norm )
+	{
+		final int numDimensions = gauss1.getNumDimensions();
+		final int[] dimensions = gauss1.getDimensions();
+		final int[] min = new int[ numDimensions ];
+
+		final int slabDim = numDimensions - 1;
+		final int numSlabs = numDimensions == 1 ? 1 : Math.min( dimensions[ slabDim ], 4 * getNumThreads() );
+
+		final AtomicInteger ai = new AtomicInteger( 0 );
+		final Thread[] threads = SimpleMultiThreading.newThreads( Math.min( getNumThreads(), numSlabs ) );
+
+		for ( int ithread = 0; ithread < threads.length; ++ithread )
+			threads[ ithread ] = new Thread( new Runnable()
+			{
+				public void run()
+				{
+					final LocalizableByDimCursor<B> cursor1 = gauss1.createLocalizableByDimCursor();
+					final LocalizableByDimCursor<B> cursor2 = gauss2.createLocalizableByDimCursor();
+					final LocalizableByDimCursor<B> level0 = window.createLocalizableByDimCursor();
+					final LocalizableByDimCursor<B> level1 = window.createLocalizableByDimCursor();
+					final LocalizableByDimCursor<B> level2 = window.createLocalizableByDimCursor();
+
+					final int[] position = new int[ numDimensions ];
+					final int[] windowPosition = new int[ numDimensions + 1 ];
+					final int[] slabMin = min.clone();
+					final int[] slabMax = dimensions.clone();
+
+					for ( int slab = ai.getAndIncrement(); slab < numSlabs; slab = ai.getAndIncrement() )
+					{
+						if ( numDimensions > 1 )
+						{
+							slabMin[ slabDim ] = getSlabStart( slab, numSlabs, 0, dimensions[ slabDim ] );
+							slabMax[ slabDim ] = getSlabStart( slab + 1, numSlabs, 0, dimensions[ slabDim ] );
+						}
+
+						System.arraycopy( slabMin, 0, position, 0, numDimensions );
+
+						do
+						{
+							cursor1.setPosition( position );
+							cursor2.setPosition( position );
+
+							System.arraycopy( position, 0, windowPosition, 0, numDimensions );
+							windowPosition[ numDimensions ] = 0;
+							level0.setPosition( windowPosition );
+							windowPosition[ numDimensions ] = 1;
+							level1.setPosition( windowPosition );
+							windowPosition[ numDimensions ] = 2;
+							level2.setPosition( windowPosition );
+
+							for ( int x = 0; x < dimensions[ 0 ]; ++x )
+							{
+								if ( x > 0 )
+								{
+									cursor1.fwd( 0 );
+									cursor2.fwd( 0 );
+									level0.fwd( 0 );
+									level1.fwd( 0 );
+									level2.fwd( 0 );
+								}
+
+								level0.getType().set( level1.getType() );
+								level1.getType().set( level2.getType() );
+								level2.getType().setReal( ( cursor2.getType().getRealDouble() - cursor1.getType().getRealDouble() ) * norm );
+							}
+						}
+						while ( nextLine( position, slabMin, slabMax ) );
+					}
+
+					cursor1.close();
+					cursor2.close();
+					level0.close();
+					level1.close();
+					level2.close();
+				}
+			});
+
+		SimpleMultiThreading.startAndJoin( threads );
+	}
+
+	/**
+	 * Finds the minima and maxima of the middle level of the window in slabs in parallel, exactly
+	 * like {@link DifferenceOfGaussian#findPeaks(Image)} would on the complete scale space.
+	 */
+	protected ArrayList<DifferenceOfGaussianPeak<B>> findPeaks( final Image<B> window )
+	{
+		final DifferenceOfGaussianReal<B, B> dog = new DifferenceOfGaussianReal<B, B>( window, window.getImageFactory(), null, 0, 0, minPeakValue, 0 );
+
+		final int numDimensions = window.getNumDimensions() - 1;
+		final int[] dimensions = window.getDimensions();
+
+		// the border pixels can not be extrema
+		final int[] min = new int[ numDimensions ];
+		final int[] max = new int[ numDimensions ];
+
+		for ( int d = 0; d < numDimensions; ++d )
+		{
+			min[ d ] = 1;
+			max[ d ] = dimensions[ d ] - 1;
+		}
+
+		final int slabDim = numDimensions - 1;
+		final int numSlabs = numDimensions == 1 ? 1 : Math.min( max[ slabDim ] - min[ slabDim ], 4 * getNumThreads() );
+
+		final AtomicInteger ai = new AtomicInteger( 0 );
+		final Thread[] threads = SimpleMultiThreading.newThreads( Math.min( getNumThreads(), numSlabs ) );
+
+		final Vector< ArrayList<DifferenceOfGaussianPeak<B>> > threadPeaksList = new Vector< ArrayList<DifferenceOfGaussianPeak<B>> >();
+
+		for ( int i = 0; i < threads.length; ++i )
+			threadPeaksList.add( new ArrayList<DifferenceOfGaussianPeak<B>>() );
+
+		final AtomicInteger threadNumber = new AtomicInteger( 0 );
+
+		for ( int ithread = 0; ithread < threads.length; ++ithread )
+			threads[ ithread ] = new Thread( new Runnable()
+			{
+				public void run()
+				{
+					final ArrayList<DifferenceOfGaussianPeak<B>> myPeaks = threadPeaksList.get( threadNumber.getAndIncrement() );
+					final LocalizableByDimCursor<B> cursor = window.createLocalizableByDimCursor();
+					final LocalNeighborhoodCursor<B> neighborhoodCursor = LocalNeighborhoodCursorFactory.createLocalNeighborhoodCursor( cursor );
+
+					final int[] position = new int[ numDimensions ];
+					final int[] windowPosition = new int[ numDimensions + 1 ];
+					final int[] slabMin = min.clone();
+					final int[] slabMax = max.clone();
+
+					windowPosition[ numDimensions ] = 1;
+
+					for ( int slab = ai.getAndIncrement(); slab < numSlabs; slab = ai.getAndIncrement() )
+					{
+						if ( numDimensions > 1 )
+						{
+							slabMin[ slabDim ] = getSlabStart( slab, numSlabs, min[ slabDim ], max[ slabDim ] );
+							slabMax[ slabDim ] = getSlabStart( slab + 1, numSlabs, min[ slabDim ], max[ slabDim ] );
+						}
+
+						System.arraycopy( slabMin, 0, position, 0, numDimensions );
+
+						do
+						{
+							System.arraycopy( position, 0, windowPosition, 0, numDimensions );
+
+							for ( int x = min[ 0 ]; x < max[ 0 ]; ++x )
+							{
+								windowPosition[ 0 ] = x;
+								cursor.setPosition( windowPosition );
+
+								// if we do not clone it here, it might be moved along with the cursor
+								// depending on the container type used
+								final B currentValue = cursor.getType().copy();
+
+								// it can never be a desired peak as it is too low
+								if ( !dog.isPeakHighEnough( currentValue ) )
+									continue;
+
+								// update to the current position
+								neighborhoodCursor.update();
+
+								// we have to compare for example 80 neighbors in the 3d case (3^4 - 1) relative to the current position
+								final SpecialPoint specialPoint = dog.isSpecialPoint( neighborhoodCursor, currentValue );
+								if ( specialPoint != SpecialPoint.INVALID )
+									myPeaks.add( new DifferenceOfGaussianPeak<B>( windowPosition, currentValue, specialPoint ) );
+
+								// reset the position of the parent cursor
+								neighborhoodCursor.reset();
+							}
+						}
+						while ( nextLine( position, slabMin, slabMax ) );
+					}
+
+					cursor.close();
+				}
+			});
+
+		SimpleMultiThreading.startAndJoin( threads );
+
+		// put together the list from the various threads
+		final ArrayList<DifferenceOfGaussianPeak<B>> dogPeaks = new ArrayList<DifferenceOfGaussianPeak<B>>();
+
+		for ( final ArrayList<DifferenceOfGaussianPeak<B>> peakList : threadPeaksList )
+			dogPeaks.addAll( peakList );
+
+		return dogPeaks;
+	}
+
+	/**
+	 * Localizes the peaks of the middle level of the window with subpixel accuracy and transforms
+	 * them into the coordinates {@link ScaleSpace} uses, i.e. the original image and the sigma.
+	 *
+	 * @param window - the difference of gaussian window
+	 * @param windowPeaks - the peaks found in the middle level of the window
+	 * @param octave - the current octave
+	 * @param dogIndex - the index of the middle level in the complete scale space
+	 */
+	protected boolean localizePeaks( final Image<B> window, final ArrayList<DifferenceOfGaussianPeak<B>> windowPeaks, final int octave, final int dogIndex )
+	{
+		final int numDimensions = window.getNumDimensions() - 1;
+
+		if ( windowPeaks.size() == 0 )
+			return true;
+
+		final SubpixelLocalization<B> spl = new SubpixelLocalization<B>( window, windowPeaks );
+		spl.setNumThreads( getNumThreads() );
+
+		// only one level above and below is available
+		final boolean[] allowedToMoveInDim = new boolean[ numDimensions + 1 ];
+		for ( int d = 0; d < numDimensions; ++d )
+			allowedToMoveInDim[ d ] = true;
+		spl.setAllowedToMoveInDim( allowedToMoveInDim );
+
+		// in the downsampled octaves extrema often lie right between two pixels
+		spl.setAllowMaximaTolerance( true );
+
+		if ( !spl.checkInput() || !spl.process() )
+		{
+			errorMessage = "Cannot compute subpixel localization: " + spl.getErrorMessage();
+			return false;
+		}
+
+		final float octaveScale = 1 << octave;
+
+		for ( final DifferenceOfGaussianPeak<B> peak : windowPeaks )
+		{
+			// back to the pixel size of the first octave
+			for ( int d = 0; d < numDimensions; ++d )
+			{
+				final float location = peak.getSubPixelPosition( d ) * octaveScale;
+				final int pixelLocation = Util.round( location );
+
+				peak.setPixelLocation( pixelLocation, d );
+				peak.setSubPixelLocationOffset( location - pixelLocation, d );
+			}
+
+			// +0.5 to get it relative to the sigmas and not the difference of the sigmas
+			// e.g. dog 1 corresponds to between sigmas 1 and 2
+			double size = dogIndex + peak.getSubPixelPosition( numDimensions ) - 1 + 0.5f;
+			size = initialSigma * Math.pow( 2.0f, size / ( double )stepsPerOctave );
+
+			peak.setPixelLocation( (int)Math.round(size), numDimensions );
+			peak.setSubPixelLocationOffset( (float)size - (int)Math.round(size), numDimensions );
+
+			// correct the locations if the image was originally upscaled
+			if ( scale != 1.0 )
+				for ( int d = 0; d <= numDimensions; ++d )
+				{
+					final float sizeHalf = peak.getSubPixelPosition( d ) / 2.0f;
+					final int pixelLocation = Util.round( sizeHalf );
+
+					peak.setPixelLocation( pixelLocation, d );
+					peak.setSubPixelLocationOffset( sizeHalf - pixelLocation, d );
+				}
+		}
+
+		return true;
+	}
+
+	@Override
+	public boolean checkInput()
+	{
+		if ( errorMessage.length() > 0 )
+		{
+			return false;
+		}
+		else if ( image == null )
+		{
+			errorMessage = "IncrementalScaleSpace: [Image<A> img] is null.";
+			return false;
+		}
+		else if ( processFactory == null )
+		{
+			errorMessage = "IncrementalScaleSpace: [ImageFactory<B> processFactory] is null.";
+			return false;
+		}
+		else
+			return true;
+	}
+
+	@Override
+	public String getErrorMessage() { return errorMessage; }
+
+	@Override
+	public long getProcessingTime() { return processingTime; }
+
+	@Override
+	public void setNumThreads() { this.numThreads = Runtime.getRuntime().availableProcessors(); }
+
+	@Override
+	public void setNumThreads( final int numThreads ) { this.numThreads = numThreads; }
+
+	@Override
+	public int getNumThreads() { return numThreads; }
+
+	/**
+	 * @return the first position of a slab when dividing [min, max) into numSlabs slabs
+	 */
+	final private static int getSlabStart( final int slab, final int numSlabs, final int min, final int max )
+	{
+		return min + (int)( (long)slab * ( max - min ) / numSlabs );
+	}
+
+	/**
+	 * Moves to the start of the next line in dimension 0 within [min, max)
+	 *
+	 * @return false if there is no next line
+	 */
+	final private static boolean nextLine( final int[] position, final int[] min, final int[] max )
+	{
+		for ( int d = 1; d < position.length; ++d )
+		{
+			if ( ++position[ d ] < max[ d ] )
+				return true;
+
+			position[ d ] = min[ d ];
+		}
+
+		return false;
+	}
+}
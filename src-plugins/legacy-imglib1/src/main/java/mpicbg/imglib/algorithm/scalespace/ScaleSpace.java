@@ -100,38 +100,10 @@ public boolean process()
 	{
 		final long startTime = System.currentTimeMillis();
 		
-		//
-		// compute the input image by upsampling or converting
-		//
-		final Image<B> input;
+		final Image<B> input = computeInput();
 		
-		if ( initialSigma < 1.0 )
-		{
-			input = upSample( image, processFactory, converter );
-			
-			imageSigma *= 2.0;
-			initialSigma *= 2.0;
-			scale = 2.0;
-		}
-		else
-		{
-			input = convert( image, processFactory, converter );
-		}
-	
 		if ( input == null )
-		{
-			errorMessage = "Error creating input image: " + errorMessage;
 			return false;
-		}
-		
-		//
-		// normalize the image to [0 ... 1]
-		//
-		if ( !normImageMinMax( input ) )
-		{
-			input.close();
-			return false;
-		}
 
 		//
 		// compute the necessary sigmas and normalization
@@ -204,6 +176,49 @@ public boolean process()
 		return true;
 	}
 	
+	/**
+	 * Computes the input image by upsampling or converting, and normalizes it to [0 ... 1]
+	 * 
+	 * @return the input image or null if it could not be created
+	 */
+	protected Image<B> computeInput()
+	{
+		//
+		// compute the input image by upsampling or converting
+		//
+		final Image<B> input;
+		
+		if ( initialSigma < 1.0 )
+		{
+			input = upSample( image, processFactory, converter );
+			
+			imageSigma *= 2.0;
+			initialSigma *= 2.0;
+			scale = 2.0;
+		}
+		else
+		{
+			input = convert( image, processFactory, converter );
+		}
+	
+		if ( input == null )
+		{
+			errorMessage = "Error creating input image: " + errorMessage;
+			return null;
+		}
+		
+		//
+		// normalize the image to [0 ... 1]
+		//
+		if ( !normImageMinMax( input ) )
+		{
+			input.close();
+			return null;
+		}
+		
+		return input;
+	}
+	
 	protected Image<B> computeScaleSpace( final Image<B> image, final double[] sigma, double norm, final ContainerFactory factory )
 	{ 
 		// compute the dimensions for the scale space
@@ -0,0 +1,186 @@
+/*
+ * #%L
+ * ImgLib: a general-purpose, multidimensional image processing library.
+ * %%
+ * Copyright (C) 2009 - 2013 Stephan Preibisch, Tobias Pietzsch, Barry DeZonia,
+ * Stephan Saalfeld, Albert Cardona, Curtis Rueden, Christian Dietz, Jean-Yves
+ * Tinevez, Johannes Schindelin, Lee Kamentsky, Larry Lindsey, Grant Harris,
+ * Mark Hiner, Aivar Grislis, Martin Horn, Nick Perry, Michael Zinsmaier,
+ * Steffen Jaensch, Jan Funke, Mark Longair, and Dimiter Prodanov.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import mpicbg.imglib.algorithm.OutputAlgorithm;
+import mpicbg.imglib.algorithm.fft.FourierConvolution;
+import mpicbg.imglib.algorithm.fft.TiledFourierConvolution;
+import mpicbg.imglib.container.array.ArrayContainerFactory;
+import mpicbg.imglib.cursor.Cursor;
+import mpicbg.imglib.image.Image;
+import mpicbg.imglib.image.ImageFactory;
+import mpicbg.imglib.type.numeric.real.FloatType;
+
+/**
+ * Compares {@link FourierConvolution} and {@link TiledFourierConvolution} on a series of
+ * random images convolved with the same Gaussian kernel, reporting the time per image,
+ * the peak heap usage and the largest difference between both results.
+ *
+ * Usage: TiledFourierConvolutionBenchmark [width height depth [sigma [blockSize [numImages]]]]
+ */
+public class TiledFourierConvolutionBenchmark {
+
+	public static void main(String[] args) {
+
+		final int[] size = args.length >= 3 ?
+				new int[] { Integer.parseInt(args[0]), Integer.parseInt(args[1]), Integer.parseInt(args[2]) } :
+				new int[] { 512, 512, 128 };
+		final double sigma = args.length >= 4 ? Double.parseDouble(args[3]) : 3;
+		final int blockSize = args.length >= 5 ? Integer.parseInt(args[4]) : TiledFourierConvolution.defaultBlockSize;
+		final int numImages = args.length >= 6 ? Integer.parseInt(args[5]) : 3;
+
+		final Image<FloatType> kernel = FourierConvolution.createGaussianKernel(new ArrayContainerFactory(), sigma, size.length);
+		final Image<FloatType>[] images = createImages(size, numImages);
+
+		System.out.println("Image " + size[0] + "x" + size[1] + "x" + size[2] + ", kernel " +
+				kernel.getDimension(0) + "^3, " + numImages + " images, block size " + blockSize);
+
+		final FourierConvolution<FloatType, FloatType> full = new FourierConvolution<FloatType, FloatType>(images[0], kernel);
+		final Image<FloatType>[] fullResults = run("Whole image", full, images, new Replacer() {
+			public void replace(Image<FloatType> img) { full.replaceImage(img); }
+		});
+
+		final TiledFourierConvolution<FloatType, FloatType> tiled = new TiledFourierConvolution<FloatType, FloatType>(images[0], kernel,
+				new int[] { blockSize, blockSize, blockSize });
+		final Image<FloatType>[] tiledResults = run("Tiled", tiled, images, new Replacer() {
+			public void replace(Image<FloatType> img) { tiled.replaceImage(img); }
+		});
+
+		System.out.println("Tiled FFT size: " + tiled.getFFTSize()[0] + "x" + tiled.getFFTSize()[1] + "x" + tiled.getFFTSize()[2]);
+
+		float maxDiff = 0;
+		for (int i = 0; i < numImages; i++) {
+			final Cursor<FloatType> c1 = fullResults[i].createCursor();
+			final Cursor<FloatType> c2 = tiledResults[i].createCursor();
+			while (c1.hasNext()) {
+				c1.fwd();
+				c2.fwd();
+				maxDiff = Math.max(maxDiff, Math.abs(c1.getType().get() - c2.getType().get()));
+			}
+			c1.close();
+			c2.close();
+		}
+		System.out.println("Largest difference: " + maxDiff);
+	}
+
+	interface Replacer {
+		void replace(Image<FloatType> img);
+	}
+
+	static Image<FloatType>[] run(final String name, final OutputAlgorithm<FloatType> algorithm,
+			final Image<FloatType>[] images, final Replacer replacer) {
+
+		@SuppressWarnings("unchecked")
+		final Image<FloatType>[] results = new Image[images.length];
+
+		final MemoryMonitor monitor = new MemoryMonitor();
+		monitor.start();
+
+		for (int i = 0; i < images.length; i++) {
+			replacer.replace(images[i]);
+
+			final long start = System.currentTimeMillis();
+			if (!algorithm.checkInput() || !algorithm.process()) {
+				System.out.println(name + " failed: " + algorithm.getErrorMessage());
+				System.exit(1);
+			}
+			final long end = System.currentTimeMillis();
+
+			results[i] = algorithm.getResult();
+			System.out.println(String.format("%s, image %d: %.2f s", name, i, (end-start)/1e3f));
+		}
+
+		final long peak = monitor.finish();
+		System.out.println(String.format("%s: peak heap above baseline %.1f MB", name, peak / 1024f / 1024f));
+
+		return results;
+	}
+
+	@SuppressWarnings("unchecked")
+	static Image<FloatType>[] createImages(final int[] size, final int numImages) {
+		final ImageFactory<FloatType> factory = new ImageFactory<FloatType>(new FloatType(), new ArrayContainerFactory());
+		final Image<FloatType>[] images = new Image[numImages];
+		final Random random = new Random(42);
+
+		for (int i = 0; i < numImages; i++) {
+			images[i] = factory.createImage(size);
+			final Cursor<FloatType> c = images[i].createCursor();
+			while (c.hasNext()) {
+				c.fwd();
+				c.getType().set(random.nextFloat() * 255);
+			}
+			c.close();
+		}
+
+		return images;
+	}
+
+	/**
+	 * Samples the used heap until finished, relative to the usage when started.
+	 */
+	static class MemoryMonitor extends Thread {
+		final AtomicBoolean running = new AtomicBoolean(true);
+		final AtomicLong peak = new AtomicLong(0);
+		long baseline;
+
+		static long used() {
+			final Runtime runtime = Runtime.getRuntime();
+			return runtime.totalMemory() - runtime.freeMemory();
+		}
+
+		public synchronized void start() {
+			System.gc();
+			baseline = used();
+			super.start();
+		}
+
+		public void run() {
+			while (running.get()) {
+				final long used = used() - baseline;
+				if (used > peak.get())
+					peak.set(used);
+				try {
+					Thread.sleep(5);
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		}
+
+		public long finish() {
+			running.set(false);
+			try {
+				join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return peak.get();
+		}
+	}
+}